@@ -6,6 +6,7 @@ package org.nebula.contrib.ngbatis;
 
 import java.util.Map;
 import org.nebula.contrib.ngbatis.models.MethodModel;
+import org.nebula.contrib.ngbatis.proxy.InvocationPlan;
 
 /**
  * 参数解析器。
@@ -16,4 +17,15 @@ public interface ArgsResolver {
 
   Map<String, Object> resolve(MethodModel methodModel, Object... args);
 
+  /**
+   * 按方法的调用计划解析参数，可以直接使用计划中预先取得的参数名。
+   * 默认按方法模型解析。
+   * @param plan 方法的调用计划
+   * @param args 接口参数
+   * @return 参数名与参数值
+   */
+  default Map<String, Object> resolve(InvocationPlan plan, Object... args) {
+    return resolve(plan.getMethodModel(), args);
+  }
+
 }
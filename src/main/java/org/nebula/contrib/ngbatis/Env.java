@@ -6,9 +6,23 @@ package org.nebula.contrib.ngbatis;
 
 import com.alibaba.fastjson.parser.ParserConfig;
 import com.vesoft.nebula.client.graph.net.Session;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import org.nebula.contrib.ngbatis.cache.CountCache;
+import org.nebula.contrib.ngbatis.cache.QueryCache;
+import org.nebula.contrib.ngbatis.cache.SingleFlight;
+import org.nebula.contrib.ngbatis.cache.TagStats;
+import org.nebula.contrib.ngbatis.config.NgbatisConfig.PageStrategy;
 import org.nebula.contrib.ngbatis.config.ParseCfgProps;
 import org.nebula.contrib.ngbatis.models.MapperContext;
+import org.nebula.contrib.ngbatis.models.StatementType;
+import org.nebula.contrib.ngbatis.proxy.BatchWriter;
 import org.nebula.contrib.ngbatis.proxy.MapperProxy;
+import org.nebula.contrib.ngbatis.proxy.SelectByIdBatcher;
+import org.nebula.contrib.ngbatis.session.BulkheadRegistry;
+import org.nebula.contrib.ngbatis.session.HostRouter;
+import org.nebula.contrib.ngbatis.session.LocalSession;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.ApplicationContext;
@@ -46,6 +60,50 @@ public class Env {
 
   private SessionDispatcher dispatcher;
   private MapperContext mapperContext;
+  /**
+   * 多个 graphd 之间的路由器，未开启 nebula.ngbatis.host-routing 时为 null
+   */
+  private HostRouter hostRouter;
+  /**
+   * 按 mapper 或方法划分的会话配额，未配置 nebula.ngbatis.bulkheads 时为 null
+   */
+  private BulkheadRegistry bulkheads;
+  /**
+   * nebula.hosts 中 read、write 组各自的会话调度器，未分组时为空
+   */
+  private Map<String, SessionDispatcher> groupDispatchers = Collections.emptyMap();
+  /**
+   * 自动分页时统计与分页语句的执行方式，为 null 时按各分页入口原有的方式执行
+   */
+  private PageStrategy pageStrategy;
+  /**
+   * 并发分页与逐块遍历预取的线程池，为 null 时使用按默认配置创建的线程池
+   */
+  private ExecutorService pageExecutor;
+  /**
+   * 分页查询的总数缓存，未开启 nebula.ngbatis.count-cache 时为 null
+   */
+  private CountCache countCache;
+  /**
+   * 查询结果缓存，未开启 nebula.ngbatis.query-cache 时为 null
+   */
+  private QueryCache queryCache;
+  /**
+   * 相同读查询的合并执行，未开启 nebula.ngbatis.single-flight 时为 null
+   */
+  private SingleFlight singleFlight;
+  /**
+   * selectById 的批量合并器，未开启 nebula.ngbatis.id-batch 时为 null
+   */
+  private SelectByIdBatcher idBatcher;
+  /**
+   * 写缓冲，未开启 nebula.ngbatis.write-behind 时为 null
+   */
+  private BatchWriter batchWriter;
+  /**
+   * 各标签的近似点数，未开启 nebula.ngbatis.approximate-count 时为 null
+   */
+  private TagStats tagStats;
 
   public Env() {
   }
@@ -95,10 +153,36 @@ public class Env {
   }
 
   /**
-   * <p>获取nebula graph的会话。</p>
+   * 按语句的读写类型获取会话调度器，没有对应的地址组时使用默认的调度器
+   * @param type 读写类型，为 null 时使用默认的调度器
+   * @return 会话调度器
+   */
+  public SessionDispatcher getDispatcher(StatementType type) {
+    if (type == null || groupDispatchers.isEmpty()) {
+      return dispatcher;
+    }
+    SessionDispatcher groupDispatcher = groupDispatchers.get(type.getGroup());
+    return groupDispatcher != null ? groupDispatcher : dispatcher;
+  }
+
+  public Map<String, SessionDispatcher> getGroupDispatchers() {
+    return groupDispatchers;
+  }
+
+  public void setGroupDispatchers(Map<String, SessionDispatcher> groupDispatchers) {
+    this.groupDispatchers = groupDispatchers == null
+        ? Collections.emptyMap()
+        : groupDispatchers;
+  }
+
+  /**
+   * <p>获取nebula graph的会话。开启多地址路由时，会话开在当前最空闲的 graphd 上。</p>
    * @return session
    */
   public Session openSession() {
+    if (hostRouter != null) {
+      return hostRouter.open(username, password, reconnect).getSession();
+    }
     try {
       return mapperContext.getNebulaPool().getSession(username, password, reconnect);
     } catch (Throwable e) {
@@ -106,6 +190,97 @@ public class Env {
     }
   }
 
+  /**
+   * <p>获取本地会话。开启多地址路由时，会话开在当前最空闲的 graphd 上。</p>
+   * @return 本地会话
+   */
+  public LocalSession openLocalSession() {
+    if (hostRouter != null) {
+      return hostRouter.open(username, password, reconnect);
+    }
+    return new LocalSession(System.currentTimeMillis(), openSession());
+  }
+
+  public HostRouter getHostRouter() {
+    return hostRouter;
+  }
+
+  public void setHostRouter(HostRouter hostRouter) {
+    this.hostRouter = hostRouter;
+  }
+
+  public PageStrategy getPageStrategy() {
+    return pageStrategy;
+  }
+
+  public void setPageStrategy(PageStrategy pageStrategy) {
+    this.pageStrategy = pageStrategy;
+  }
+
+  public ExecutorService getPageExecutor() {
+    return pageExecutor;
+  }
+
+  public void setPageExecutor(ExecutorService pageExecutor) {
+    this.pageExecutor = pageExecutor;
+  }
+
+  public CountCache getCountCache() {
+    return countCache;
+  }
+
+  public void setCountCache(CountCache countCache) {
+    this.countCache = countCache;
+  }
+
+  public QueryCache getQueryCache() {
+    return queryCache;
+  }
+
+  public void setQueryCache(QueryCache queryCache) {
+    this.queryCache = queryCache;
+  }
+
+  public SingleFlight getSingleFlight() {
+    return singleFlight;
+  }
+
+  public void setSingleFlight(SingleFlight singleFlight) {
+    this.singleFlight = singleFlight;
+  }
+
+  public SelectByIdBatcher getIdBatcher() {
+    return idBatcher;
+  }
+
+  public void setIdBatcher(SelectByIdBatcher idBatcher) {
+    this.idBatcher = idBatcher;
+  }
+
+  public BatchWriter getBatchWriter() {
+    return batchWriter;
+  }
+
+  public void setBatchWriter(BatchWriter batchWriter) {
+    this.batchWriter = batchWriter;
+  }
+
+  public TagStats getTagStats() {
+    return tagStats;
+  }
+
+  public void setTagStats(TagStats tagStats) {
+    this.tagStats = tagStats;
+  }
+
+  public BulkheadRegistry getBulkheads() {
+    return bulkheads;
+  }
+
+  public void setBulkheads(BulkheadRegistry bulkheads) {
+    this.bulkheads = bulkheads;
+  }
+
 
   public String getUsername() {
     return username;
@@ -1,6 +1,7 @@
 package org.nebula.contrib.ngbatis;
 
 import static org.nebula.contrib.ngbatis.models.ClassModel.PROXY_SUFFIX;
+import static org.nebula.contrib.ngbatis.proxy.NebulaDaoBasicExt.daoBasicMethods;
 import static org.nebula.contrib.ngbatis.proxy.NebulaDaoBasicExt.entityTypeAndIdType;
 import static org.nebula.contrib.ngbatis.proxy.NebulaDaoBasicExt.vertexName;
 
@@ -8,13 +9,17 @@ import com.vesoft.nebula.client.graph.net.NebulaPool;
 import java.lang.annotation.Annotation;
 import java.net.UnknownHostException;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Map;
 import org.nebula.contrib.ngbatis.config.NebulaJdbcProperties;
 import org.nebula.contrib.ngbatis.config.ParseCfgProps;
 import org.nebula.contrib.ngbatis.io.DaoResourceLoader;
+import org.nebula.contrib.ngbatis.io.MapperWatcher;
 import org.nebula.contrib.ngbatis.models.ClassModel;
 import org.nebula.contrib.ngbatis.models.MapperContext;
+import org.nebula.contrib.ngbatis.models.StatementType;
 import org.nebula.contrib.ngbatis.proxy.MapperProxyClassGenerator;
+import org.nebula.contrib.ngbatis.proxy.NebulaDaoBasic;
 import org.nebula.contrib.ngbatis.proxy.RamClassLoader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -64,13 +69,28 @@ class NgbatisBeanFactoryPostProcessor implements BeanFactoryPostProcessor, Order
     context.setResourceRefresh(parseCfgProps.isResourceRefresh());
     Map<String, ClassModel> interfaces = daoBasicResourceLoader.load();
     Map<String, String> daoBasicTpl = daoBasicResourceLoader.loadTpl();
-    context.setDaoBasicTpl(daoBasicTpl);
+    Map<String, StatementType> daoBasicStatementTypes =
+        daoBasicResourceLoader.loadStatementTypes();
     context.setNebulaPool(nebulaPool);
-    context.setInterfaces(interfaces);
     context.setNebulaPoolConfig(nebulaJdbcProperties.getPoolConfig());
-    figureTagTypeMapping(interfaces.values(), context.getTagTypeMapping());
-
-    registerBean(context);
+    Map<String, Class<?>> tagTypeMapping = new HashMap<>(context.getTagTypeMapping());
+    figureTagTypeMapping(interfaces.values(), tagTypeMapping);
+    figureDaoBasicMethods(interfaces.values(), daoBasicTpl, daoBasicStatementTypes);
+
+    registerBean(interfaces);
+    // 代理类生成后，类模型与方法模型不再修改，整体发布为一个快照
+    interfaces.values().forEach(ClassModel::freeze);
+    context.update(snapshot -> snapshot
+        .withInterfaces(interfaces)
+        .withDaoBasicTpl(daoBasicTpl)
+        .withDaoBasicStatementTypes(daoBasicStatementTypes)
+        .withTagTypeMapping(tagTypeMapping)
+    );
+    if (parseCfgProps.isResourceRefresh()) {
+      // 只重新解析被修改的 xml，新的类模型整体替换进快照
+      new MapperWatcher(daoBasicResourceLoader, context,
+          parseCfgProps.getResourceRefreshInterval()).start();
+    }
     return context;
   }
 
@@ -95,21 +115,41 @@ class NgbatisBeanFactoryPostProcessor implements BeanFactoryPostProcessor, Order
 
   }
 
+  /**
+   * 为继承了 NebulaDaoBasic 的 dao 预先构建基类方法的方法模型
+   *
+   * @param classModels  类模型
+   * @param daoBasicTpl 基类方法名与语句模板
+   * @param statementTypes 基类方法名与语句类型
+   */
+  private void figureDaoBasicMethods(Collection<ClassModel> classModels,
+      Map<String, String> daoBasicTpl, Map<String, StatementType> statementTypes) {
+    for (ClassModel classModel : classModels) {
+      if (NebulaDaoBasic.class.isAssignableFrom(classModel.getNamespace())) {
+        classModel.setDaoBasicMethods(
+            daoBasicMethods(classModel.getNamespace(), daoBasicTpl, statementTypes));
+      }
+    }
+  }
+
   /**
    * 为所有的动态代理类 注册Bean到SpringBoot
    *
-   * @param context Ngbatis上下文
+   * @param interfaces 接口全限定名（带代理后缀）与类模型
    */
-  private void registerBean(MapperContext context) {
-    Map<String, ClassModel> interfaces = context.getInterfaces();
+  private void registerBean(Map<String, ClassModel> interfaces) {
     for (ClassModel cm : interfaces.values()) {
       beanFactory.setClassCode(cm);
     }
-    RamClassLoader ramClassLoader = new RamClassLoader(context.getInterfaces());
+    RamClassLoader ramClassLoader = new RamClassLoader(interfaces);
     for (ClassModel cm : interfaces.values()) {
       try {
         String className = cm.getNamespace().getName() + PROXY_SUFFIX;
-        registerBean(cm, ramClassLoader.loadClass(className));
+        Class<?> proxy = ramClassLoader.loadClass(className);
+        // xml 热加载后按代理类重新设置调用计划
+        cm.setClazz(proxy);
+        MapperProxyClassGenerator.bindPlans(proxy, cm);
+        registerBean(cm, proxy);
         log.info("Bean had been registed  (代理类注册成bean): {}", className);
       } catch (ClassNotFoundException e) {
         e.printStackTrace();
@@ -160,11 +200,14 @@ class NgbatisBeanFactoryPostProcessor implements BeanFactoryPostProcessor, Order
 
 
   /**
-   * 创建 Nebula 连接池
+   * 创建 Nebula 连接池。开启多地址路由时，会话由各地址单独的连接池创建，不再创建默认连接池
    *
-   * @return Nebula 连接池
+   * @return Nebula 连接池，开启多地址路由时为 null
    */
   public NebulaPool nebulaPool() {
+    if (nebulaJdbcProperties.isHostRoutingEnabled()) {
+      return null;
+    }
     NebulaPool pool = new NebulaPool();
     try {
       pool.init(
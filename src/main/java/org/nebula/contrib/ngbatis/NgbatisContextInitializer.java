@@ -57,7 +57,10 @@ public class NgbatisContextInitializer implements ApplicationContextInitializer
       .setStatementEnd(environment.getProperty("cql.parser.statement-end"))
       .setStatementStart(environment.getProperty("cql.parser.statement-start"))
       .setResourceRefresh(
-        environment.getProperty("cql.parser.statement-start", Boolean.class)
+        environment.getProperty("cql.parser.resource-refresh", Boolean.class)
+      )
+      .setResourceRefreshInterval(
+        environment.getProperty("cql.parser.resource-refresh-interval", Long.class)
       );
   }
 
@@ -6,6 +6,7 @@ package org.nebula.contrib.ngbatis;
 
 import com.vesoft.nebula.client.graph.data.ResultSet;
 import org.nebula.contrib.ngbatis.models.MethodModel;
+import org.nebula.contrib.ngbatis.proxy.InvocationPlan;
 
 /**
  * 结果解析接口。
@@ -17,4 +18,16 @@ public interface ResultResolver {
 
   <T> T resolve(MethodModel methodModel, ResultSet result);
 
+  /**
+   * 按方法的调用计划解析结果集，可以直接使用计划中已经找到的结果集处理器。
+   * 默认按方法模型解析。
+   * @param plan 方法的调用计划
+   * @param result 结果集
+   * @param <T> 结果类型
+   * @return 结果集转换后的 java 对象
+   */
+  default <T> T resolve(InvocationPlan plan, ResultSet result) {
+    return resolve(plan.getMethodModel(), result);
+  }
+
 }
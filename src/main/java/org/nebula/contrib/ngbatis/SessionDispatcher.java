@@ -4,6 +4,7 @@ package org.nebula.contrib.ngbatis;
 //
 // This source code is licensed under Apache 2.0 License.
 
+import java.util.List;
 import org.nebula.contrib.ngbatis.session.LocalSession;
 
 /**
@@ -18,4 +19,26 @@ public interface SessionDispatcher {
   void offer(LocalSession session);
 
   LocalSession poll();
+
+  /**
+   * 获取一个会话，可以的话优先给出已经处于目标 space 的会话，以省去 USE 语句。
+   * @param space 接下来要执行语句的 space
+   * @return 本地会话
+   */
+  default LocalSession poll(String space) {
+    return poll();
+  }
+
+  /**
+   * 启动时预先创建会话，并依次绑定到给定的 space，完成前不返回。
+   * @param spaces 需要预先绑定的 space，默认 space 在前
+   */
+  default void warmUp(List<String> spaces) {
+  }
+
+  /**
+   * 启动定时检查等后台任务，在环境初始化与预热完成之后调用。
+   */
+  default void start() {
+  }
 }
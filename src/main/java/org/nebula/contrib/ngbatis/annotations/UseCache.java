@@ -0,0 +1,27 @@
+package org.nebula.contrib.ngbatis.annotations;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * <p>缓存 xml 中查询方法的结果，与在 &lt;select&gt; 上声明 cache="true" 或 cache="毫秒数" 等效，
+ * 两者都有时以 xml 为准。</p>
+ * <p>需开启 nebula.ngbatis.query-cache，以渲染后的 nGQL 与参数为键，
+ * 语句所涉及的标签发生写入后失效。缓存的结果被各调用方共享，不应修改。</p>
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface UseCache {
+
+  /**
+   * 过期时间（ms），不大于 0 时使用 nebula.ngbatis.query-cache-ttl
+   * @return 过期时间
+   */
+  long ttl() default 0;
+}
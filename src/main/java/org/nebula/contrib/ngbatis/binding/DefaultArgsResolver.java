@@ -38,6 +38,7 @@ import java.util.Map;
 import java.util.Set;
 import org.nebula.contrib.ngbatis.ArgsResolver;
 import org.nebula.contrib.ngbatis.models.MethodModel;
+import org.nebula.contrib.ngbatis.proxy.InvocationPlan;
 import org.nebula.contrib.ngbatis.utils.ReflectUtil;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Component;
@@ -153,42 +154,76 @@ public class DefaultArgsResolver implements ArgsResolver {
     return (T) param;
   }
 
-  @SuppressWarnings("unchecked")
   @Override
   public Map<String, Object> resolve(MethodModel methodModel, Object... args) {
     if (args.length == 0) {
       return Collections.emptyMap();
     }
     int len = methodModel.getParameterCount();
-    Map<String, Object> result = new LinkedHashMap<>();
+    String[] paramNames = new String[len];
     Annotation[][] parameterAnnotations = methodModel.getParameterAnnotations();
     for (int i = 0; i < len; i++) {
       Annotation[] annotationArgIndex = parameterAnnotations[i];
       int annoLen = annotationArgIndex == null ? 0 : annotationArgIndex.length;
-      boolean notFoundParamAnno = true;
       for (int j = 0; j < annoLen; j++) {
         if (annotationArgIndex[j] instanceof Param) {
-          Param annotationArgIndex1 = (Param) annotationArgIndex[j];
-          String key = annotationArgIndex1.value();
-          result.put(key, JSON.toJSON(args[i]));
-          notFoundParamAnno = false;
-        }
-      }
-      if (notFoundParamAnno) {
-        Class<?> paramClass = args[i].getClass();
-        if (isBaseType(paramClass)) {
-          result.put("p" + i, JSON.toJSON(args[i]));
-        } else if (args[i] instanceof Collection) {
-          result.put("p" + i, toNebulaValueType(args[i]));
-        } else {
-          if (len == 1) {
-            result = toNebulaValueType(args[0]);
-          } else {
-            result.put("p" + i, toNebulaValueType(args[i]));
-          }
+          paramNames[i] = ((Param) annotationArgIndex[j]).value();
         }
       }
     }
+    return resolve(paramNames, args);
+  }
+
+  /**
+   * 使用调用计划中预先取得的参数名，不再每次反射参数注解
+   */
+  @Override
+  public Map<String, Object> resolve(InvocationPlan plan, Object... args) {
+    if (args.length == 0) {
+      return Collections.emptyMap();
+    }
+    int len = plan.getParameterCount();
+    Map<String, Object> result = new LinkedHashMap<>();
+    for (int i = 0; i < len; i++) {
+      result = resolveArg(result, plan.getParamName(i), i, len, args);
+    }
+    return result;
+  }
+
+  private Map<String, Object> resolve(String[] paramNames, Object... args) {
+    int len = paramNames.length;
+    Map<String, Object> result = new LinkedHashMap<>();
+    for (int i = 0; i < len; i++) {
+      result = resolveArg(result, paramNames[i], i, len, args);
+    }
+    return result;
+  }
+
+  /**
+   * 把下标处的参数放入参数表，唯一的参数是没有注解的对象时，以对象的属性作为参数表
+   * @param result 已解析的参数表
+   * @param key 参数在 {@link Param} 注解中声明的参数名，没有注解时为 null
+   * @param i 参数下标
+   * @param len 参数个数
+   * @param args 执行数据库操作的参数
+   * @return 放入参数后的参数表
+   */
+  private Map<String, Object> resolveArg(Map<String, Object> result, String key, int i,
+      int len, Object[] args) {
+    if (key != null) {
+      result.put(key, JSON.toJSON(args[i]));
+      return result;
+    }
+    Class<?> paramClass = args[i].getClass();
+    if (isBaseType(paramClass)) {
+      result.put("p" + i, JSON.toJSON(args[i]));
+    } else if (args[i] instanceof Collection) {
+      result.put("p" + i, toNebulaValueType(args[i]));
+    } else if (len == 1) {
+      return toNebulaValueType(args[0]);
+    } else {
+      result.put("p" + i, toNebulaValueType(args[i]));
+    }
     return result;
   }
 
@@ -8,6 +8,7 @@ import com.vesoft.nebula.client.graph.data.ResultSet;
 import org.nebula.contrib.ngbatis.ResultHandler;
 import org.nebula.contrib.ngbatis.ResultResolver;
 import org.nebula.contrib.ngbatis.models.MethodModel;
+import org.nebula.contrib.ngbatis.proxy.InvocationPlan;
 import org.nebula.contrib.ngbatis.utils.ReflectUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -54,5 +55,18 @@ public class DefaultResultResolver implements ResultResolver {
     return handler.handle(returnType, result, resultType);
   }
 
+  @Override
+  public Object resolve(InvocationPlan plan, ResultSet result) {
+    Class returnType = plan.getReturnType();
+    if (returnType == void.class) {
+      return null;
+    }
+    ResultHandler<Object, Object> handler = plan.getResultHandler();
+    if (handler == null) {
+      return result;
+    }
+    return handler.handle(returnType, result, plan.getResultType());
+  }
+
 
 }
@@ -0,0 +1,184 @@
+package org.nebula.contrib.ngbatis.cache;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 分页查询的总数缓存。
+ * <p>同一查询条件翻页时，每页都会执行一次 $Count 查询，而总数在翻页期间通常不变。
+ * 缓存以 {@link CountKey} 为键，按过期时间与最大数量（最近最少使用）淘汰；
+ * 查询所涉及的标签发生写入后，缓存的总数即失效，见 {@link TagVersions}。</p>
+ */
+public class CountCache {
+
+  private final long ttl;
+  private final int maxSize;
+  private final TagVersions tagVersions = new TagVersions();
+  private final ReentrantLock lock = new ReentrantLock();
+  private final LinkedHashMap<CountKey, Entry> entries;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  /**
+   * 分页查询的总数缓存
+   * @param ttl 过期时间，单位 ms
+   * @param maxSize 最多缓存的总数个数
+   */
+  public CountCache(long ttl, int maxSize) {
+    this.ttl = ttl;
+    this.maxSize = maxSize;
+    this.entries = new LinkedHashMap<CountKey, Entry>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<CountKey, Entry> eldest) {
+        boolean evict = size() > CountCache.this.maxSize;
+        if (evict) {
+          evictions.increment();
+        }
+        return evict;
+      }
+    };
+  }
+
+  /**
+   * 查询能否缓存：能从 nGQL 中找出所涉及的标签，才能在写入后使其失效
+   * @param key 缓存键
+   * @return 是否可以缓存
+   */
+  public boolean isCacheable(CountKey key) {
+    return key.getTags().length > 0;
+  }
+
+  /**
+   * 取出缓存的总数
+   * @param key 缓存键
+   * @return 总数，没有缓存、已过期或期间发生了相关写入时为 null
+   */
+  public Long get(CountKey key) {
+    lock.lock();
+    try {
+      Entry entry = entries.get(key);
+      if (entry != null
+          && (entry.expireAt < System.currentTimeMillis()
+            || !tagVersions.isCurrent(key.getTags(), entry.versions))) {
+        entries.remove(key);
+        entry = null;
+      }
+      if (entry == null) {
+        misses.increment();
+        return null;
+      }
+      hits.increment();
+      return entry.count;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * 执行 $Count 查询前记下所涉及标签的版本，存入结果时据此判断查询期间是否发生了写入
+   * @param key 缓存键
+   * @return 标签版本
+   */
+  public long[] versionsOf(CountKey key) {
+    return tagVersions.versionsOf(key.getTags());
+  }
+
+  /**
+   * 存入总数，查询期间发生了相关写入时不存入
+   * @param key 缓存键
+   * @param count 总数
+   * @param versions 查询前 {@link #versionsOf(CountKey)} 的结果
+   */
+  public void put(CountKey key, long count, long[] versions) {
+    lock.lock();
+    try {
+      if (tagVersions.isCurrent(key.getTags(), versions)) {
+        entries.put(key, new Entry(count, System.currentTimeMillis() + ttl, versions));
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * 执行了写语句，使其所写入标签的缓存失效；无法确定标签时使所有缓存失效
+   * @param gql 执行成功的写语句
+   */
+  public void written(String gql) {
+    tagVersions.written(gql);
+  }
+
+  /**
+   * 使涉及这些标签的缓存失效，没有标签时使所有缓存失效
+   * @param tags 标签名
+   */
+  public void invalidate(Collection<String> tags) {
+    tagVersions.bump(tags);
+  }
+
+  /**
+   * 使所有缓存失效
+   */
+  public void invalidateAll() {
+    tagVersions.bumpAll();
+  }
+
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  /**
+   * 因超出最大数量而淘汰的个数，不含过期与写入后失效的
+   * @return 淘汰个数
+   */
+  public long getEvictionCount() {
+    return evictions.sum();
+  }
+
+  /**
+   * 命中率
+   * @return 0 ~ 1，尚未查询过时为 0
+   */
+  public double getHitRate() {
+    long hit = hits.sum();
+    long total = hit + misses.sum();
+    return total == 0 ? 0 : (double) hit / total;
+  }
+
+  /**
+   * 当前缓存的个数，含已过期、尚未被清除的
+   * @return 个数
+   */
+  public int size() {
+    lock.lock();
+    try {
+      return entries.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private static final class Entry {
+    private final long count;
+    private final long expireAt;
+    private final long[] versions;
+
+    private Entry(long count, long expireAt, long[] versions) {
+      this.count = count;
+      this.expireAt = expireAt;
+      this.versions = versions;
+    }
+  }
+}
@@ -0,0 +1,62 @@
+package org.nebula.contrib.ngbatis.cache;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 分页总数缓存的键：方法、渲染后的 nGQL 与去掉分页位置后的参数。
+ * <p>同一查询条件翻页时，分页参数中只有起始行、页码等在变化，
+ * 去掉这些属性后各页共用同一个总数。</p>
+ */
+public final class CountKey extends QueryKey {
+
+  /**
+   * 分页参数（{@link org.nebula.contrib.ngbatis.utils.Page}）转成 map 后与总数无关的属性
+   */
+  private static final Set<String> PAGE_KEYS = Collections.unmodifiableSet(new HashSet<>(
+      Arrays.asList("pageNo", "pageSize", "startRow", "endRow", "total", "pages", "rows",
+          "approximate")
+  ));
+
+  /**
+   * 分页总数缓存的键
+   * @param cacheId 方法的标识，接口全名与方法 id
+   * @param gql 渲染后的 nGQL
+   * @param params 执行参数
+   */
+  public CountKey(String cacheId, String gql, Map<String, Object> params) {
+    super(cacheId, gql, normalize(params));
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> normalize(Map<String, Object> params) {
+    if (params == null) {
+      return Collections.emptyMap();
+    }
+    boolean isPage = isPage(params);
+    Map<String, Object> result = new LinkedHashMap<>(params.size());
+    for (Map.Entry<String, Object> entry : params.entrySet()) {
+      if (isPage && PAGE_KEYS.contains(entry.getKey())) {
+        continue;
+      }
+      Object value = entry.getValue();
+      if (value instanceof Map && isPage((Map<String, Object>) value)) {
+        value = normalize((Map<String, Object>) value);
+      }
+      result.put(entry.getKey(), value);
+    }
+    return result;
+  }
+
+  private static boolean isPage(Map<String, Object> map) {
+    return map.containsKey("startRow") && map.containsKey("pageSize");
+  }
+}
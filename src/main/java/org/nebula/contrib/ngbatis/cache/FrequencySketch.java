@@ -0,0 +1,77 @@
+package org.nebula.contrib.ngbatis.cache;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+/**
+ * 估计缓存键近期访问次数的 Count-Min Sketch，每个键占 4 个计数器，计数上限为 15。
+ * <p>记录次数达到容量的 10 倍时所有计数减半，使过去的热点逐渐冷却。
+ * 不是线程安全的，由使用方加锁。</p>
+ */
+final class FrequencySketch {
+
+  private static final int DEPTH = 4;
+  private static final int MAX_COUNT = 15;
+  private static final int[] SEEDS = {0x97cb3127, 0xd6e8feb8, 0x5c24e7a1, 0x3f84d5b5};
+
+  private final byte[] table;
+  private final int mask;
+  private final int sampleSize;
+  private int additions;
+
+  /**
+   * 访问频率估计器
+   * @param capacity 缓存的最大数量
+   */
+  FrequencySketch(int capacity) {
+    int width = Integer.highestOneBit(Math.max(capacity, 8) * 2 - 1) << 1;
+    this.table = new byte[width * DEPTH];
+    this.mask = width - 1;
+    this.sampleSize = Math.max(capacity, 1) * 10;
+  }
+
+  /**
+   * 记录一次访问
+   * @param hash 键的哈希值
+   */
+  void increment(int hash) {
+    boolean added = false;
+    for (int i = 0; i < DEPTH; i++) {
+      int index = indexOf(hash, i);
+      if (table[index] < MAX_COUNT) {
+        table[index]++;
+        added = true;
+      }
+    }
+    if (added && ++additions >= sampleSize) {
+      reset();
+    }
+  }
+
+  /**
+   * 估计访问次数
+   * @param hash 键的哈希值
+   * @return 各计数器中的最小值
+   */
+  int frequency(int hash) {
+    int frequency = MAX_COUNT;
+    for (int i = 0; i < DEPTH; i++) {
+      frequency = Math.min(frequency, table[indexOf(hash, i)]);
+    }
+    return frequency;
+  }
+
+  private int indexOf(int hash, int row) {
+    int h = (hash ^ (hash >>> 16)) * SEEDS[row];
+    h ^= h >>> 15;
+    return row * (mask + 1) + (h & mask);
+  }
+
+  private void reset() {
+    for (int i = 0; i < table.length; i++) {
+      table[i] = (byte) (table[i] >>> 1);
+    }
+    additions /= 2;
+  }
+}
@@ -0,0 +1,228 @@
+package org.nebula.contrib.ngbatis.cache;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * xml 中声明了缓存的查询方法的结果缓存。
+ * <p>以 {@link QueryKey} 为键，存放查询的原始结果集，按过期时间与最大数量淘汰。
+ * 淘汰方式参照 W-TinyLFU：新的结果先进入约占 1% 的窗口区，从窗口区挤出时，
+ * 只有估计访问次数（{@link FrequencySketch}）高于主区最近最少使用的结果，才能替换它进入主区，
+ * 避免一次性的查询把常用的结果挤出缓存。</p>
+ * <p>查询所涉及的标签通过 MapperProxy 发生写入后，缓存的结果即失效，见 {@link TagVersions}；
+ * 绕过 ngbatis 的写入无法感知，只能等待过期。</p>
+ * <p>命中时由 MapperProxy 重新经结果集处理器转换，各调用方得到各自的对象，
+ * 修改返回的 List 或实体不会影响缓存与其他调用方。</p>
+ */
+public class QueryCache {
+
+  private final long ttl;
+  private final int windowSize;
+  private final int mainSize;
+  private final TagVersions tagVersions = new TagVersions();
+  private final FrequencySketch sketch;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final LinkedHashMap<QueryKey, Entry> window = new LinkedHashMap<>(16, 0.75f, true);
+  private final LinkedHashMap<QueryKey, Entry> main = new LinkedHashMap<>(16, 0.75f, true);
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  /**
+   * 查询结果缓存
+   * @param ttl 默认的过期时间，单位 ms
+   * @param maxSize 最多缓存的结果个数
+   */
+  public QueryCache(long ttl, int maxSize) {
+    this.ttl = ttl;
+    this.windowSize = Math.max(1, maxSize / 100);
+    this.mainSize = Math.max(1, maxSize - windowSize);
+    this.sketch = new FrequencySketch(maxSize);
+  }
+
+  /**
+   * 查询能否缓存：能从 nGQL 中找出所涉及的标签，才能在写入后使其失效
+   * @param key 缓存键
+   * @return 是否可以缓存
+   */
+  public boolean isCacheable(QueryKey key) {
+    return key.getTags().length > 0;
+  }
+
+  /**
+   * 取出缓存的结果，并记录一次访问
+   * @param key 缓存键
+   * @return 结果，没有缓存、已过期或期间发生了相关写入时为 null
+   */
+  public Object get(QueryKey key) {
+    lock.lock();
+    try {
+      sketch.increment(key.hashCode());
+      Entry entry = window.get(key);
+      if (entry == null) {
+        entry = main.get(key);
+      }
+      if (entry != null
+          && (entry.expireAt < System.currentTimeMillis()
+            || !tagVersions.isCurrent(key.getTags(), entry.versions))) {
+        remove(key);
+        entry = null;
+      }
+      if (entry == null) {
+        misses.increment();
+        return null;
+      }
+      hits.increment();
+      return entry.value;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * 执行查询前记下所涉及标签的版本，存入结果时据此判断查询期间是否发生了写入
+   * @param key 缓存键
+   * @return 标签版本
+   */
+  public long[] versionsOf(QueryKey key) {
+    return tagVersions.versionsOf(key.getTags());
+  }
+
+  /**
+   * 存入结果，查询期间发生了相关写入，或结果为 null 时不存入
+   * @param key 缓存键
+   * @param value 查询的原始结果集
+   * @param ttl 过期时间（ms），不大于 0 时使用默认的过期时间
+   * @param versions 查询前 {@link #versionsOf(QueryKey)} 的结果
+   */
+  public void put(QueryKey key, Object value, long ttl, long[] versions) {
+    if (value == null) {
+      return;
+    }
+    long expireAt = System.currentTimeMillis() + (ttl > 0 ? ttl : this.ttl);
+    lock.lock();
+    try {
+      if (!tagVersions.isCurrent(key.getTags(), versions)) {
+        return;
+      }
+      Entry entry = new Entry(value, expireAt, versions);
+      if (main.containsKey(key)) {
+        main.put(key, entry);
+        return;
+      }
+      window.put(key, entry);
+      if (window.size() > windowSize) {
+        admit(window.entrySet().iterator());
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * 窗口区最久未访问的结果与主区最近最少使用的结果比较访问次数，留下次数高的
+   */
+  private void admit(Iterator<Map.Entry<QueryKey, Entry>> windowEldest) {
+    Map.Entry<QueryKey, Entry> candidate = windowEldest.next();
+    windowEldest.remove();
+    if (main.size() < mainSize) {
+      main.put(candidate.getKey(), candidate.getValue());
+      return;
+    }
+    Iterator<QueryKey> mainEldest = main.keySet().iterator();
+    QueryKey victim = mainEldest.next();
+    evictions.increment();
+    if (sketch.frequency(candidate.getKey().hashCode()) > sketch.frequency(victim.hashCode())) {
+      mainEldest.remove();
+      main.put(candidate.getKey(), candidate.getValue());
+    }
+  }
+
+  private void remove(QueryKey key) {
+    if (window.remove(key) == null) {
+      main.remove(key);
+    }
+  }
+
+  /**
+   * 执行了写语句，使其所写入标签的缓存失效；无法确定标签时使所有缓存失效
+   * @param gql 执行成功的写语句
+   */
+  public void written(String gql) {
+    tagVersions.written(gql);
+  }
+
+  /**
+   * 使涉及这些标签的缓存失效，没有标签时使所有缓存失效
+   * @param tags 标签名
+   */
+  public void invalidate(Collection<String> tags) {
+    tagVersions.bump(tags);
+  }
+
+  /**
+   * 使所有缓存失效
+   */
+  public void invalidateAll() {
+    tagVersions.bumpAll();
+  }
+
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  /**
+   * 因超出最大数量而淘汰（含未被主区接纳）的个数，不含过期与写入后失效的
+   * @return 淘汰个数
+   */
+  public long getEvictionCount() {
+    return evictions.sum();
+  }
+
+  /**
+   * 命中率
+   * @return 0 ~ 1，尚未查询过时为 0
+   */
+  public double getHitRate() {
+    long hit = hits.sum();
+    long total = hit + misses.sum();
+    return total == 0 ? 0 : (double) hit / total;
+  }
+
+  /**
+   * 当前缓存的个数，含已过期、尚未被清除的
+   * @return 个数
+   */
+  public int size() {
+    lock.lock();
+    try {
+      return window.size() + main.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private static final class Entry {
+    private final Object value;
+    private final long expireAt;
+    private final long[] versions;
+
+    private Entry(Object value, long expireAt, long[] versions) {
+      this.value = value;
+      this.expireAt = expireAt;
+      this.versions = versions;
+    }
+  }
+}
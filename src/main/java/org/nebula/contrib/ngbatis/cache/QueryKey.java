@@ -0,0 +1,73 @@
+package org.nebula.contrib.ngbatis.cache;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * 查询结果缓存的键：方法、渲染后的 nGQL 与执行参数。
+ * <p>同时记下 nGQL 所涉及的标签，其中任一标签发生写入时缓存的结果失效。</p>
+ */
+public class QueryKey {
+
+  private final String cacheId;
+  private final String gql;
+  private final Map<String, Object> params;
+  private final String[] tags;
+  private final int hash;
+
+  /**
+   * 查询结果缓存的键
+   * @param cacheId 方法的标识，接口全名与方法 id
+   * @param gql 渲染后的 nGQL
+   * @param params 执行参数
+   */
+  public QueryKey(String cacheId, String gql, Map<String, Object> params) {
+    this.cacheId = cacheId;
+    this.gql = gql;
+    this.params = params == null ? Collections.emptyMap() : params;
+    this.tags = TagVersions.tagsOf(gql).toArray(new String[0]);
+    this.hash = Objects.hash(cacheId, gql, this.params);
+  }
+
+  public String getCacheId() {
+    return cacheId;
+  }
+
+  /**
+   * 查询所涉及的标签，其中任一标签发生写入时缓存的结果失效
+   * @return 标签名
+   */
+  String[] getTags() {
+    return tags;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    QueryKey that = (QueryKey) o;
+    return hash == that.hash
+        && Objects.equals(cacheId, that.cacheId)
+        && Objects.equals(gql, that.gql)
+        && Objects.equals(params, that.params);
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    return cacheId + " " + params;
+  }
+}
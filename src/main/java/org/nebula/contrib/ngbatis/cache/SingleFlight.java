@@ -0,0 +1,130 @@
+package org.nebula.contrib.ngbatis.cache;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import com.vesoft.nebula.client.graph.data.ResultSet;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import org.nebula.contrib.ngbatis.exception.QueryException;
+
+/**
+ * 合并同时发起的相同读查询。
+ * <p>同一 space、同一渲染后的 nGQL 与参数的查询正在执行时，后来的调用不再借用会话，
+ * 而是等待正在执行的查询，共用它的 {@link ResultSet}；各调用方再各自完成结果集处理，
+ * 得到的是各自的对象。查询失败时，等待的调用方得到同一个异常。
+ * 等待超过 timeout 时抛出 {@link QueryException}，不再继续等待。</p>
+ * <p>只合并执行期间重叠的调用，查询完成后不保留结果，需要保留时使用 {@link QueryCache}。</p>
+ */
+public class SingleFlight {
+
+  /**
+   * 未给出等待时间，或连接配置中未设置查询超时时，等待相同查询的最长时间（ms）
+   */
+  public static final long DEFAULT_TIMEOUT = 30_000L;
+
+  private final long timeout;
+  private final Map<List<Object>, CompletableFuture<ResultSet>> inFlight =
+      new ConcurrentHashMap<>();
+  private final LongAdder executions = new LongAdder();
+  private final LongAdder coalesced = new LongAdder();
+
+  public SingleFlight() {
+    this(DEFAULT_TIMEOUT);
+  }
+
+  /**
+   * 合并相同的读查询
+   * @param timeout 等待正在执行的相同查询的最长时间（ms），不大于 0 时使用 {@link #DEFAULT_TIMEOUT}
+   */
+  public SingleFlight(long timeout) {
+    this.timeout = timeout > 0 ? timeout : DEFAULT_TIMEOUT;
+  }
+
+  /**
+   * 执行查询，相同的查询正在执行时等待并共用其结果
+   * @param space 执行查询的 space
+   * @param gql 渲染后的 nGQL
+   * @param params 执行参数
+   * @param query 实际执行查询的方法
+   * @return 查询结果
+   */
+  public ResultSet execute(String space, String gql, Map<String, Object> params,
+      Supplier<ResultSet> query) {
+    List<Object> key = Arrays.asList(space, gql, params);
+    CompletableFuture<ResultSet> flight = new CompletableFuture<>();
+    CompletableFuture<ResultSet> running = inFlight.putIfAbsent(key, flight);
+    if (running != null) {
+      coalesced.increment();
+      return await(running);
+    }
+    executions.increment();
+    try {
+      ResultSet result = query.get();
+      flight.complete(result);
+      return result;
+    } catch (RuntimeException | Error e) {
+      flight.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(key, flight);
+    }
+  }
+
+  private ResultSet await(CompletableFuture<ResultSet> running) {
+    try {
+      return running.get(timeout, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      throw new QueryException("等待相同查询的结果超时：" + timeout + "ms", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new QueryException("等待相同查询的结果时被中断", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new QueryException("数据查询失败：" + cause.getMessage(), cause);
+    }
+  }
+
+  /**
+   * 实际执行的查询数
+   * @return 执行次数
+   */
+  public long getExecutionCount() {
+    return executions.sum();
+  }
+
+  /**
+   * 等待并共用了正在执行的查询结果的调用数
+   * @return 合并次数
+   */
+  public long getCoalescedCount() {
+    return coalesced.sum();
+  }
+
+  /**
+   * 当前正在执行的查询数
+   * @return 查询数
+   */
+  public int getInFlightCount() {
+    return inFlight.size();
+  }
+
+  public long getTimeout() {
+    return timeout;
+  }
+}
@@ -0,0 +1,116 @@
+package org.nebula.contrib.ngbatis.cache;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import com.vesoft.nebula.client.graph.data.ResultSet;
+import java.io.UnsupportedEncodingException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 各 space 中每个标签（tag）的点数，取自 SHOW STATS，用作无过滤条件分页的近似总数。
+ * <p>某个 space 第一次被查询时开始后台刷新：每个周期先读取 SHOW STATS，
+ * 再 SUBMIT JOB STATS 让 metad 重新统计，结果在下个周期读取。
+ * 因此近似总数最多落后约两个周期；尚未有统计结果时返回 null，由调用方精确统计。</p>
+ */
+public class TagStats {
+
+  private static Logger log = LoggerFactory.getLogger(TagStats.class);
+
+  private final long refreshInterval;
+  /**
+   * 在给定 space 中执行语句，参数依次为 space 与语句
+   */
+  private final BiFunction<String, String, ResultSet> executor;
+  private final Map<String, Map<String, Long>> counts = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService scheduler;
+
+  /**
+   * 标签点数的统计信息
+   * @param refreshInterval 刷新间隔，单位 ms
+   * @param executor 在给定 space 中执行语句，参数依次为 space 与语句
+   */
+  public TagStats(long refreshInterval, BiFunction<String, String, ResultSet> executor) {
+    this.refreshInterval = refreshInterval;
+    this.executor = executor;
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "ngbatis-tag-stats");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * 标签的近似点数
+   * @param space 标签所在的 space
+   * @param tag 标签名
+   * @return 点数，尚未有统计结果时为 null
+   */
+  public Long count(String space, String tag) {
+    Map<String, Long> tags = counts.get(space);
+    if (tags == null) {
+      watch(space);
+      return null;
+    }
+    return tags.get(tag);
+  }
+
+  /**
+   * 开始定时刷新 space 的统计信息，已在刷新的 space 不重复开始
+   * @param space space 名
+   */
+  public void watch(String space) {
+    if (counts.putIfAbsent(space, Collections.emptyMap()) == null) {
+      scheduler.scheduleWithFixedDelay(
+          () -> refresh(space), 0, refreshInterval, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * 读取上一次统计的结果，并提交新的统计任务
+   * @param space space 名
+   */
+  protected void refresh(String space) {
+    try {
+      Map<String, Long> tags = read(executor.apply(space, "SHOW STATS"));
+      if (!tags.isEmpty()) {
+        counts.put(space, tags);
+      }
+    } catch (Exception e) {
+      log.debug("No stats of space {} yet: {}", space, e.getMessage());
+    }
+    try {
+      executor.apply(space, "SUBMIT JOB STATS");
+    } catch (Exception e) {
+      log.warn("Failed to submit stats job in space {}: {}", space, e.getMessage());
+    }
+  }
+
+  private static Map<String, Long> read(ResultSet result) throws UnsupportedEncodingException {
+    Map<String, Long> tags = new HashMap<>();
+    for (int i = 0; i < result.rowsSize(); i++) {
+      ResultSet.Record record = result.rowValues(i);
+      if ("Tag".equals(record.get("Type").asString())) {
+        tags.put(record.get("Name").asString(), record.get("Count").asLong());
+      }
+    }
+    return Collections.unmodifiableMap(tags);
+  }
+
+  /**
+   * 停止刷新
+   */
+  public void shutdown() {
+    scheduler.shutdownNow();
+  }
+}
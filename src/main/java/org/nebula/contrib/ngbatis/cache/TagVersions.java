@@ -0,0 +1,147 @@
+package org.nebula.contrib.ngbatis.cache;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 各标签（tag / edge type）的写入版本。
+ * <p>缓存项在查询执行前记下所涉及标签的版本，读取时版本有变化即视为失效。
+ * 写操作只需要增加对应标签的版本，不必遍历缓存；
+ * 查询执行期间发生的写入也会使随后存入的结果失效。</p>
+ */
+public class TagVersions {
+
+  /**
+   * nGQL 中的标签：模式中的 (n:tag)、[e:edge]，INSERT / UPDATE / UPSERT / DELETE 中
+   * VERTEX、EDGE 后的类型名，LOOKUP ON、FETCH PROP ON 与 GO ... OVER 后的类型名
+   */
+  private static final Pattern TAG_PATTERN = Pattern.compile(
+      "[(\\[]\\s*\\w*\\s*:\\s*`?(\\w+)`?"
+          + "|(?:VERTEX|EDGE)\\s+(?:IF\\s+NOT\\s+EXISTS\\s+)?(?:ON\\s+)?`?([A-Za-z_]\\w*)`?"
+          + "|(?:LOOKUP|PROP)\\s+ON\\s+`?(\\w+)`?"
+          + "|OVER\\s+`?(\\w+)`?",
+      Pattern.CASE_INSENSITIVE
+  );
+
+  /**
+   * 删除点时其上的边一并删除，且无法从语句得知点的标签，使所有缓存项失效
+   */
+  private static final Pattern DELETE_VERTEX = Pattern.compile(
+      "\\bDELETE\\s+VERTEX\\b", Pattern.CASE_INSENSITIVE
+  );
+
+  /**
+   * 统计等后台任务不修改数据
+   */
+  private static final Pattern SUBMIT_JOB = Pattern.compile(
+      "\\bSUBMIT\\s+JOB\\b", Pattern.CASE_INSENSITIVE
+  );
+
+  private final Map<String, AtomicLong> versions = new ConcurrentHashMap<>();
+  /**
+   * 无法确定写入了哪些标签时增加，使所有缓存项失效
+   */
+  private final AtomicLong global = new AtomicLong();
+
+  /**
+   * 从 nGQL 中找出所涉及的标签
+   * @param gql 渲染后的 nGQL
+   * @return 标签名，没有时为空集合
+   */
+  public static Set<String> tagsOf(String gql) {
+    Set<String> tags = new LinkedHashSet<>();
+    if (gql == null) {
+      return tags;
+    }
+    Matcher matcher = TAG_PATTERN.matcher(gql);
+    while (matcher.find()) {
+      for (int i = 1; i <= matcher.groupCount(); i++) {
+        if (matcher.group(i) != null) {
+          tags.add(matcher.group(i));
+          break;
+        }
+      }
+    }
+    return tags;
+  }
+
+  /**
+   * 记下一组标签当前的版本，第一个元素为全局版本
+   * @param tags 标签名
+   * @return 版本号
+   */
+  public long[] versionsOf(String[] tags) {
+    long[] result = new long[tags.length + 1];
+    result[0] = global.get();
+    for (int i = 0; i < tags.length; i++) {
+      AtomicLong version = versions.get(tags[i]);
+      result[i + 1] = version == null ? 0 : version.get();
+    }
+    return result;
+  }
+
+  /**
+   * 判断记下的版本是否仍是最新的
+   * @param tags 标签名
+   * @param recorded {@link #versionsOf(String[])} 的结果
+   * @return 期间没有发生相关的写入
+   */
+  public boolean isCurrent(String[] tags, long[] recorded) {
+    if (recorded[0] != global.get()) {
+      return false;
+    }
+    for (int i = 0; i < tags.length; i++) {
+      AtomicLong version = versions.get(tags[i]);
+      if ((version == null ? 0 : version.get()) != recorded[i + 1]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * 写入了这些标签，使相关缓存项失效。没有标签时使所有缓存项失效
+   * @param tags 标签名
+   */
+  public void bump(Collection<String> tags) {
+    if (tags.isEmpty()) {
+      global.incrementAndGet();
+      return;
+    }
+    for (String tag : tags) {
+      versions.computeIfAbsent(tag, k -> new AtomicLong()).incrementAndGet();
+    }
+  }
+
+  /**
+   * 使所有缓存项失效
+   */
+  public void bumpAll() {
+    global.incrementAndGet();
+  }
+
+  /**
+   * 执行了写语句，使其所写入标签的缓存项失效；无法确定标签时使所有缓存项失效
+   * @param gql 执行成功的写语句
+   */
+  public void written(String gql) {
+    if (SUBMIT_JOB.matcher(gql).find()) {
+      return;
+    }
+    if (DELETE_VERTEX.matcher(gql).find()) {
+      bumpAll();
+      return;
+    }
+    bump(tagsOf(gql));
+  }
+}
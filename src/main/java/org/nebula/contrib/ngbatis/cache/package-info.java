@@ -0,0 +1,16 @@
+/**
+ * <p>查询结果缓存所在包。</p>
+ * <ul>
+ *   <li>分页总数缓存</li>
+ *   <li>声明了缓存的查询方法的结果缓存</li>
+ *   <li>同时发起的相同读查询的合并执行</li>
+ *   <li>按标签（tag / edge type）记录写入版本，用于写操作后使相关缓存失效</li>
+ *   <li>取自 SHOW STATS 的各标签点数，用作分页的近似总数</li>
+ * </ul>
+ */
+
+package org.nebula.contrib.ngbatis.cache;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
@@ -0,0 +1,70 @@
+package org.nebula.contrib.ngbatis.config;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+/**
+ * 单个 mapper 或方法的会话配额，对应 yml 中 nebula.ngbatis.bulkheads 下的一项
+ */
+public class BulkheadConfig {
+
+  /**
+   * 配额作用的 mapper 类全名，或 类全名.方法名。方法上的配额优先于 mapper 上的配额
+   */
+  private String target;
+
+  /**
+   * 同时执行的请求数上限
+   */
+  private int maxConcurrent = 4;
+
+  /**
+   * 排队等待的请求数上限，超出时立即拒绝
+   */
+  private int maxQueue = 16;
+
+  /**
+   * 排队等待的时间上限（ms），超时拒绝
+   */
+  private long maxWait = 1000L;
+
+  public BulkheadConfig() {
+  }
+
+  public String getTarget() {
+    return target;
+  }
+
+  public BulkheadConfig setTarget(String target) {
+    this.target = target;
+    return this;
+  }
+
+  public int getMaxConcurrent() {
+    return maxConcurrent;
+  }
+
+  public BulkheadConfig setMaxConcurrent(int maxConcurrent) {
+    this.maxConcurrent = maxConcurrent;
+    return this;
+  }
+
+  public int getMaxQueue() {
+    return maxQueue;
+  }
+
+  public BulkheadConfig setMaxQueue(int maxQueue) {
+    this.maxQueue = maxQueue;
+    return this;
+  }
+
+  public long getMaxWait() {
+    return maxWait;
+  }
+
+  public BulkheadConfig setMaxWait(long maxWait) {
+    this.maxWait = maxWait;
+    return this;
+  }
+}
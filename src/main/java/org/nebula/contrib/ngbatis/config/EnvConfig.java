@@ -4,6 +4,15 @@ package org.nebula.contrib.ngbatis.config;
 //
 // This source code is licensed under Apache 2.0 License.
 
+import com.vesoft.nebula.client.graph.NebulaPoolConfig;
+import com.vesoft.nebula.client.graph.data.HostAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
 import org.nebula.contrib.ngbatis.ArgNameFormatter;
 import org.nebula.contrib.ngbatis.ArgsResolver;
 import org.nebula.contrib.ngbatis.Env;
@@ -11,8 +20,30 @@ import org.nebula.contrib.ngbatis.PkGenerator;
 import org.nebula.contrib.ngbatis.ResultResolver;
 import org.nebula.contrib.ngbatis.SessionDispatcher;
 import org.nebula.contrib.ngbatis.TextResolver;
+import org.nebula.contrib.ngbatis.cache.CountCache;
+import org.nebula.contrib.ngbatis.cache.QueryCache;
+import org.nebula.contrib.ngbatis.cache.SingleFlight;
+import org.nebula.contrib.ngbatis.cache.TagStats;
+import org.nebula.contrib.ngbatis.models.ClassModel;
 import org.nebula.contrib.ngbatis.models.MapperContext;
+import org.nebula.contrib.ngbatis.models.MethodModel;
+import org.nebula.contrib.ngbatis.models.StatementType;
+import org.nebula.contrib.ngbatis.proxy.BatchWriter;
+import org.nebula.contrib.ngbatis.proxy.MapperProxy;
+import org.nebula.contrib.ngbatis.proxy.PageRunner;
+import org.nebula.contrib.ngbatis.proxy.SelectByIdBatcher;
+import org.nebula.contrib.ngbatis.session.AbstractSessionDispatcher;
+import org.nebula.contrib.ngbatis.session.Bulkhead;
+import org.nebula.contrib.ngbatis.session.BulkheadRegistry;
+import org.nebula.contrib.ngbatis.session.ConcurrentSessionDispatcher;
+import org.nebula.contrib.ngbatis.session.HostRouter;
 import org.nebula.contrib.ngbatis.session.IntervalCheckSessionDispatcher;
+import org.nebula.contrib.ngbatis.session.LeakDetector;
+import org.nebula.contrib.ngbatis.session.LocalSession;
+import org.nebula.contrib.ngbatis.session.PoolResizeEvent;
+import org.nebula.contrib.ngbatis.session.PoolSizingController;
+import org.nebula.contrib.ngbatis.session.SessionValidator;
+import org.nebula.contrib.ngbatis.session.SpaceAffineSessionDispatcher;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.annotation.Bean;
@@ -72,6 +103,54 @@ public class EnvConfig {
   private PkGenerator pkGenerator;
 
   private SessionDispatcher sessionDispatcher;
+  private LeakDetector leakDetector;
+
+  /**
+   * 开启 nebula.ngbatis.count-cache 时创建分页总数缓存
+   * @return 总数缓存，未开启时为 null
+   */
+  private CountCache countCache() {
+    NgbatisConfig ngbatis = properties.getNgbatis();
+    return ngbatis.isCountCache()
+        ? new CountCache(ngbatis.getCountCacheTtl(), ngbatis.getCountCacheMaxSize())
+        : null;
+  }
+
+  /**
+   * 开启 nebula.ngbatis.query-cache 时创建查询结果缓存
+   * @return 查询结果缓存，未开启时为 null
+   */
+  private QueryCache queryCache() {
+    NgbatisConfig ngbatis = properties.getNgbatis();
+    return ngbatis.isQueryCache()
+        ? new QueryCache(ngbatis.getQueryCacheTtl(), ngbatis.getQueryCacheMaxSize())
+        : null;
+  }
+
+  /**
+   * 开启 nebula.ngbatis.id-batch 时创建 selectById 的批量合并器
+   * @return 批量合并器，未开启时为 null
+   */
+  private SelectByIdBatcher idBatcher() {
+    NgbatisConfig ngbatis = properties.getNgbatis();
+    return ngbatis.isIdBatch()
+        ? new SelectByIdBatcher(
+            ngbatis.getIdBatchWindow(), ngbatis.getIdBatchMaxSize(), ngbatis.getIdBatchTimeout(),
+            ngbatis.getIdBatchCoreThreads(), ngbatis.getIdBatchMaxThreads(),
+            ngbatis.getIdBatchQueueSize())
+        : null;
+  }
+
+  /**
+   * 开启 nebula.ngbatis.write-behind 时创建写缓冲
+   * @return 写缓冲，未开启时为 null
+   */
+  private BatchWriter batchWriter() {
+    NgbatisConfig ngbatis = properties.getNgbatis();
+    return ngbatis.isWriteBehind()
+        ? new BatchWriter(ngbatis.getWriteBehindWindow(), ngbatis.getWriteBehindMaxSize())
+        : null;
+  }
 
   /**
    * 获取ngbatis环境信息
@@ -79,9 +158,11 @@ public class EnvConfig {
    */
   @Bean
   public Env getEnv() {
-    sessionDispatcher =
-      new IntervalCheckSessionDispatcher(MapperContext.newInstance().getNebulaPoolConfig());
-    return new Env(
+    NebulaPoolConfig poolConfig = MapperContext.newInstance().getNebulaPoolConfig();
+    HostRouter hostRouter = hostRouter(poolConfig);
+    sessionDispatcher = sessionDispatcher(poolConfig, hostRouter, null);
+    Map<String, SessionDispatcher> groupDispatchers = groupDispatchers(poolConfig);
+    Env env = new Env(
       textResolver,
       resultResolver,
       argsResolver,
@@ -95,6 +176,204 @@ public class EnvConfig {
       pkGenerator,
       sessionDispatcher
     );
+    env.setHostRouter(hostRouter);
+    env.setBulkheads(bulkheadRegistry());
+    env.setGroupDispatchers(groupDispatchers);
+    env.setPageStrategy(properties.getNgbatis().getPageStrategy());
+    env.setPageExecutor(PageRunner.newExecutor(
+        properties.getNgbatis().getPageQueryCoreThreads(),
+        properties.getNgbatis().getPageQueryMaxThreads(),
+        properties.getNgbatis().getPageQueryQueueSize()));
+    env.setCountCache(countCache());
+    env.setQueryCache(queryCache());
+    if (properties.getNgbatis().isSingleFlight()) {
+      // 正在执行的查询最多等待 waitTime 借出会话，再在 timeout 内完成；未设置 timeout 时不确定
+      env.setSingleFlight(new SingleFlight(poolConfig.getTimeout() > 0
+          ? poolConfig.getWaitTime() + poolConfig.getTimeout()
+          : SingleFlight.DEFAULT_TIMEOUT));
+    }
+    env.setIdBatcher(idBatcher());
+    env.setBatchWriter(batchWriter());
+    if (properties.getNgbatis().isApproximateCount()) {
+      env.setTagStats(new TagStats(
+          properties.getNgbatis().getStatsRefreshInterval(), MapperProxy::executeInSpace));
+    }
+    if (properties.getNgbatis().isWarmUp()) {
+      List<String> spaces = warmUpSpaces();
+      sessionDispatcher.warmUp(spaces);
+      groupDispatchers.values().forEach(dispatcher -> dispatcher.warmUp(spaces));
+    }
+    // 定时补足在 Env 与路由设置好、预热完成之后才启动，否则会绕开路由，或抢先补足使预热不绑定 space
+    sessionDispatcher.start();
+    groupDispatchers.values().forEach(SessionDispatcher::start);
+    return env;
+  }
+
+  /**
+   * nebula.hosts 中声明了 read、write 组时，为每个组单独创建路由器与会话调度器。
+   * 未声明的组，其语句使用默认的会话调度器。
+   * @param poolConfig Nebula 连接配置
+   * @return 组名与会话调度器
+   */
+  private Map<String, SessionDispatcher> groupDispatchers(NebulaPoolConfig poolConfig) {
+    Map<String, List<HostAddress>> hostGroups = properties.getHostGroups();
+    Map<String, SessionDispatcher> dispatchers = new HashMap<>();
+    if (hostGroups == null) {
+      return dispatchers;
+    }
+    NgbatisConfig ngbatis = properties.getNgbatis();
+    for (StatementType type : StatementType.values()) {
+      List<HostAddress> addresses = hostGroups.get(type.getGroup());
+      if (addresses == null || addresses.isEmpty()) {
+        continue;
+      }
+      HostRouter router = HostRouter.create(
+          addresses,
+          poolConfig,
+          ngbatis.getRoutingAlpha(),
+          ngbatis.getEjectErrorRate(),
+          ngbatis.getEjectLatencyFactor(),
+          ngbatis.getEjectTime()
+      );
+      dispatchers.put(type.getGroup(), sessionDispatcher(poolConfig, router,
+          () -> router.open(properties.getUsername(), properties.getPassword(), reconnect)));
+    }
+    return dispatchers;
+  }
+
+  /**
+   * 按 nebula.ngbatis.bulkheads 创建会话配额
+   * @return 会话配额，没有配置时为 null
+   */
+  private BulkheadRegistry bulkheadRegistry() {
+    List<BulkheadConfig> configs = properties.getNgbatis().getBulkheads();
+    if (configs == null || configs.isEmpty()) {
+      return null;
+    }
+    List<Bulkhead> bulkheads = new ArrayList<>(configs.size());
+    for (BulkheadConfig config : configs) {
+      bulkheads.add(new Bulkhead(config.getTarget(), config.getMaxConcurrent(),
+          config.getMaxQueue(), config.getMaxWait()));
+    }
+    return new BulkheadRegistry(bulkheads);
+  }
+
+  /**
+   * 预热时需要绑定的 space：默认 space，以及各 mapper 及其方法上声明的 space
+   * @return 去重后的 space，默认 space 在前
+   */
+  private List<String> warmUpSpaces() {
+    Set<String> spaces = new LinkedHashSet<>();
+    addSpace(spaces, properties.getSpace());
+    Map<String, ClassModel> interfaces = MapperContext.newInstance().getInterfaces();
+    if (interfaces != null) {
+      for (ClassModel cm : interfaces.values()) {
+        addSpace(spaces, cm.getSpace());
+        if (cm.getMethods() == null) {
+          continue;
+        }
+        for (MethodModel mm : cm.getMethods().values()) {
+          addSpace(spaces, mm.getSpace());
+        }
+      }
+    }
+    return new ArrayList<>(spaces);
+  }
+
+  private static void addSpace(Set<String> spaces, String space) {
+    if (space != null && !space.trim().isEmpty()) {
+      spaces.add(space.trim());
+    }
+  }
+
+  /**
+   * 开启 nebula.ngbatis.host-routing 且配置了多个地址时，创建多地址路由器
+   * @param poolConfig Nebula 连接配置
+   * @return 多地址路由器，未开启时为 null
+   */
+  private HostRouter hostRouter(NebulaPoolConfig poolConfig) {
+    NgbatisConfig ngbatis = properties.getNgbatis();
+    if (!properties.isHostRoutingEnabled()) {
+      return null;
+    }
+    return HostRouter.create(
+        properties.getHostAddresses(),
+        poolConfig,
+        ngbatis.getRoutingAlpha(),
+        ngbatis.getEjectErrorRate(),
+        ngbatis.getEjectLatencyFactor(),
+        ngbatis.getEjectTime()
+    );
+  }
+
+  /**
+   * 按配置 nebula.ngbatis.session-dispatcher 创建本地会话调度器
+   * @param poolConfig Nebula 连接配置
+   * @param hostRouter 会话所用的多地址路由器，未开启多地址路由时为 null
+   * @param sessionFactory 会话的创建方法，为 null 时使用默认的连接池
+   * @return 本地会话调度器
+   */
+  private SessionDispatcher sessionDispatcher(NebulaPoolConfig poolConfig,
+      HostRouter hostRouter, Supplier<LocalSession> sessionFactory) {
+    NgbatisConfig ngbatis = properties.getNgbatis();
+    SessionValidator validator = new SessionValidator(
+        ngbatis.getValidationBatchSize(),
+        ngbatis.getValidationThreads(),
+        ngbatis.isValidateOnBorrow(),
+        ngbatis.getVerifiedTtl()
+    );
+    PoolSizingController sizing = poolSizingController(poolConfig, ngbatis);
+    AbstractSessionDispatcher dispatcher;
+    switch (ngbatis.getSessionDispatcher()) {
+      case CONCURRENT:
+        dispatcher = new ConcurrentSessionDispatcher(poolConfig, validator, sizing,
+            sessionFactory);
+        break;
+      case SPACE_AFFINE:
+        dispatcher = new SpaceAffineSessionDispatcher(poolConfig, validator, sizing,
+            sessionFactory);
+        break;
+      case INTERVAL:
+      default:
+        dispatcher = new IntervalCheckSessionDispatcher(poolConfig, validator, sizing,
+            sessionFactory);
+    }
+    dispatcher.setHostRouter(hostRouter);
+    if (ngbatis.isLeakDetection()) {
+      if (leakDetector == null) {
+        leakDetector = new LeakDetector(
+            ngbatis.getLongBorrowThreshold(),
+            ngbatis.getBorrowStackSampleRate(),
+            ngbatis.getLeakReportInterval()
+        );
+        leakDetector.start();
+      }
+      dispatcher.setLeakDetector(leakDetector);
+    }
+    return dispatcher;
+  }
+
+  /**
+   * 开启 nebula.ngbatis.adaptive-sizing 时创建会话池大小控制器，
+   * 调整事件 {@link PoolResizeEvent} 通过应用上下文发布
+   * @param poolConfig Nebula 连接配置
+   * @param ngbatis ngbatis 运行配置
+   * @return 会话池大小控制器，未开启时为 null
+   */
+  private PoolSizingController poolSizingController(NebulaPoolConfig poolConfig,
+      NgbatisConfig ngbatis) {
+    if (!ngbatis.isAdaptiveSizing()) {
+      return null;
+    }
+    return new PoolSizingController(
+        poolConfig.getMinConnSize(),
+        poolConfig.getMaxConnSize(),
+        ngbatis.getSizingInterval(),
+        ngbatis.getSizingWaitThreshold(),
+        ngbatis.getSizingLowUtilization(),
+        ngbatis.getSizingCooldown(),
+        context::publishEvent
+    );
   }
 
 
@@ -7,7 +7,9 @@ package org.nebula.contrib.ngbatis.config;
 import com.vesoft.nebula.client.graph.NebulaPoolConfig;
 import com.vesoft.nebula.client.graph.data.HostAddress;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
@@ -24,12 +26,22 @@ import org.springframework.stereotype.Component;
 )
 public class NebulaJdbcProperties {
 
+  /**
+   * 未命名的地址所在的组
+   */
+  public static final String DEFAULT_GROUP = "default";
+
   /**
    * Nebula 地址。由 hosts 切割而来
    */
   private List<HostAddress> hostAddresses;
+  /**
+   * 按名称分组的 Nebula 地址，未分组的地址在 {@link #DEFAULT_GROUP} 组中。由 hosts 切割而来
+   */
+  private Map<String, List<HostAddress>> hostGroups;
   /**
    * Nebula 多个库的地址。格式：ip:port, ip:port, ip:port, ....
+   * <br>也可以按名称分组，组之间以分号隔开，如：write=ip:port, ip:port; read=ip:port, ip:port
    */
   private String hosts;
   /**
@@ -48,6 +60,10 @@ public class NebulaJdbcProperties {
    * 当前所有的数据库空间
    */
   private String space;
+  /**
+   * ngbatis 自身的运行配置
+   */
+  private NgbatisConfig ngbatis = new NgbatisConfig();
 
   public NebulaJdbcProperties() {
   }
@@ -56,24 +72,55 @@ public class NebulaJdbcProperties {
     return hostAddresses;
   }
 
+  /**
+   * 开启了 nebula.ngbatis.host-routing 且配置了多个地址时，会话经由多地址路由器创建，
+   * 不再创建连接所有地址的默认连接池
+   * @return 是否按地址路由
+   */
+  public boolean isHostRoutingEnabled() {
+    return ngbatis.isHostRouting() && hostAddresses != null && hostAddresses.size() > 1;
+  }
+
   public String getHosts() {
     return hosts;
   }
 
   /**
-   * 对 hosts 进行切割
+   * 按名称分组的地址
+   * @return 组名与该组地址，至少包含一个组
+   */
+  public Map<String, List<HostAddress>> getHostGroups() {
+    return hostGroups;
+  }
+
+  /**
+   * 对 hosts 进行切割。hostAddresses 为所有组去重后的地址。
    *
-   * @param hosts ip:port, ip:port, ....
+   * @param hosts ip:port, ip:port, .... 或 name=ip:port, ip:port; name=ip:port, ....
    * @return 当前对象，方便链式调用
    */
   public NebulaJdbcProperties setHosts(String hosts) {
-    String[] hostArr = hosts.split(",");
-    hostAddresses = new ArrayList<HostAddress>();
-    for (int i = 0; i < hostArr.length; i++) {
-      String ipAndPort = hostArr[i];
-      String[] iandp = ipAndPort.split(":");
-      hostAddresses.add(new HostAddress(iandp[0].trim(), Integer.parseInt(iandp[1].trim())));
+    Map<String, List<HostAddress>> groups = new LinkedHashMap<>();
+    Map<String, HostAddress> all = new LinkedHashMap<>();
+    for (String group : hosts.split(";")) {
+      if (group.trim().isEmpty()) {
+        continue;
+      }
+      int eq = group.indexOf('=');
+      String name = eq < 0 ? DEFAULT_GROUP : group.substring(0, eq).trim();
+      List<HostAddress> addresses = groups.computeIfAbsent(name, k -> new ArrayList<>());
+      String[] hostArr = group.substring(eq + 1).split(",");
+      for (int i = 0; i < hostArr.length; i++) {
+        String ipAndPort = hostArr[i];
+        String[] iandp = ipAndPort.split(":");
+        String ip = iandp[0].trim();
+        int port = Integer.parseInt(iandp[1].trim());
+        HostAddress address = all.computeIfAbsent(ip + ":" + port, k -> new HostAddress(ip, port));
+        addresses.add(address);
+      }
     }
+    this.hostGroups = groups;
+    this.hostAddresses = new ArrayList<>(all.values());
     this.hosts = hosts;
     return this;
   }
@@ -114,5 +161,14 @@ public class NebulaJdbcProperties {
     return this;
   }
 
+  public NgbatisConfig getNgbatis() {
+    return ngbatis;
+  }
+
+  public NebulaJdbcProperties setNgbatis(NgbatisConfig ngbatis) {
+    this.ngbatis = ngbatis;
+    return this;
+  }
+
 }
 
@@ -0,0 +1,673 @@
+package org.nebula.contrib.ngbatis.config;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ngbatis 自身的运行配置，对应 yml 中 nebula.ngbatis 下的配置项
+ */
+public class NgbatisConfig {
+
+  /**
+   * 本地会话调度器的类型，默认为 interval
+   */
+  private DispatcherType sessionDispatcher = DispatcherType.INTERVAL;
+
+  /**
+   * 定时检查时，每批从空闲队列中取出并行 ping 的会话数
+   */
+  private int validationBatchSize = 8;
+
+  /**
+   * 并行 ping 及并行创建会话所用的线程数
+   */
+  private int validationThreads = 4;
+
+  /**
+   * 借出会话前是否检查其可用性
+   */
+  private boolean validateOnBorrow = false;
+
+  /**
+   * 会话在此时间内（ms）确认过可用（ping 成功或语句执行成功），则不再 ping
+   */
+  private long verifiedTtl = 30_000L;
+
+  /**
+   * 是否根据借出等待时间与使用率，在 minConnSize 与 maxConnSize 之间动态调整会话数
+   */
+  private boolean adaptiveSizing = false;
+
+  /**
+   * 动态调整会话数的统计窗口（ms）
+   */
+  private long sizingInterval = 10_000L;
+
+  /**
+   * 借出等待时间 p95 超过该值（ms）时增加会话数
+   */
+  private long sizingWaitThreshold = 20L;
+
+  /**
+   * 窗口内使用率（借出中的会话数 / 当时存活的会话数）的峰值低于该值时，减少空闲会话
+   */
+  private double sizingLowUtilization = 0.5;
+
+  /**
+   * 会话数调整后，在该时间内（ms）不减少会话
+   */
+  private long sizingCooldown = 30_000L;
+
+  /**
+   * nebula.hosts 配置了多个 graphd 时，是否按各地址的延迟与负载选择地址开会话
+   */
+  private boolean hostRouting = false;
+
+  /**
+   * 地址延迟与错误率 EWMA 的平滑系数，越大越看重最近的样本
+   */
+  private double routingAlpha = 0.2;
+
+  /**
+   * 地址错误率超过该值时暂时剔除
+   */
+  private double ejectErrorRate = 0.5;
+
+  /**
+   * 地址延迟超过其他地址中最低延迟的该倍数时暂时剔除
+   */
+  private double ejectLatencyFactor = 3.0;
+
+  /**
+   * 地址被剔除的时长（ms）
+   */
+  private long ejectTime = 30_000L;
+
+  /**
+   * 启动时是否并行创建 minConnSize 个会话，并预先绑定到默认及 mapper 中声明的 space。
+   * 预热完成前应用不会启动完毕
+   */
+  private boolean warmUp = true;
+
+  /**
+   * 按 mapper 或方法划分的会话配额，避免个别耗时的 mapper 占满所有会话
+   */
+  private List<BulkheadConfig> bulkheads = new ArrayList<>();
+
+  /**
+   * 是否检测借出后长时间未归还的会话
+   */
+  private boolean leakDetection = false;
+
+  /**
+   * 借出超过该时间（ms）的会话视为疑似泄漏
+   */
+  private long longBorrowThreshold = 60_000L;
+
+  /**
+   * 记录借出时调用栈的比例，0 ~ 1。记录调用栈有一定开销，生产环境宜取较小值
+   */
+  private double borrowStackSampleRate = 0.01;
+
+  /**
+   * 输出借出情况报告的间隔（ms）
+   */
+  private long leakReportInterval = 60_000L;
+
+  /**
+   * 自动分页时 $Count 与 $Page 两条语句的执行方式。
+   * 不配置时保持原有行为：xml 中的分页方法先后执行两条语句，基类的 selectPage 总数为 0 时不查询分页
+   */
+  private PageStrategy pageStrategy;
+
+  /**
+   * 并发分页与逐块遍历预取的常驻线程数，空闲时也会回收
+   */
+  private int pageQueryCoreThreads = 4;
+
+  /**
+   * 并发分页与逐块遍历预取的最大线程数，等待队列已满时才会超过常驻线程数
+   */
+  private int pageQueryMaxThreads = 16;
+
+  /**
+   * 并发分页与逐块遍历预取等待执行的查询数上限，超出时查询在调用线程中执行
+   */
+  private int pageQueryQueueSize = 128;
+
+  /**
+   * 是否缓存分页查询的总数。同一查询条件翻页时复用总数，相关标签发生写入后失效
+   */
+  private boolean countCache = false;
+
+  /**
+   * 缓存的总数的过期时间（ms）
+   */
+  private long countCacheTtl = 60_000L;
+
+  /**
+   * 最多缓存的总数个数，超出时淘汰最近最少使用的
+   */
+  private int countCacheMaxSize = 1000;
+
+  /**
+   * 是否缓存 xml 中声明了 cache 属性或 {@link org.nebula.contrib.ngbatis.annotations.UseCache}
+   * 的查询方法的结果，相关标签发生写入后失效
+   */
+  private boolean queryCache = false;
+
+  /**
+   * 缓存的查询结果的默认过期时间（ms）
+   */
+  private long queryCacheTtl = 60_000L;
+
+  /**
+   * 最多缓存的查询结果个数，超出时淘汰访问频率较低的
+   */
+  private int queryCacheMaxSize = 10_000;
+
+  /**
+   * 是否合并同时发起的相同读查询：只执行一次，各调用方共用其结果集
+   */
+  private boolean singleFlight = false;
+
+  /**
+   * 是否把同一 dao 上短时间内的多个 selectById 合并成一次 selectByIds
+   */
+  private boolean idBatch = false;
+
+  /**
+   * 第一个 id 到达后等待更多 id 的时间（ms）
+   */
+  private long idBatchWindow = 2L;
+
+  /**
+   * 每批最多的 id 数，凑满即查询
+   */
+  private int idBatchMaxSize = 100;
+
+  /**
+   * 同步的 selectById 等待批量查询结果的最长时间（ms）
+   */
+  private long idBatchTimeout = 5_000L;
+
+  /**
+   * 执行批量 selectByIds 的常驻线程数，空闲时也会回收
+   */
+  private int idBatchCoreThreads = 2;
+
+  /**
+   * 执行批量 selectByIds 的最大线程数，等待队列已满时才会超过常驻线程数
+   */
+  private int idBatchMaxThreads = 8;
+
+  /**
+   * 等待执行的批次数上限，超出时批量查询在提交批次的线程中执行
+   */
+  private int idBatchQueueSize = 64;
+
+  /**
+   * 是否创建写缓冲（BatchWriter），把短时间内的写操作合并成一次多语句请求
+   */
+  private boolean writeBehind = false;
+
+  /**
+   * 第一个写操作到达后等待更多写操作的时间（ms）
+   */
+  private long writeBehindWindow = 5L;
+
+  /**
+   * 每次请求最多合并的写操作数，凑满即执行
+   */
+  private int writeBehindMaxSize = 200;
+
+  /**
+   * 基类的 selectPage 没有过滤条件时，是否以 SHOW STATS 中的标签点数作为近似总数
+   */
+  private boolean approximateCount = false;
+
+  /**
+   * 近似总数所用统计信息的刷新间隔（ms），每次刷新提交一次 SUBMIT JOB STATS
+   */
+  private long statsRefreshInterval = 600_000L;
+
+  public NgbatisConfig() {
+  }
+
+  public DispatcherType getSessionDispatcher() {
+    return sessionDispatcher;
+  }
+
+  public NgbatisConfig setSessionDispatcher(DispatcherType sessionDispatcher) {
+    this.sessionDispatcher = sessionDispatcher;
+    return this;
+  }
+
+  public int getValidationBatchSize() {
+    return validationBatchSize;
+  }
+
+  public NgbatisConfig setValidationBatchSize(int validationBatchSize) {
+    this.validationBatchSize = validationBatchSize;
+    return this;
+  }
+
+  public int getValidationThreads() {
+    return validationThreads;
+  }
+
+  public NgbatisConfig setValidationThreads(int validationThreads) {
+    this.validationThreads = validationThreads;
+    return this;
+  }
+
+  public boolean isValidateOnBorrow() {
+    return validateOnBorrow;
+  }
+
+  public NgbatisConfig setValidateOnBorrow(boolean validateOnBorrow) {
+    this.validateOnBorrow = validateOnBorrow;
+    return this;
+  }
+
+  public long getVerifiedTtl() {
+    return verifiedTtl;
+  }
+
+  public NgbatisConfig setVerifiedTtl(long verifiedTtl) {
+    this.verifiedTtl = verifiedTtl;
+    return this;
+  }
+
+  public boolean isAdaptiveSizing() {
+    return adaptiveSizing;
+  }
+
+  public NgbatisConfig setAdaptiveSizing(boolean adaptiveSizing) {
+    this.adaptiveSizing = adaptiveSizing;
+    return this;
+  }
+
+  public long getSizingInterval() {
+    return sizingInterval;
+  }
+
+  public NgbatisConfig setSizingInterval(long sizingInterval) {
+    this.sizingInterval = sizingInterval;
+    return this;
+  }
+
+  public long getSizingWaitThreshold() {
+    return sizingWaitThreshold;
+  }
+
+  public NgbatisConfig setSizingWaitThreshold(long sizingWaitThreshold) {
+    this.sizingWaitThreshold = sizingWaitThreshold;
+    return this;
+  }
+
+  public double getSizingLowUtilization() {
+    return sizingLowUtilization;
+  }
+
+  public NgbatisConfig setSizingLowUtilization(double sizingLowUtilization) {
+    this.sizingLowUtilization = sizingLowUtilization;
+    return this;
+  }
+
+  public long getSizingCooldown() {
+    return sizingCooldown;
+  }
+
+  public NgbatisConfig setSizingCooldown(long sizingCooldown) {
+    this.sizingCooldown = sizingCooldown;
+    return this;
+  }
+
+  public boolean isHostRouting() {
+    return hostRouting;
+  }
+
+  public NgbatisConfig setHostRouting(boolean hostRouting) {
+    this.hostRouting = hostRouting;
+    return this;
+  }
+
+  public double getRoutingAlpha() {
+    return routingAlpha;
+  }
+
+  public NgbatisConfig setRoutingAlpha(double routingAlpha) {
+    this.routingAlpha = routingAlpha;
+    return this;
+  }
+
+  public double getEjectErrorRate() {
+    return ejectErrorRate;
+  }
+
+  public NgbatisConfig setEjectErrorRate(double ejectErrorRate) {
+    this.ejectErrorRate = ejectErrorRate;
+    return this;
+  }
+
+  public double getEjectLatencyFactor() {
+    return ejectLatencyFactor;
+  }
+
+  public NgbatisConfig setEjectLatencyFactor(double ejectLatencyFactor) {
+    this.ejectLatencyFactor = ejectLatencyFactor;
+    return this;
+  }
+
+  public long getEjectTime() {
+    return ejectTime;
+  }
+
+  public NgbatisConfig setEjectTime(long ejectTime) {
+    this.ejectTime = ejectTime;
+    return this;
+  }
+
+  public boolean isWarmUp() {
+    return warmUp;
+  }
+
+  public NgbatisConfig setWarmUp(boolean warmUp) {
+    this.warmUp = warmUp;
+    return this;
+  }
+
+  public List<BulkheadConfig> getBulkheads() {
+    return bulkheads;
+  }
+
+  public NgbatisConfig setBulkheads(List<BulkheadConfig> bulkheads) {
+    this.bulkheads = bulkheads;
+    return this;
+  }
+
+  public boolean isLeakDetection() {
+    return leakDetection;
+  }
+
+  public NgbatisConfig setLeakDetection(boolean leakDetection) {
+    this.leakDetection = leakDetection;
+    return this;
+  }
+
+  public long getLongBorrowThreshold() {
+    return longBorrowThreshold;
+  }
+
+  public NgbatisConfig setLongBorrowThreshold(long longBorrowThreshold) {
+    this.longBorrowThreshold = longBorrowThreshold;
+    return this;
+  }
+
+  public double getBorrowStackSampleRate() {
+    return borrowStackSampleRate;
+  }
+
+  public NgbatisConfig setBorrowStackSampleRate(double borrowStackSampleRate) {
+    this.borrowStackSampleRate = borrowStackSampleRate;
+    return this;
+  }
+
+  public long getLeakReportInterval() {
+    return leakReportInterval;
+  }
+
+  public NgbatisConfig setLeakReportInterval(long leakReportInterval) {
+    this.leakReportInterval = leakReportInterval;
+    return this;
+  }
+
+  public PageStrategy getPageStrategy() {
+    return pageStrategy;
+  }
+
+  public NgbatisConfig setPageStrategy(PageStrategy pageStrategy) {
+    this.pageStrategy = pageStrategy;
+    return this;
+  }
+
+  public int getPageQueryCoreThreads() {
+    return pageQueryCoreThreads;
+  }
+
+  public NgbatisConfig setPageQueryCoreThreads(int pageQueryCoreThreads) {
+    this.pageQueryCoreThreads = pageQueryCoreThreads;
+    return this;
+  }
+
+  public int getPageQueryMaxThreads() {
+    return pageQueryMaxThreads;
+  }
+
+  public NgbatisConfig setPageQueryMaxThreads(int pageQueryMaxThreads) {
+    this.pageQueryMaxThreads = pageQueryMaxThreads;
+    return this;
+  }
+
+  public int getPageQueryQueueSize() {
+    return pageQueryQueueSize;
+  }
+
+  public NgbatisConfig setPageQueryQueueSize(int pageQueryQueueSize) {
+    this.pageQueryQueueSize = pageQueryQueueSize;
+    return this;
+  }
+
+  public boolean isCountCache() {
+    return countCache;
+  }
+
+  public NgbatisConfig setCountCache(boolean countCache) {
+    this.countCache = countCache;
+    return this;
+  }
+
+  public long getCountCacheTtl() {
+    return countCacheTtl;
+  }
+
+  public NgbatisConfig setCountCacheTtl(long countCacheTtl) {
+    this.countCacheTtl = countCacheTtl;
+    return this;
+  }
+
+  public int getCountCacheMaxSize() {
+    return countCacheMaxSize;
+  }
+
+  public NgbatisConfig setCountCacheMaxSize(int countCacheMaxSize) {
+    this.countCacheMaxSize = countCacheMaxSize;
+    return this;
+  }
+
+  public boolean isQueryCache() {
+    return queryCache;
+  }
+
+  public NgbatisConfig setQueryCache(boolean queryCache) {
+    this.queryCache = queryCache;
+    return this;
+  }
+
+  public long getQueryCacheTtl() {
+    return queryCacheTtl;
+  }
+
+  public NgbatisConfig setQueryCacheTtl(long queryCacheTtl) {
+    this.queryCacheTtl = queryCacheTtl;
+    return this;
+  }
+
+  public int getQueryCacheMaxSize() {
+    return queryCacheMaxSize;
+  }
+
+  public NgbatisConfig setQueryCacheMaxSize(int queryCacheMaxSize) {
+    this.queryCacheMaxSize = queryCacheMaxSize;
+    return this;
+  }
+
+  public boolean isSingleFlight() {
+    return singleFlight;
+  }
+
+  public NgbatisConfig setSingleFlight(boolean singleFlight) {
+    this.singleFlight = singleFlight;
+    return this;
+  }
+
+  public boolean isIdBatch() {
+    return idBatch;
+  }
+
+  public NgbatisConfig setIdBatch(boolean idBatch) {
+    this.idBatch = idBatch;
+    return this;
+  }
+
+  public long getIdBatchWindow() {
+    return idBatchWindow;
+  }
+
+  public NgbatisConfig setIdBatchWindow(long idBatchWindow) {
+    this.idBatchWindow = idBatchWindow;
+    return this;
+  }
+
+  public int getIdBatchMaxSize() {
+    return idBatchMaxSize;
+  }
+
+  public NgbatisConfig setIdBatchMaxSize(int idBatchMaxSize) {
+    this.idBatchMaxSize = idBatchMaxSize;
+    return this;
+  }
+
+  public long getIdBatchTimeout() {
+    return idBatchTimeout;
+  }
+
+  public NgbatisConfig setIdBatchTimeout(long idBatchTimeout) {
+    this.idBatchTimeout = idBatchTimeout;
+    return this;
+  }
+
+  public int getIdBatchCoreThreads() {
+    return idBatchCoreThreads;
+  }
+
+  public NgbatisConfig setIdBatchCoreThreads(int idBatchCoreThreads) {
+    this.idBatchCoreThreads = idBatchCoreThreads;
+    return this;
+  }
+
+  public int getIdBatchMaxThreads() {
+    return idBatchMaxThreads;
+  }
+
+  public NgbatisConfig setIdBatchMaxThreads(int idBatchMaxThreads) {
+    this.idBatchMaxThreads = idBatchMaxThreads;
+    return this;
+  }
+
+  public int getIdBatchQueueSize() {
+    return idBatchQueueSize;
+  }
+
+  public NgbatisConfig setIdBatchQueueSize(int idBatchQueueSize) {
+    this.idBatchQueueSize = idBatchQueueSize;
+    return this;
+  }
+
+  public boolean isWriteBehind() {
+    return writeBehind;
+  }
+
+  public NgbatisConfig setWriteBehind(boolean writeBehind) {
+    this.writeBehind = writeBehind;
+    return this;
+  }
+
+  public long getWriteBehindWindow() {
+    return writeBehindWindow;
+  }
+
+  public NgbatisConfig setWriteBehindWindow(long writeBehindWindow) {
+    this.writeBehindWindow = writeBehindWindow;
+    return this;
+  }
+
+  public int getWriteBehindMaxSize() {
+    return writeBehindMaxSize;
+  }
+
+  public NgbatisConfig setWriteBehindMaxSize(int writeBehindMaxSize) {
+    this.writeBehindMaxSize = writeBehindMaxSize;
+    return this;
+  }
+
+  public boolean isApproximateCount() {
+    return approximateCount;
+  }
+
+  public NgbatisConfig setApproximateCount(boolean approximateCount) {
+    this.approximateCount = approximateCount;
+    return this;
+  }
+
+  public long getStatsRefreshInterval() {
+    return statsRefreshInterval;
+  }
+
+  public NgbatisConfig setStatsRefreshInterval(long statsRefreshInterval) {
+    this.statsRefreshInterval = statsRefreshInterval;
+    return this;
+  }
+
+  /**
+   * 可选的本地会话调度器
+   */
+  public enum DispatcherType {
+    /**
+     * {@link org.nebula.contrib.ngbatis.session.IntervalCheckSessionDispatcher}
+     */
+    INTERVAL,
+    /**
+     * {@link org.nebula.contrib.ngbatis.session.ConcurrentSessionDispatcher}
+     */
+    CONCURRENT,
+    /**
+     * {@link org.nebula.contrib.ngbatis.session.SpaceAffineSessionDispatcher}
+     */
+    SPACE_AFFINE
+  }
+
+  /**
+   * 自动分页时统计与分页两条语句的执行方式，见 {@link org.nebula.contrib.ngbatis.proxy.PageRunner}
+   */
+  public enum PageStrategy {
+    /**
+     * 先统计总数，再查询当前页
+     */
+    SEQUENTIAL,
+    /**
+     * 先统计总数，总数为 0 时不再查询当前页
+     */
+    SKIP_WHEN_ZERO,
+    /**
+     * 两条语句各用一个会话同时执行，任一失败时抛出其异常。
+     * 另一条尚未开始的不再执行；已在执行的不会被中断，其结果被丢弃，会话照常归还
+     */
+    CONCURRENT
+  }
+}
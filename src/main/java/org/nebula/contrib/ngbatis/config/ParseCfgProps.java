@@ -49,6 +49,11 @@ public class ParseCfgProps {
 
   private boolean resourceRefresh = false;
 
+  /**
+   * 热加载时无法使用 WatchService 的情况下，检查 xml 修改时间的间隔，单位 ms
+   */
+  private long resourceRefreshInterval = 1000;
+
   public ParseCfgProps() {
   }
 
@@ -273,4 +278,21 @@ public class ParseCfgProps {
     this.resourceRefresh = resourceRefresh;
     return this;
   }
+
+  public long getResourceRefreshInterval() {
+    return resourceRefreshInterval;
+  }
+
+  /**
+   * <p>无法使用 WatchService 时，检查 xml 修改时间的间隔</p>
+   * @param resourceRefreshInterval 间隔，单位 ms
+   * @return 解析配置（本应是 void，为支持链式调用而改）
+   */
+  public ParseCfgProps setResourceRefreshInterval(Long resourceRefreshInterval) {
+    if (resourceRefreshInterval == null) {
+      return this;
+    }
+    this.resourceRefreshInterval = resourceRefreshInterval;
+    return this;
+  }
 }
@@ -0,0 +1,27 @@
+package org.nebula.contrib.ngbatis.exception;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+/**
+ * 请求超出了 mapper / 方法的会话配额（排队数已满或等待超时）时抛出，
+ * 请求尚未获取会话，也未发送到数据库。
+ */
+public class BulkheadRejectedException extends RuntimeException {
+
+  private final String target;
+
+  public BulkheadRejectedException(String target, String reason) {
+    super(String.format("Rejected by bulkhead [%s]: %s", target, reason));
+    this.target = target;
+  }
+
+  /**
+   * 拒绝请求的配额所对应的 mapper 或方法
+   * @return 类全名，或 类全名.方法名
+   */
+  public String getTarget() {
+    return target;
+  }
+}
@@ -0,0 +1,43 @@
+package org.nebula.contrib.ngbatis.handler;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import com.vesoft.nebula.client.graph.data.ResultSet;
+import java.util.Iterator;
+import java.util.Map;
+import org.nebula.contrib.ngbatis.exception.QueryException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * 结果集数据类型转换器。
+ * <p> ResultSet -&gt; Iterator&lt;Object&gt; </p>
+ * <p>不预先构建集合，调用方取到某一行时才转换，适合逐行处理后即丢弃的大结果集。</p>
+ */
+@Component
+public class IteratorResultHandler extends AbstractResultHandler<Iterator, Object> {
+
+  @Autowired
+  private ObjectResultHandler objectResultHandler;
+
+  public IteratorResultHandler() {
+    // Map 是接口，按 resultType 查找处理器时找不到 Object，需要单独注册
+    addHandler(Iterator.class, Map.class);
+  }
+
+  @Override
+  public Iterator handle(Class returnType, ResultSet result, Class resultType) {
+    if (!result.isSucceeded()) {
+      throw new QueryException(result.getErrorMessage());
+    }
+    return handle((Iterator) null, result, resultType);
+  }
+
+  @Override
+  public Iterator handle(Iterator newResult, ResultSet result, Class resultType) {
+    return new RowIterator(result, resultType, objectResultHandler);
+  }
+
+}
@@ -0,0 +1,87 @@
+package org.nebula.contrib.ngbatis.handler;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import static org.nebula.contrib.ngbatis.utils.ReflectUtil.castNumber;
+import static org.nebula.contrib.ngbatis.utils.ReflectUtil.isBasicType;
+import static org.nebula.contrib.ngbatis.utils.ReflectUtil.isCurrentTypeOrParentType;
+import static org.nebula.contrib.ngbatis.utils.ReflectUtil.sealingBasicType;
+
+import com.vesoft.nebula.client.graph.data.ResultSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import org.nebula.contrib.ngbatis.exception.ResultHandleException;
+import org.nebula.contrib.ngbatis.utils.ResultSetUtil;
+
+/**
+ * 逐行转换结果集的迭代器：取到某一行时才把它转换成 resultType，
+ * 已经取出的对象不再被迭代器引用，可以在处理完后回收。
+ * <p>resultType 为 Map 时每行转换为列名与值；为基本类型或 String 时取第一列；
+ * 其他类型按 {@link ObjectResultHandler} 的规则填充新实例。</p>
+ */
+final class RowIterator implements Iterator<Object> {
+
+  private final ResultSet result;
+  private final Class<?> resultType;
+  private final List<String> columnNames;
+  private final ObjectResultHandler objectResultHandler;
+  private final int size;
+  private int index;
+
+  RowIterator(ResultSet result, Class<?> resultType, ObjectResultHandler objectResultHandler) {
+    this.result = result;
+    this.resultType = sealingBasicType(resultType);
+    this.columnNames = result.getColumnNames();
+    this.objectResultHandler = objectResultHandler;
+    this.size = result.rowsSize();
+  }
+
+  @Override
+  public boolean hasNext() {
+    return index < size;
+  }
+
+  @Override
+  public Object next() {
+    if (index >= size) {
+      throw new NoSuchElementException();
+    }
+    ResultSet.Record record = result.rowValues(index++);
+    try {
+      return toResult(record);
+    } catch (NoSuchFieldException | IllegalAccessException | InstantiationException e) {
+      throw new ResultHandleException(e);
+    }
+  }
+
+  /**
+   * 剩余的行数
+   * @return 尚未取出的行数
+   */
+  int remaining() {
+    return size - index;
+  }
+
+  private Object toResult(ResultSet.Record record)
+      throws NoSuchFieldException, IllegalAccessException, InstantiationException {
+    if (isCurrentTypeOrParentType(resultType, Map.class)) {
+      Map<String, Object> row = new HashMap<>();
+      for (int i = 0; i < columnNames.size(); i++) {
+        row.put(columnNames.get(i), ResultSetUtil.getValue(record.values().get(i)));
+      }
+      return row;
+    }
+    if (isBasicType(resultType)) {
+      Object value = ResultSetUtil.getValue(record.values().get(0));
+      return value instanceof Number && Number.class.isAssignableFrom(resultType)
+          ? castNumber((Number) value, resultType)
+          : value;
+    }
+    return objectResultHandler.handle(resultType.newInstance(), record, columnNames, resultType);
+  }
+}
@@ -0,0 +1,49 @@
+package org.nebula.contrib.ngbatis.handler;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import com.vesoft.nebula.client.graph.data.ResultSet;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.nebula.contrib.ngbatis.exception.QueryException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * 结果集数据类型转换器。
+ * <p> ResultSet -&gt; Stream&lt;Object&gt; </p>
+ * <p>顺序流，终结操作取到某一行时才转换，适合逐行处理后即丢弃的大结果集。</p>
+ */
+@Component
+public class StreamResultHandler extends AbstractResultHandler<Stream, Object> {
+
+  @Autowired
+  private ObjectResultHandler objectResultHandler;
+
+  public StreamResultHandler() {
+    // Map 是接口，按 resultType 查找处理器时找不到 Object，需要单独注册
+    addHandler(Stream.class, Map.class);
+  }
+
+  @Override
+  public Stream handle(Class returnType, ResultSet result, Class resultType) {
+    if (!result.isSucceeded()) {
+      throw new QueryException(result.getErrorMessage());
+    }
+    return handle((Stream) null, result, resultType);
+  }
+
+  @Override
+  public Stream handle(Stream newResult, ResultSet result, Class resultType) {
+    RowIterator rows = new RowIterator(result, resultType, objectResultHandler);
+    Spliterator<Object> spliterator = Spliterators.spliterator(
+        rows, rows.remaining(), Spliterator.ORDERED);
+    return StreamSupport.stream(spliterator, false);
+  }
+
+}
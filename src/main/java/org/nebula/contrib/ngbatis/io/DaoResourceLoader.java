@@ -15,6 +15,7 @@ import org.jsoup.nodes.Element;
 import org.jsoup.nodes.TextNode;
 import org.nebula.contrib.ngbatis.config.ParseCfgProps;
 import org.nebula.contrib.ngbatis.exception.ResourceLoadException;
+import org.nebula.contrib.ngbatis.models.StatementType;
 import org.nebula.contrib.ngbatis.proxy.NebulaDaoBasic;
 import org.springframework.core.io.Resource;
 
@@ -45,6 +46,31 @@ public class DaoResourceLoader extends MapperResourceLoader {
     }
   }
 
+  /**
+   * 加载基类接口方法在 xml 中以标签声明的读写类型
+   *
+   * @return 基类接口方法名 与 读写类型 的 Map
+   */
+  public Map<String, StatementType> loadStatementTypes() {
+    try {
+      Document doc = document(getResource(parseConfig.getMapperTplLocation()));
+      Map<String, StatementType> result = new HashMap<>();
+      for (Method method : NebulaDaoBasic.class.getMethods()) {
+        Element elementById = doc.getElementById(method.getName());
+        if (elementById == null) {
+          continue;
+        }
+        StatementType type = StatementType.ofTag(elementById.tagName());
+        if (type != null) {
+          result.put(method.getName(), type);
+        }
+      }
+      return result;
+    } catch (IOException e) {
+      throw new ResourceLoadException(e);
+    }
+  }
+
   /**
    * 资源文件解析方法。用于获取 基类方法与nGQL模板
    *
@@ -53,7 +79,7 @@ public class DaoResourceLoader extends MapperResourceLoader {
    * @throws IOException 可能找不到 xml 文件的 io 异常
    */
   private Map<String, String> parse(Resource resource) throws IOException {
-    Document doc = Jsoup.parse(resource.getInputStream(), "UTF-8", "http://example.com/");
+    Document doc = document(resource);
     Map<String, String> result = new HashMap<>();
     Method[] methods = NebulaDaoBasic.class.getMethods();
     for (Method method : methods) {
@@ -67,4 +93,8 @@ public class DaoResourceLoader extends MapperResourceLoader {
     }
     return result;
   }
+
+  private Document document(Resource resource) throws IOException {
+    return Jsoup.parse(resource.getInputStream(), "UTF-8", "http://example.com/");
+  }
 }
@@ -15,6 +15,8 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import org.apache.logging.log4j.util.Strings;
 import org.jsoup.Jsoup;
@@ -25,11 +27,14 @@ import org.jsoup.nodes.Node;
 import org.jsoup.nodes.TextNode;
 import org.jsoup.select.Elements;
 import org.nebula.contrib.ngbatis.annotations.TimeLog;
+import org.nebula.contrib.ngbatis.annotations.UseCache;
 import org.nebula.contrib.ngbatis.config.ParseCfgProps;
 import org.nebula.contrib.ngbatis.exception.ParseException;
 import org.nebula.contrib.ngbatis.exception.ResourceLoadException;
 import org.nebula.contrib.ngbatis.models.ClassModel;
 import org.nebula.contrib.ngbatis.models.MethodModel;
+import org.nebula.contrib.ngbatis.models.StatementType;
+import org.nebula.contrib.ngbatis.utils.CursorPage;
 import org.nebula.contrib.ngbatis.utils.Page;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -51,6 +56,24 @@ import org.springframework.util.Assert;
 public class MapperResourceLoader extends PathMatchingResourcePatternResolver {
 
   private static Logger log = LoggerFactory.getLogger(MapperResourceLoader.class);
+  /**
+   * 语句中最后一个 RETURN 之前与之后的部分
+   */
+  private static final Pattern LAST_RETURN =
+      Pattern.compile("(?is)(.*)\\bRETURN\\b(.*)");
+  /**
+   * RETURN 子句自身的排序与条数限制，游标分页的语句中不允许出现
+   */
+  private static final Pattern RETURN_ORDER_OR_LIMIT =
+      Pattern.compile("(?is).*(?<![.`])\\b(ORDER\\s+BY|SKIP|LIMIT)\\b.*");
+  /**
+   * 声明缓存查询结果的属性，值为 true 或过期时间（ms）
+   */
+  private static final String CACHE_ATTR = "cache";
+  /**
+   * 游标分页方法排序键的 nGQL 表达式
+   */
+  private static final String ORDER_BY_ATTR = "orderBy";
   protected ParseCfgProps parseConfig;
 
   private MapperResourceLoader() {
@@ -126,8 +149,11 @@ public class MapperResourceLoader extends PathMatchingResourcePatternResolver {
         methodModel.setMethod(method);
         Assert.notNull(method,
             "接口 " + namespace.getName() + " 中，未声明 xml 中的出现的方法：" + methodModel.getId());
+        if (methodModel.getCacheTtl() == null && method.isAnnotationPresent(UseCache.class)) {
+          methodModel.setCacheTtl(method.getAnnotation(UseCache.class).ttl());
+        }
         checkReturnType(method, namespace);
-        pageSupport(method, methodModel, methodNames, methods);
+        pageSupport(method, methodModel, methodNode.attr(ORDER_BY_ATTR), methodNames, methods);
         methods.put(methodModel.getId(), methodModel);
       }
     }
@@ -146,12 +172,35 @@ public class MapperResourceLoader extends PathMatchingResourcePatternResolver {
     match(model, node, "parameterType", parseConfig.getParameterType());
     match(model, node, "resultType", parseConfig.getResultType());
     match(model, node, "space", parseConfig.getSpace());
+    model.setStatementType(StatementType.ofTag(node.nodeName()));
+    model.setCacheTtl(cacheTtl(node));
 
     List<Node> nodes = node.childNodes();
     model.setText(nodesToString(nodes));
     return model;
   }
 
+  /**
+   * 解析 cache 属性：true 为使用默认的过期时间，数字为过期时间（ms），没有或为 false 时不缓存
+   * <p/>
+   * @param node &lt;mapper&gt; 子标签
+   * @return 过期时间，0 为使用默认的过期时间，null 为不缓存
+   */
+  private Long cacheTtl(Node node) {
+    String cache = node.attr(CACHE_ATTR).trim();
+    if (Strings.isBlank(cache) || "false".equalsIgnoreCase(cache)) {
+      return null;
+    }
+    if ("true".equalsIgnoreCase(cache)) {
+      return 0L;
+    }
+    try {
+      return Long.parseLong(cache);
+    } catch (NumberFormatException e) {
+      throw new ParseException("cache 属性应为 true、false 或过期时间（ms）：" + cache);
+    }
+  }
+
   /**
    * 对暂未支持的 未封箱基础类型 进行检查并给出友好报错
    *
@@ -171,14 +220,20 @@ public class MapperResourceLoader extends PathMatchingResourcePatternResolver {
    *
    * @param method    接口方法
    * @param methodModel 方法模型（即 xml 里一个方法标签的全部信息）
+   * @param orderBy   xml 标签中游标分页排序键的表达式
    * @param methodNames 当前接口的所有方法名（用于判断自动生成的接口是否已经有同名，如果已有则不再重复创建）
    * @param methods   用于将需要分页的接口，自动追加两个接口，用于生成动态代理
    */
-  private void pageSupport(Method method, MethodModel methodModel, List<String> methodNames,
-      Map<String, MethodModel> methods) {
+  private void pageSupport(Method method, MethodModel methodModel, String orderBy,
+      List<String> methodNames, Map<String, MethodModel> methods) {
     Class<?>[] parameterTypes = method.getParameterTypes();
     List<Class<?>> parameterTypeList = Arrays.asList(parameterTypes);
-    if (parameterTypeList.contains(Page.class)) {
+    if (parameterTypeList.contains(CursorPage.class)) {
+      int cursorParamIndex = parameterTypeList.indexOf(CursorPage.class);
+      MethodModel pageMethod = createCursorPageMethod(
+          methodModel, orderBy, methodNames, parameterTypes, cursorParamIndex);
+      methods.put(pageMethod.getId(), pageMethod);
+    } else if (parameterTypeList.contains(Page.class)) {
       int pageParamIndex = parameterTypeList.indexOf(Page.class);
       MethodModel pageMethod =
           createPageMethod(methodModel, methodNames, parameterTypes, pageParamIndex);
@@ -205,6 +260,8 @@ public class MapperResourceLoader extends PathMatchingResourcePatternResolver {
         "There is a method name conflicts with " + countMethodName);
     MethodModel countMethodModel = new MethodModel();
     countMethodModel.setParameterTypes(parameterTypes);
+    countMethodModel.setStatementType(methodModel.getStatementType());
+    countMethodModel.setCacheTtl(methodModel.getCacheTtl());
     countMethodModel.setId(countMethodName);
     String cql = methodModel.getText();
 
@@ -234,6 +291,8 @@ public class MapperResourceLoader extends PathMatchingResourcePatternResolver {
         "There is a method name conflicts with " + pageMethodName);
     MethodModel pageMethodModel = new MethodModel();
     pageMethodModel.setParameterTypes(parameterTypes);
+    pageMethodModel.setStatementType(methodModel.getStatementType());
+    pageMethodModel.setCacheTtl(methodModel.getCacheTtl());
     pageMethodModel.setId(pageMethodName);
     String cql = methodModel.getText();
     if (parameterTypes.length > 1) {
@@ -249,6 +308,58 @@ public class MapperResourceLoader extends PathMatchingResourcePatternResolver {
     return pageMethodModel;
   }
 
+  /**
+   * 创建 游标分页中查询当前页方法 的模型。
+   * <p>把原语句最后的 RETURN 换成 WITH，投影出排序键后按游标过滤、排序并限制条数，
+   * 再按原有的 RETURN 返回。排序键的表达式取自 xml 标签的 orderBy 属性，
+   * 没有声明，或最后的 RETURN 自带 ORDER BY、SKIP、LIMIT 时加载失败。</p>
+   * @param methodModel  分页原始方法模型
+   * @param orderBy      排序键的 nGQL 表达式
+   * @param methodNames  当前接口的所有方法名（用于判断自动生成的接口是否已经有同名，如果已有则不再重复创建）
+   * @param parameterTypes 方法的全部参数类型
+   * @param cursorParamIndex 游标分页参数处在参数列表中的下标位
+   * @return 查询当前页方法 的方法模型
+   */
+  private MethodModel createCursorPageMethod(MethodModel methodModel, String orderBy,
+      List<String> methodNames, Class<?>[] parameterTypes, int cursorParamIndex) {
+    String methodName = methodModel.getId();
+    String pageMethodName = String.format("%s$Page", methodName);
+    Assert.isTrue(!methodNames.contains(pageMethodName),
+        "There is a method name conflicts with " + pageMethodName);
+    if (Strings.isBlank(orderBy)) {
+      throw new ResourceLoadException(
+        "游标分页的方法需要在 xml 中用 orderBy 属性声明排序键的表达式，方法：" + methodName);
+    }
+    String cql = methodModel.getText();
+    Matcher matcher = LAST_RETURN.matcher(cql);
+    if (!matcher.matches()) {
+      throw new ResourceLoadException("游标分页的语句中没有 RETURN，方法：" + methodName);
+    }
+    if (RETURN_ORDER_OR_LIMIT.matcher(matcher.group(2)).matches()) {
+      throw new ResourceLoadException(
+        "游标分页的语句由 orderBy 排序并限制条数，最后的 RETURN 中不能有 ORDER BY、SKIP、LIMIT，方法："
+          + methodName);
+    }
+    String param = parameterTypes.length > 1 ? String.format("p%d.", cursorParamIndex) : "";
+    String format = "%s\n\t\tWITH *, %s AS ng_cursor"
+        + "\n\t\t@if ( ng_args[%d].cursor != null ) {"
+        + "\n\t\tWHERE ng_cursor > $%scursor"
+        + "\n\t\t@}"
+        + "\n\t\tWITH * ORDER BY ng_cursor LIMIT $%spageSize"
+        + "\n\t\tRETURN %s";
+    cql = String.format(format, matcher.group(1), orderBy.trim(), cursorParamIndex,
+        param, param, matcher.group(2));
+    MethodModel pageMethodModel = new MethodModel();
+    pageMethodModel.setParameterTypes(parameterTypes);
+    pageMethodModel.setStatementType(methodModel.getStatementType());
+    pageMethodModel.setCacheTtl(methodModel.getCacheTtl());
+    pageMethodModel.setId(pageMethodName);
+    pageMethodModel.setText(cql);
+    pageMethodModel.setResultType(methodModel.getResultType());
+    pageMethodModel.setReturnType(methodModel.getMethod().getReturnType());
+    return pageMethodModel;
+  }
+
   /**
    * 从xml标签中，获取所有的方法名。
    *
@@ -0,0 +1,259 @@
+package org.nebula.contrib.ngbatis.io;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.nebula.contrib.ngbatis.models.ClassModel;
+import org.nebula.contrib.ngbatis.models.MapperContext;
+import org.nebula.contrib.ngbatis.proxy.MapperProxyClassGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+
+/**
+ * 开启 cql.parser.resource-refresh 时，监视 XXXDao.xml 文件的修改并增量重新加载。
+ * <p>只重新解析被修改的文件，得到的新类模型冻结后，
+ * 通过 {@link MapperContext#update} 整体替换进快照，调用方始终读到完整的某一版本；
+ * 解析失败时保留原有版本。每次修改只解析一次，调用时不再读取文件。</p>
+ * <p>替换后为代理类重新设置各方法的调用计划，重新加载的方法仍直接使用调用计划；
+ * 设置完成之前的调用按接口名与方法名使用新的类模型。</p>
+ * <p>优先使用 {@link WatchService}，不可用时按固定间隔比较文件的修改时间。
+ * 位于 jar 中的 xml 无法修改，不做监视。新增的 dao 接口需要重启才能生效。</p>
+ */
+public class MapperWatcher implements Closeable {
+
+  private static Logger log = LoggerFactory.getLogger(MapperWatcher.class);
+
+  private final MapperResourceLoader loader;
+  private final MapperContext context;
+  private final long pollInterval;
+  /**
+   * 被监视的 xml 文件与其资源
+   */
+  private final Map<Path, Resource> files = new HashMap<>();
+  private final Map<Path, Long> lastModified = new ConcurrentHashMap<>();
+  private volatile Thread thread;
+  private volatile WatchService watchService;
+
+  /**
+   * xml 文件监视器
+   * @param loader 解析 xml 的资源加载器
+   * @param context 发布新版本类模型的上下文
+   * @param pollInterval 不能使用 WatchService 时，检查文件修改时间的间隔，单位 ms
+   */
+  public MapperWatcher(MapperResourceLoader loader, MapperContext context, long pollInterval) {
+    this.loader = loader;
+    this.context = context;
+    this.pollInterval = pollInterval;
+  }
+
+  /**
+   * 开始监视当前已加载的类模型所对应的 xml 文件
+   */
+  public void start() {
+    for (ClassModel cm : context.getSnapshot().getInterfaces().values()) {
+      Path path = pathOf(cm.getResource());
+      if (path != null && files.putIfAbsent(path, cm.getResource()) == null) {
+        lastModified.put(path, modifiedTime(path));
+      }
+    }
+    if (files.isEmpty()) {
+      log.info("No mapper xml on the file system to watch");
+      return;
+    }
+    Runnable loop;
+    try {
+      watchService = FileSystems.getDefault().newWatchService();
+      for (Path dir : directories()) {
+        dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+      }
+      loop = this::watch;
+    } catch (IOException | UnsupportedOperationException e) {
+      log.info("WatchService is not available, poll mapper xml every {} ms: {}",
+          pollInterval, e.getMessage());
+      closeWatchService();
+      loop = this::poll;
+    }
+    Thread watcher = new Thread(loop, "ngbatis-mapper-watcher");
+    watcher.setDaemon(true);
+    thread = watcher;
+    watcher.start();
+    log.info("Watching {} mapper xml files", files.size());
+  }
+
+  private Set<Path> directories() {
+    Set<Path> dirs = new LinkedHashSet<>();
+    for (Path file : files.keySet()) {
+      dirs.add(file.getParent());
+    }
+    return dirs;
+  }
+
+  private void watch() {
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        WatchKey key = watchService.take();
+        Path dir = (Path) key.watchable();
+        Set<Path> changed = new LinkedHashSet<>();
+        for (WatchEvent<?> event : key.pollEvents()) {
+          if (event.kind() == OVERFLOW) {
+            files.keySet().stream().filter(f -> dir.equals(f.getParent())).forEach(changed::add);
+            continue;
+          }
+          Path file = dir.resolve((Path) event.context());
+          if (files.containsKey(file)) {
+            changed.add(file);
+          }
+        }
+        key.reset();
+        changed.forEach(this::reloadIfModified);
+      }
+    } catch (InterruptedException | ClosedWatchServiceException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void poll() {
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        Thread.sleep(pollInterval);
+        files.keySet().forEach(this::reloadIfModified);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * 修改时间有变化时重新加载，同一次保存触发的多个事件只加载一次
+   * @param path xml 文件
+   */
+  void reloadIfModified(Path path) {
+    long modified = modifiedTime(path);
+    if (!Objects.equals(lastModified.put(path, modified), modified)) {
+      reload(path);
+    }
+  }
+
+  /**
+   * 重新解析 xml 文件，把其中的类模型替换进上下文
+   * @param path xml 文件
+   */
+  void reload(Path path) {
+    Map<String, ClassModel> parsed;
+    try {
+      parsed = loader.parseClassModel(files.get(path));
+    } catch (Exception e) {
+      log.warn("Failed to reload {}, keep the previous version: {}", path, e.getMessage());
+      return;
+    }
+    Map<String, ClassModel> current = context.getSnapshot().getInterfaces();
+    Map<String, ClassModel> reloaded = new HashMap<>();
+    parsed.forEach((name, cm) -> {
+      ClassModel previous = current.get(name);
+      if (previous == null) {
+        log.warn("{} is not a registered dao, restart the application to add it", name);
+        return;
+      }
+      cm.setDaoBasicMethods(previous.getDaoBasicMethods());
+      cm.setClazz(previous.getClazz());
+      cm.setClassByte(previous.getClassByte());
+      reloaded.put(name, cm.freeze());
+    });
+    if (reloaded.isEmpty()) {
+      return;
+    }
+    context.update(snapshot -> {
+      Map<String, ClassModel> interfaces = new HashMap<>(snapshot.getInterfaces());
+      interfaces.putAll(reloaded);
+      return snapshot.withInterfaces(interfaces);
+    });
+    reloaded.values().forEach(MapperWatcher::rebindPlans);
+    log.info("Reloaded {} from {}", reloaded.keySet(), path);
+  }
+
+  /**
+   * 为代理类换上重新加载后的调用计划
+   * @param cm 重新加载后的类模型
+   */
+  private static void rebindPlans(ClassModel cm) {
+    Class<?> proxy = cm.getClazz();
+    if (proxy == null) {
+      return;
+    }
+    List<String> unbound = MapperProxyClassGenerator.rebindPlans(proxy, cm);
+    if (!unbound.isEmpty()) {
+      log.warn("{} of {} are not in the proxy class, restart the application to generate them",
+          unbound, cm.getNamespace().getName());
+    }
+  }
+
+  private static Path pathOf(Resource resource) {
+    try {
+      return resource != null && resource.isFile()
+          ? resource.getFile().toPath().toAbsolutePath()
+          : null;
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  private static long modifiedTime(Path path) {
+    try {
+      return Files.getLastModifiedTime(path).toMillis();
+    } catch (IOException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * 被监视的 xml 文件
+   * @return 文件路径
+   */
+  public Set<Path> getFiles() {
+    return Collections.unmodifiableSet(files.keySet());
+  }
+
+  @Override
+  public void close() {
+    Thread watcher = thread;
+    if (watcher != null) {
+      watcher.interrupt();
+    }
+    closeWatchService();
+  }
+
+  private void closeWatchService() {
+    WatchService service = watchService;
+    watchService = null;
+    if (service != null) {
+      try {
+        service.close();
+      } catch (IOException e) {
+        log.debug("Failed to close WatchService: {}", e.getMessage());
+      }
+    }
+  }
+}
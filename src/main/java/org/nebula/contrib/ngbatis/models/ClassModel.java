@@ -4,12 +4,17 @@ package org.nebula.contrib.ngbatis.models;
 //
 // This source code is licensed under Apache 2.0 License.
 
+import java.util.Collections;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 import org.nebula.contrib.ngbatis.ResourceLoader;
+import org.nebula.contrib.ngbatis.proxy.InvocationPlan;
 import org.springframework.core.io.Resource;
 
 /**
  * 类模型信息  <br> xml 中 mapper 标签所声明的信息（类），包含属性与子标签（方法）。
+ * <p>代理类生成后由 {@link #freeze()} 连同其方法模型一起冻结，之后只读。</p>
  * @author yeweicheng
  * <br>Now is history!
  */
@@ -22,21 +27,67 @@ public class ClassModel {
   private String space;
 
   private Map<String, MethodModel> methods;
+  /**
+   * 基类 NebulaDaoBasic 中各方法的方法模型，启动时按当前 dao 的泛型构建
+   */
+  private Map<String, MethodModel> daoBasicMethods = Collections.emptyMap();
+  /**
+   * 代理类字段之外的调用计划（基类方法的默认实现、批量写等），按方法模型第一次调用时构建
+   */
+  private final Map<MethodModel, InvocationPlan> plans = new ConcurrentHashMap<>();
+  /**
+   * 按接口名与方法名调用 xml 中的方法时（如热加载后尚未换上新调用计划的代理类）使用的调用计划，
+   * 与代理类字段中的一样含分页的调用计划，按方法名第一次调用时构建
+   */
+  private final Map<String, InvocationPlan> methodPlans = new ConcurrentHashMap<>();
   private ResourceLoader resourceLoader;
 
   private Resource resource;
   private byte[] classByte;
   private Class clazz;
+  private boolean frozen;
 
   public MethodModel getMethod(String methodName) {
     return methods.get(methodName);
   }
 
+  /**
+   * 按方法名获取基类 NebulaDaoBasic 中方法的方法模型
+   * @param methodName 基类中的方法名
+   * @return 方法模型，当前 dao 不是基类的子接口或基类中没有该方法时为 null
+   */
+  public MethodModel getDaoBasicMethod(String methodName) {
+    return daoBasicMethods.get(methodName);
+  }
+
+  /**
+   * 获取方法模型的调用计划，没有时构建一次并缓存，之后的调用共用同一个计划
+   * @param methodModel 当前类模型中的方法模型
+   * @param factory 调用计划的构建方法
+   * @return 调用计划
+   */
+  public InvocationPlan getPlan(MethodModel methodModel,
+      Function<MethodModel, InvocationPlan> factory) {
+    return plans.computeIfAbsent(methodModel, factory);
+  }
+
+  /**
+   * 获取 xml 中方法按方法名的调用计划，没有时构建一次并缓存
+   * @param methodName xml 中的方法名
+   * @param factory 调用计划的构建方法
+   * @return 调用计划
+   */
+  public InvocationPlan getMethodPlan(String methodName,
+      Function<String, InvocationPlan> factory) {
+    return methodPlans.computeIfAbsent(methodName, factory);
+  }
+
   public Class getNamespace() {
     return namespace;
   }
 
   public void setNamespace(Class namespace) {
+    checkNotFrozen();
     this.namespace = namespace;
   }
 
@@ -45,6 +96,7 @@ public class ClassModel {
   }
 
   public void setSpace(String space) {
+    checkNotFrozen();
     this.space = space;
   }
 
@@ -53,14 +105,25 @@ public class ClassModel {
   }
 
   public void setMethods(Map<String, MethodModel> methods) {
+    checkNotFrozen();
     this.methods = methods;
   }
 
+  public Map<String, MethodModel> getDaoBasicMethods() {
+    return daoBasicMethods;
+  }
+
+  public void setDaoBasicMethods(Map<String, MethodModel> daoBasicMethods) {
+    checkNotFrozen();
+    this.daoBasicMethods = daoBasicMethods;
+  }
+
   public ResourceLoader getResourceLoader() {
     return resourceLoader;
   }
 
   public void setResourceLoader(ResourceLoader resourceLoader) {
+    checkNotFrozen();
     this.resourceLoader = resourceLoader;
   }
 
@@ -69,6 +132,7 @@ public class ClassModel {
   }
 
   public void setResource(Resource resource) {
+    checkNotFrozen();
     this.resource = resource;
   }
 
@@ -77,6 +141,7 @@ public class ClassModel {
   }
 
   public void setClassByte(byte[] classByte) {
+    checkNotFrozen();
     this.classByte = classByte;
   }
 
@@ -85,6 +150,35 @@ public class ClassModel {
   }
 
   public void setClazz(Class clazz) {
+    checkNotFrozen();
     this.clazz = clazz;
   }
+
+  /**
+   * 冻结当前类模型及其所有方法模型，之后只读
+   * @return 当前类模型
+   */
+  public ClassModel freeze() {
+    if (frozen) {
+      return this;
+    }
+    if (methods != null) {
+      methods.values().forEach(MethodModel::freeze);
+      methods = Collections.unmodifiableMap(methods);
+    }
+    daoBasicMethods.values().forEach(MethodModel::freeze);
+    daoBasicMethods = Collections.unmodifiableMap(daoBasicMethods);
+    this.frozen = true;
+    return this;
+  }
+
+  public boolean isFrozen() {
+    return frozen;
+  }
+
+  private void checkNotFrozen() {
+    if (frozen) {
+      throw new IllegalStateException("Class model " + namespace + " is frozen after load");
+    }
+  }
 }
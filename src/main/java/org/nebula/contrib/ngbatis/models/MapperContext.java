@@ -6,70 +6,111 @@ package org.nebula.contrib.ngbatis.models;
 
 import com.vesoft.nebula.client.graph.NebulaPoolConfig;
 import com.vesoft.nebula.client.graph.net.NebulaPool;
+import java.util.AbstractMap;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
 
 /**
  * xml 中标签所声明的信息（方法）
+ * <p>随 xml 加载而变化的内容保存在不可变的 {@link MapperSnapshot} 中，
+ * 加载时整体替换，调用时无锁读取，重新加载不会影响进行中的调用。</p>
  *
  * @author yeweicheng
  * <br>Now is history!
  */
 public class MapperContext {
 
-  private static MapperContext INSTANCE;
+  private static final MapperContext INSTANCE = new MapperContext();
   /**
-   * 标签名与实体的映射。<br> （除了根据 {@link org.nebula.contrib.ngbatis.proxy.NebulaDaoBasic } 中 泛型 T
-   * 所自动识别的外，还可以自行补充）
-   */
-  final Map<String, Class<?>> tagTypeMapping = new HashMap<>();
-  /**
-   * 当前应用中，在 xml 中 namespace 所声明的所有 XXXDao 及其 类模型
+   * 当前发布的快照，包含类模型、基类模板与读写类型、标签与实体的映射
    */
-  Map<String, ClassModel> interfaces;
-  /**
-   * 基类所有的 nGQL模板
-   */
-  Map<String, String> daoBasicTpl;
+  private final AtomicReference<MapperSnapshot> snapshot =
+      new AtomicReference<>(MapperSnapshot.EMPTY);
   /**
    * Nebula 连接池
    */
-  NebulaPool nebulaPool;
+  volatile NebulaPool nebulaPool;
   /**
    * Nebula 连接配置
    */
-  NebulaPoolConfig nebulaPoolConfig;
-  boolean resourceRefresh = false;
+  volatile NebulaPoolConfig nebulaPoolConfig;
+  volatile boolean resourceRefresh = false;
+  private final Map<String, Class<?>> tagTypeMappingView = new TagTypeMappingView();
 
   private MapperContext() {
   }
 
   /**
-   * <p>创建mapper上下文单例。</p>
+   * <p>获取mapper上下文单例。</p>
    */
   public static MapperContext newInstance() {
-    if (INSTANCE == null) {
-      INSTANCE = new MapperContext();
-    }
     return INSTANCE;
   }
 
+  /**
+   * 当前发布的快照。一次调用中需要读取多项内容时，应只取一次快照，保证读到同一版本
+   * @return 当前快照
+   */
+  public MapperSnapshot getSnapshot() {
+    return snapshot.get();
+  }
+
+  /**
+   * 基于当前快照生成新快照并原子地发布，版本号加一。并发更新时会基于最新的快照重试。
+   * @param change 由当前快照生成新快照的方法，可能被调用多次，不应有副作用
+   * @return 发布的新快照
+   */
+  public MapperSnapshot update(UnaryOperator<MapperSnapshot> change) {
+    MapperSnapshot prev;
+    MapperSnapshot next;
+    do {
+      prev = snapshot.get();
+      next = change.apply(prev).withVersion(prev.getVersion() + 1);
+    } while (!snapshot.compareAndSet(prev, next));
+    return next;
+  }
+
   public Map<String, ClassModel> getInterfaces() {
-    return interfaces;
+    return snapshot.get().getInterfaces();
   }
 
   public void setInterfaces(Map<String, ClassModel> interfaces) {
-    this.interfaces = interfaces;
+    update(s -> s.withInterfaces(interfaces));
   }
 
   public Map<String, String> getDaoBasicTpl() {
-    return daoBasicTpl;
+    return snapshot.get().getDaoBasicTpl();
   }
 
   public void setDaoBasicTpl(Map<String, String> daoBasicTpl) {
-    this.daoBasicTpl = daoBasicTpl;
+    update(s -> s.withDaoBasicTpl(daoBasicTpl));
+  }
+
+  public Map<String, StatementType> getDaoBasicStatementTypes() {
+    return snapshot.get().getDaoBasicStatementTypes();
+  }
+
+  public void setDaoBasicStatementTypes(Map<String, StatementType> daoBasicStatementTypes) {
+    update(s -> s.withDaoBasicStatementTypes(daoBasicStatementTypes));
   }
 
+  /**
+   * 基类方法的读写类型
+   * @param methodName 基类方法名
+   * @return 读写类型，xml 中没有声明时为 null
+   */
+  public StatementType getDaoBasicStatementType(String methodName) {
+    return snapshot.get().getDaoBasicStatementTypes().get(methodName);
+  }
+
+  /**
+   * 连接所有地址的默认连接池
+   * @return 默认连接池，开启多地址路由（nebula.ngbatis.host-routing）时为 null
+   */
   public NebulaPool getNebulaPool() {
     return nebulaPool;
   }
@@ -94,8 +135,78 @@ public class MapperContext {
     this.resourceRefresh = resourceRefresh;
   }
 
+  /**
+   * 标签名与实体的映射。<br> （除了根据 {@link org.nebula.contrib.ngbatis.proxy.NebulaDaoBasic } 中 泛型 T
+   * 所自动识别的外，还可以通过 {@link #putTagTypeMapping(String, Class)} 自行补充）
+   * <p>返回的映射总是读取当前快照。为兼容直接 put 的旧用法，其写入方法仍可使用，
+   * 每次写入都发布一个新快照，已不推荐，请改用 {@link #putTagTypeMapping(String, Class)}；
+   * 需要与其他内容读到同一版本时使用 {@link #getSnapshot()}。</p>
+   * @return 读取当前快照的映射
+   */
   public Map<String, Class<?>> getTagTypeMapping() {
-    return tagTypeMapping;
+    return tagTypeMappingView;
+  }
+
+  /**
+   * 补充标签名与实体的映射，发布新的快照
+   * @param tagName 数据库中的标签名
+   * @param type 实体类型
+   */
+  public void putTagTypeMapping(String tagName, Class<?> type) {
+    update(s -> s.withTagType(tagName, type));
+  }
+
+  /**
+   * {@link #getTagTypeMapping()} 返回的映射：读取当前快照，写入时发布新的快照
+   */
+  private final class TagTypeMappingView extends AbstractMap<String, Class<?>> {
+
+    @Override
+    public Set<Entry<String, Class<?>>> entrySet() {
+      return snapshot.get().getTagTypeMapping().entrySet();
+    }
+
+    @Override
+    public Class<?> get(Object key) {
+      return snapshot.get().getTagTypeMapping().get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return snapshot.get().getTagTypeMapping().containsKey(key);
+    }
+
+    /**
+     * @deprecated 请使用 {@link MapperContext#putTagTypeMapping(String, Class)}
+     */
+    @Deprecated
+    @Override
+    public Class<?> put(String key, Class<?> value) {
+      Class<?>[] previous = new Class<?>[1];
+      update(s -> {
+        previous[0] = s.getTagTypeMapping().get(key);
+        return s.withTagType(key, value);
+      });
+      return previous[0];
+    }
+
+    @Deprecated
+    @Override
+    public Class<?> remove(Object key) {
+      Class<?>[] previous = new Class<?>[1];
+      update(s -> {
+        Map<String, Class<?>> mapping = new HashMap<>(s.getTagTypeMapping());
+        previous[0] = mapping.remove(key);
+        return s.withTagTypeMapping(mapping);
+      });
+      return previous[0];
+    }
+
+    @Deprecated
+    @Override
+    public void clear() {
+      update(s -> s.withTagTypeMapping(Collections.emptyMap()));
+    }
   }
 
 }
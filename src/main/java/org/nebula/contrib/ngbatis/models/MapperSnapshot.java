@@ -0,0 +1,123 @@
+package org.nebula.contrib.ngbatis.models;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * mapper 上下文中随 xml 加载而变化的部分：类模型、基类模板与读写类型、标签与实体的映射。
+ * <p>每次加载都生成新的快照，由 {@link MapperContext#update} 整体替换，发布后不再修改。
+ * 一次调用中只读取一次快照，即使同时发生重新加载，读到的也总是同一版本的内容。</p>
+ */
+public final class MapperSnapshot {
+
+  static final MapperSnapshot EMPTY = new MapperSnapshot(0, Collections.emptyMap(),
+      Collections.emptyMap(), Collections.emptyMap(), Collections.emptyMap());
+
+  private final long version;
+  /**
+   * 当前应用中，在 xml 中 namespace 所声明的所有 XXXDao 及其 类模型
+   */
+  private final Map<String, ClassModel> interfaces;
+  /**
+   * 基类所有的 nGQL模板
+   */
+  private final Map<String, String> daoBasicTpl;
+  /**
+   * 基类方法在 xml 中以标签声明的读写类型
+   */
+  private final Map<String, StatementType> daoBasicStatementTypes;
+  /**
+   * 标签名与实体的映射
+   */
+  private final Map<String, Class<?>> tagTypeMapping;
+
+  private MapperSnapshot(long version, Map<String, ClassModel> interfaces,
+      Map<String, String> daoBasicTpl, Map<String, StatementType> daoBasicStatementTypes,
+      Map<String, Class<?>> tagTypeMapping) {
+    this.version = version;
+    this.interfaces = interfaces;
+    this.daoBasicTpl = daoBasicTpl;
+    this.daoBasicStatementTypes = daoBasicStatementTypes;
+    this.tagTypeMapping = tagTypeMapping;
+  }
+
+  private static <K, V> Map<K, V> readOnly(Map<K, V> map) {
+    return map == null
+        ? Collections.emptyMap()
+        : Collections.unmodifiableMap(new HashMap<>(map));
+  }
+
+  /**
+   * 替换类模型后的新快照
+   * @param interfaces 接口全限定名（带代理后缀）与类模型
+   * @return 新快照
+   */
+  public MapperSnapshot withInterfaces(Map<String, ClassModel> interfaces) {
+    return new MapperSnapshot(version, readOnly(interfaces), daoBasicTpl,
+        daoBasicStatementTypes, tagTypeMapping);
+  }
+
+  public MapperSnapshot withDaoBasicTpl(Map<String, String> daoBasicTpl) {
+    return new MapperSnapshot(version, interfaces, readOnly(daoBasicTpl),
+        daoBasicStatementTypes, tagTypeMapping);
+  }
+
+  public MapperSnapshot withDaoBasicStatementTypes(
+      Map<String, StatementType> daoBasicStatementTypes) {
+    return new MapperSnapshot(version, interfaces, daoBasicTpl,
+        readOnly(daoBasicStatementTypes), tagTypeMapping);
+  }
+
+  public MapperSnapshot withTagTypeMapping(Map<String, Class<?>> tagTypeMapping) {
+    return new MapperSnapshot(version, interfaces, daoBasicTpl, daoBasicStatementTypes,
+        readOnly(tagTypeMapping));
+  }
+
+  /**
+   * 补充一个标签与实体的映射后的新快照
+   * @param tagName 数据库中的标签名
+   * @param type 实体类型
+   * @return 新快照
+   */
+  public MapperSnapshot withTagType(String tagName, Class<?> type) {
+    Map<String, Class<?>> mapping = new HashMap<>(tagTypeMapping);
+    mapping.put(tagName, type);
+    return new MapperSnapshot(version, interfaces, daoBasicTpl, daoBasicStatementTypes,
+        Collections.unmodifiableMap(mapping));
+  }
+
+  MapperSnapshot withVersion(long version) {
+    return new MapperSnapshot(version, interfaces, daoBasicTpl, daoBasicStatementTypes,
+        tagTypeMapping);
+  }
+
+  /**
+   * 快照的版本号，每次发布加一
+   * @return 版本号，尚未加载时为 0
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  public Map<String, ClassModel> getInterfaces() {
+    return interfaces;
+  }
+
+  public Map<String, String> getDaoBasicTpl() {
+    return daoBasicTpl;
+  }
+
+  public Map<String, StatementType> getDaoBasicStatementTypes() {
+    return daoBasicStatementTypes;
+  }
+
+  public Map<String, Class<?>> getTagTypeMapping() {
+    return tagTypeMapping;
+  }
+
+}
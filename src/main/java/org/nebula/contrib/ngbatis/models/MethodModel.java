@@ -9,6 +9,8 @@ import java.lang.reflect.Method;
 
 /**
  * XXXDao.java 中的单个方法信息，以及 xml 中 子标签下的文本数据酷操作脚本 CQL
+ * <p>加载完成后由 {@link #freeze()} 冻结，之后被各线程共享，不再允许修改；
+ * 需要按调用调整返回值类型等信息时，使用 {@link #copy()} 得到的副本。</p>
  *
  * @author yeweicheng
  * <br>Now is history!
@@ -31,6 +33,11 @@ public class MethodModel {
    */
   private String space;
 
+  /**
+   * xml 标签所声明的读写类型，select 为 READ，insert / update / delete 为 WRITE
+   */
+  private StatementType statementType;
+
   /**
    * xml 中配置的参数类型
    */
@@ -56,18 +63,70 @@ public class MethodModel {
    */
   private Class<?>[] parameterTypes;
 
+  /**
+   * 查询结果的缓存时间（ms）：来自 &lt;select&gt; 的 cache 属性或方法上的
+   * {@link org.nebula.contrib.ngbatis.annotations.UseCache}，0 为使用默认时间，null 为不缓存
+   */
+  private Long cacheTtl;
+
   // ---------------- info in interface start ---------------------
   /**
    * 用于 asm 的方法签名。
    */
   private String signature;
 
+  /**
+   * 是否已冻结，冻结后调用 setter 会抛出 {@link IllegalStateException}
+   */
+  private boolean frozen;
+
+  /**
+   * 冻结当前方法模型，之后只读
+   * @return 当前方法模型
+   */
+  public MethodModel freeze() {
+    this.frozen = true;
+    return this;
+  }
+
+  public boolean isFrozen() {
+    return frozen;
+  }
+
+  /**
+   * 复制出一个未冻结的方法模型，用于按调用调整，不影响共享的方法模型
+   * @return 方法模型的副本
+   */
+  public MethodModel copy() {
+    MethodModel copy = new MethodModel();
+    copy.id = id;
+    copy.text = text;
+    copy.space = space;
+    copy.statementType = statementType;
+    copy.parameterType = parameterType;
+    copy.resultType = resultType;
+    copy.returnType = returnType;
+    copy.method = method;
+    copy.parameterTypes = parameterTypes;
+    copy.cacheTtl = cacheTtl;
+    copy.signature = signature;
+    return copy;
+  }
+
+  private void checkNotFrozen() {
+    if (frozen) {
+      throw new IllegalStateException(
+          "Method model " + id + " is frozen after load, use copy() for per-call changes");
+    }
+  }
+
 
   public String getId() {
     return id;
   }
 
   public void setId(String id) {
+    checkNotFrozen();
     this.id = id;
   }
 
@@ -76,6 +135,7 @@ public class MethodModel {
   }
 
   public void setText(String text) {
+    checkNotFrozen();
     this.text = text;
   }
 
@@ -84,14 +144,25 @@ public class MethodModel {
   }
 
   public void setSpace(String space) {
+    checkNotFrozen();
     this.space = space;
   }
 
+  public StatementType getStatementType() {
+    return statementType;
+  }
+
+  public void setStatementType(StatementType statementType) {
+    checkNotFrozen();
+    this.statementType = statementType;
+  }
+
   public Class getParameterType() {
     return parameterType;
   }
 
   public void setParameterType(Class parameterType) {
+    checkNotFrozen();
     this.parameterType = parameterType;
   }
 
@@ -100,6 +171,7 @@ public class MethodModel {
   }
 
   public void setResultType(Class resultType) {
+    checkNotFrozen();
     this.resultType = resultType;
   }
 
@@ -108,6 +180,7 @@ public class MethodModel {
   }
 
   public void setMethod(Method method) {
+    checkNotFrozen();
     this.method = method;
   }
 
@@ -116,6 +189,7 @@ public class MethodModel {
   }
 
   public void setSignature(String signature) {
+    checkNotFrozen();
     this.signature = signature;
   }
 
@@ -124,6 +198,7 @@ public class MethodModel {
   }
 
   public void setParameterTypes(Class<?>[] parameterTypes) {
+    checkNotFrozen();
     this.parameterTypes = parameterTypes;
   }
 
@@ -131,11 +206,21 @@ public class MethodModel {
     return method == null ? parameterTypes.length : method.getParameterCount();
   }
 
+  public Long getCacheTtl() {
+    return cacheTtl;
+  }
+
+  public void setCacheTtl(Long cacheTtl) {
+    checkNotFrozen();
+    this.cacheTtl = cacheTtl;
+  }
+
   public Class getReturnType() {
     return method == null ? returnType : method.getReturnType();
   }
 
   public void setReturnType(Class returnType) {
+    checkNotFrozen();
     this.returnType = returnType;
   }
 
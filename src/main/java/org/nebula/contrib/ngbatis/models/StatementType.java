@@ -0,0 +1,128 @@
+package org.nebula.contrib.ngbatis.models;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 语句的读写类型，用于把读写请求分别发送到 nebula.hosts 中的 read / write 地址组
+ */
+public enum StatementType {
+
+  READ("read"),
+  WRITE("write");
+
+  /**
+   * 出现在语句（以 ; 或 | 分隔）开头时，说明该语句会修改数据或结构的关键字
+   */
+  private static final Set<String> WRITE_KEYWORDS = new HashSet<>(Arrays.asList(
+      "INSERT", "UPDATE", "UPSERT", "DELETE", "CREATE", "DROP", "ALTER", "REBUILD", "SUBMIT",
+      "CLEAR", "ADD", "REMOVE", "GRANT", "REVOKE", "CHANGE", "SIGN", "KILL", "STOP", "RECOVER",
+      "BALANCE", "DOWNLOAD", "INGEST"
+  ));
+
+  private final String group;
+
+  StatementType(String group) {
+    this.group = group;
+  }
+
+  /**
+   * 对应 nebula.hosts 中的地址组名
+   * @return read 或 write
+   */
+  public String getGroup() {
+    return group;
+  }
+
+  /**
+   * 按 xml 中的标签名判断读写类型
+   * @param tag 标签名
+   * @return select 为 READ，insert / update / delete 为 WRITE，其他标签为 null（由语句分析决定）
+   */
+  public static StatementType ofTag(String tag) {
+    if (tag == null) {
+      return null;
+    }
+    switch (tag.toLowerCase()) {
+      case "select":
+        return READ;
+      case "insert":
+      case "update":
+      case "delete":
+        return WRITE;
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * 分析渲染后的 nGQL：任一语句（以 ; 或 | 分隔）以写关键字开头即为 WRITE。
+   * 语句开头的空白与注释（#、//、--、/* *&#47;）会被跳过。
+   * 引号内的分隔符也会被当作分隔符，误判时只会偏向 WRITE。
+   * @param gql 渲染后的 nGQL
+   * @return 读写类型
+   */
+  public static StatementType ofGql(String gql) {
+    if (gql == null) {
+      return READ;
+    }
+    int length = gql.length();
+    int i = 0;
+    while (i < length) {
+      i = skipLeading(gql, i);
+      int start = i;
+      while (i < length && Character.isLetter(gql.charAt(i))) {
+        i++;
+      }
+      if (i > start && WRITE_KEYWORDS.contains(gql.substring(start, i).toUpperCase())) {
+        return WRITE;
+      }
+      while (i < length && !isSeparator(gql.charAt(i))) {
+        i++;
+      }
+      i++;
+    }
+    return READ;
+  }
+
+  /**
+   * 跳过语句开头的空白、符号与注释，停在第一个字母或分隔符上
+   */
+  private static int skipLeading(String gql, int i) {
+    int length = gql.length();
+    while (i < length) {
+      char c = gql.charAt(i);
+      if (c == '#' || gql.startsWith("//", i) || gql.startsWith("--", i)) {
+        int end = gql.indexOf('\n', i);
+        i = end < 0 ? length : end + 1;
+      } else if (gql.startsWith("/*", i)) {
+        int end = gql.indexOf("*/", i + 2);
+        i = end < 0 ? length : end + 2;
+      } else if (Character.isLetter(c) || isSeparator(c)) {
+        return i;
+      } else {
+        i++;
+      }
+    }
+    return i;
+  }
+
+  private static boolean isSeparator(char c) {
+    return c == ';' || c == '|';
+  }
+
+  /**
+   * 方法的读写类型：标签声明为 WRITE，或语句分析为 WRITE 时都按 WRITE 处理
+   * @param declared 标签声明的读写类型，可为 null
+   * @param gql 渲染后的 nGQL
+   * @return 读写类型
+   */
+  public static StatementType of(StatementType declared, String gql) {
+    return declared == WRITE ? WRITE : ofGql(gql);
+  }
+}
@@ -0,0 +1,204 @@
+package org.nebula.contrib.ngbatis.proxy;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * 把一段时间内按键发起的单个查询合并成一次批量查询。
+ * <p>第一个键到达后等待 window 毫秒，或者凑够 maxBatchSize 个不同的键，
+ * 即把这批键交给批量查询，再按键完成各调用方的 future。
+ * 批量结果中没有的键得到 null，批量查询失败时这一批都失败。</p>
+ * <p>每次 load 得到各自的 future，超时或取消其中一个不影响其他调用方。
+ * 同一批中重复的键只查询一次，第一个调用方得到查询结果本身，其余调用方得到 copier 给出的副本，
+ * 避免多个调用方修改同一个对象。</p>
+ *
+ * @param <K> 键的类型
+ * @param <V> 结果的类型
+ */
+public class BatchLoader<K, V> {
+
+  /**
+   * 批次大小分布的桶数，第 i 个桶统计大小在 (2^(i-1), 2^i] 之间的批次，最后一个桶不设上限
+   */
+  public static final int BUCKETS = 12;
+
+  private final Function<List<K>, Map<K, V>> batchQuery;
+  private final UnaryOperator<V> copier;
+  private final long window;
+  private final int maxBatchSize;
+  private final ScheduledExecutorService timer;
+  private final Executor executor;
+  private final ReentrantLock lock = new ReentrantLock();
+  private Map<K, List<CompletableFuture<V>>> pending = new LinkedHashMap<>();
+  private final LongAdder keys = new LongAdder();
+  private final LongAdder batches = new LongAdder();
+  private final LongAdder[] sizes = new LongAdder[BUCKETS];
+
+  /**
+   * 批量加载器，同一批中重复的键得到同一个结果，只适用于不可变的结果
+   * @param batchQuery 批量查询，返回键与结果
+   * @param window 等待更多键的时间，单位 ms
+   * @param maxBatchSize 每批最多的键数
+   * @param timer 到时提交批次的定时器
+   * @param executor 执行批量查询的线程池
+   */
+  public BatchLoader(Function<List<K>, Map<K, V>> batchQuery, long window, int maxBatchSize,
+      ScheduledExecutorService timer, Executor executor) {
+    this(batchQuery, UnaryOperator.identity(), window, maxBatchSize, timer, executor);
+  }
+
+  /**
+   * 批量加载器
+   * @param batchQuery 批量查询，返回键与结果
+   * @param copier 为同一批中重复的键复制结果，不会收到 null
+   * @param window 等待更多键的时间，单位 ms
+   * @param maxBatchSize 每批最多的键数
+   * @param timer 到时提交批次的定时器
+   * @param executor 执行批量查询的线程池
+   */
+  public BatchLoader(Function<List<K>, Map<K, V>> batchQuery, UnaryOperator<V> copier,
+      long window, int maxBatchSize, ScheduledExecutorService timer, Executor executor) {
+    this.batchQuery = batchQuery;
+    this.copier = copier;
+    this.window = window;
+    this.maxBatchSize = maxBatchSize;
+    this.timer = timer;
+    this.executor = executor;
+    for (int i = 0; i < BUCKETS; i++) {
+      sizes[i] = new LongAdder();
+    }
+  }
+
+  /**
+   * 按键加载，结果在所在批次查询完成后给出
+   * @param key 键
+   * @return 结果，没有对应的结果时为 null
+   */
+  public CompletableFuture<V> load(K key) {
+    keys.increment();
+    Map<K, List<CompletableFuture<V>>> full = null;
+    CompletableFuture<V> future = new CompletableFuture<>();
+    lock.lock();
+    try {
+      List<CompletableFuture<V>> waiters = pending.get(key);
+      if (waiters != null) {
+        waiters.add(future);
+        return future;
+      }
+      waiters = new ArrayList<>(1);
+      waiters.add(future);
+      pending.put(key, waiters);
+      if (pending.size() >= maxBatchSize) {
+        full = pending;
+        pending = new LinkedHashMap<>();
+      } else if (pending.size() == 1) {
+        Map<K, List<CompletableFuture<V>>> batch = pending;
+        timer.schedule(() -> dispatch(batch), window, TimeUnit.MILLISECONDS);
+      }
+    } finally {
+      lock.unlock();
+    }
+    if (full != null) {
+      Map<K, List<CompletableFuture<V>>> batch = full;
+      executor.execute(() -> run(batch));
+    }
+    return future;
+  }
+
+  /**
+   * 到时提交批次，批次已因凑满而提交时不再重复提交
+   */
+  private void dispatch(Map<K, List<CompletableFuture<V>>> batch) {
+    lock.lock();
+    try {
+      if (pending != batch) {
+        return;
+      }
+      pending = new LinkedHashMap<>();
+    } finally {
+      lock.unlock();
+    }
+    executor.execute(() -> run(batch));
+  }
+
+  private void run(Map<K, List<CompletableFuture<V>>> batch) {
+    batches.increment();
+    sizes[bucketOf(batch.size())].increment();
+    Map<K, V> rows;
+    try {
+      Map<K, V> result = batchQuery.apply(new ArrayList<>(batch.keySet()));
+      rows = result == null ? Collections.emptyMap() : result;
+    } catch (RuntimeException | Error e) {
+      batch.values().forEach(waiters -> waiters.forEach(future -> future.completeExceptionally(e)));
+      return;
+    }
+    batch.forEach((key, waiters) -> complete(waiters, rows.get(key)));
+  }
+
+  /**
+   * 第一个调用方得到结果本身，其余调用方各得到一个副本，复制失败的调用方得到该异常
+   */
+  private void complete(List<CompletableFuture<V>> waiters, V row) {
+    waiters.get(0).complete(row);
+    for (int i = 1; i < waiters.size(); i++) {
+      CompletableFuture<V> future = waiters.get(i);
+      if (row == null || future.isDone()) {
+        future.complete(row);
+        continue;
+      }
+      try {
+        future.complete(copier.apply(row));
+      } catch (RuntimeException | Error e) {
+        future.completeExceptionally(e);
+      }
+    }
+  }
+
+  private static int bucketOf(int size) {
+    int bucket = 32 - Integer.numberOfLeadingZeros(size - 1);
+    return Math.min(bucket, BUCKETS - 1);
+  }
+
+  /**
+   * 加载过的键数，含同一批中重复的键
+   * @return 键数
+   */
+  public long getKeyCount() {
+    return keys.sum();
+  }
+
+  /**
+   * 执行过的批量查询数
+   * @return 批次数
+   */
+  public long getBatchCount() {
+    return batches.sum();
+  }
+
+  /**
+   * 批次大小的分布，第 i 个元素为大小在 (2^(i-1), 2^i] 之间的批次数（第 0 个为大小 1）
+   * @return 各桶的批次数
+   */
+  public long[] getBatchSizeHistogram() {
+    long[] histogram = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      histogram[i] = sizes[i].sum();
+    }
+    return histogram;
+  }
+}
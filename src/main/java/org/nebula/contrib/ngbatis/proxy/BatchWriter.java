@@ -0,0 +1,485 @@
+package org.nebula.contrib.ngbatis.proxy;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import static org.nebula.contrib.ngbatis.proxy.NebulaDaoBasicExt.daoBasicMethod;
+import static org.nebula.contrib.ngbatis.proxy.NebulaDaoBasicExt.getClassModel;
+import static org.nebula.contrib.ngbatis.proxy.NebulaDaoBasicExt.vertexName;
+
+import com.vesoft.nebula.client.graph.data.ResultSet;
+import java.io.Closeable;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.nebula.contrib.ngbatis.exception.QueryException;
+import org.nebula.contrib.ngbatis.models.ClassModel;
+import org.nebula.contrib.ngbatis.models.MethodModel;
+import org.nebula.contrib.ngbatis.models.StatementType;
+import org.nebula.contrib.ngbatis.utils.ReflectUtil;
+
+/**
+ * 写缓冲：把短时间内的多个写操作按 space 合并成一次以分号连接的多语句请求。
+ * <p>写操作在调用线程中渲染，之后放入所在 space 的缓冲区，
+ * 第一个写操作到达后等待 window 毫秒，或者凑够 maxBatchSize 个写操作，即合并执行。
+ * 各语句的参数加上 w{序号}_ 前缀，避免不同语句的同名参数互相覆盖。
+ * 同一 space 的批次按提交顺序依次执行，每个 space 最多一个批次在执行、一次刷新在排队，
+ * 执行线程数不随写入量增长。</p>
+ * <p>缓冲期间按标签与 vid 合并重复的写：
+ * <ul>
+ *   <li>insert / insertSelective 为 IF NOT EXISTS，同一顶点后到的插入不再执行，共用先到的结果；</li>
+ *   <li>updateByIdSelective 更新的非空属性包含了先到的更新时，先到的更新不再执行，
+ *   两者共用后到的结果；</li>
+ *   <li>deleteById 与 xml 中的写语句之前的写不再参与合并。</li>
+ * </ul></p>
+ * <p>合并请求只返回最后一条语句的结果，成功时各写操作的 future 都得到这一结果集。
+ * 合并请求失败时，基类方法的写（可重复执行）逐条重新执行，各自给出成功或失败；
+ * xml 中的写语句无法确认是否可以重复执行，以合并请求的异常失败，可能已经部分生效。</p>
+ */
+public class BatchWriter implements Closeable {
+
+  private static final Pattern TRAILING_SEMICOLON = Pattern.compile("[;\\s]+$");
+
+  private final long window;
+  private final int maxBatchSize;
+  /**
+   * 执行语句，默认为 {@link MapperProxy#executeInSpace(String, String, Map)}
+   */
+  private final Function<RenderedStatement, ResultSet> executor;
+  private final Map<String, Buffer> buffers = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService timer;
+  /**
+   * 执行刷新的线程，每个 space 同时最多占用两个：一个执行中，一个等待执行锁
+   */
+  private final ExecutorService flusher;
+  private final LongAdder writes = new LongAdder();
+  private final LongAdder coalesced = new LongAdder();
+  private final LongAdder batches = new LongAdder();
+  private final LongAdder fallbacks = new LongAdder();
+
+  /**
+   * 写缓冲
+   * @param window 等待更多写操作的时间，单位 ms
+   * @param maxBatchSize 每次请求最多合并的写操作数
+   */
+  public BatchWriter(long window, int maxBatchSize) {
+    this(window, maxBatchSize, statement -> MapperProxy.executeInSpace(
+        statement.getSpace(), statement.getGql(), statement.getParams()));
+  }
+
+  BatchWriter(long window, int maxBatchSize, Function<RenderedStatement, ResultSet> executor) {
+    this.window = window;
+    this.maxBatchSize = maxBatchSize;
+    this.executor = executor;
+    AtomicInteger index = new AtomicInteger();
+    this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "ngbatis-write-behind-timer");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.flusher = Executors.newCachedThreadPool(r -> {
+      Thread thread = new Thread(r, "ngbatis-write-behind-" + index.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * 缓冲 {@link NebulaDaoBasic#insert}
+   * @param dao 实体对应的 dao
+   * @param record 实体
+   * @return 所在批次的结果集
+   */
+  public CompletableFuture<ResultSet> insert(NebulaDaoBasic<?, ?> dao, Object record) {
+    return insert(dao, "insert", record);
+  }
+
+  /**
+   * 缓冲 {@link NebulaDaoBasic#insertSelective}
+   * @param dao 实体对应的 dao
+   * @param record 实体
+   * @return 所在批次的结果集
+   */
+  public CompletableFuture<ResultSet> insertSelective(NebulaDaoBasic<?, ?> dao, Object record) {
+    return insert(dao, "insertSelective", record);
+  }
+
+  private CompletableFuture<ResultSet> insert(NebulaDaoBasic<?, ?> dao, String methodName,
+      Object record) {
+    ClassModel classModel = getClassModel(dao.getClass());
+    MethodModel methodModel = classModel.getDaoBasicMethod(methodName);
+    RenderedStatement statement = render(classModel, methodModel, record);
+    return submit(new Write(statement, Kind.INSERT, vertexKey(record), null, true));
+  }
+
+  /**
+   * 缓冲 {@link NebulaDaoBasic#updateByIdSelective}
+   * @param dao 实体对应的 dao
+   * @param record 实体，主键不能为空
+   * @return 所在批次的结果集
+   */
+  public CompletableFuture<ResultSet> updateByIdSelective(NebulaDaoBasic<?, ?> dao,
+      Object record) {
+    ClassModel classModel = getClassModel(dao.getClass());
+    MethodModel methodModel = daoBasicMethod(classModel, "updateByIdSelective",
+        record.getClass());
+    RenderedStatement statement = render(classModel, methodModel, record);
+    return submit(
+        new Write(statement, Kind.UPDATE, vertexKey(record), nonNullColumns(record), true));
+  }
+
+  /**
+   * 缓冲 {@link NebulaDaoBasic#insertEdge}
+   * @param dao 实体对应的 dao
+   * @param v1 开始节点值 或 开始节点id
+   * @param e 关系值
+   * @param v2 结束节点值 或 结束节点id
+   * @return 所在批次的结果集
+   */
+  public CompletableFuture<ResultSet> insertEdge(NebulaDaoBasic<?, ?> dao, Object v1, Object e,
+      Object v2) {
+    ClassModel classModel = getClassModel(dao.getClass());
+    MethodModel methodModel = classModel.getDaoBasicMethod("insertEdge");
+    RenderedStatement statement = render(classModel, methodModel, v1, e, v2);
+    return submit(new Write(statement, Kind.OTHER, null, null, true));
+  }
+
+  /**
+   * 缓冲 {@link NebulaDaoBasic#deleteById}
+   * @param dao 实体对应的 dao
+   * @param id 主键值
+   * @return 所在批次的结果集
+   */
+  public CompletableFuture<ResultSet> deleteById(NebulaDaoBasic<?, ?> dao, Object id) {
+    ClassModel classModel = getClassModel(dao.getClass());
+    MethodModel methodModel = classModel.getDaoBasicMethod("deleteById");
+    RenderedStatement statement = render(classModel, methodModel, id);
+    return submit(new Write(statement, Kind.BARRIER, null, null, true));
+  }
+
+  /**
+   * 缓冲 xml 中声明的 insert / update / delete 方法
+   * @param dao 声明方法的 dao
+   * @param methodName xml 中的方法 id
+   * @param args 方法参数
+   * @return 所在批次的结果集
+   */
+  public CompletableFuture<ResultSet> execute(Object dao, String methodName, Object... args) {
+    ClassModel classModel = getClassModel(dao.getClass());
+    MethodModel methodModel = classModel == null ? null : classModel.getMethod(methodName);
+    if (methodModel == null) {
+      throw new QueryException("未找到方法：" + dao.getClass().getName() + "." + methodName);
+    }
+    if (methodModel.getStatementType() != StatementType.WRITE) {
+      throw new QueryException("只有写语句可以缓冲执行：" + methodName);
+    }
+    RenderedStatement statement = MapperProxy.render(
+        InvocationPlan.cached(classModel, methodModel), args);
+    return submit(new Write(statement, Kind.BARRIER, null, null, false));
+  }
+
+  private static RenderedStatement render(ClassModel classModel, MethodModel methodModel,
+      Object... args) {
+    return MapperProxy.render(InvocationPlan.cached(classModel, methodModel), args);
+  }
+
+  /**
+   * 放入语句所在 space 的缓冲区，按标签与 vid 合并重复的写
+   * @param write 渲染完成的写操作
+   * @return 写操作的结果
+   */
+  CompletableFuture<ResultSet> submit(Write write) {
+    writes.increment();
+    String space = write.statement.getSpace();
+    Buffer buffer = buffers.computeIfAbsent(space == null ? "" : space, k -> new Buffer(space));
+    boolean full = false;
+    buffer.lock.lock();
+    try {
+      Write previous = write.key == null ? null : buffer.latest.get(write.key);
+      if (previous != null && previous.kind == write.kind) {
+        if (write.kind == Kind.INSERT) {
+          coalesced.increment();
+          return previous.future;
+        }
+        if (write.columns.containsAll(previous.columns)) {
+          coalesced.increment();
+          buffer.writes.remove(previous);
+          write.future.whenComplete((result, error) -> complete(previous.future, result, error));
+        }
+      }
+      if (write.kind == Kind.BARRIER) {
+        buffer.latest.clear();
+      } else if (write.key != null) {
+        buffer.latest.put(write.key, write);
+      }
+      buffer.writes.add(write);
+      if (buffer.writes.size() >= maxBatchSize) {
+        full = true;
+      } else if (buffer.writes.size() == 1) {
+        timer.schedule(() -> scheduleFlush(buffer), window, TimeUnit.MILLISECONDS);
+      }
+    } finally {
+      buffer.lock.unlock();
+    }
+    if (full) {
+      scheduleFlush(buffer);
+    }
+    return write.future;
+  }
+
+  /**
+   * 安排一次刷新，已有刷新在排队时不再安排：排队的刷新取到执行锁后会取出缓冲中的全部写操作
+   */
+  private void scheduleFlush(Buffer buffer) {
+    if (buffer.flushQueued.compareAndSet(false, true)) {
+      flusher.execute(() -> flush(buffer));
+    }
+  }
+
+  /**
+   * 立即执行所有缓冲中的写操作，返回时这些写操作都已完成
+   */
+  public void flush() {
+    for (Buffer buffer : buffers.values()) {
+      flush(buffer);
+    }
+  }
+
+  /**
+   * 同一 space 的批次依次执行：取到执行锁后再取出缓冲中的全部写操作
+   */
+  private void flush(Buffer buffer) {
+    buffer.flushLock.lock();
+    try {
+      // 取到执行锁后才允许安排下一次刷新，之后到达的写由下一次刷新执行
+      buffer.flushQueued.set(false);
+      List<Write> batch;
+      buffer.lock.lock();
+      try {
+        batch = buffer.writes;
+        buffer.writes = new ArrayList<>();
+        buffer.latest.clear();
+      } finally {
+        buffer.lock.unlock();
+      }
+      for (int from = 0; from < batch.size(); from += maxBatchSize) {
+        execute(buffer.space, batch.subList(from, Math.min(batch.size(), from + maxBatchSize)));
+      }
+    } finally {
+      buffer.flushLock.unlock();
+    }
+  }
+
+  private void execute(String space, List<Write> batch) {
+    batches.increment();
+    try {
+      ResultSet result = executor.apply(join(space, batch));
+      for (Write write : batch) {
+        write.future.complete(result);
+      }
+    } catch (RuntimeException e) {
+      if (batch.size() == 1) {
+        batch.get(0).future.completeExceptionally(e);
+        return;
+      }
+      fallbacks.increment();
+      for (Write write : batch) {
+        if (!write.idempotent) {
+          write.future.completeExceptionally(e);
+          continue;
+        }
+        try {
+          write.future.complete(executor.apply(write.statement));
+        } catch (RuntimeException single) {
+          write.future.completeExceptionally(single);
+        }
+      }
+    }
+  }
+
+  /**
+   * 把一批语句以分号连接成一条请求，参数名加上 w{序号}_ 前缀，语句中未引用的参数不再发送
+   * @param space 执行语句的 space
+   * @param batch 同一 space 中的写操作
+   * @return 合并后的语句
+   */
+  static RenderedStatement join(String space, List<Write> batch) {
+    if (batch.size() == 1) {
+      return batch.get(0).statement;
+    }
+    StringBuilder gql = new StringBuilder();
+    Map<String, Object> params = new LinkedHashMap<>();
+    for (int i = 0; i < batch.size(); i++) {
+      RenderedStatement statement = batch.get(i).statement;
+      String text = TRAILING_SEMICOLON.matcher(statement.getGql()).replaceAll("");
+      Map<String, Object> own = statement.getParams();
+      if (own != null) {
+        for (Map.Entry<String, Object> param : own.entrySet()) {
+          String name = "w" + i + "_" + param.getKey();
+          Matcher matcher = Pattern.compile("\\$" + Pattern.quote(param.getKey()) + "\\b")
+              .matcher(text);
+          if (matcher.find()) {
+            text = matcher.replaceAll(Matcher.quoteReplacement("$" + name));
+            params.put(name, param.getValue());
+          }
+        }
+      }
+      gql.append(text).append(";\n");
+    }
+    return new RenderedStatement(space, gql.toString(), params);
+  }
+
+  private static String vertexKey(Object record) {
+    Field pkField = ReflectUtil.getPkField(record.getClass());
+    Object id = ReflectUtil.getValue(record, pkField);
+    return id == null ? null : vertexName(record.getClass()) + ":" + id;
+  }
+
+  private static Set<String> nonNullColumns(Object record) {
+    Set<String> columns = new HashSet<>();
+    for (Field field : ReflectUtil.getAllColumnFields(record.getClass())) {
+      if (ReflectUtil.getValue(record, field) != null) {
+        columns.add(field.getName());
+      }
+    }
+    return columns;
+  }
+
+  private static void complete(CompletableFuture<ResultSet> future, ResultSet result,
+      Throwable error) {
+    if (error != null) {
+      future.completeExceptionally(error);
+    } else {
+      future.complete(result);
+    }
+  }
+
+  /**
+   * 提交的写操作数
+   * @return 写操作数
+   */
+  public long getWriteCount() {
+    return writes.sum();
+  }
+
+  /**
+   * 与缓冲中的写合并、不再单独执行的写操作数
+   * @return 合并的写操作数
+   */
+  public long getCoalescedCount() {
+    return coalesced.sum();
+  }
+
+  /**
+   * 发出的合并请求数，不含失败后逐条重新执行的请求
+   * @return 请求数
+   */
+  public long getBatchCount() {
+    return batches.sum();
+  }
+
+  /**
+   * 合并请求失败后逐条重新执行的次数
+   * @return 次数
+   */
+  public long getFallbackCount() {
+    return fallbacks.sum();
+  }
+
+  /**
+   * 执行缓冲中的写操作，之后停止定时器与执行线程
+   */
+  @Override
+  public void close() {
+    flush();
+    timer.shutdownNow();
+    flusher.shutdown();
+  }
+
+  enum Kind {
+    INSERT,
+    UPDATE,
+    /**
+     * 不参与合并的写，如插入关系
+     */
+    OTHER,
+    /**
+     * 之前的写不再参与合并，如删除与 xml 中的写语句
+     */
+    BARRIER
+  }
+
+  /**
+   * 渲染完成、等待执行的写操作
+   */
+  static class Write {
+
+    private final RenderedStatement statement;
+    private final Kind kind;
+    /**
+     * 标签与 vid，不参与合并时为 null
+     */
+    private final String key;
+    /**
+     * 更新的非空属性，只有更新操作有
+     */
+    private final Set<String> columns;
+    /**
+     * 失败后能否逐条重新执行
+     */
+    private final boolean idempotent;
+    private final CompletableFuture<ResultSet> future = new CompletableFuture<>();
+
+    Write(RenderedStatement statement, Kind kind, String key, Set<String> columns,
+        boolean idempotent) {
+      this.statement = statement;
+      this.kind = kind;
+      this.key = key;
+      this.columns = columns == null ? Collections.emptySet() : columns;
+      this.idempotent = idempotent;
+    }
+  }
+
+  /**
+   * 一个 space 的缓冲区
+   */
+  private static class Buffer {
+
+    private final String space;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    /**
+     * 已安排、尚未取到执行锁的刷新
+     */
+    private final AtomicBoolean flushQueued = new AtomicBoolean();
+    private List<Write> writes = new ArrayList<>();
+    /**
+     * 标签与 vid 对应的最近一次可合并的写
+     */
+    private final Map<String, Write> latest = new HashMap<>();
+
+    Buffer(String space) {
+      this.space = space;
+    }
+  }
+}
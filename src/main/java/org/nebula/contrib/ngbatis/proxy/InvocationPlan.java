@@ -0,0 +1,286 @@
+package org.nebula.contrib.ngbatis.proxy;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.Iterator;
+import java.util.stream.BaseStream;
+import org.nebula.contrib.ngbatis.ResultHandler;
+import org.nebula.contrib.ngbatis.annotations.UseKeyArgReplace;
+import org.nebula.contrib.ngbatis.models.ClassModel;
+import org.nebula.contrib.ngbatis.models.MethodModel;
+import org.nebula.contrib.ngbatis.models.StatementType;
+import org.nebula.contrib.ngbatis.utils.CursorPage;
+import org.nebula.contrib.ngbatis.utils.Page;
+import org.nebula.contrib.ngbatis.utils.ReflectUtil;
+import org.springframework.data.repository.query.Param;
+
+/**
+ * 单个 dao 方法的调用计划，启动时为每个方法构建一次，之后不再改变。
+ * <p>把每次调用都要重复的反射与查找提前完成：
+ * 是否按参数名替换（{@link UseKeyArgReplace}）、目标 space、参数名、
+ * 分页参数的下标及其 $Count / $Page 的调用计划、游标分页参数的下标、结果的缓存时间、结果集处理器。
+ * 生成的代理类以静态字段直接持有各方法的调用计划，
+ * 调用时交给 {@link MapperProxy#invoke(InvocationPlan, Object...)}。</p>
+ */
+public final class InvocationPlan {
+
+  private final ClassModel classModel;
+  private final MethodModel methodModel;
+  /**
+   * 是否来自 xml 中声明的方法，开启热加载时只有这类方法需要重新解析
+   */
+  private final boolean fromXml;
+  private final boolean useKeyArgReplace;
+  /**
+   * 方法或接口上声明的 space，都没有声明时为 null，使用默认 space
+   */
+  private final String space;
+  /**
+   * 各参数 {@link Param} 注解声明的参数名，没有注解的为 null
+   */
+  private final String[] paramNames;
+  private final int pageParamIndex;
+  /**
+   * 游标分页参数（{@link CursorPage}）的下标，没有时为 -1
+   */
+  private final int cursorParamIndex;
+  private final InvocationPlan countPlan;
+  private final InvocationPlan pagePlan;
+  private final Class<?> returnType;
+  private final Class<?> resultType;
+  /**
+   * 是否为分页的 $Count 查询或基类的 countPage，开启总数缓存时结果可以缓存
+   */
+  private final boolean countQuery;
+  /**
+   * 总数缓存中的方法标识：接口全名与方法 id
+   */
+  private final String cacheId;
+  /**
+   * 查询结果的缓存时间（ms），0 为使用默认时间，null 为不缓存；
+   * 写语句与只能消费一次的返回值（Stream、Iterator）不缓存
+   */
+  private final Long cacheTtl;
+  /**
+   * 是否为基类的 selectById，开启 id-batch 时与同一 dao 上的其他 id 合并查询
+   */
+  private final boolean idBatchable;
+  /**
+   * 结果集处理器在处理器 bean 注册之后才能找到，第一次找到后不再查找
+   */
+  private volatile ResultHandler<Object, Object> resultHandler;
+
+  private InvocationPlan(ClassModel classModel, MethodModel methodModel, boolean fromXml) {
+    this.classModel = classModel;
+    this.methodModel = methodModel;
+    this.fromXml = fromXml;
+    Method method = methodModel.getMethod();
+    this.useKeyArgReplace = method != null && method.isAnnotationPresent(UseKeyArgReplace.class);
+    this.space = methodModel.getSpace() != null ? methodModel.getSpace()
+        : classModel != null ? classModel.getSpace()
+          : null;
+    this.paramNames = paramNames(methodModel);
+    this.pageParamIndex = fromXml && method != null
+        ? ReflectUtil.containsType(method, Page.class)
+        : -1;
+    this.cursorParamIndex = fromXml && method != null
+        ? ReflectUtil.containsType(method, CursorPage.class)
+        : -1;
+    this.countPlan = pageParamIndex < 0 ? null : pagePlan(classModel, methodModel, "$Count");
+    this.pagePlan = pageParamIndex < 0 && cursorParamIndex < 0 ? null
+        : pagePlan(classModel, methodModel, "$Page");
+    this.returnType = methodModel.getReturnType();
+    this.resultType = methodModel.getResultType() != null
+        ? methodModel.getResultType()
+        : returnType;
+    String id = methodModel.getId();
+    this.countQuery = id != null && (id.endsWith("$Count") || "countPage".equals(id));
+    Class<?> namespace = classModel == null ? null : classModel.getNamespace();
+    this.cacheId = (namespace == null ? "" : namespace.getName()) + "." + id;
+    this.cacheTtl = methodModel.getStatementType() == StatementType.WRITE || isLazy(returnType)
+        ? null
+        : methodModel.getCacheTtl();
+    this.idBatchable = !fromXml && "selectById".equals(id) && classModel != null
+        && methodModel == classModel.getDaoBasicMethod("selectById");
+  }
+
+  /**
+   * 构建方法的调用计划，参数中有 {@link Page} 时一并构建 $Count 与 $Page 的调用计划，
+   * 有 {@link CursorPage} 时一并构建 $Page 的调用计划
+   * @param classModel 接口类模型
+   * @param methodModel 接口方法模型
+   * @return 调用计划
+   */
+  public static InvocationPlan of(ClassModel classModel, MethodModel methodModel) {
+    return new InvocationPlan(classModel, methodModel, true);
+  }
+
+  /**
+   * 构建不做分页处理、也不随 xml 热加载的调用计划，用于每次调用时才有方法模型的场景与基类方法
+   * @param classModel 接口类模型
+   * @param methodModel 接口方法模型
+   * @return 调用计划
+   */
+  public static InvocationPlan single(ClassModel classModel, MethodModel methodModel) {
+    return new InvocationPlan(classModel, methodModel, false);
+  }
+
+  /**
+   * 获取 {@link #single(ClassModel, MethodModel)} 的调用计划：
+   * 方法模型属于当前类模型（xml 中的方法或基类方法）时，每个方法模型只构建一次，缓存在类模型中；
+   * 每次调用才生成的方法模型（如 {@link NebulaDaoBasicExt#proxy}）数量不定，不缓存
+   * @param classModel 接口类模型
+   * @param methodModel 接口方法模型
+   * @return 调用计划
+   */
+  public static InvocationPlan cached(ClassModel classModel, MethodModel methodModel) {
+    if (!ownedBy(classModel, methodModel)) {
+      return single(classModel, methodModel);
+    }
+    return classModel.getPlan(methodModel, mm -> single(classModel, mm));
+  }
+
+  private static boolean ownedBy(ClassModel classModel, MethodModel methodModel) {
+    if (classModel == null || methodModel.getId() == null) {
+      return false;
+    }
+    String id = methodModel.getId();
+    return methodModel == classModel.getDaoBasicMethod(id)
+        || classModel.getMethods() != null && methodModel == classModel.getMethod(id);
+  }
+
+  private static InvocationPlan pagePlan(ClassModel classModel, MethodModel methodModel,
+      String suffix) {
+    MethodModel pageModel = classModel.getMethods().get(methodModel.getId() + suffix);
+    return new InvocationPlan(classModel, pageModel, false);
+  }
+
+  private static boolean isLazy(Class<?> returnType) {
+    return returnType != null
+        && (BaseStream.class.isAssignableFrom(returnType)
+          || Iterator.class.isAssignableFrom(returnType));
+  }
+
+  private static String[] paramNames(MethodModel methodModel) {
+    Method method = methodModel.getMethod();
+    if (method == null) {
+      Class<?>[] parameterTypes = methodModel.getParameterTypes();
+      return new String[parameterTypes == null ? 0 : parameterTypes.length];
+    }
+    Annotation[][] parameterAnnotations = method.getParameterAnnotations();
+    String[] names = new String[parameterAnnotations.length];
+    for (int i = 0; i < parameterAnnotations.length; i++) {
+      for (Annotation annotation : parameterAnnotations[i]) {
+        if (annotation instanceof Param) {
+          names[i] = ((Param) annotation).value();
+        }
+      }
+    }
+    return names;
+  }
+
+  /**
+   * 与返回值类型、xml 中声明的结果类型对应的结果集处理器
+   * @return 结果集处理器，没有对应的处理器时为 null
+   */
+  public ResultHandler<Object, Object> getResultHandler() {
+    ResultHandler<Object, Object> handler = resultHandler;
+    if (handler == null) {
+      handler = ResultHandler.getHandler(
+          ReflectUtil.sealingBasicType(returnType),
+          ReflectUtil.sealingBasicType(resultType)
+      );
+      resultHandler = handler;
+    }
+    return handler;
+  }
+
+  public ClassModel getClassModel() {
+    return classModel;
+  }
+
+  public MethodModel getMethodModel() {
+    return methodModel;
+  }
+
+  public boolean isFromXml() {
+    return fromXml;
+  }
+
+  public boolean isUseKeyArgReplace() {
+    return useKeyArgReplace;
+  }
+
+  public String getSpace() {
+    return space;
+  }
+
+  /**
+   * 下标处的参数在 {@link Param} 注解中声明的参数名
+   * @param index 参数下标
+   * @return 参数名，没有注解时为 null
+   */
+  public String getParamName(int index) {
+    return paramNames[index];
+  }
+
+  public int getParameterCount() {
+    return paramNames.length;
+  }
+
+  /**
+   * 分页参数在参数列表中的下标
+   * @return 下标，不分页时为 -1
+   */
+  public int getPageParamIndex() {
+    return pageParamIndex;
+  }
+
+  /**
+   * 游标分页参数在参数列表中的下标
+   * @return 下标，不是游标分页时为 -1
+   */
+  public int getCursorParamIndex() {
+    return cursorParamIndex;
+  }
+
+  public InvocationPlan getCountPlan() {
+    return countPlan;
+  }
+
+  public InvocationPlan getPagePlan() {
+    return pagePlan;
+  }
+
+  public Class<?> getReturnType() {
+    return returnType;
+  }
+
+  public Class<?> getResultType() {
+    return resultType;
+  }
+
+  public boolean isCountQuery() {
+    return countQuery;
+  }
+
+  public String getCacheId() {
+    return cacheId;
+  }
+
+  /**
+   * 查询结果的缓存时间
+   * @return 过期时间（ms），0 为使用默认时间，不缓存时为 null
+   */
+  public Long getCacheTtl() {
+    return cacheTtl;
+  }
+
+  public boolean isIdBatchable() {
+    return idBatchable;
+  }
+}
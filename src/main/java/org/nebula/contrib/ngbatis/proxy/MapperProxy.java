@@ -7,26 +7,38 @@ package org.nebula.contrib.ngbatis.proxy;
 import static org.nebula.contrib.ngbatis.models.ClassModel.PROXY_SUFFIX;
 
 import com.vesoft.nebula.client.graph.data.ResultSet;
-import com.vesoft.nebula.client.graph.net.Session;
-import java.io.IOException;
+import com.vesoft.nebula.client.graph.exception.IOErrorException;
 import java.lang.reflect.Method;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.nebula.contrib.ngbatis.ArgNameFormatter;
 import org.nebula.contrib.ngbatis.Env;
 import org.nebula.contrib.ngbatis.ResultResolver;
-import org.nebula.contrib.ngbatis.annotations.UseKeyArgReplace;
+import org.nebula.contrib.ngbatis.SessionDispatcher;
+import org.nebula.contrib.ngbatis.cache.CountCache;
+import org.nebula.contrib.ngbatis.cache.CountKey;
+import org.nebula.contrib.ngbatis.cache.QueryCache;
+import org.nebula.contrib.ngbatis.cache.QueryKey;
+import org.nebula.contrib.ngbatis.cache.SingleFlight;
+import org.nebula.contrib.ngbatis.config.NgbatisConfig.PageStrategy;
 import org.nebula.contrib.ngbatis.config.ParseCfgProps;
 import org.nebula.contrib.ngbatis.exception.QueryException;
 import org.nebula.contrib.ngbatis.models.ClassModel;
 import org.nebula.contrib.ngbatis.models.MapperContext;
 import org.nebula.contrib.ngbatis.models.MethodModel;
+import org.nebula.contrib.ngbatis.models.StatementType;
+import org.nebula.contrib.ngbatis.session.Bulkhead;
+import org.nebula.contrib.ngbatis.session.HostRouter;
 import org.nebula.contrib.ngbatis.session.LocalSession;
+import org.nebula.contrib.ngbatis.session.RoutedHost;
+import org.nebula.contrib.ngbatis.utils.CursorPage;
 import org.nebula.contrib.ngbatis.utils.Page;
 import org.nebula.contrib.ngbatis.utils.ReflectUtil;
 import org.slf4j.Logger;
@@ -58,7 +70,10 @@ public class MapperProxy {
 
   /**
    * <strong>框架中极其重要的方法，被动态代理类所执行。是动态代理的入口方法{@link MapperProxyClassGenerator#method}</strong>
-   * 提供给代理类所调用
+   * 提供给代理类所调用。<br/>
+   * 生成的代理类平时走 {@link #invoke(InvocationPlan, Object...)}，只有 xml 热加载后、
+   * 新的调用计划换上之前，或外部直接按接口名调用时才会进入这里，
+   * 调用计划按方法名缓存在类模型中，不在每次调用时重新构建。
    *
    * @param className  访问数据库的接口
    * @param methodName 执行数据库操作的方法名
@@ -66,29 +81,66 @@ public class MapperProxy {
    * @return 结果对象映射的 java 对象
    */
   public static Object invoke(String className, String methodName, Object... args) {
-    MapperContext mapperContext = ENV.getMapperContext();
     String proxyClassName = className + PROXY_SUFFIX;
-    ClassModel classModel = mapperContext.getInterfaces().get(proxyClassName);
-    Method method = null;
-    if (mapperContext.isResourceRefresh()) {
-      try {
-        Map<String, ClassModel> classModelMap =
-            classModel.getResourceLoader().parseClassModel(classModel.getResource());
-        classModel = classModelMap.get(proxyClassName);
-        method = classModel.getMethod(methodName).getMethod();
-      } catch (IOException e) {
-        e.printStackTrace();
-      }
-    } else {
-      method = classModel.getMethod(methodName).getMethod();
-    }
-    return pageSupport(classModel, method, args);
+    ClassModel classModel = ENV.getMapperContext().getInterfaces().get(proxyClassName);
+    // 与代理类字段一样使用含分页的调用计划，每个类模型按方法名只构建一次
+    InvocationPlan plan = classModel.getMethodPlan(methodName,
+        name -> InvocationPlan.of(classModel, classModel.getMethod(name)));
+    return invoke(plan, args);
   }
 
   public static Object invoke(MethodModel methodModel, Object... args) {
     return invoke(null, methodModel, args);
   }
 
+  /**
+   * 生成的代理类所调用的入口，使用启动时为每个方法构建好的调用计划，
+   * 不再在每次调用时查找类模型、反射注解与分页参数。
+   * xml 被重新加载后 {@link org.nebula.contrib.ngbatis.io.MapperWatcher} 会换上新的调用计划，
+   * 换上之前的调用中 xml 声明的方法按接口名与方法名使用新的类模型。
+   *
+   * @param plan 方法的调用计划
+   * @param args 执行数据库操作的参数
+   * @return 结果对象映射的 java 对象
+   */
+  public static Object invoke(InvocationPlan plan, Object... args) {
+    if (plan.isFromXml() && isReloaded(plan.getClassModel())) {
+      return invoke(plan.getClassModel().getNamespace().getName(),
+          plan.getMethodModel().getId(), args);
+    }
+    SelectByIdBatcher idBatcher = ENV.getIdBatcher();
+    if (idBatcher != null && plan.isIdBatchable() && args[0] != null) {
+      return idBatcher.selectById(plan.getClassModel(), args[0]);
+    }
+    int cursorParamIndex = plan.getCursorParamIndex();
+    if (cursorParamIndex >= 0) {
+      return cursorPage((CursorPage<Object>) args[cursorParamIndex],
+          () -> (List<Object>) invokeWithPlan(plan.getPagePlan(), args));
+    }
+    int pageParamIndex = plan.getPageParamIndex();
+    if (pageParamIndex < 0) {
+      return invokeWithPlan(plan, args);
+    }
+    return PageRunner.run(
+        pageStrategy(PageStrategy.SEQUENTIAL),
+        (Page) args[pageParamIndex],
+        () -> (Long) invokeWithPlan(plan.getCountPlan(), args),
+        () -> (List<Object>) invokeWithPlan(plan.getPagePlan(), args)
+    );
+  }
+
+  /**
+   * 类模型是否已被 {@link org.nebula.contrib.ngbatis.io.MapperWatcher} 替换为新的版本
+   * @param classModel 调用计划所持有的类模型
+   * @return 上下文中的类模型已不是同一个对象时为 true
+   */
+  private static boolean isReloaded(ClassModel classModel) {
+    MapperContext mapperContext = ENV.getMapperContext();
+    return mapperContext.isResourceRefresh()
+        && mapperContext.getInterfaces().get(
+            classModel.getNamespace().getName() + PROXY_SUFFIX) != classModel;
+  }
+
   /**
    * 提供给基类所调用，完整描述整个 orm 流程的核心方法。
    * <ol>
@@ -105,30 +157,81 @@ public class MapperProxy {
    * @return 结果值
    */
   public static Object invoke(ClassModel classModel, MethodModel methodModel, Object... args) {
-    Method method = methodModel.getMethod();
-    ResultSet query = null;
+    return invokeWithPlan(InvocationPlan.cached(classModel, methodModel), args);
+  }
+
+  /**
+   * 按调用计划完成参数格式转换与模板渲染，得到待执行的语句，不执行
+   *
+   * @param plan 方法的调用计划
+   * @param args 执行数据库操作的参数
+   * @return 渲染后的语句、参数与目标 space
+   */
+  static RenderedStatement render(InvocationPlan plan, Object[] args) {
+    ClassModel classModel = plan.getClassModel();
+    MethodModel methodModel = plan.getMethodModel();
     // 参数格式转换
-    final long step0 = System.currentTimeMillis();
-    Map<String, Object> argMap = ENV.getArgsResolver().resolve(methodModel, args);
-    Map<String, Object> paramWithSchema = new LinkedHashMap<String, Object>(argMap) {{
-        put("ng_cm", classModel);
-        put("ng_mm", methodModel);
-        put("ng_args", args);
-      }};
+    Map<String, Object> argMap = ENV.getArgsResolver().resolve(plan, args);
+    Map<String, Object> paramWithSchema = new LinkedHashMap<>(argMap);
+    paramWithSchema.put("ng_cm", classModel);
+    paramWithSchema.put("ng_mm", methodModel);
+    paramWithSchema.put("ng_args", args);
     // beetl 渲染模板
     String textTpl = methodModel.getText();
     String gql = ENV.getTextResolver().resolve(textTpl, paramWithSchema);
     Map<String, Object> params = null;
-    if (method != null && method.isAnnotationPresent(UseKeyArgReplace.class)) {
+    if (plan.isUseKeyArgReplace()) {
       ArgNameFormatter.CqlAndArgs format = ENV.getArgNameFormatter().format(gql, argMap);
       gql = format.getGql();
       params = format.getArgs();
     } else {
       params = argMap;
     }
+    String space = plan.getSpace() != null ? plan.getSpace() : ENV.getSpace();
+    return new RenderedStatement(space, gql, params);
+  }
+
+  private static Object invokeWithPlan(InvocationPlan plan, Object[] args) {
+    ClassModel classModel = plan.getClassModel();
+    MethodModel methodModel = plan.getMethodModel();
+    ResultSet query = null;
+    final long step0 = System.currentTimeMillis();
+    RenderedStatement statement = render(plan, args);
+    String gql = statement.getGql();
+    Map<String, Object> params = statement.getParams();
 
     final long step1 = System.currentTimeMillis();
-    query = executeWithParameter(classModel, methodModel, gql, params);
+    CountCache countCache = plan.isCountQuery() ? ENV.getCountCache() : null;
+    CountKey countKey = null;
+    long[] versions = null;
+    if (countCache != null) {
+      countKey = new CountKey(plan.getCacheId(), gql, params);
+      if (countCache.isCacheable(countKey)) {
+        Long count = countCache.get(countKey);
+        if (count != null) {
+          return count;
+        }
+        versions = countCache.versionsOf(countKey);
+      }
+    }
+    QueryCache queryCache = versions == null && plan.getCacheTtl() != null
+        ? ENV.getQueryCache()
+        : null;
+    QueryKey queryKey = null;
+    long[] queryVersions = null;
+    if (queryCache != null) {
+      queryKey = new QueryKey(plan.getCacheId(), gql, params);
+      if (queryCache.isCacheable(queryKey)) {
+        // 缓存的是原始结果集，命中时重新转换，各调用方得到各自的对象
+        query = (ResultSet) queryCache.get(queryKey);
+        if (query == null) {
+          queryVersions = queryCache.versionsOf(queryKey);
+        }
+      }
+    }
+    if (query == null) {
+      query = executeRead(classModel, methodModel, statement.getSpace(), gql, params);
+    }
 
     final long step2 = System.currentTimeMillis();
     if (!query.isSucceeded()) {
@@ -140,7 +243,13 @@ public class MapperProxy {
     }
 
     ResultResolver resultResolver = ENV.getResultResolver();
-    Object resolve = resultResolver.resolve(methodModel, query);
+    Object resolve = resultResolver.resolve(plan, query);
+    if (versions != null && resolve instanceof Long) {
+      countCache.put(countKey, (Long) resolve, versions);
+    }
+    if (queryVersions != null) {
+      queryCache.put(queryKey, query, plan.getCacheTtl(), queryVersions);
+    }
     long step3 = System.currentTimeMillis();
 
     log.debug("nGql make up costs {}ms, query costs {}ms, result handle costs {}ms ",
@@ -161,43 +270,40 @@ public class MapperProxy {
    */
   public Object invoke(ClassModel classModel, Method method, Object... args) {
     MethodModel methodModel = methodCache.get(method.getName());
-    methodModel.setMethod(method);
+    if (methodModel.getMethod() != method) {
+      // 共享的方法模型加载后只读，按调用使用副本
+      methodModel = methodModel.copy();
+      methodModel.setMethod(method);
+    }
 
     return invoke(classModel, methodModel, args);
   }
 
   /**
-   * 自动对该分页的接口进行分页操作<br/> 该分页：接口参数中有 {@link Page Page} 对象。
-   *
-   * @param classModel 应用初始化后，数据访问接口对应的类模型
-   * @param method   执行数据库操作的方法
-   * @param args     执行数据库操作的参数
-   * @return 结果对象映射的 java 对象
+   * 执行 xml 中游标分页方法的 $Page 语句，游标前进到结果中 cursorField 对应的值
    */
-  private static Object pageSupport(ClassModel classModel, Method method, Object[] args) {
-    int pageParamIndex = ReflectUtil.containsType(method, Page.class);
-
-    MapperProxy mapperProxy = new MapperProxy(classModel);
-    if (pageParamIndex < 0) {
-      return mapperProxy.invoke(classModel, method, args);
-    }
-
-    String countMethodName = method.getName() + "$Count";
-    String pageMethodName = method.getName() + "$Page";
-
-    Long count = (Long) mapperProxy
-        .invoke(classModel, classModel.getMethods().get(countMethodName), args);
-    List rows = (List) mapperProxy
-        .invoke(classModel, classModel.getMethods().get(pageMethodName), args);
+  private static List<Object> cursorPage(CursorPage<Object> page, Supplier<List<Object>> rows) {
+    String cursorField = page.getCursorField();
+    return PageRunner.cursor(page, rows, cursorField == null ? null
+        : row -> row instanceof Map
+          ? ((Map<?, ?>) row).get(cursorField)
+          : ReflectUtil.getValue(row, cursorField));
+  }
 
-    Page page = (Page) args[pageParamIndex];
-    page.setTotal(count);
-    page.setRows(rows);
-    return rows;
+  /**
+   * 自动分页时统计与分页语句的执行方式
+   *
+   * @param defaultStrategy 未配置 nebula.ngbatis.page-strategy 时使用的执行方式
+   * @return 执行方式
+   */
+  public static PageStrategy pageStrategy(PageStrategy defaultStrategy) {
+    PageStrategy strategy = ENV == null ? null : ENV.getPageStrategy();
+    return strategy == null ? defaultStrategy : strategy;
   }
 
   /**
    * 通过 nebula-graph 客户端执行数据库访问。被 invoke 所调用，间接为动态代理类服务。
+   * <br>nebula.hosts 分了 read、write 组时，按方法的读写类型与语句本身选择对应组的会话。
    *
    * @param gql  待执行的查询脚本（模板）
    * @param params 待执行脚本的参数所需的参数
@@ -205,25 +311,74 @@ public class MapperProxy {
    */
   public static ResultSet executeWithParameter(ClassModel cm, MethodModel mm, String gql,
       Map<String, Object> params) {
+    return executeWithParameter(cm, mm, getSpace(cm, mm), gql, params);
+  }
+
+  /**
+   * 执行方法的语句，开启 nebula.ngbatis.single-flight 时，同时发起的相同读查询只执行一次
+   */
+  private static ResultSet executeRead(ClassModel cm, MethodModel mm, String space, String gql,
+      Map<String, Object> params) {
+    SingleFlight singleFlight = ENV.getSingleFlight();
+    if (singleFlight == null
+        || StatementType.of(mm.getStatementType(), gql) == StatementType.WRITE) {
+      return executeWithParameter(cm, mm, space, gql, params);
+    }
+    return singleFlight.execute(space, gql, params,
+        () -> executeWithParameter(cm, mm, space, gql, params));
+  }
+
+  /**
+   * 在给定 space 中执行框架自身的语句，如读取统计信息
+   *
+   * @param space 执行语句的 space
+   * @param gql 待执行的语句
+   * @return nebula-graph 的未被 orm 操作的原始结果集
+   */
+  public static ResultSet executeInSpace(String space, String gql) {
+    return executeInSpace(space, gql, Collections.emptyMap());
+  }
+
+  /**
+   * 在给定 space 中执行不属于某个接口方法的语句，如合并后的批量写入
+   *
+   * @param space 执行语句的 space
+   * @param gql 待执行的语句
+   * @param params 语句的参数
+   * @return nebula-graph 的未被 orm 操作的原始结果集
+   */
+  public static ResultSet executeInSpace(String space, String gql, Map<String, Object> params) {
+    return executeWithParameter(null, null, space, gql, params);
+  }
+
+  private static ResultSet executeWithParameter(ClassModel cm, MethodModel mm,
+      String currentSpace, String gql, Map<String, Object> params) {
     LocalSession localSession = null;
-    Session session = null;
     ResultSet result = null;
     String proxyClass = null;
     String proxyMethod = null;
+    Bulkhead bulkhead = ENV.getBulkheads() == null ? null : ENV.getBulkheads().find(cm, mm);
+    SessionDispatcher dispatcher = ENV.getGroupDispatchers().isEmpty()
+        ? ENV.getDispatcher()
+        : ENV.getDispatcher(StatementType.of(mm == null ? null : mm.getStatementType(), gql));
+    if (bulkhead != null) {
+      bulkhead.acquire();
+    }
     try {
       if (log.isDebugEnabled()) {
-        StackTraceElement stackTraceElement = Thread.currentThread().getStackTrace()[6];
-        proxyClass = stackTraceElement.getClassName();
-        proxyMethod = stackTraceElement.getMethodName();
+        proxyClass = cm == null ? null : cm.getNamespace().getName();
+        proxyMethod = mm == null ? null
+            : mm.getMethod() != null ? mm.getMethod().getName()
+              : mm.getId();
       }
 
-      localSession = ENV.getDispatcher().poll();
-      String currentSpace = getSpace(cm, mm);
+      localSession = dispatcher.poll(currentSpace);
       gql = qlWithSpace(localSession, gql, currentSpace);
-      session = localSession.getSession();
-      result = session.executeWithParameter(gql, params);
+      result = execute(localSession, gql, params);
       if (result.isSucceeded()) {
+        localSession.setLastVerified(System.currentTimeMillis());
         setNewSpace(localSession, gql, currentSpace);
+        afterWrite(mm, gql);
         return result;
       } else {
         throw new QueryException(" 数据查询失败" + result.getErrorMessage());
@@ -234,7 +389,56 @@ public class MapperProxy {
       log.debug("\n\t- proxyMethod: {}#{} \n\t- nGql：{} \n\t - params: {}\n\t - result：{}",
           proxyClass, proxyMethod, gql, params, result);
       if (localSession != null) {
-        ENV.getDispatcher().offer(localSession);
+        dispatcher.offer(localSession);
+      }
+      if (bulkhead != null) {
+        bulkhead.release();
+      }
+    }
+  }
+
+  /**
+   * 开启总数缓存或查询结果缓存时，写语句执行成功后使其所写入标签的缓存失效
+   */
+  private static void afterWrite(MethodModel mm, String gql) {
+    CountCache countCache = ENV.getCountCache();
+    QueryCache queryCache = ENV.getQueryCache();
+    if ((countCache == null && queryCache == null)
+        || StatementType.of(mm == null ? null : mm.getStatementType(), gql)
+          != StatementType.WRITE) {
+      return;
+    }
+    if (countCache != null) {
+      countCache.written(gql);
+    }
+    if (queryCache != null) {
+      queryCache.written(gql);
+    }
+  }
+
+  /**
+   * 执行语句，开启多地址路由时记录会话所在 graphd 的耗时与正在执行的语句数。
+   * 未能到达 graphd 的会话会被标记为未确认，下次借出或检查时需重新 ping。
+   */
+  private static ResultSet execute(LocalSession localSession, String gql,
+      Map<String, Object> params) throws IOErrorException {
+    RoutedHost host = localSession.getHost();
+    HostRouter router = host == null ? null : host.getRouter();
+    long start = System.nanoTime();
+    boolean reached = false;
+    if (router != null) {
+      router.begin(localSession);
+    }
+    try {
+      ResultSet result = localSession.getSession().executeWithParameter(gql, params);
+      reached = true;
+      return result;
+    } finally {
+      if (!reached) {
+        localSession.setLastVerified(0);
+      }
+      if (router != null) {
+        router.end(localSession, System.nanoTime() - start, reached);
       }
     }
   }
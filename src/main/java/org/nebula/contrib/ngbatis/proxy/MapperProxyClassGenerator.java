@@ -5,11 +5,15 @@ package org.nebula.contrib.ngbatis.proxy;
 // This source code is licensed under Apache 2.0 License.
 
 import static org.nebula.contrib.ngbatis.models.ClassModel.PROXY_SUFFIX;
+import static org.nebula.contrib.ngbatis.proxy.NebulaDaoBasicExt.GENERATED_METHODS;
 import static org.nebula.contrib.ngbatis.utils.ReflectUtil.NEED_SEALING_TYPES;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import org.nebula.contrib.ngbatis.models.ClassModel;
 import org.nebula.contrib.ngbatis.models.MethodModel;
@@ -26,6 +30,100 @@ import org.objectweb.asm.Opcodes;
  */
 public class MapperProxyClassGenerator implements Opcodes {
 
+  private static final String PLAN_DESCRIPTOR =
+      "L" + InvocationPlan.class.getName().replace(".", "/") + ";";
+
+  /**
+   * 代理类中持有方法调用计划的静态字段名
+   *
+   * @param methodName 方法名
+   * @return 字段名
+   */
+  public static String planField(String methodName) {
+    return methodName + "$plan";
+  }
+
+  /**
+   * 为加载后的代理类设置各方法的调用计划
+   *
+   * @param proxy 代理类
+   * @param cm    DAO 类模型
+   */
+  public static void bindPlans(Class<?> proxy, ClassModel cm) {
+    bindPlans(proxy, cm, true);
+  }
+
+  /**
+   * xml 热加载后，为启动时加载的代理类换上新类模型的调用计划。
+   * 代理类中没有对应字段的方法（启动后才在 xml 中声明的）跳过，调用时仍按接口名与方法名查找
+   *
+   * @param proxy 代理类
+   * @param cm    重新加载后的 DAO 类模型
+   * @return 代理类中没有调用计划字段、未能替换的方法名
+   */
+  public static List<String> rebindPlans(Class<?> proxy, ClassModel cm) {
+    return bindPlans(proxy, cm, false);
+  }
+
+  private static List<String> bindPlans(Class<?> proxy, ClassModel cm, boolean required) {
+    List<String> unbound = new ArrayList<>();
+    for (Map.Entry<String, MethodModel> entry : cm.getMethods().entrySet()) {
+      InvocationPlan plan = InvocationPlan.of(cm, entry.getValue());
+      if (!bindPlan(proxy, entry.getKey(), plan, required)) {
+        unbound.add(entry.getKey());
+      }
+    }
+    for (Map.Entry<String, MethodModel> entry : generatedDaoBasicMethods(cm).entrySet()) {
+      InvocationPlan plan = InvocationPlan.cached(cm, entry.getValue());
+      if (!bindPlan(proxy, entry.getKey(), plan, required)) {
+        unbound.add(entry.getKey());
+      }
+    }
+    return unbound;
+  }
+
+  private static boolean bindPlan(Class<?> proxy, String methodName, InvocationPlan plan,
+      boolean required) {
+    try {
+      proxy.getField(planField(methodName)).set(null, plan);
+      return true;
+    } catch (NoSuchFieldException e) {
+      if (required) {
+        throw new IllegalStateException("Failed to bind invocation plan: " + methodName, e);
+      }
+      return false;
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException("Failed to bind invocation plan: " + methodName, e);
+    }
+  }
+
+  /**
+   * 需要在代理类中直接覆盖的基类方法：xml 中未声明、dao 接口也没有自行覆盖的
+   * {@link NebulaDaoBasicExt#GENERATED_METHODS}。
+   *
+   * @param cm DAO 类模型
+   * @return 方法名与基类方法模型
+   */
+  private static Map<String, MethodModel> generatedDaoBasicMethods(ClassModel cm) {
+    Map<String, MethodModel> generated = new LinkedHashMap<>();
+    for (String methodName : GENERATED_METHODS) {
+      MethodModel mm = cm.getDaoBasicMethod(methodName);
+      if (mm == null || cm.getMethods().containsKey(methodName)) {
+        continue;
+      }
+      try {
+        Method method = mm.getMethod();
+        Method actual = cm.getNamespace().getMethod(methodName, method.getParameterTypes());
+        if (actual.getDeclaringClass() == NebulaDaoBasic.class) {
+          generated.put(methodName, mm);
+        }
+      } catch (NoSuchMethodException ignored) {
+        //
+      }
+    }
+    return generated;
+  }
+
   /**
    * 获取DAO接口对应的动态代理类名称
    *
@@ -91,6 +189,10 @@ public class MapperProxyClassGenerator implements Opcodes {
     for (Map.Entry<String, MethodModel> entry : methods.entrySet()) {
       method(cw, cm, entry);
     }
+    // 基类中的方法同样直接生成代理方法，不再经由默认实现从调用栈推断方法
+    for (Map.Entry<String, MethodModel> entry : generatedDaoBasicMethods(cm).entrySet()) {
+      method(cw, cm, entry);
+    }
   }
 
   /**
@@ -103,7 +205,7 @@ public class MapperProxyClassGenerator implements Opcodes {
   private void method(ClassWriter cw, ClassModel cm, Map.Entry<String, MethodModel> mmEntry) {
     String methodName = mmEntry.getKey();
     MethodModel mm = mmEntry.getValue();
-    /* return Mapper.invoke( "接口名 namespace", "方法名 method", new Object[]{ arg1, arg2, ... } );
+    /* return MapperProxy.invoke( methodName$plan, new Object[]{ arg1, arg2, ... } );
     ----- start */
     Method method = mm.getMethod();
     String methodSignature = ReflectUtil.getMethodSignature(mm);
@@ -116,16 +218,18 @@ public class MapperProxyClassGenerator implements Opcodes {
         null
       );
 
+    // public static InvocationPlan methodName$plan;
+    String planField = planField(methodName);
+    cw.visitField(ACC_PUBLIC | ACC_STATIC, planField, PLAN_DESCRIPTOR, null, null).visitEnd();
+
     mapper.visitCode();
-    String className = cm.getNamespace().getName();
-    mapper.visitLdcInsn(className);
-    mapper.visitLdcInsn(mm.getId());
+    mapper.visitFieldInsn(GETSTATIC, getFullNameType(cm), planField, PLAN_DESCRIPTOR);
     int parameterCount = addParams(mapper, mm.getParameterCount());
     mapper.visitMethodInsn(
         INVOKESTATIC,
         getFullNameType(MapperProxy.class.getName()),
         "invoke",
-        "(Ljava/lang/String;Ljava/lang/String;[Ljava/lang/Object;)Ljava/lang/Object;",
+        "(" + PLAN_DESCRIPTOR + "[Ljava/lang/Object;)Ljava/lang/Object;",
         false
     );
 
@@ -135,9 +239,13 @@ public class MapperProxyClassGenerator implements Opcodes {
     //  +3： 3 个固定参数位，namespace、methodName、args
     mapper.visitMaxs(Integer.MAX_VALUE, Integer.MAX_VALUE);
 
-    // 检查类型转换
+    // 检查类型转换，无返回值时丢弃结果
     Class<?> returnType = mm.getReturnType();
-    mapper.visitTypeInsn(CHECKCAST, getFullNameType(returnType.getTypeName()));
+    if (returnType == void.class) {
+      mapper.visitInsn(POP);
+    } else {
+      mapper.visitTypeInsn(CHECKCAST, getFullNameType(returnType.getTypeName()));
+    }
 
     // 基本类型封箱
     // sealingReturnType(mapper, returnType ); // FIXME 处理基本类型的封箱
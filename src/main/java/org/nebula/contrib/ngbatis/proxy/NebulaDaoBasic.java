@@ -4,26 +4,33 @@ package org.nebula.contrib.ngbatis.proxy;
 //
 // This source code is licensed under Apache 2.0 License.
 
+import static org.nebula.contrib.ngbatis.proxy.NebulaDaoBasicExt.approximateTotal;
+import static org.nebula.contrib.ngbatis.proxy.NebulaDaoBasicExt.daoBasicMethod;
 import static org.nebula.contrib.ngbatis.proxy.NebulaDaoBasicExt.edgeName;
 import static org.nebula.contrib.ngbatis.proxy.NebulaDaoBasicExt.entityType;
 import static org.nebula.contrib.ngbatis.proxy.NebulaDaoBasicExt.getClassModel;
 import static org.nebula.contrib.ngbatis.proxy.NebulaDaoBasicExt.getCqlTpl;
-import static org.nebula.contrib.ngbatis.proxy.NebulaDaoBasicExt.getMethodModel;
-import static org.nebula.contrib.ngbatis.proxy.NebulaDaoBasicExt.pkType;
 import static org.nebula.contrib.ngbatis.proxy.NebulaDaoBasicExt.proxy;
 import static org.nebula.contrib.ngbatis.proxy.NebulaDaoBasicExt.vertexName;
+import static org.nebula.contrib.ngbatis.utils.ReflectUtil.getPkField;
 
 import com.sun.istack.NotNull;
 import com.vesoft.nebula.client.graph.data.ResultSet;
 import java.io.Serializable;
+import java.lang.reflect.Field;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import org.nebula.contrib.ngbatis.config.NgbatisConfig.PageStrategy;
 import org.nebula.contrib.ngbatis.exception.QueryException;
 import org.nebula.contrib.ngbatis.models.ClassModel;
 import org.nebula.contrib.ngbatis.models.MethodModel;
+import org.nebula.contrib.ngbatis.utils.CursorPage;
 import org.nebula.contrib.ngbatis.utils.Page;
+import org.nebula.contrib.ngbatis.utils.ReflectUtil;
 import org.springframework.data.repository.query.Param;
 
 /**
@@ -44,9 +51,42 @@ public interface NebulaDaoBasic<T, I extends Serializable> {
    * @return 表中的记录对应的实体对象
    */
   default T selectById(@Param("id") I id) {
-    MethodModel methodModel = getMethodModel();
     ClassModel classModel = getClassModel(this.getClass());
-    return (T) MapperProxy.invoke(classModel, methodModel, id);
+    MethodModel methodModel = classModel.getDaoBasicMethod("selectById");
+    // 与代理类覆盖的 selectById 一样经过调用计划，开启 id-batch 时合并查询
+    return (T) MapperProxy.invoke(InvocationPlan.cached(classModel, methodModel), id);
+  }
+
+  /**
+   * <p>通过 id 异步查询，开启 nebula.ngbatis.id-batch 时与同一 dao 上其他的 id 合并查询，
+   * 最多等待 nebula.ngbatis.id-batch-timeout；否则在当前线程中查询后返回已完成的 future。</p>
+   *
+   * @param id 表记录主键
+   * @return 与该 id 对应的记录，不存在时为 null
+   */
+  default CompletableFuture<T> selectByIdAsync(I id) {
+    SelectByIdBatcher batcher = MapperProxy.ENV.getIdBatcher();
+    if (batcher != null && id != null) {
+      return (CompletableFuture<T>) batcher.selectByIdAsync(getClassModel(this.getClass()), id);
+    }
+    return CompletableFuture.completedFuture(selectById(id));
+  }
+
+  /**
+   * <p>通过 id 异步查询，与 {@link #selectByIdAsync(Serializable)} 相同，
+   * 但合并查询时最多等待给定的时间，超时后 future 以 QueryException 失败。</p>
+   *
+   * @param id 表记录主键
+   * @param timeout 等待结果的最长时间，单位 ms
+   * @return 与该 id 对应的记录，不存在时为 null
+   */
+  default CompletableFuture<T> selectByIdAsync(I id, long timeout) {
+    SelectByIdBatcher batcher = MapperProxy.ENV.getIdBatcher();
+    if (batcher != null && id != null) {
+      return (CompletableFuture<T>) batcher.selectByIdAsync(
+          getClassModel(this.getClass()), id, timeout);
+    }
+    return CompletableFuture.completedFuture(selectById(id));
   }
 
   /**
@@ -56,11 +96,8 @@ public interface NebulaDaoBasic<T, I extends Serializable> {
    * @return 多个 id 对应的节点
    */
   default List<T> selectByIds(@Param("ids") Collection<I> ids) {
-    MethodModel methodModel = getMethodModel();
-    Class<?> currentType = this.getClass();
-    Class<?> entityType = entityType(currentType);
-    methodModel.setResultType(entityType);
     ClassModel classModel = getClassModel(this.getClass());
+    MethodModel methodModel = classModel.getDaoBasicMethod("selectByIds");
     return (List<T>) MapperProxy.invoke(classModel, methodModel, ids);
   }
 
@@ -71,11 +108,8 @@ public interface NebulaDaoBasic<T, I extends Serializable> {
    * @return 符合条件节点的集合
    */
   default List<T> selectBySelective(T record) {
-    MethodModel methodModel = getMethodModel();
-    methodModel.setReturnType(List.class);
-    Class<? extends NebulaDaoBasic> daoType = this.getClass();
-    methodModel.setResultType(entityType(daoType));
-    ClassModel classModel = getClassModel(daoType);
+    ClassModel classModel = getClassModel(this.getClass());
+    MethodModel methodModel = classModel.getDaoBasicMethod("selectBySelective");
     return (List<T>) MapperProxy.invoke(classModel, methodModel, record);
   }
 
@@ -86,11 +120,8 @@ public interface NebulaDaoBasic<T, I extends Serializable> {
    * @return 符合条件的节点集合
    */
   default List<T> selectBySelectiveStringLike(T record) {
-    MethodModel methodModel = getMethodModel();
-    methodModel.setReturnType(List.class);
-    Class<? extends NebulaDaoBasic> daoType = this.getClass();
-    methodModel.setResultType(entityType(daoType));
-    ClassModel classModel = getClassModel(daoType);
+    ClassModel classModel = getClassModel(this.getClass());
+    MethodModel methodModel = classModel.getDaoBasicMethod("selectBySelectiveStringLike");
     return (List<T>) MapperProxy.invoke(classModel, methodModel, record);
   }
 
@@ -101,10 +132,8 @@ public interface NebulaDaoBasic<T, I extends Serializable> {
    * @return 符合查询条件的节点 id
    */
   default List<I> selectIdBySelective(T record) {
-    MethodModel methodModel = getMethodModel();
-    Class<? extends NebulaDaoBasic> daoType = this.getClass();
-    methodModel.setResultType(pkType(daoType));
-    ClassModel classModel = getClassModel(daoType);
+    ClassModel classModel = getClassModel(this.getClass());
+    MethodModel methodModel = classModel.getDaoBasicMethod("selectIdBySelective");
     return (List<I>) MapperProxy.invoke(classModel, methodModel, record);
   }
 
@@ -115,10 +144,8 @@ public interface NebulaDaoBasic<T, I extends Serializable> {
    * @return 符合查询条件的节点 id
    */
   default List<I> selectIdBySelectiveStringLike(T record) {
-    MethodModel methodModel = getMethodModel();
-    Class<? extends NebulaDaoBasic> daoType = this.getClass();
-    methodModel.setResultType(pkType(daoType));
-    ClassModel classModel = getClassModel(daoType);
+    ClassModel classModel = getClassModel(this.getClass());
+    MethodModel methodModel = classModel.getDaoBasicMethod("selectIdBySelectiveStringLike");
     return (List<I>) MapperProxy.invoke(classModel, methodModel, record);
   }
 
@@ -129,11 +156,8 @@ public interface NebulaDaoBasic<T, I extends Serializable> {
    * @return 符合查询条件的节点集合
    */
   default List<T> selectByMap(Map<String, Object> param) {
-    MethodModel methodModel = getMethodModel();
-    methodModel.setReturnType(List.class);
-    Class<? extends NebulaDaoBasic> daoType = this.getClass();
-    methodModel.setResultType(entityType(daoType));
-    ClassModel classModel = getClassModel(daoType);
+    ClassModel classModel = getClassModel(this.getClass());
+    MethodModel methodModel = classModel.getDaoBasicMethod("selectByMap");
     return (List<T>) MapperProxy.invoke(classModel, methodModel, param);
   }
 
@@ -144,38 +168,104 @@ public interface NebulaDaoBasic<T, I extends Serializable> {
    * @return 统及符合查询条件的总节点数
    */
   default Long countByMap(Map<String, Object> param) {
-    MethodModel methodModel = getMethodModel();
     ClassModel classModel = getClassModel(this.getClass());
+    MethodModel methodModel = classModel.getDaoBasicMethod("countByMap");
     return (Long) MapperProxy.invoke(classModel, methodModel, param);
   }
 
   /**
-   * 查询对应类型的数据并分页
+   * 查询对应类型的数据并分页。
+   * 统计与分页语句的执行方式由 nebula.ngbatis.page-strategy 决定，默认总数为 0 时不查询分页。
+   * 开启 nebula.ngbatis.approximate-count 且没有过滤条件时，总数取自统计信息，
+   * 并标记为近似值（{@link Page#isApproximate()}），精确总数可通过 {@link #countPage} 获取
    *
    * @param page 分页的参数，与分页结果的容器
    * @return 分页的结果
    */
   default List<T> selectPage(Page<T> page) {
-    MethodModel methodModel = getMethodModel();
-    Long total = countPage(page);
-    page.setTotal(total);
-    if (total == 0) {
-      return Collections.EMPTY_LIST;
-    }
-    methodModel.setReturnType(List.class);
-    Class<? extends NebulaDaoBasic> daoType = this.getClass();
-    methodModel.setResultType(entityType(daoType));
-    ClassModel classModel = getClassModel(daoType);
-    List<T> proxy = (List<T>) MapperProxy.invoke(classModel, methodModel, page);
-    page.setRows(proxy);
-    return proxy;
+    ClassModel classModel = getClassModel(this.getClass());
+    MethodModel methodModel = classModel.getDaoBasicMethod("selectPage");
+    return PageRunner.run(
+        MapperProxy.pageStrategy(PageStrategy.SKIP_WHEN_ZERO),
+        page,
+        () -> {
+          Long approximate = approximateTotal(classModel, page);
+          page.setApproximate(approximate != null);
+          return approximate != null ? approximate : countPage(page);
+        },
+        () -> (List<T>) MapperProxy.invoke(classModel, methodModel, page)
+    );
   }
 
   default Long countPage(Page<T> page) {
-    MethodModel methodModel = getMethodModel();
     ClassModel classModel = getClassModel(this.getClass());
+    MethodModel methodModel = classModel.getDaoBasicMethod("countPage");
     return (Long) MapperProxy.invoke(classModel, methodModel, page);
   }
+
+  /**
+   * 按主键升序，以游标方式查询对应类型的数据，每页的开销与翻到第几页无关。
+   * 查询后游标前进到当前页最后一条记录的主键，再次调用即得到下一页。不统计总数
+   *
+   * @param page 游标分页的参数，与分页结果的容器
+   * @return 当前页的结果
+   */
+  default List<T> selectCursorPage(CursorPage<T> page) {
+    ClassModel classModel = getClassModel(this.getClass());
+    MethodModel methodModel = classModel.getDaoBasicMethod("selectCursorPage");
+    Field pkField = getPkField(entityType(this.getClass()));
+    return PageRunner.cursor(
+        page,
+        () -> (List<T>) MapperProxy.invoke(classModel, methodModel, page),
+        row -> ReflectUtil.getValue(row, pkField)
+    );
+  }
+
+  /**
+   * 按主键升序分块遍历对应类型的全部数据，每块交给 consumer 处理，
+   * 同时只持有一块数据，内存占用与数据总量无关
+   *
+   * @param chunkSize 每块的记录数
+   * @param consumer 处理一块数据
+   */
+  default void scanAll(int chunkSize, Consumer<List<T>> consumer) {
+    scanAll(new CursorPage<>(chunkSize), false, consumer);
+  }
+
+  /**
+   * 按主键升序分块遍历对应类型的数据，每块交给 consumer 处理。
+   * page 中的 entity 为过滤条件，cursor 为断点，不为 null 时从主键大于它的记录开始。
+   * 每块处理完成后 cursor 前进到该块最后一条记录的主键，consumer 抛出异常时保存它即可在之后恢复遍历
+   *
+   * @param page 每块的记录数、过滤条件与断点
+   * @param prefetch 是否在 consumer 处理当前块时提前查询下一块，开启时最多同时持有两块
+   * @param consumer 处理一块数据
+   */
+  default void scanAll(CursorPage<T> page, boolean prefetch, Consumer<List<T>> consumer) {
+    PageRunner.scan(page, prefetch, this::selectCursorPage, consumer);
+  }
+
+  /**
+   * 按主键升序分块遍历对应类型的全部数据的顺序流，前一块的记录都被取走后才查询下一块
+   *
+   * @param chunkSize 每块的记录数
+   * @return 全部记录的流
+   */
+  default Stream<T> scanAll(int chunkSize) {
+    return scanAll(new CursorPage<>(chunkSize), false);
+  }
+
+  /**
+   * 按主键升序分块遍历对应类型的数据的顺序流。
+   * 过滤条件、断点与游标前进的规则与 {@link #scanAll(CursorPage, boolean, Consumer)} 相同
+   *
+   * @param page 每块的记录数、过滤条件与断点
+   * @param prefetch 是否在处理当前块时提前查询下一块
+   * @return 记录的流，提前结束时请关闭以丢弃预取中的块
+   */
+  default Stream<T> scanAll(CursorPage<T> page, boolean prefetch) {
+    return PageRunner.stream(page, prefetch, this::selectCursorPage);
+  }
   // endregion
   
   // region insert zoom
@@ -186,10 +276,8 @@ public interface NebulaDaoBasic<T, I extends Serializable> {
    * @return 是否删除成功，成功 1，失败 0
    */
   default Integer insert(T record) {
-    MethodModel methodModel = getMethodModel();
-    methodModel.setReturnType(ResultSet.class);
-    methodModel.setResultType(ResultSet.class);
     ClassModel classModel = getClassModel(this.getClass());
+    MethodModel methodModel = classModel.getDaoBasicMethod("insert");
     ResultSet resultSet = (ResultSet) MapperProxy.invoke(classModel, methodModel, record);
     return resultSet.isSucceeded() ? 1 : 0;
   }
@@ -201,10 +289,8 @@ public interface NebulaDaoBasic<T, I extends Serializable> {
    * @return 是否删除成功，成功 1，失败 0
    */
   default Integer insertSelective(T record) {
-    MethodModel methodModel = getMethodModel();
-    methodModel.setReturnType(ResultSet.class);
-    methodModel.setResultType(ResultSet.class);
     ClassModel classModel = getClassModel(this.getClass());
+    MethodModel methodModel = classModel.getDaoBasicMethod("insertSelective");
     ResultSet resultSet = (ResultSet) MapperProxy.invoke(classModel, methodModel, record);
     return resultSet.isSucceeded() ? 1 : 0;
   }
@@ -214,19 +300,16 @@ public interface NebulaDaoBasic<T, I extends Serializable> {
    * @param ts 当前Tag下的多节点
    */
   default void insertBatch(List<T> ts) {
-    MethodModel methodModel = getMethodModel();
     ClassModel classModel = getClassModel(this.getClass());
+    MethodModel methodModel = classModel.getDaoBasicMethod("insertBatch");
     MapperProxy.invoke(classModel, methodModel, ts);
   }
   // endregion
 
   // region update zoom
   default T updateById(T record) {
-    MethodModel methodModel = getMethodModel();
-    Class<?> entityType = record.getClass();
-    methodModel.setReturnType(entityType);
-    methodModel.setResultType(entityType);
     ClassModel classModel = getClassModel(this.getClass());
+    MethodModel methodModel = daoBasicMethod(classModel, "updateById", record.getClass());
     return (T) MapperProxy.invoke(classModel, methodModel, record);
   }
 
@@ -237,11 +320,8 @@ public interface NebulaDaoBasic<T, I extends Serializable> {
    * @return 是否删除成功，成功 1，失败 0
    */
   default T updateByIdSelective(T record) {
-    MethodModel methodModel = getMethodModel();
-    Class<?> entityType = record.getClass();
-    methodModel.setReturnType(entityType);
-    methodModel.setResultType(entityType);
     ClassModel classModel = getClassModel(this.getClass());
+    MethodModel methodModel = daoBasicMethod(classModel, "updateByIdSelective", record.getClass());
     return (T) MapperProxy.invoke(classModel, methodModel, record);
   }
 
@@ -250,8 +330,8 @@ public interface NebulaDaoBasic<T, I extends Serializable> {
    * @param ts 当前Tag下的多节点
    */
   default void updateByIdBatchSelective(List<T> ts) {
-    MethodModel methodModel = getMethodModel();
     ClassModel classModel = getClassModel(this.getClass());
+    MethodModel methodModel = classModel.getDaoBasicMethod("updateByIdBatchSelective");
     MapperProxy.invoke(classModel, methodModel, ts);
   }
   // endregion
@@ -274,10 +354,8 @@ public interface NebulaDaoBasic<T, I extends Serializable> {
    * @return 是否执行成功，成功 1 ，失败 0
    */
   default int deleteWithEdgeById(I id) {
-    MethodModel methodModel = getMethodModel();
-    methodModel.setReturnType(ResultSet.class);
-    methodModel.setResultType(ResultSet.class);
     ClassModel classModel = getClassModel(this.getClass());
+    MethodModel methodModel = classModel.getDaoBasicMethod("deleteWithEdgeById");
     ResultSet resultSet = (ResultSet) MapperProxy.invoke(classModel, methodModel, id);
     return resultSet.isSucceeded() ? 1 : 0;
   }
@@ -289,10 +367,8 @@ public interface NebulaDaoBasic<T, I extends Serializable> {
    * @return 是否删除成功，成功 1，失败 0
    */
   default int deleteById(I id) {
-    MethodModel methodModel = getMethodModel();
-    methodModel.setReturnType(ResultSet.class);
-    methodModel.setResultType(ResultSet.class);
     ClassModel classModel = getClassModel(this.getClass());
+    MethodModel methodModel = classModel.getDaoBasicMethod("deleteById");
     ResultSet resultSet = (ResultSet) MapperProxy.invoke(classModel, methodModel, id);
     return resultSet.isSucceeded() ? 1 : 0;
   }
@@ -310,8 +386,8 @@ public interface NebulaDaoBasic<T, I extends Serializable> {
     if (v2 == null || v1 == null || e == null) {
       return;
     }
-    MethodModel methodModel = getMethodModel();
     ClassModel classModel = getClassModel(this.getClass());
+    MethodModel methodModel = classModel.getDaoBasicMethod("insertEdge");
     MapperProxy.invoke(classModel, methodModel, v1, e, v2);
   }
 
@@ -324,9 +400,9 @@ public interface NebulaDaoBasic<T, I extends Serializable> {
    * @return 数据库中，两个 id 的节点是否有关系
    */
   default Boolean existsEdge(I startId, Class<?> edgeType, I endId) {
-    String cqlTpl = getCqlTpl();
+    String cqlTpl = getCqlTpl("existsEdge");
     String edgeName = edgeName(edgeType);
-    return (Boolean) proxy(this.getClass(), Boolean.class, cqlTpl,
+    return (Boolean) proxy(this.getClass(), "existsEdge", Boolean.class, cqlTpl,
       new Class[]{Serializable.class, Class.class, Serializable.class}, startId, edgeName,
       endId);
   }
@@ -352,12 +428,12 @@ public interface NebulaDaoBasic<T, I extends Serializable> {
    * @return 开始节点
    */
   default List<?> listStartNodes(Class<?> startType, Class<?> edgeType, I endId) {
-    String cqlTpl = getCqlTpl();
+    String cqlTpl = getCqlTpl("listStartNodes");
     String startVertexName = vertexName(startType);
     String edgeName = edgeName(edgeType);
     Class<? extends NebulaDaoBasic> daoType = this.getClass();
     Class<?> returnType = entityType(daoType);
-    return (List<?>) proxy(daoType, returnType, cqlTpl,
+    return (List<?>) proxy(daoType, "listStartNodes", returnType, cqlTpl,
       new Class[]{Class.class, Class.class, Serializable.class}, startVertexName, edgeName,
       endId);
   }
@@ -384,12 +460,12 @@ public interface NebulaDaoBasic<T, I extends Serializable> {
    * @return 开始节点
    */
   default <E> E startNode(Class<E> startType, Class<?> edgeType, I endId) {
-    String cqlTpl = getCqlTpl();
+    String cqlTpl = getCqlTpl("startNode");
     String startVertexName = vertexName(startType);
     String edgeName = edgeName(edgeType);
     Class<? extends NebulaDaoBasic> daoType = this.getClass();
     Class<?> returnType = entityType(daoType);
-    return (E) proxy(daoType, returnType, cqlTpl,
+    return (E) proxy(daoType, "startNode", returnType, cqlTpl,
       new Class[]{Class.class, Class.class, Serializable.class}, startVertexName, edgeName,
       endId);
   }
@@ -6,14 +6,27 @@ package org.nebula.contrib.ngbatis.proxy;
 
 import static org.nebula.contrib.ngbatis.utils.ReflectUtil.isCurrentTypeOrParentType;
 
+import com.vesoft.nebula.client.graph.data.ResultSet;
+import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import javax.persistence.Table;
+import org.nebula.contrib.ngbatis.cache.TagStats;
 import org.nebula.contrib.ngbatis.models.ClassModel;
 import org.nebula.contrib.ngbatis.models.MapperContext;
 import org.nebula.contrib.ngbatis.models.MethodModel;
+import org.nebula.contrib.ngbatis.models.StatementType;
+import org.nebula.contrib.ngbatis.utils.Page;
+import org.nebula.contrib.ngbatis.utils.ReflectUtil;
 import org.nebula.contrib.ngbatis.utils.StringUtil;
 import org.springframework.util.Assert;
 
@@ -26,6 +39,29 @@ import org.springframework.util.Assert;
  */
 public class NebulaDaoBasicExt {
 
+  /**
+   * 由代理类直接覆盖的基类方法。这些方法只按方法模型执行语句，
+   * 与 xml 中声明的方法一样生成代理方法，调用时不再经过基类的默认实现。
+   */
+  static final Set<String> GENERATED_METHODS = Collections.unmodifiableSet(new HashSet<>(
+      Arrays.asList(
+          "selectById", "selectByIds", "selectBySelective", "selectBySelectiveStringLike",
+          "selectIdBySelective", "selectIdBySelectiveStringLike", "selectByMap", "countByMap",
+          "countPage", "insertBatch", "updateByIdBatchSelective"
+      )
+  ));
+
+  /**
+   * dao 接口的实体类型与主键类型，每个接口只通过泛型解析一次
+   */
+  private static final ClassValue<Class<?>[]> ENTITY_TYPE_AND_ID_TYPE =
+      new ClassValue<Class<?>[]>() {
+        @Override
+        protected Class<?>[] computeValue(Class<?> type) {
+          return entityTypeAndIdType(type);
+        }
+      };
+
   /**
    * 根据节点实体类型，获取数据库中的节点类型名
    *
@@ -80,7 +116,7 @@ public class NebulaDaoBasicExt {
    * @return 实体类型
    */
   public static Class<?> entityType(Class<?> currentType) {
-    Class<?>[] entityTypeAndIdType = entityTypeAndIdType(currentType);
+    Class<?>[] entityTypeAndIdType = ENTITY_TYPE_AND_ID_TYPE.get(currentType);
     if (entityTypeAndIdType != null && entityTypeAndIdType.length > 0) {
       return entityTypeAndIdType[0];
     }
@@ -89,7 +125,10 @@ public class NebulaDaoBasicExt {
 
   /**
    * 只能由 NebulaDaoBasic 调用，用于获取当前 dao 所管控的实体类
+   *
+   * @deprecated 每次调用都要遍历调用栈，请使用 {@link #entityType(Class)}
    */
+  @Deprecated
   public static Class<?> entityType() {
     StackTraceElement stackTraceElement = Thread.currentThread().getStackTrace()[2];
     Class<?> currentType = getClassFromStack(stackTraceElement);
@@ -103,13 +142,45 @@ public class NebulaDaoBasicExt {
    * @return 实体的主键类型
    */
   public static Class<?> pkType(Class<?> currentType) {
-    Class<?>[] entityTypeAndIdType = entityTypeAndIdType(currentType);
+    Class<?>[] entityTypeAndIdType = ENTITY_TYPE_AND_ID_TYPE.get(currentType);
     if (entityTypeAndIdType != null && entityTypeAndIdType.length > 1) {
       return entityTypeAndIdType[1];
     }
     return null;
   }
 
+  /**
+   * 没有过滤条件的分页，在开启 nebula.ngbatis.approximate-count 时取统计信息中的标签点数作为近似总数。
+   * 与 selectPage 的语句一致，分页参数中实体的非空属性即为过滤条件。
+   *
+   * @param classModel dao 类模型
+   * @param page 分页参数
+   * @return 近似总数，未开启、有过滤条件或尚无统计结果时为 null
+   */
+  public static Long approximateTotal(ClassModel classModel, Page<?> page) {
+    TagStats tagStats = MapperProxy.ENV == null ? null : MapperProxy.ENV.getTagStats();
+    if (tagStats == null || hasFilter(page.getEntity())) {
+      return null;
+    }
+    String tag = vertexName(entityType(classModel.getNamespace()));
+    return tagStats.count(MapperProxy.getSpace(classModel, null), tag);
+  }
+
+  private static boolean hasFilter(Object entity) {
+    if (entity == null) {
+      return false;
+    }
+    if (entity instanceof Map) {
+      return ((Map<?, ?>) entity).values().stream().anyMatch(Objects::nonNull);
+    }
+    for (Field field : ReflectUtil.getAllColumnFields(entity.getClass())) {
+      if (ReflectUtil.getValue(entity, field) != null) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   /**
    * <strong>基类访问数据库的调用入口。</strong><br>
    * 调用入口与 xml 形式的动态代理类一致，
@@ -122,12 +193,31 @@ public class NebulaDaoBasicExt {
    * @param argTypes  接口参数值类型
    * @param args    接口参数
    * @return 对结果集进行处理后的 java对象
+   * @deprecated 每次调用都要遍历调用栈获取方法名，请使用
+   *     {@link #proxy(Class, String, Class, String, Class[], Object...)}
    */
+  @Deprecated
   public static Object proxy(Class<?> currentType, Class<?> returnType, String gql,
       Class<?>[] argTypes, Object... args) {
+    return proxy(currentType, getMethodName(), returnType, gql, argTypes, args);
+  }
+
+  /**
+   * <strong>基类访问数据库的调用入口。</strong><br>
+   * 用于语句或结果类型随参数变化、无法在启动时确定方法模型的基类方法。
+   *
+   * @param currentType 被动态代理的 dao，NebulaDaoBasic 子类
+   * @param methodName  基类中的方法名
+   * @param returnType  返回值类型
+   * @param gql     查询脚本（可带占位符的模板）
+   * @param argTypes  接口参数值类型
+   * @param args    接口参数
+   * @return 对结果集进行处理后的 java对象
+   */
+  public static Object proxy(Class<?> currentType, String methodName, Class<?> returnType,
+      String gql, Class<?>[] argTypes, Object... args) {
     Method method = null;
     try {
-      String methodName = getMethodName();
       method = currentType.getMethod(methodName, argTypes);
     } catch (NoSuchMethodException ignored) {
       //
@@ -137,6 +227,8 @@ public class NebulaDaoBasicExt {
     methodModel.setMethod(method);
     methodModel.setResultType(returnType);
     methodModel.setText(gql);
+    methodModel.setStatementType(
+        MapperProxy.ENV.getMapperContext().getDaoBasicStatementType(methodName));
     ClassModel classModel = getClassModel(currentType);
     return MapperProxy.invoke(classModel, methodModel, args);
   }
@@ -146,10 +238,22 @@ public class NebulaDaoBasicExt {
    * 从基类对应的 xml 中获取 数据库执行脚本，（xml 默认在 resources/NebulaDaoBasic.xml）
    *
    * @return 数据库执行脚本
+   * @deprecated 每次调用都要遍历调用栈获取方法名，请使用 {@link #getCqlTpl(String)}
    */
+  @Deprecated
   public static String getCqlTpl() {
+    return getCqlTpl(getMethodName());
+  }
+
+  /**
+   * 从基类对应的 xml 中获取 数据库执行脚本，（xml 默认在 resources/NebulaDaoBasic.xml）
+   *
+   * @param methodName 基类中的方法名
+   * @return 数据库执行脚本
+   */
+  public static String getCqlTpl(String methodName) {
     Map<String, String> daoBasicTpl = MapperProxy.ENV.getMapperContext().getDaoBasicTpl();
-    return daoBasicTpl.get(getMethodName());
+    return daoBasicTpl.get(methodName);
   }
 
   /**
@@ -173,10 +277,100 @@ public class NebulaDaoBasicExt {
     return interfaces.get(dao.getName());
   }
 
+  /**
+   * 为 dao 构建基类 NebulaDaoBasic 中各方法的方法模型，启动时每个 dao 构建一次。
+   * 基类方法执行时按方法名取用，不再从调用栈中推断当前方法。
+   *
+   * @param daoType     继承了 NebulaDaoBasic 的 dao 接口
+   * @param daoBasicTpl 基类方法名与语句模板
+   * @param statementTypes 基类方法名与语句类型
+   * @return 方法名与方法模型，重载的方法只保留第一个
+   */
+  public static Map<String, MethodModel> daoBasicMethods(Class<?> daoType,
+      Map<String, String> daoBasicTpl, Map<String, StatementType> statementTypes) {
+    Class<?> entityType = entityType(daoType);
+    Class<?> pkType = pkType(daoType);
+    Map<String, MethodModel> methods = new HashMap<>();
+    for (Method method : NebulaDaoBasic.class.getDeclaredMethods()) {
+      String methodName = method.getName();
+      if (method.isSynthetic() || Modifier.isStatic(method.getModifiers())
+          || methods.containsKey(methodName)) {
+        continue;
+      }
+      MethodModel methodModel = new MethodModel();
+      methodModel.setMethod(method);
+      methodModel.setId(methodName);
+      methodModel.setReturnType(method.getReturnType());
+      methodModel.setText(daoBasicTpl.get(methodName));
+      methodModel.setStatementType(statementTypes.get(methodName));
+      daoBasicTypes(methodModel, entityType, pkType);
+      methods.put(methodName, methodModel);
+    }
+    return Collections.unmodifiableMap(methods);
+  }
+
+  /**
+   * 按方法名设置基类方法的返回值类型与结果类型，与各方法原先在执行时设置的一致
+   */
+  private static void daoBasicTypes(MethodModel methodModel, Class<?> entityType,
+      Class<?> pkType) {
+    switch (methodModel.getId()) {
+      case "insert":
+      case "insertSelective":
+      case "deleteWithEdgeById":
+      case "deleteById":
+        methodModel.setReturnType(ResultSet.class);
+        methodModel.setResultType(ResultSet.class);
+        break;
+      case "updateById":
+      case "updateByIdSelective":
+        methodModel.setReturnType(entityType);
+        methodModel.setResultType(entityType);
+        break;
+      case "selectByIds":
+      case "selectBySelective":
+      case "selectBySelectiveStringLike":
+      case "selectByMap":
+      case "selectPage":
+      case "selectCursorPage":
+        methodModel.setResultType(entityType);
+        break;
+      case "selectIdBySelective":
+      case "selectIdBySelectiveStringLike":
+        methodModel.setResultType(pkType);
+        break;
+      default:
+    }
+  }
+
+  /**
+   * 获取返回值与结果均为给定类型的基类方法模型。
+   * 与启动时按泛型确定的结果类型一致时直接使用，否则复制一份，不修改共享的方法模型。
+   *
+   * @param classModel dao 类模型
+   * @param methodName 基类中的方法名
+   * @param resultType 返回值与结果类型，如实体的实际类型
+   * @return 方法模型
+   */
+  public static MethodModel daoBasicMethod(ClassModel classModel, String methodName,
+      Class<?> resultType) {
+    MethodModel shared = classModel.getDaoBasicMethod(methodName);
+    if (shared.getResultType() == resultType) {
+      return shared;
+    }
+    MethodModel methodModel = shared.copy();
+    methodModel.setReturnType(resultType);
+    methodModel.setResultType(resultType);
+    return methodModel;
+  }
+
   /**
    * 从当前调用堆栈中获取方法模型
    * @return 正在执行的方法模型
+   * @deprecated 每次调用都要遍历调用栈并反射查找方法，请使用
+   *     {@link ClassModel#getDaoBasicMethod(String)}
    */
+  @Deprecated
   public static MethodModel getMethodModel() {
     StackTraceElement stackTraceElement = Thread.currentThread().getStackTrace()[2];
     String methodName = stackTraceElement.getMethodName();
@@ -198,6 +392,8 @@ public class NebulaDaoBasicExt {
     methodModel.setReturnType(method.getReturnType());
     Map<String, String> daoBasicTpl = MapperProxy.ENV.getMapperContext().getDaoBasicTpl();
     methodModel.setText(daoBasicTpl.get(methodName));
+    methodModel.setStatementType(
+        MapperProxy.ENV.getMapperContext().getDaoBasicStatementType(methodName));
     return methodModel;
   }
 
@@ -205,7 +401,9 @@ public class NebulaDaoBasicExt {
    * 获取正在被执行的 dao 方法名
    *
    * @return dao方法名
+   * @deprecated 需要遍历调用栈，基类方法已改为显式传入方法名
    */
+  @Deprecated
   public static String getMethodName() {
     StackTraceElement stackTraceElement = Thread.currentThread().getStackTrace()[3];
     return stackTraceElement.getMethodName();
@@ -0,0 +1,332 @@
+package org.nebula.contrib.ngbatis.proxy;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor.CallerRunsPolicy;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.nebula.contrib.ngbatis.Env;
+import org.nebula.contrib.ngbatis.config.NgbatisConfig.PageStrategy;
+import org.nebula.contrib.ngbatis.exception.QueryException;
+import org.nebula.contrib.ngbatis.utils.CursorPage;
+import org.nebula.contrib.ngbatis.utils.Page;
+
+/**
+ * 按 {@link PageStrategy} 执行自动分页的统计语句与分页语句，并把总数与当前页设置到分页参数中。
+ * <p>{@link PageStrategy#CONCURRENT} 时两条语句在线程池中执行，各自从调度器借用会话。
+ * 线程池的线程数与等待队列有上限（见 {@link #newExecutor}），队列已满时语句在调用线程中执行。
+ * 分页语句先提交，它失败后统计语句不再开始；统计语句失败时，尚未开始的分页语句不再执行。
+ * 已在执行的语句不会被中断，其结果被丢弃，会话照常归还；调用方收到先失败的那条语句的异常。</p>
+ * <p>游标分页（{@link CursorPage}）只有一条分页语句，见 {@link #cursor}；
+ * 按游标逐块遍历全部数据见 {@link #scan} 与 {@link #stream}。</p>
+ */
+public final class PageRunner {
+
+  private static final AtomicInteger THREAD_INDEX = new AtomicInteger();
+
+  private PageRunner() {
+  }
+
+  /**
+   * 执行统计与分页两条语句
+   *
+   * @param strategy 执行方式
+   * @param page  分页参数，执行后设置总数与当前页
+   * @param count 统计总数的语句
+   * @param rows  查询当前页的语句
+   * @param <T>   记录类型
+   * @return 当前页的记录
+   */
+  public static <T> List<T> run(PageStrategy strategy, Page page, Supplier<Long> count,
+      Supplier<List<T>> rows) {
+    switch (strategy) {
+      case CONCURRENT:
+        return concurrent(page, count, rows);
+      case SKIP_WHEN_ZERO:
+        Long total = count.get();
+        page.setTotal(total);
+        if (total == 0) {
+          List<T> empty = Collections.emptyList();
+          page.setRows(empty);
+          return empty;
+        }
+        return rows(page, rows);
+      default:
+        page.setTotal(count.get());
+        return rows(page, rows);
+    }
+  }
+
+  /**
+   * 执行游标分页的查询，设置当前页与是否还有下一页，并把游标前进到最后一行的排序键
+   *
+   * @param page  游标分页参数
+   * @param rows  查询当前页的语句
+   * @param keyOf 从一行记录中取出排序键，为 null 时游标不自动前进
+   * @param <T>   记录类型
+   * @return 当前页的记录
+   */
+  public static <T> List<T> cursor(CursorPage<T> page, Supplier<List<T>> rows,
+      Function<T, Object> keyOf) {
+    List<T> result = rows.get();
+    if (result == null) {
+      result = Collections.emptyList();
+    }
+    page.setRows(result);
+    page.setHasNext(result.size() >= page.getPageSize());
+    if (keyOf != null && !result.isEmpty()) {
+      page.setCursor(keyOf.apply(result.get(result.size() - 1)));
+    }
+    return result;
+  }
+
+  /**
+   * 按游标逐块遍历全部数据，每块交给 consumer 处理。
+   * 每块处理完成后，page 的游标前进到该块最后一行的排序键，consumer 抛出异常时即为断点
+   *
+   * @param page     游标分页参数，cursor 不为 null 时从它之后开始
+   * @param prefetch 是否在 consumer 处理当前块时提前查询下一块
+   * @param fetch    游标分页查询，查询后前进其参数中的游标，如 {@link #cursor}
+   * @param consumer 处理一块数据
+   * @param <T>      记录类型
+   */
+  public static <T> void scan(CursorPage<T> page, boolean prefetch,
+      Function<CursorPage<T>, List<T>> fetch, Consumer<List<T>> consumer) {
+    Chunks<T> chunks = new Chunks<>(page, prefetch, fetch);
+    try {
+      while (chunks.hasNext()) {
+        consumer.accept(chunks.next());
+      }
+    } finally {
+      chunks.close();
+    }
+  }
+
+  /**
+   * 按游标逐块遍历全部数据的顺序流，前一块的记录都被取走后才查询（或取用预取的）下一块。
+   * 游标前进的规则与 {@link #scan} 相同
+   *
+   * @param page     游标分页参数，cursor 不为 null 时从它之后开始
+   * @param prefetch 是否在处理当前块时提前查询下一块
+   * @param fetch    游标分页查询，查询后前进其参数中的游标，如 {@link #cursor}
+   * @param <T>      记录类型
+   * @return 全部记录的流，关闭时丢弃预取中的块
+   */
+  public static <T> Stream<T> stream(CursorPage<T> page, boolean prefetch,
+      Function<CursorPage<T>, List<T>> fetch) {
+    Chunks<T> chunks = new Chunks<>(page, prefetch, fetch);
+    Spliterator<List<T>> spliterator =
+        Spliterators.spliteratorUnknownSize(chunks, Spliterator.ORDERED);
+    return StreamSupport.stream(spliterator, false)
+        .flatMap(List::stream)
+        .onClose(chunks::close);
+  }
+
+  /**
+   * 创建并发分页与逐块遍历预取使用的线程池。
+   * 线程数与等待队列都有上限，队列已满时查询在提交它的线程中执行，不再增加线程
+   *
+   * @param coreThreads 常驻线程数，空闲时也会回收
+   * @param maxThreads  最大线程数，队列已满时才会超过常驻线程数
+   * @param queueSize   等待执行的查询数上限
+   * @return 线程池
+   */
+  public static ExecutorService newExecutor(int coreThreads, int maxThreads, int queueSize) {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(coreThreads,
+        Math.max(coreThreads, maxThreads), 60L, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<>(Math.max(1, queueSize)), r -> {
+          Thread thread = new Thread(r, "ngbatis-page-query-" + THREAD_INDEX.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }, new CallerRunsPolicy());
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  private static <T> List<T> rows(Page page, Supplier<List<T>> rows) {
+    List<T> result = rows.get();
+    page.setRows(result);
+    return result;
+  }
+
+  private static <T> List<T> concurrent(Page page, Supplier<Long> count,
+      Supplier<List<T>> rows) {
+    CompletableFuture<Object> firstFailure = new CompletableFuture<>();
+    CompletableFuture<Long> total = new CompletableFuture<>();
+    CompletableFuture<List<T>> list = CompletableFuture.supplyAsync(rows, executor());
+    list.whenComplete((v, e) -> cancelOnFailure(e, total, firstFailure));
+    // 分页语句已失败（包括队列已满时在当前线程中执行并失败）时，统计语句不再开始
+    if (!firstFailure.isDone()) {
+      CompletableFuture.supplyAsync(() -> {
+        if (firstFailure.isDone()) {
+          throw new CancellationException();
+        }
+        return count.get();
+      }, executor()).whenComplete((v, e) -> {
+        if (e == null) {
+          total.complete(v);
+        } else {
+          total.completeExceptionally(e);
+        }
+      });
+    }
+    total.whenComplete((v, e) -> cancelOnFailure(e, list, firstFailure));
+    try {
+      CompletableFuture.anyOf(CompletableFuture.allOf(total, list), firstFailure).join();
+    } catch (CompletionException | CancellationException e) {
+      // 两条语句都已结束时，allOf 可能先报出被取消的那条，抛出的应是先失败的异常
+      try {
+        firstFailure.getNow(null);
+      } catch (CompletionException | CancellationException first) {
+        throw unwrap(first);
+      }
+      throw unwrap(e);
+    }
+    page.setTotal(total.join());
+    List<T> result = list.join();
+    page.setRows(result);
+    return result;
+  }
+
+  private static void cancelOnFailure(Throwable e, CompletableFuture<?> sibling,
+      CompletableFuture<Object> firstFailure) {
+    if (e != null) {
+      firstFailure.completeExceptionally(e);
+      // 只能阻止尚未开始的语句，已在执行的不会被中断
+      sibling.cancel(false);
+    }
+  }
+
+  private static RuntimeException unwrap(Throwable e) {
+    Throwable cause = e;
+    while (cause instanceof CompletionException && cause.getCause() != null) {
+      cause = cause.getCause();
+    }
+    if (cause instanceof Error) {
+      throw (Error) cause;
+    }
+    return cause instanceof RuntimeException
+        ? (RuntimeException) cause
+        : new QueryException("Page query failed: " + cause.getMessage(), cause);
+  }
+
+  private static ExecutorService executor() {
+    Env env = MapperProxy.ENV;
+    ExecutorService executor = env == null ? null : env.getPageExecutor();
+    return executor != null ? executor : Workers.POOL;
+  }
+
+  /**
+   * 逐块查询的迭代器。查询使用单独的游标分页参数，
+   * 调用方的游标只在取下一块（或结束）时前进到上一块的最后一行，即上一块已处理完成。
+   * 开启预取时，取出一块后立即在后台查询下一块，最多同时持有两块。
+   */
+  private static final class Chunks<T> implements Iterator<List<T>> {
+
+    private final CursorPage<T> page;
+    private final CursorPage<T> cursor;
+    private final boolean prefetch;
+    private final Function<CursorPage<T>, List<T>> fetch;
+    private CompletableFuture<List<T>> ahead;
+    private List<T> next;
+    private Object nextKey;
+    private Object returnedKey;
+    private boolean returned;
+
+    Chunks(CursorPage<T> page, boolean prefetch, Function<CursorPage<T>, List<T>> fetch) {
+      this.page = page;
+      this.prefetch = prefetch;
+      this.fetch = fetch;
+      this.cursor = new CursorPage<>(page.getPageSize(), page.getCursorField());
+      cursor.setEntity(page.getEntity());
+      cursor.setCursor(page.getCursor());
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (returned) {
+        page.setCursor(returnedKey);
+        returned = false;
+      }
+      if (next == null) {
+        next = take();
+      }
+      boolean hasNext = !next.isEmpty();
+      page.setHasNext(hasNext);
+      return hasNext;
+    }
+
+    @Override
+    public List<T> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      List<T> rows = next;
+      next = null;
+      returnedKey = nextKey;
+      returned = true;
+      return rows;
+    }
+
+    private List<T> take() {
+      List<T> rows;
+      if (ahead != null) {
+        try {
+          rows = ahead.join();
+        } catch (CompletionException | CancellationException e) {
+          throw unwrap(e);
+        } finally {
+          ahead = null;
+        }
+      } else if (cursor.isHasNext()) {
+        rows = fetch.apply(cursor);
+      } else {
+        rows = null;
+      }
+      if (rows == null || rows.isEmpty()) {
+        cursor.setHasNext(false);
+        return Collections.emptyList();
+      }
+      nextKey = cursor.getCursor();
+      if (prefetch && cursor.isHasNext()) {
+        ahead = CompletableFuture.supplyAsync(() -> fetch.apply(cursor), executor());
+      }
+      return rows;
+    }
+
+    void close() {
+      if (ahead != null) {
+        ahead.cancel(false);
+        ahead = null;
+      }
+    }
+  }
+
+  /**
+   * 未通过 {@link Env#setPageExecutor} 指定线程池时使用的线程池，
+   * 按 nebula.ngbatis.page-query-* 的默认值创建，首次使用时才创建
+   */
+  private static final class Workers {
+
+    private static final ExecutorService POOL = newExecutor(4, 16, 128);
+  }
+}
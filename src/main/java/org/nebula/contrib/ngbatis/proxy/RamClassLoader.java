@@ -5,6 +5,7 @@ package org.nebula.contrib.ngbatis.proxy;
 // This source code is licensed under Apache 2.0 License.
 
 import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
 import org.nebula.contrib.ngbatis.Env;
 import org.nebula.contrib.ngbatis.NgbatisContextInitializer;
 import org.nebula.contrib.ngbatis.models.ClassModel;
@@ -19,7 +20,10 @@ import org.slf4j.LoggerFactory;
  */
 public class RamClassLoader extends ClassLoader {
 
-  private final Object lock = new Object();
+  /**
+   * 使用 {@link ReentrantLock} 而不是对象锁，虚拟线程在等待时不会占住载体线程
+   */
+  private final ReentrantLock lock = new ReentrantLock();
   private Logger log = LoggerFactory.getLogger(RamClassLoader.class);
   //记录需要让当前类加载器加载的类
   private Map<String, ClassModel> classModelMap;
@@ -60,17 +64,21 @@ public class RamClassLoader extends ClassLoader {
   @Override
   public Class<?> loadClass(String name) throws ClassNotFoundException {
     Class<?> c = findLoadedClass(name);
-    synchronized (lock) {
-      if (c == null) {
-        // 不需要我们加载
-        if (!classModelMap.containsKey(name)) {
-          c = Env.classLoader.loadClass(name);
-          log.info("Class had been loaded: {}", name);
-        } else {
-          throw new ClassNotFoundException("找不到该class");
-        }
+    if (c != null) {
+      return c;
+    }
+    lock.lock();
+    try {
+      // 不需要我们加载
+      if (!classModelMap.containsKey(name)) {
+        c = Env.classLoader.loadClass(name);
+        log.info("Class had been loaded: {}", name);
+      } else {
+        throw new ClassNotFoundException("找不到该class");
       }
       return c;
+    } finally {
+      lock.unlock();
     }
   }
 
@@ -0,0 +1,35 @@
+package org.nebula.contrib.ngbatis.proxy;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import java.util.Map;
+
+/**
+ * 渲染完成、尚未执行的语句：目标 space、nGQL 与参数。
+ */
+final class RenderedStatement {
+
+  private final String space;
+  private final String gql;
+  private final Map<String, Object> params;
+
+  RenderedStatement(String space, String gql, Map<String, Object> params) {
+    this.space = space;
+    this.gql = gql;
+    this.params = params;
+  }
+
+  String getSpace() {
+    return space;
+  }
+
+  String getGql() {
+    return gql;
+  }
+
+  Map<String, Object> getParams() {
+    return params;
+  }
+}
@@ -0,0 +1,266 @@
+package org.nebula.contrib.ngbatis.proxy;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import static org.nebula.contrib.ngbatis.proxy.NebulaDaoBasicExt.entityType;
+import static org.nebula.contrib.ngbatis.proxy.NebulaDaoBasicExt.getClassModel;
+import static org.nebula.contrib.ngbatis.utils.ReflectUtil.getPkField;
+
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor.CallerRunsPolicy;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.nebula.contrib.ngbatis.exception.QueryException;
+import org.nebula.contrib.ngbatis.models.ClassModel;
+import org.nebula.contrib.ngbatis.models.MethodModel;
+import org.nebula.contrib.ngbatis.utils.ReflectUtil;
+
+/**
+ * 把同一 dao 上短时间内的多个 {@link NebulaDaoBasic#selectById} 合并成一次
+ * {@link NebulaDaoBasic#selectByIds}，每个 dao 一个 {@link BatchLoader}。
+ * <p>代理类直接覆盖的 selectById 经由 {@link MapperProxy#invoke(InvocationPlan, Object...)}
+ * 进入这里，批量查询按基类的 selectByIds 方法模型执行。</p>
+ * <p>批量结果按实体主键的值分给各调用方，没有查到的 id 得到 null。
+ * 同一批中重复的 id 各得到一个实体的浅副本（{@link ReflectUtil#shallowCopy}），不共用同一个对象。</p>
+ * <p>同步与异步调用默认最多等待 timeout 毫秒，也可以按调用指定，超时得到 {@link QueryException}。
+ * 批量查询在线程数与等待队列都有上限的线程池中执行，队列已满时在提交批次的线程中执行。</p>
+ */
+public class SelectByIdBatcher {
+
+  private final long window;
+  private final int maxBatchSize;
+  private final long timeout;
+  private final Map<Class<?>, BatchLoader<Object, Object>> loaders = new ConcurrentHashMap<>();
+  private final ScheduledThreadPoolExecutor timer;
+  private final ExecutorService executor;
+
+  /**
+   * selectById 的批量合并器，执行批量查询的线程池使用默认的大小
+   * @param window 等待更多 id 的时间，单位 ms
+   * @param maxBatchSize 每批最多的 id 数
+   * @param timeout 调用方默认等待结果的最长时间，单位 ms
+   */
+  public SelectByIdBatcher(long window, int maxBatchSize, long timeout) {
+    this(window, maxBatchSize, timeout, 2, 8, 64);
+  }
+
+  /**
+   * selectById 的批量合并器
+   * @param window 等待更多 id 的时间，单位 ms
+   * @param maxBatchSize 每批最多的 id 数
+   * @param timeout 调用方默认等待结果的最长时间，单位 ms
+   * @param coreThreads 执行批量查询的常驻线程数，空闲时也会回收
+   * @param maxThreads 执行批量查询的最大线程数，队列已满时才会超过常驻线程数
+   * @param queueSize 等待执行的批次数上限
+   */
+  public SelectByIdBatcher(long window, int maxBatchSize, long timeout,
+      int coreThreads, int maxThreads, int queueSize) {
+    this.window = window;
+    this.maxBatchSize = maxBatchSize;
+    this.timeout = timeout;
+    this.timer = new ScheduledThreadPoolExecutor(1, r -> {
+      Thread thread = new Thread(r, "ngbatis-id-batch-timer");
+      thread.setDaemon(true);
+      return thread;
+    });
+    // 每次调用都会登记超时，结果先到时取消的任务立即移出队列
+    this.timer.setRemoveOnCancelPolicy(true);
+    AtomicInteger index = new AtomicInteger();
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(coreThreads,
+        Math.max(coreThreads, maxThreads), 60L, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<>(Math.max(1, queueSize)), r -> {
+          Thread thread = new Thread(r, "ngbatis-id-batch-" + index.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }, new CallerRunsPolicy());
+    pool.allowCoreThreadTimeOut(true);
+    this.executor = pool;
+  }
+
+  /**
+   * 按 id 查询，最多等待默认的 timeout 毫秒
+   * @param dao 实体对应的 dao
+   * @param id 主键值
+   * @param <T> 实体类型
+   * @param <I> 主键类型
+   * @return 实体，不存在时为 null
+   */
+  public <T, I extends Serializable> T selectById(NebulaDaoBasic<T, I> dao, I id) {
+    return selectById(dao, id, timeout);
+  }
+
+  /**
+   * 按 id 查询，等待所在批次的结果
+   * @param dao 实体对应的 dao
+   * @param id 主键值
+   * @param timeout 等待结果的最长时间，单位 ms
+   * @param <T> 实体类型
+   * @param <I> 主键类型
+   * @return 实体，不存在时为 null
+   */
+  @SuppressWarnings("unchecked")
+  public <T, I extends Serializable> T selectById(NebulaDaoBasic<T, I> dao, I id, long timeout) {
+    return (T) selectById(getClassModel(dao.getClass()), id, timeout);
+  }
+
+  /**
+   * 按 id 查询，最多等待默认的 timeout 毫秒
+   * @param classModel dao 类模型
+   * @param id 主键值
+   * @return 实体，不存在时为 null
+   */
+  public Object selectById(ClassModel classModel, Object id) {
+    return selectById(classModel, id, timeout);
+  }
+
+  /**
+   * 按 id 查询，等待所在批次的结果
+   * @param classModel dao 类模型
+   * @param id 主键值
+   * @param timeout 等待结果的最长时间，单位 ms
+   * @return 实体，不存在时为 null
+   */
+  public Object selectById(ClassModel classModel, Object id, long timeout) {
+    CompletableFuture<Object> future = loaderOf(classModel).load(id);
+    try {
+      return future.get(timeout, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new QueryException("等待批量查询的结果时被中断", e);
+    } catch (TimeoutException e) {
+      throw timeoutOf(id, timeout, e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new QueryException("数据查询失败：" + cause.getMessage(), cause);
+    }
+  }
+
+  /**
+   * 按 id 查询，在所在批次查询完成后给出结果，默认的 timeout 毫秒后仍未完成时以超时失败
+   * @param dao 实体对应的 dao
+   * @param id 主键值
+   * @param <T> 实体类型
+   * @param <I> 主键类型
+   * @return 实体，不存在时为 null
+   */
+  public <T, I extends Serializable> CompletableFuture<T> selectByIdAsync(
+      NebulaDaoBasic<T, I> dao, I id) {
+    return selectByIdAsync(dao, id, timeout);
+  }
+
+  /**
+   * 按 id 查询，在所在批次查询完成后给出结果
+   * @param dao 实体对应的 dao
+   * @param id 主键值
+   * @param timeout 等待结果的最长时间，单位 ms，超时后 future 以 {@link QueryException} 失败
+   * @param <T> 实体类型
+   * @param <I> 主键类型
+   * @return 实体，不存在时为 null
+   */
+  @SuppressWarnings("unchecked")
+  public <T, I extends Serializable> CompletableFuture<T> selectByIdAsync(
+      NebulaDaoBasic<T, I> dao, I id, long timeout) {
+    return (CompletableFuture<T>) (CompletableFuture<?>) selectByIdAsync(
+        getClassModel(dao.getClass()), id, timeout);
+  }
+
+  /**
+   * 按 id 查询，在所在批次查询完成后给出结果，默认的 timeout 毫秒后仍未完成时以超时失败
+   * @param classModel dao 类模型
+   * @param id 主键值
+   * @return 实体，不存在时为 null
+   */
+  public CompletableFuture<Object> selectByIdAsync(ClassModel classModel, Object id) {
+    return selectByIdAsync(classModel, id, timeout);
+  }
+
+  /**
+   * 按 id 查询，在所在批次查询完成后给出结果
+   * @param classModel dao 类模型
+   * @param id 主键值
+   * @param timeout 等待结果的最长时间，单位 ms，超时后 future 以 {@link QueryException} 失败
+   * @return 实体，不存在时为 null
+   */
+  public CompletableFuture<Object> selectByIdAsync(ClassModel classModel, Object id,
+      long timeout) {
+    CompletableFuture<Object> future = loaderOf(classModel).load(id);
+    if (future.isDone()) {
+      return future;
+    }
+    // 每个调用方的 future 各自独立，超时只影响这一个调用
+    ScheduledFuture<?> expiry = timer.schedule(
+        () -> future.completeExceptionally(timeoutOf(id, timeout, new TimeoutException())),
+        timeout, TimeUnit.MILLISECONDS);
+    future.whenComplete((row, e) -> expiry.cancel(false));
+    return future;
+  }
+
+  private static QueryException timeoutOf(Object id, long timeout, TimeoutException e) {
+    return new QueryException("批量查询超过 " + timeout + " ms 仍未返回，id：" + id, e);
+  }
+
+  /**
+   * dao 对应的批量加载器，用于查看批次数与批次大小的分布
+   * @param daoType dao 接口
+   * @return 批量加载器，尚未使用过时为 null
+   */
+  public BatchLoader<Object, Object> getLoader(Class<?> daoType) {
+    return loaders.get(daoType);
+  }
+
+  /**
+   * 所有 dao 的批量加载器
+   * @return dao 接口与批量加载器
+   */
+  public Map<Class<?>, BatchLoader<Object, Object>> getLoaders() {
+    return Collections.unmodifiableMap(loaders);
+  }
+
+  @SuppressWarnings("unchecked")
+  private BatchLoader<Object, Object> loaderOf(ClassModel classModel) {
+    return loaders.computeIfAbsent(classModel.getNamespace(), daoType -> {
+      Field pkField = getPkField(entityType(daoType));
+      MethodModel selectByIds = classModel.getDaoBasicMethod("selectByIds");
+      return new BatchLoader<>(
+          ids -> byPk((List<Object>) MapperProxy.invoke(classModel, selectByIds, ids), pkField),
+          ReflectUtil::shallowCopy, window, maxBatchSize, timer, executor);
+    });
+  }
+
+  private static Map<Object, Object> byPk(List<Object> rows, Field pkField) {
+    Map<Object, Object> result = new HashMap<>(rows.size() * 2);
+    for (Object row : rows) {
+      if (row != null) {
+        result.putIfAbsent(ReflectUtil.getValue(row, pkField), row);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * 停止定时器与执行批量查询的线程
+   */
+  public void shutdown() {
+    timer.shutdownNow();
+    executor.shutdown();
+  }
+}
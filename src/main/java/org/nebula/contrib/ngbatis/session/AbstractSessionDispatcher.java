@@ -0,0 +1,514 @@
+package org.nebula.contrib.ngbatis.session;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import static org.nebula.contrib.ngbatis.proxy.MapperProxy.ENV;
+
+import com.vesoft.nebula.client.graph.NebulaPoolConfig;
+import com.vesoft.nebula.client.graph.data.ResultSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import org.nebula.contrib.ngbatis.SessionDispatcher;
+import org.nebula.contrib.ngbatis.config.EnvConfig;
+import org.nebula.contrib.ngbatis.session.PoolResizeEvent.Action;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 本地会话调度器的公共部分：会话的创建、释放、寿命判断与定时检查的启动。
+ */
+public abstract class AbstractSessionDispatcher implements Runnable, SessionDispatcher {
+
+  public static long SESSION_LIFE_LENGTH = 5 * 60 * 60 * 1000;
+  public static long CHECK_FIXED_RATE = 5 * 60 * 60 * 1000; // unit ms
+  /**
+   * 开启多地址路由时，借出前最多查看的空闲会话数
+   */
+  static final int HOST_SCAN = 8;
+  private static Logger log = LoggerFactory.getLogger(AbstractSessionDispatcher.class);
+  protected final NebulaPoolConfig nebulaPoolConfig;
+  protected final SessionValidator validator;
+  /**
+   * 会话池大小控制器，为 null 时不做动态调整
+   */
+  protected final PoolSizingController sizing;
+  protected final ScheduledExecutorService threadPool;
+  /**
+   * 会话的创建方法，为 null 时使用 {@link org.nebula.contrib.ngbatis.Env#openLocalSession()}
+   */
+  private final Supplier<LocalSession> sessionFactory;
+  private final AtomicInteger liveCount = new AtomicInteger();
+  private volatile LeakDetector leakDetector;
+  /**
+   * 会话所用的多地址路由器，用于定时恢复剔除期满的地址，未开启多地址路由时为 null
+   */
+  private volatile HostRouter hostRouter;
+  /**
+   * 预热与定时补足最小连接数互斥，避免重复创建会话
+   */
+  private final ReentrantLock fillLock = new ReentrantLock();
+  private final AtomicBoolean started = new AtomicBoolean();
+
+  protected AbstractSessionDispatcher(NebulaPoolConfig nebulaPoolConfig,
+      SessionValidator validator, PoolSizingController sizing,
+      Supplier<LocalSession> sessionFactory) {
+    this.nebulaPoolConfig = nebulaPoolConfig;
+    this.validator = validator;
+    this.sizing = sizing;
+    this.sessionFactory = sessionFactory;
+    threadPool = EnvConfig.reconnect ? Executors.newScheduledThreadPool(1) : null;
+  }
+
+  /**
+   * 启动定时检查与会话池大小调整，重复调用只启动一次。
+   * <p>构造时不启动：定时补足会创建会话，需等 {@link org.nebula.contrib.ngbatis.Env}
+   * 与多地址路由设置好、预热完成之后，再由 {@link EnvConfig} 调用。</p>
+   */
+  @Override
+  public void start() {
+    if (started.compareAndSet(false, true)) {
+      wakeUp();
+    }
+  }
+
+  /**
+   * 安排定时任务，由 {@link #start()} 调用
+   */
+  protected void wakeUp() {
+    if (threadPool != null) {
+      threadPool.scheduleAtFixedRate(this, 3L, CHECK_FIXED_RATE, TimeUnit.MILLISECONDS);
+      HostRouter router = hostRouter;
+      if (router != null && router.getEjectTime() > 0) {
+        threadPool.scheduleAtFixedRate(router::readmitExpired,
+            router.getEjectTime(), router.getEjectTime(), TimeUnit.MILLISECONDS);
+      }
+      if (sizing != null) {
+        threadPool.scheduleAtFixedRate(
+            this::resize, sizing.getInterval(), sizing.getInterval(), TimeUnit.MILLISECONDS);
+      }
+    }
+  }
+
+  /**
+   * 停止定时检查与会话池大小调整
+   */
+  public void shutdown() {
+    if (threadPool != null) {
+      threadPool.shutdownNow();
+    }
+  }
+
+  /**
+   * 不阻塞地取出一个空闲会话
+   * @return 空闲会话，没有时返回 null
+   */
+  protected abstract LocalSession pollIdleSession();
+
+  /**
+   * 当前空闲的会话数
+   * @return 空闲会话数
+   */
+  public abstract int getIdleCount();
+
+  protected LocalSession newLocalSession() {
+    LocalSession session = sessionFactory != null
+        ? sessionFactory.get()
+        : ENV.openLocalSession();
+    liveCount.incrementAndGet();
+    return session;
+  }
+
+  protected void releaseInnerSession(LocalSession session) {
+    liveCount.decrementAndGet();
+    session.getSession().release();
+  }
+
+  /**
+   * 按所在地址的得分挑选空闲会话，未开启多地址路由时直接返回 poller 取到的会话。
+   * <p>最多查看 {@link #HOST_SCAN} 个空闲会话，取到当前最优地址上的会话即停止，
+   * 否则借出其中得分最低的一个，其余放回池中。
+   * 借出的会话仍不在最优地址上，且其地址得分超过最优地址的两倍时，
+   * 在未达到 maxConnSize 的前提下新建会话（由路由器开在最优地址上）借出，原会话放回池中。</p>
+   * @param poller 不阻塞地取出空闲会话的方法
+   * @return 空闲或新建的会话，没有空闲会话时返回 null
+   */
+  protected LocalSession pollLeastLoaded(Supplier<LocalSession> poller) {
+    LocalSession chosen = poller.get();
+    if (chosen == null || chosen.getHost() == null || chosen.getHost().getRouter() == null) {
+      return chosen;
+    }
+    RoutedHost best = chosen.getHost().getRouter().select();
+    List<LocalSession> skipped = new ArrayList<>();
+    for (int i = 1; i < HOST_SCAN && chosen.getHost() != best; i++) {
+      LocalSession next = poller.get();
+      if (next == null) {
+        break;
+      }
+      if (scoreOf(next) < scoreOf(chosen)) {
+        skipped.add(chosen);
+        chosen = next;
+      } else {
+        skipped.add(next);
+      }
+    }
+    if (chosen.getHost() != best && scoreOf(chosen) > best.score() * 2
+        && liveCount.get() < nebulaPoolConfig.getMaxConnSize()) {
+      LocalSession opened = openOnBestHost(chosen.getHost());
+      if (opened != null) {
+        skipped.add(chosen);
+        chosen = opened;
+      }
+    }
+    skipped.forEach(this::offer);
+    return chosen;
+  }
+
+  /**
+   * 新建会话，只在开到了与 current 不同且未被剔除的地址上时才返回，否则释放
+   * @param current 当前挑出的空闲会话所在的地址
+   * @return 新建的会话，未能开到更好的地址上时返回 null
+   */
+  private LocalSession openOnBestHost(RoutedHost current) {
+    LocalSession opened;
+    try {
+      opened = newLocalSession();
+    } catch (Exception e) {
+      log.debug("Failed to open a session on the least-loaded host: {}", e.getMessage());
+      return null;
+    }
+    RoutedHost host = opened.getHost();
+    if (host != null && host != current && !host.isEjected()) {
+      return opened;
+    }
+    releaseInnerSession(opened);
+    return null;
+  }
+
+  private static double scoreOf(LocalSession session) {
+    return session.getHost() == null ? Double.MAX_VALUE : session.getHost().score();
+  }
+
+  /**
+   * 借出完成后记录借出信息，以及等待时间与使用中的会话数，供会话池大小控制器决策
+   * @param session 借出的会话
+   * @param startNanos 开始借出的时间（{@link System#nanoTime()}）
+   */
+  protected void afterBorrow(LocalSession session, long startNanos) {
+    LeakDetector detector = leakDetector;
+    if (detector != null) {
+      detector.borrowed(session);
+    }
+    if (sizing != null) {
+      int live = liveCount.get();
+      sizing.recordBorrow(System.nanoTime() - startNanos, live - getIdleCount(), live);
+    }
+  }
+
+  /**
+   * 会话放回调度器之前调用，清除借出信息
+   * @param session 放回的会话
+   */
+  protected void beforeOffer(LocalSession session) {
+    LeakDetector detector = leakDetector;
+    if (detector != null) {
+      detector.returned(session);
+    }
+  }
+
+  /**
+   * 按会话池大小控制器给出的目标会话数，并行创建会话或释放多余的空闲会话。
+   * <p>只在控制器减少了目标会话数时释放，且最多释放减少的数量；
+   * 目标未变（含冷却期内）时保留按需创建的会话，避免每个窗口反复创建与释放。</p>
+   */
+  protected void resize() {
+    try {
+      int live = liveCount.get();
+      int idle = getIdleCount();
+      PoolResizeEvent event = sizing.closeWindow(live, idle);
+      int target = sizing.getTarget();
+      if (target > live) {
+        for (LocalSession session : validator.open(target - live, this::newLocalSession,
+            this::releaseInnerSession)) {
+          offer(session);
+        }
+        return;
+      }
+      if (event == null || event.getAction() != Action.SHRINK) {
+        return;
+      }
+      int shrunk = event.getPreviousTarget() - event.getTarget();
+      for (int i = Math.min(shrunk, Math.min(idle, live - target)); i > 0; i--) {
+        LocalSession session = pollIdleSession();
+        if (session == null) {
+          return;
+        }
+        releaseInnerSession(session);
+      }
+    } catch (Exception e) {
+      log.warn("Failed to resize session pool: {}", e.getMessage());
+    }
+  }
+
+  /**
+   * 判断空闲会话是否仍可借出：未超过寿命，并且最近确认过可用或能 ping 通。
+   * @param session 空闲的本地会话
+   * @return 是否可以继续使用
+   */
+  protected boolean isHealthy(LocalSession session) {
+    return !timeToRelease(session) && !onEjectedHost(session)
+        && (validator.isFresh(session) || ping(session));
+  }
+
+  /**
+   * 会话所在的 graphd 已被 {@link HostRouter} 剔除
+   * @param session 本地会话
+   * @return 是否在被剔除的地址上
+   */
+  protected boolean onEjectedHost(LocalSession session) {
+    return session.getHost() != null && session.getHost().isEjected();
+  }
+
+  protected boolean ping(LocalSession session) {
+    boolean alive = session.getSession().ping();
+    if (alive) {
+      session.setLastVerified(System.currentTimeMillis());
+    }
+    return alive;
+  }
+
+  /**
+   * 借出前的检查，所在地址已被剔除的会话不再借出；
+   * 未开启借出检查或会话最近确认过可用时直接通过。检查不通过的会话会被释放。
+   * <p>不重连（{@link EnvConfig#reconnect} 为 false）时没有定时检查，
+   * 总是按 {@link #isHealthy(LocalSession)} 检查，过期的会话才会 ping。</p>
+   * @param session 即将借出的会话
+   * @return 会话是否可以借出
+   */
+  protected boolean checkOnBorrow(LocalSession session) {
+    boolean pass = EnvConfig.reconnect
+        ? !onEjectedHost(session) && (!validator.needCheckOnBorrow(session) || isHealthy(session))
+        : isHealthy(session);
+    if (pass) {
+      return true;
+    }
+    log.info("Release a session on borrow which created at {}", session.getBirth());
+    releaseInnerSession(session);
+    return false;
+  }
+
+  /**
+   * 每次取出一小批空闲会话并行检查，健康的会话重新放回，其余空闲会话在检查期间仍可借出。
+   * <p>本轮检查过的会话按引用记录，取到检查过的会话即停止，
+   * 每个空闲会话在一轮中最多检查一次。</p>
+   */
+  protected void validateIdle() {
+    int idleSize = getIdleCount();
+    int batchSize = validator.getBatchSize();
+    Set<LocalSession> checked = Collections.newSetFromMap(new IdentityHashMap<>());
+    while (checked.size() < idleSize) {
+      List<LocalSession> batch = new ArrayList<>(batchSize);
+      LocalSession session;
+      while (batch.size() < batchSize && checked.size() < idleSize
+          && (session = pollUncheckedSession(checked)) != null) {
+        checked.add(session);
+        batch.add(session);
+      }
+      if (batch.isEmpty()) {
+        return;
+      }
+      for (LocalSession healthy : validator.validate(batch, this::isHealthy,
+          this::releaseInnerSession)) {
+        offerChecked(healthy);
+      }
+    }
+  }
+
+  /**
+   * 取出一个本轮尚未检查的空闲会话。
+   * <p>默认按 {@link #pollIdleSession()} 的顺序取，取到检查过的会话时将其放回并结束本轮，
+   * 适用于 FIFO 的队列：检查过的会话放回队尾，排在所有未检查的会话之后。</p>
+   * @param checked 本轮已检查的会话
+   * @return 未检查的空闲会话，没有时返回 null
+   */
+  protected LocalSession pollUncheckedSession(Set<LocalSession> checked) {
+    LocalSession session = pollIdleSession();
+    if (session != null && checked.contains(session)) {
+      offerChecked(session);
+      return null;
+    }
+    return session;
+  }
+
+  /**
+   * 从栈顶取出未检查的会话，栈顶是检查过的会话时返回 null。
+   * 检查过的会话由 {@link #offerChecked(LocalSession)} 放到栈底，栈顶出现检查过的会话，
+   * 说明该栈中未检查的会话已经取完。
+   * @param stack 空闲会话栈
+   * @param checked 本轮已检查的会话
+   * @return 未检查的空闲会话，没有时返回 null
+   */
+  protected static LocalSession pollUnchecked(Deque<LocalSession> stack,
+      Set<LocalSession> checked) {
+    LocalSession session = stack.peekFirst();
+    if (session == null || checked.contains(session)) {
+      return null;
+    }
+    session = stack.pollFirst();
+    if (session != null && checked.contains(session)) {
+      // 栈顶在 peek 之后被借走，取到的是检查过的会话
+      stack.offerLast(session);
+      return null;
+    }
+    return session;
+  }
+
+  /**
+   * 放回检查过的健康会话，默认与归还相同。
+   * LIFO 的调度器应放到本轮检查最后才会取到的一端。
+   * @param session 检查过的会话
+   */
+  protected void offerChecked(LocalSession session) {
+    offer(session);
+  }
+
+  /**
+   * 并行补足最小连接数
+   */
+  protected void fillUp() {
+    fillLock.lock();
+    try {
+      int lack = nebulaPoolConfig.getMinConnSize() - getIdleCount();
+      for (LocalSession session : validator.open(lack, this::newLocalSession,
+          this::releaseInnerSession)) {
+        offer(session);
+      }
+    } finally {
+      fillLock.unlock();
+    }
+  }
+
+  /**
+   * 并行补足 minConnSize 个会话，新建的会话与池中尚未绑定 space 的空闲会话一起轮流绑定到给定的 space。
+   * 绑定失败的会话仍然放入池中，只是不处于任何 space。
+   * <p>不重连（{@link EnvConfig#reconnect} 为 false）时同样预热：之后不再定时补足，
+   * 但预热的会话会被借出复用，失效的在借出时释放。</p>
+   * @param spaces 需要预先绑定的 space，默认 space 在前
+   */
+  @Override
+  public void warmUp(List<String> spaces) {
+    long start = System.currentTimeMillis();
+    fillLock.lock();
+    try {
+      ConcurrentLinkedQueue<LocalSession> unbound = new ConcurrentLinkedQueue<>();
+      int idle = spaces.isEmpty() ? getIdleCount() : takeUnbound(unbound);
+      int lack = Math.max(0, nebulaPoolConfig.getMinConnSize() - idle);
+      AtomicInteger index = new AtomicInteger();
+      List<LocalSession> sessions = validator.open(unbound.size() + lack, () -> {
+        LocalSession session = unbound.poll();
+        session = session != null ? session : newLocalSession();
+        if (!spaces.isEmpty()) {
+          bind(session, spaces.get(index.getAndIncrement() % spaces.size()));
+        }
+        return session;
+      }, this::releaseInnerSession);
+      sessions.forEach(this::offer);
+      // 被中断时尚未绑定的空闲会话原样放回
+      unbound.forEach(this::offer);
+      log.info("Session warm-up: {} sessions ready in {} ms, spaces: {}, reconnect: {}",
+          sessions.size(), System.currentTimeMillis() - start, spaces, EnvConfig.reconnect);
+    } finally {
+      fillLock.unlock();
+    }
+  }
+
+  /**
+   * 取出当前所有空闲会话，已绑定 space 的放回，未绑定的放入 unbound 等待绑定
+   * @param unbound 未绑定 space 的空闲会话
+   * @return 取出的空闲会话数
+   */
+  private int takeUnbound(Queue<LocalSession> unbound) {
+    List<LocalSession> bound = new ArrayList<>();
+    LocalSession session;
+    for (int i = getIdleCount(); i > 0 && (session = pollIdleSession()) != null; i--) {
+      if (session.getCurrentSpace() == null) {
+        unbound.add(session);
+      } else {
+        bound.add(session);
+      }
+    }
+    // 全部取出之后再放回，LIFO 的调度器不会再次取到放回的会话
+    bound.forEach(this::offer);
+    return bound.size() + unbound.size();
+  }
+
+  private void bind(LocalSession session, String space) {
+    try {
+      ResultSet result = session.getSession().execute("USE " + space);
+      if (result.isSucceeded()) {
+        session.setCurrentSpace(space);
+        session.setLastVerified(System.currentTimeMillis());
+      } else {
+        log.warn("Failed to bind a session to space {}: {}", space, result.getErrorMessage());
+      }
+    } catch (Exception e) {
+      log.warn("Failed to bind a session to space {}: {}", space, e.getMessage());
+    }
+  }
+
+  protected boolean timeToRelease(LocalSession session) {
+    long birth = session.getBirth();
+    return System.currentTimeMillis() - birth > SESSION_LIFE_LENGTH;
+  }
+
+  /**
+   * 当前存活（空闲与借出中）的会话数
+   * @return 存活会话数
+   */
+  public int getLiveCount() {
+    return liveCount.get();
+  }
+
+  public PoolSizingController getSizing() {
+    return sizing;
+  }
+
+  public HostRouter getHostRouter() {
+    return hostRouter;
+  }
+
+  /**
+   * 设置会话所用的多地址路由器，在 {@link #start()} 之前设置时，按剔除时长定时恢复期满的地址
+   * @param hostRouter 多地址路由器
+   */
+  public void setHostRouter(HostRouter hostRouter) {
+    this.hostRouter = hostRouter;
+  }
+
+  public LeakDetector getLeakDetector() {
+    return leakDetector;
+  }
+
+  /**
+   * 设置会话泄漏检测器，为 null 时不检测
+   * @param leakDetector 泄漏检测器
+   */
+  public void setLeakDetector(LeakDetector leakDetector) {
+    this.leakDetector = leakDetector;
+  }
+
+}
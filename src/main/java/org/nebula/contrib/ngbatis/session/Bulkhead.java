@@ -0,0 +1,134 @@
+package org.nebula.contrib.ngbatis.session;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import org.nebula.contrib.ngbatis.exception.BulkheadRejectedException;
+
+/**
+ * 单个 mapper 或方法的会话配额（舱壁）。
+ * <p>同时执行的请求数不超过 maxConcurrent，超出的请求按到达顺序（FIFO）排队；
+ * 排队数达到 maxQueue 时立即拒绝，排队超过 maxWait 时超时拒绝，
+ * 均抛出 {@link BulkheadRejectedException}。</p>
+ */
+public class Bulkhead {
+
+  private final String target;
+  private final int maxConcurrent;
+  private final int maxQueue;
+  private final long maxWait;
+  /**
+   * 公平模式保证排队的请求按到达顺序获得许可
+   */
+  private final Semaphore permits;
+  private final AtomicInteger queueDepth = new AtomicInteger();
+  private final LongAdder accepted = new LongAdder();
+  private final LongAdder queueFullRejections = new LongAdder();
+  private final LongAdder timeoutRejections = new LongAdder();
+
+  /**
+   * 创建会话配额
+   * @param target mapper 类全名，或 类全名.方法名
+   * @param maxConcurrent 同时执行的请求数上限
+   * @param maxQueue 排队的请求数上限
+   * @param maxWait 排队的时间上限（ms）
+   */
+  public Bulkhead(String target, int maxConcurrent, int maxQueue, long maxWait) {
+    this.target = target;
+    this.maxConcurrent = Math.max(1, maxConcurrent);
+    this.maxQueue = Math.max(0, maxQueue);
+    this.maxWait = maxWait;
+    this.permits = new Semaphore(this.maxConcurrent, true);
+  }
+
+  /**
+   * 获取执行许可，用完后必须调用 {@link #release()}
+   * @throws BulkheadRejectedException 排队数已满、等待超时或等待时被中断
+   */
+  public void acquire() {
+    // 带超时的 tryAcquire 遵守公平性，不会插队到排队的请求之前
+    if (tryAcquire(0)) {
+      return;
+    }
+    if (queueDepth.incrementAndGet() > maxQueue) {
+      queueDepth.decrementAndGet();
+      queueFullRejections.increment();
+      throw new BulkheadRejectedException(target,
+          String.format("queue is full (max-concurrent: %d, max-queue: %d)",
+              maxConcurrent, maxQueue));
+    }
+    try {
+      if (!tryAcquire(maxWait)) {
+        timeoutRejections.increment();
+        throw new BulkheadRejectedException(target,
+            String.format("waited more than %d ms (max-concurrent: %d)", maxWait, maxConcurrent));
+      }
+    } finally {
+      queueDepth.decrementAndGet();
+    }
+  }
+
+  private boolean tryAcquire(long waitMillis) {
+    try {
+      boolean acquired = permits.tryAcquire(waitMillis, TimeUnit.MILLISECONDS);
+      if (acquired) {
+        accepted.increment();
+      }
+      return acquired;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new BulkheadRejectedException(target, "interrupted while waiting");
+    }
+  }
+
+  public void release() {
+    permits.release();
+  }
+
+  public String getTarget() {
+    return target;
+  }
+
+  /**
+   * 当前排队等待的请求数
+   * @return 排队数
+   */
+  public int getQueueDepth() {
+    return queueDepth.get();
+  }
+
+  /**
+   * 当前正在执行的请求数
+   * @return 执行中的请求数
+   */
+  public int getInUse() {
+    return maxConcurrent - permits.availablePermits();
+  }
+
+  public long getAcceptedCount() {
+    return accepted.sum();
+  }
+
+  public long getQueueFullRejectionCount() {
+    return queueFullRejections.sum();
+  }
+
+  public long getTimeoutRejectionCount() {
+    return timeoutRejections.sum();
+  }
+
+  public long getRejectedCount() {
+    return queueFullRejections.sum() + timeoutRejections.sum();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("Bulkhead[%s]{inUse=%d/%d, queue=%d/%d, rejected=%d}",
+        target, getInUse(), maxConcurrent, getQueueDepth(), maxQueue, getRejectedCount());
+  }
+}
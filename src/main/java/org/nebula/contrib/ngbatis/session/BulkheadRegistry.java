@@ -0,0 +1,63 @@
+package org.nebula.contrib.ngbatis.session;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import org.nebula.contrib.ngbatis.models.ClassModel;
+import org.nebula.contrib.ngbatis.models.MethodModel;
+
+/**
+ * 按 mapper 类全名或 类全名.方法名 查找会话配额。方法上的配额优先于 mapper 上的配额。
+ */
+public class BulkheadRegistry {
+
+  private final Map<String, Bulkhead> bulkheads = new LinkedHashMap<>();
+  /**
+   * 方法到配额的查找结果缓存，没有配额的方法也缓存，避免每次拼接字符串查找
+   */
+  private final Map<String, Optional<Bulkhead>> resolved = new ConcurrentHashMap<>();
+
+  public BulkheadRegistry(Collection<Bulkhead> bulkheads) {
+    for (Bulkhead bulkhead : bulkheads) {
+      this.bulkheads.put(bulkhead.getTarget(), bulkhead);
+    }
+  }
+
+  /**
+   * 查找方法所适用的配额
+   * @param cm mapper 的类模型，可为 null
+   * @param mm 方法模型，可为 null
+   * @return 配额，没有配置时为 null
+   */
+  public Bulkhead find(ClassModel cm, MethodModel mm) {
+    String namespace = namespace(cm, mm);
+    if (namespace == null) {
+      return null;
+    }
+    String methodKey = mm == null ? namespace : namespace + "." + mm.getId();
+    return resolved.computeIfAbsent(methodKey, k -> {
+      Bulkhead bulkhead = bulkheads.get(k);
+      return Optional.ofNullable(bulkhead != null ? bulkhead : bulkheads.get(namespace));
+    }).orElse(null);
+  }
+
+  private static String namespace(ClassModel cm, MethodModel mm) {
+    if (cm != null && cm.getNamespace() != null) {
+      return cm.getNamespace().getName();
+    }
+    Method method = mm == null ? null : mm.getMethod();
+    return method == null ? null : method.getDeclaringClass().getName();
+  }
+
+  public Map<String, Bulkhead> getBulkheads() {
+    return Collections.unmodifiableMap(bulkheads);
+  }
+}
@@ -0,0 +1,235 @@
+package org.nebula.contrib.ngbatis.session;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import com.vesoft.nebula.client.graph.NebulaPoolConfig;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 无锁的本地会话调度器。
+ * <p>空闲会话按线程分散存放在多个栈中（数量与 cpu 核数相当），
+ * 借出时优先取当前线程所在的栈，其次从其他栈窃取，最后从共享的溢出队列获取；
+ * 归还时若有线程正在等待，则经由溢出队列直接交给等待者。
+ * 借还路径上不存在全局锁，请求线程之间不会在同一把锁上排队。</p>
+ */
+public class ConcurrentSessionDispatcher extends AbstractSessionDispatcher {
+
+  private static Logger log = LoggerFactory.getLogger(ConcurrentSessionDispatcher.class);
+
+  private final ConcurrentLinkedDeque<LocalSession>[] stripes;
+  private final int mask;
+  /**
+   * 共享的溢出队列，同时用于把归还的会话交给正在等待的线程
+   */
+  private final LinkedTransferQueue<LocalSession> handoff = new LinkedTransferQueue<>();
+  private final AtomicInteger idleCount = new AtomicInteger();
+  private final AtomicInteger waiters = new AtomicInteger();
+
+  /**
+   * 无锁借还的会话调度器
+   * @param nebulaPoolConfig 连接信息
+   */
+  public ConcurrentSessionDispatcher(NebulaPoolConfig nebulaPoolConfig) {
+    this(nebulaPoolConfig, new SessionValidator());
+  }
+
+  /**
+   * 无锁借还的会话调度器
+   * @param nebulaPoolConfig 连接信息
+   * @param validator 会话健康检查器
+   */
+  public ConcurrentSessionDispatcher(NebulaPoolConfig nebulaPoolConfig,
+      SessionValidator validator) {
+    this(nebulaPoolConfig, validator, null);
+  }
+
+  /**
+   * 无锁借还的会话调度器
+   * @param nebulaPoolConfig 连接信息
+   * @param validator 会话健康检查器
+   * @param sizing 会话池大小控制器，为 null 时不做动态调整
+   */
+  public ConcurrentSessionDispatcher(NebulaPoolConfig nebulaPoolConfig,
+      SessionValidator validator, PoolSizingController sizing) {
+    this(nebulaPoolConfig, validator, sizing, null);
+  }
+
+  /**
+   * 无锁借还的会话调度器
+   * @param nebulaPoolConfig 连接信息
+   * @param validator 会话健康检查器
+   * @param sizing 会话池大小控制器，为 null 时不做动态调整
+   * @param sessionFactory 会话的创建方法，为 null 时使用默认的连接池
+   */
+  public ConcurrentSessionDispatcher(NebulaPoolConfig nebulaPoolConfig,
+      SessionValidator validator, PoolSizingController sizing,
+      Supplier<LocalSession> sessionFactory) {
+    super(nebulaPoolConfig, validator, sizing, sessionFactory);
+    int size = stripeSize(Runtime.getRuntime().availableProcessors());
+    this.mask = size - 1;
+    this.stripes = newStripes(size);
+  }
+
+  @Override
+  public void run() {
+    log.info("Check {} idle sessions", idleCount.get());
+    validateIdle();
+    fillUp();
+  }
+
+  @Override
+  public void offer(LocalSession session) {
+    offer(session, false);
+  }
+
+  /**
+   * 定时检查放回的会话放到栈底，本轮检查不会先于未检查的会话取到它
+   * @param session 检查过的会话
+   */
+  @Override
+  protected void offerChecked(LocalSession session) {
+    offer(session, true);
+  }
+
+  private void offer(LocalSession session, boolean bottom) {
+    beforeOffer(session);
+    if (idleCount.incrementAndGet() > nebulaPoolConfig.getMaxConnSize()) {
+      idleCount.decrementAndGet();
+      releaseInnerSession(session);
+      return;
+    }
+    if (waiters.get() > 0) {
+      handoff.offer(session);
+    } else if (bottom) {
+      stripes[stripeIndex()].offerLast(session);
+    } else {
+      stripes[stripeIndex()].offerFirst(session);
+    }
+  }
+
+  @Override
+  public LocalSession poll() {
+    long start = System.nanoTime();
+    LocalSession localSession = pollLeastLoaded(this::pollIdle);
+    while (localSession != null && !checkOnBorrow(localSession)) {
+      localSession = pollLeastLoaded(this::pollIdle);
+    }
+    if (localSession == null) {
+      localSession = awaitIdle();
+    }
+    if (localSession != null && !checkOnBorrow(localSession)) {
+      localSession = null;
+    }
+    localSession = localSession == null ? newLocalSession() : localSession;
+    localSession.useCount++;
+    afterBorrow(localSession, start);
+    return localSession;
+  }
+
+  @Override
+  protected LocalSession pollIdleSession() {
+    return pollIdle();
+  }
+
+  /**
+   * 逐个栈取出栈顶未检查的会话，栈顶已是检查过的会话时，该栈本轮检查结束
+   * @param checked 本轮已检查的会话
+   * @return 未检查的空闲会话，没有时返回 null
+   */
+  @Override
+  protected LocalSession pollUncheckedSession(Set<LocalSession> checked) {
+    int home = stripeIndex();
+    for (int i = 0; i < stripes.length; i++) {
+      LocalSession session = pollUnchecked(stripes[(home + i) & mask], checked);
+      if (session != null) {
+        idleCount.decrementAndGet();
+        return session;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * 不阻塞地获取空闲会话：本线程的栈 -&gt; 其他线程的栈 -&gt; 溢出队列
+   * @return 空闲会话，没有时返回 null
+   */
+  private LocalSession pollIdle() {
+    int home = stripeIndex();
+    for (int i = 0; i < stripes.length; i++) {
+      LocalSession session = stripes[(home + i) & mask].pollFirst();
+      if (session != null) {
+        idleCount.decrementAndGet();
+        return session;
+      }
+    }
+    LocalSession session = handoff.poll();
+    if (session != null) {
+      idleCount.decrementAndGet();
+    }
+    return session;
+  }
+
+  /**
+   * 在 waitTime 内等待其他线程归还会话。
+   * 先登记为等待者再检查一次，避免与归还线程擦肩而过。
+   * 归还线程可能在登记之前已判断无人等待，随后才把会话放入栈中，
+   * 因此超时后再检查一次，不因此而新建会话。
+   * @return 归还的会话，超时后仍没有空闲会话时返回 null
+   */
+  private LocalSession awaitIdle() {
+    waiters.incrementAndGet();
+    try {
+      LocalSession session = pollIdle();
+      if (session != null) {
+        return session;
+      }
+      session = handoff.poll(nebulaPoolConfig.getWaitTime(), TimeUnit.MILLISECONDS);
+      if (session != null) {
+        idleCount.decrementAndGet();
+        return session;
+      }
+      return pollIdle();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    } finally {
+      waiters.decrementAndGet();
+    }
+  }
+
+  private int stripeIndex() {
+    return (int) Thread.currentThread().getId() & mask;
+  }
+
+  private static int stripeSize(int processors) {
+    int size = 1;
+    while (size < processors) {
+      size <<= 1;
+    }
+    return size;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static ConcurrentLinkedDeque<LocalSession>[] newStripes(int size) {
+    ConcurrentLinkedDeque<LocalSession>[] stripes = new ConcurrentLinkedDeque[size];
+    for (int i = 0; i < size; i++) {
+      stripes[i] = new ConcurrentLinkedDeque<>();
+    }
+    return stripes;
+  }
+
+  @Override
+  public int getIdleCount() {
+    return idleCount.get();
+  }
+
+}
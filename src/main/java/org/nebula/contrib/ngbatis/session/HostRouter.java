@@ -0,0 +1,257 @@
+package org.nebula.contrib.ngbatis.session;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import com.vesoft.nebula.client.graph.NebulaPoolConfig;
+import com.vesoft.nebula.client.graph.data.HostAddress;
+import com.vesoft.nebula.client.graph.net.NebulaPool;
+import com.vesoft.nebula.client.graph.net.Session;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 多个 graphd 之间按负载选择地址的路由器。
+ * <ul>
+ *   <li>每个地址一个只连接该地址的 {@link NebulaPool}，新会话总是开在得分最低（最空闲）的地址上</li>
+ *   <li>每次执行语句后更新该地址的 EWMA 延迟与错误率</li>
+ *   <li>错误率超过 errorThreshold，或延迟超过其他地址中最低延迟的 latencyFactor 倍时，
+ *   在 ejectTime 内不再选择该地址，其上的空闲会话在借出或检查时被释放</li>
+ *   <li>至少保留一个可用地址，不会把所有地址都剔除</li>
+ * </ul>
+ * <p>借出空闲会话时，调度器优先借出所在地址得分最低的会话；池中的会话都在负载明显更高的地址上时，
+ * 在最空闲的地址上新建会话借出，已经补满的会话池也会逐渐移到快的地址上。
+ * 见 {@link AbstractSessionDispatcher#pollLeastLoaded}。</p>
+ * <p>剔除期满的地址在选择地址时恢复，开启重连时调度器也会按 ejectTime 定时恢复。</p>
+ */
+public class HostRouter {
+
+  private static Logger log = LoggerFactory.getLogger(HostRouter.class);
+
+  /**
+   * 判断是否剔除前，当前统计周期内至少需要的样本数
+   */
+  private static final int MIN_SAMPLES = 5;
+
+  private final List<RoutedHost> hosts;
+  private final double alpha;
+  private final double errorThreshold;
+  private final double latencyFactor;
+  private final long ejectTime;
+
+  /**
+   * 创建路由器
+   * @param hosts 参与路由的地址
+   * @param alpha EWMA 的平滑系数，越大越看重最近的样本
+   * @param errorThreshold 错误率超过该值时剔除
+   * @param latencyFactor 延迟超过其他地址中最低延迟的该倍数时剔除
+   * @param ejectTime 剔除时长（ms）
+   */
+  public HostRouter(List<RoutedHost> hosts, double alpha, double errorThreshold,
+      double latencyFactor, long ejectTime) {
+    if (hosts == null || hosts.isEmpty()) {
+      throw new IllegalArgumentException("HostRouter needs at least one host");
+    }
+    this.hosts = Collections.unmodifiableList(new ArrayList<>(hosts));
+    this.alpha = alpha;
+    this.errorThreshold = errorThreshold;
+    this.latencyFactor = latencyFactor;
+    this.ejectTime = ejectTime;
+    for (RoutedHost host : this.hosts) {
+      host.setRouter(this);
+    }
+  }
+
+  /**
+   * 为每个地址创建单独的连接池，并构建路由器
+   * @param addresses nebula.hosts 中的所有地址
+   * @param poolConfig 连接池配置，每个地址的连接池共用
+   * @param alpha EWMA 的平滑系数
+   * @param errorThreshold 错误率超过该值时剔除
+   * @param latencyFactor 延迟超过其他地址中最低延迟的该倍数时剔除
+   * @param ejectTime 剔除时长（ms）
+   * @return 路由器
+   */
+  public static HostRouter create(List<HostAddress> addresses, NebulaPoolConfig poolConfig,
+      double alpha, double errorThreshold, double latencyFactor, long ejectTime) {
+    List<RoutedHost> hosts = new ArrayList<>(addresses.size());
+    for (HostAddress address : addresses) {
+      NebulaPool pool = new NebulaPool();
+      try {
+        pool.init(Collections.singletonList(address), poolConfig);
+      } catch (UnknownHostException e) {
+        throw new RuntimeException("Can not connect to Nebula Graph: " + address, e);
+      }
+      hosts.add(new RoutedHost(address, pool));
+    }
+    return new HostRouter(hosts, alpha, errorThreshold, latencyFactor, ejectTime);
+  }
+
+  /**
+   * 选出得分最低的可用地址。所有地址都被剔除时，选最早恢复的那个。
+   * @return 地址
+   */
+  public RoutedHost select() {
+    readmitExpired();
+    RoutedHost best = null;
+    for (RoutedHost host : hosts) {
+      if (!host.isEjected() && (best == null || host.score() < best.score())) {
+        best = host;
+      }
+    }
+    return best != null ? best : hosts.get(0);
+  }
+
+  /**
+   * 恢复剔除期满的地址，统计清零后重新参与路由
+   */
+  public void readmitExpired() {
+    long now = System.currentTimeMillis();
+    for (RoutedHost host : hosts) {
+      if (host.ejectExpired(now)) {
+        host.readmit();
+        log.info("Host readmitted: {}", host.getAddress());
+      }
+    }
+  }
+
+  /**
+   * 在最空闲的地址上打开会话，失败时计入该地址的错误并依次尝试其他地址。
+   * 认证耗时与语句耗时不可比，打开成功时不计入延迟。
+   * @param username 用户名
+   * @param password 密码
+   * @param reconnect 是否重连
+   * @return 记录了所在地址的本地会话
+   */
+  public LocalSession open(String username, String password, boolean reconnect) {
+    RuntimeException lastError = null;
+    List<RoutedHost> tried = new ArrayList<>(hosts.size());
+    RoutedHost host = select();
+    for (int i = 0; i < hosts.size(); i++) {
+      try {
+        Session session = host.getPool().getSession(username, password, reconnect);
+        LocalSession localSession = new LocalSession(System.currentTimeMillis(), session);
+        localSession.setHost(host);
+        return localSession;
+      } catch (Exception e) {
+        record(host, 0, false);
+        lastError = new RuntimeException(e);
+      }
+      tried.add(host);
+      host = nextUntried(tried);
+      if (host == null) {
+        break;
+      }
+    }
+    throw lastError;
+  }
+
+  private RoutedHost nextUntried(List<RoutedHost> tried) {
+    RoutedHost best = null;
+    for (RoutedHost host : hosts) {
+      if (!tried.contains(host) && (best == null || host.score() < best.score())) {
+        best = host;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * 语句开始执行
+   * @param session 执行语句的会话
+   */
+  public void begin(LocalSession session) {
+    RoutedHost host = session.getHost();
+    if (host != null) {
+      host.begin();
+    }
+  }
+
+  /**
+   * 语句执行结束，更新所在地址的统计
+   * @param session 执行语句的会话
+   * @param latencyNanos 执行耗时（ns）
+   * @param success 是否成功到达 graphd 并返回（语法等业务错误也算成功）
+   */
+  public void end(LocalSession session, long latencyNanos, boolean success) {
+    RoutedHost host = session.getHost();
+    if (host != null) {
+      host.end();
+      record(host, latencyNanos, success);
+    }
+  }
+
+  /**
+   * 更新地址的统计，并判断是否需要剔除
+   * @param host 地址
+   * @param latencyNanos 耗时（ns）
+   * @param success 是否成功
+   */
+  public void record(RoutedHost host, long latencyNanos, boolean success) {
+    host.record(latencyNanos, success, alpha);
+    if (host.isEjected() || host.getSamples() < MIN_SAMPLES) {
+      return;
+    }
+    String reason = null;
+    if (host.getErrorRate() > errorThreshold) {
+      reason = String.format("error rate %.2f", host.getErrorRate());
+    } else {
+      double others = lowestLatencyOfOthers(host);
+      if (others > 0 && host.getLatencyNanos() > others * latencyFactor) {
+        reason = String.format("latency %.2fms, others %.2fms",
+            host.getLatencyNanos() / 1_000_000.0, others / 1_000_000.0);
+      }
+    }
+    if (reason != null && hasOtherAvailable(host)) {
+      host.eject(System.currentTimeMillis() + ejectTime);
+      log.warn("Host ejected for {} ms: {}, {}", ejectTime, host.getAddress(), reason);
+    }
+  }
+
+  private double lowestLatencyOfOthers(RoutedHost self) {
+    double lowest = 0;
+    for (RoutedHost host : hosts) {
+      if (host == self || host.isEjected() || host.getSamples() < MIN_SAMPLES) {
+        continue;
+      }
+      double latency = host.getLatencyNanos();
+      if (latency > 0 && (lowest == 0 || latency < lowest)) {
+        lowest = latency;
+      }
+    }
+    return lowest;
+  }
+
+  private boolean hasOtherAvailable(RoutedHost self) {
+    for (RoutedHost host : hosts) {
+      if (host != self && !host.isEjected()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * 关闭所有地址的连接池
+   */
+  public void close() {
+    for (RoutedHost host : hosts) {
+      if (host.getPool() != null) {
+        host.getPool().close();
+      }
+    }
+  }
+
+  public List<RoutedHost> getHosts() {
+    return hosts;
+  }
+
+  public long getEjectTime() {
+    return ejectTime;
+  }
+}
@@ -4,14 +4,10 @@ package org.nebula.contrib.ngbatis.session;
 //
 // This source code is licensed under Apache 2.0 License.
 
-import static org.nebula.contrib.ngbatis.proxy.MapperProxy.ENV;
-
 import com.vesoft.nebula.client.graph.NebulaPoolConfig;
 import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import org.nebula.contrib.ngbatis.SessionDispatcher;
+import java.util.function.Supplier;
 import org.nebula.contrib.ngbatis.config.EnvConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,98 +19,118 @@ import org.slf4j.LoggerFactory;
  * @since 2022-08-26 2:34
  * <br>Now is history!
  */
-public class IntervalCheckSessionDispatcher implements Runnable, SessionDispatcher {
+public class IntervalCheckSessionDispatcher extends AbstractSessionDispatcher {
 
-  public static long SESSION_LIFE_LENGTH = 5 * 60 * 60 * 1000;
-  public static long CHECK_FIXED_RATE = 5 * 60 * 60 * 1000; // unit ms
   private static Logger log = LoggerFactory.getLogger(IntervalCheckSessionDispatcher.class);
-  private final NebulaPoolConfig nebulaPoolConfig;
   private final ArrayBlockingQueue<LocalSession> sessionQueue;
-  private final ScheduledExecutorService threadPool;
 
   /**
    * 具备间隔时间做连接可用性检查的会话调度器
    * @param nebulaPoolConfig 连接信息
    */
   public IntervalCheckSessionDispatcher(NebulaPoolConfig nebulaPoolConfig) {
-    this.nebulaPoolConfig = nebulaPoolConfig;
+    this(nebulaPoolConfig, new SessionValidator());
+  }
+
+  /**
+   * 具备间隔时间做连接可用性检查的会话调度器
+   * @param nebulaPoolConfig 连接信息
+   * @param validator 会话健康检查器
+   */
+  public IntervalCheckSessionDispatcher(NebulaPoolConfig nebulaPoolConfig,
+      SessionValidator validator) {
+    this(nebulaPoolConfig, validator, null);
+  }
+
+  /**
+   * 具备间隔时间做连接可用性检查的会话调度器
+   * @param nebulaPoolConfig 连接信息
+   * @param validator 会话健康检查器
+   * @param sizing 会话池大小控制器，为 null 时不做动态调整
+   */
+  public IntervalCheckSessionDispatcher(NebulaPoolConfig nebulaPoolConfig,
+      SessionValidator validator, PoolSizingController sizing) {
+    this(nebulaPoolConfig, validator, sizing, null);
+  }
+
+  /**
+   * 具备间隔时间做连接可用性检查的会话调度器
+   * @param nebulaPoolConfig 连接信息
+   * @param validator 会话健康检查器
+   * @param sizing 会话池大小控制器，为 null 时不做动态调整
+   * @param sessionFactory 会话的创建方法，为 null 时使用默认的连接池
+   */
+  public IntervalCheckSessionDispatcher(NebulaPoolConfig nebulaPoolConfig,
+      SessionValidator validator, PoolSizingController sizing,
+      Supplier<LocalSession> sessionFactory) {
+    super(nebulaPoolConfig, validator, sizing, sessionFactory);
     this.sessionQueue = new ArrayBlockingQueue<>(nebulaPoolConfig.getMaxConnSize());
-    threadPool = EnvConfig.reconnect ? Executors.newScheduledThreadPool(1) : null;
-    wakeUp();
   }
 
   @Override
   public void run() {
-    for (LocalSession session : sessionQueue) {
-      log.info(
-          "LocalSession in queue which created at {}, useCount: {}",
-          session.getBirth(), session.useCount
-      );
-
-      boolean finished = timeToRelease(session);
-      if (finished || !session.getSession().ping()) {
-        log.info("Release a session which created at {}", session.getBirth());
-        release(session);
-      }
-    }
-    while (sessionQueue.size() < nebulaPoolConfig.getMinConnSize()) {
-      offer();
-    }
+    log.info("Check {} idle sessions in queue", sessionQueue.size());
+    validateIdle();
+    fillUp();
   }
 
   @Override
   public void offer(LocalSession session) {
+    beforeOffer(session);
     boolean offer = sessionQueue.offer(session);
     if (!offer) {
       releaseInnerSession(session);
     }
   }
 
-  private void offer() {
-    LocalSession localSession = newLocalSession();
-    offer(localSession);
-  }
-
+  /**
+   * 借出会话。不加对象锁，等待只发生在队列内部的 {@link java.util.concurrent.locks.Lock} 上，
+   * 在虚拟线程中等待时不会占住载体线程。
+   * <p>等待中被中断时新建会话借出，同样计入借出次数与等待时间，并恢复中断标记。</p>
+   * @return 本地会话
+   */
   @Override
-  public synchronized LocalSession poll() {
+  public LocalSession poll() {
     LocalSession localSession = null;
-    if (!EnvConfig.reconnect) {
-      localSession = newLocalSession();
-      localSession.useCount++;
-      return localSession;
-    }
+    long start = System.nanoTime();
     try {
-      localSession = sessionQueue.poll(nebulaPoolConfig.getWaitTime(), TimeUnit.MILLISECONDS);
-      localSession = localSession == null ? newLocalSession() : localSession;
-      localSession.useCount++;
-      return localSession;
+      localSession = pollIdle();
+      // 不重连时没有定时检查与补足，不等待，取不到空闲会话就直接新建
+      if (localSession == null && EnvConfig.reconnect) {
+        localSession = sessionQueue.poll(nebulaPoolConfig.getWaitTime(), TimeUnit.MILLISECONDS);
+        if (localSession != null && !checkOnBorrow(localSession)) {
+          localSession = pollIdle();
+        }
+      }
     } catch (InterruptedException e) {
-      return newLocalSession();
+      Thread.currentThread().interrupt();
     }
+    localSession = localSession == null ? newLocalSession() : localSession;
+    localSession.useCount++;
+    afterBorrow(localSession, start);
+    return localSession;
   }
 
-  private void wakeUp() {
-    if (threadPool != null) {
-      threadPool.scheduleAtFixedRate(this, 3L, CHECK_FIXED_RATE, TimeUnit.MILLISECONDS);
+  /**
+   * 不阻塞地取出通过借出检查的空闲会话，开启多地址路由时优先取负载低的地址上的会话
+   * @return 空闲会话，没有时返回 null
+   */
+  private LocalSession pollIdle() {
+    LocalSession session = pollLeastLoaded(sessionQueue::poll);
+    while (session != null && !checkOnBorrow(session)) {
+      session = pollLeastLoaded(sessionQueue::poll);
     }
+    return session;
   }
 
-  private LocalSession newLocalSession() {
-    return new LocalSession(System.currentTimeMillis(), ENV.openSession());
-  }
-
-  private void releaseInnerSession(LocalSession session) {
-    session.getSession().release();
-  }
-
-  private void release(LocalSession session) {
-    session.getSession().release();
-    sessionQueue.remove(session);
+  @Override
+  protected LocalSession pollIdleSession() {
+    return sessionQueue.poll();
   }
 
-  private boolean timeToRelease(LocalSession session) {
-    long birth = session.getBirth();
-    return System.currentTimeMillis() - birth > SESSION_LIFE_LENGTH;
+  @Override
+  public int getIdleCount() {
+    return sessionQueue.size();
   }
 
 }
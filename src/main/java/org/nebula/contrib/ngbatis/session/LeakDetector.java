@@ -0,0 +1,174 @@
+package org.nebula.contrib.ngbatis.session;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 会话泄漏与长时间借出检测。
+ * <p>记录所有借出未归还的会话及其借出时间，按 stackSampleRate 抽样记录借出时的调用栈。
+ * 定期输出借出情况报告：借出数、最长借出时间，以及借出超过 longBorrowThreshold 的疑似泄漏，
+ * 抽中了调用栈的会一并输出，用于定位没有 offer 回调度器的代码。</p>
+ */
+public class LeakDetector {
+
+  private static Logger log = LoggerFactory.getLogger(LeakDetector.class);
+
+  /**
+   * 每次报告中最多详细输出的疑似泄漏数
+   */
+  private static final int MAX_REPORTED = 10;
+
+  private final long longBorrowThreshold;
+  private final double stackSampleRate;
+  private final long reportInterval;
+  private final Map<LocalSession, Boolean> borrowed = new ConcurrentHashMap<>();
+  private final LongAdder longBorrows = new LongAdder();
+  private ScheduledExecutorService reporter;
+
+  /**
+   * 创建泄漏检测器
+   * @param longBorrowThreshold 借出超过该时间（ms）视为疑似泄漏
+   * @param stackSampleRate 记录借出调用栈的比例，0 ~ 1
+   * @param reportInterval 报告间隔（ms）
+   */
+  public LeakDetector(long longBorrowThreshold, double stackSampleRate, long reportInterval) {
+    this.longBorrowThreshold = longBorrowThreshold;
+    this.stackSampleRate = stackSampleRate;
+    this.reportInterval = reportInterval;
+  }
+
+  /**
+   * 启动定期报告
+   */
+  public synchronized void start() {
+    if (reporter != null) {
+      return;
+    }
+    reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "ngbatis-session-leak-detector");
+      thread.setDaemon(true);
+      return thread;
+    });
+    reporter.scheduleAtFixedRate(this::report, reportInterval, reportInterval,
+        TimeUnit.MILLISECONDS);
+  }
+
+  public synchronized void stop() {
+    if (reporter != null) {
+      reporter.shutdownNow();
+      reporter = null;
+    }
+  }
+
+  /**
+   * 会话被借出
+   * @param session 借出的会话
+   */
+  public void borrowed(LocalSession session) {
+    Throwable stack = stackSampleRate > 0
+        && ThreadLocalRandom.current().nextDouble() < stackSampleRate
+        ? new Throwable("Session borrowed here") : null;
+    session.markBorrowed(System.currentTimeMillis(), Thread.currentThread().getName(), stack);
+    borrowed.put(session, Boolean.TRUE);
+  }
+
+  /**
+   * 会话被归还（或新建、检查后放回）
+   * @param session 放回调度器的会话
+   */
+  public void returned(LocalSession session) {
+    if (borrowed.remove(session) != null) {
+      session.markReturned();
+    }
+  }
+
+  /**
+   * 找出借出超过阈值的会话
+   * @return 疑似泄漏的会话，按借出时间从早到晚排序
+   */
+  public List<LocalSession> suspects() {
+    long now = System.currentTimeMillis();
+    List<LocalSession> suspects = new ArrayList<>();
+    for (LocalSession session : borrowed.keySet()) {
+      long borrowedAt = session.getBorrowedAt();
+      if (borrowedAt != 0 && now - borrowedAt > longBorrowThreshold) {
+        suspects.add(session);
+      }
+    }
+    suspects.sort((a, b) -> Long.compare(a.getBorrowedAt(), b.getBorrowedAt()));
+    return suspects;
+  }
+
+  /**
+   * 输出一次借出情况报告
+   */
+  public void report() {
+    try {
+      long now = System.currentTimeMillis();
+      long longest = 0;
+      for (LocalSession session : borrowed.keySet()) {
+        long borrowedAt = session.getBorrowedAt();
+        if (borrowedAt != 0) {
+          longest = Math.max(longest, now - borrowedAt);
+        }
+      }
+      List<LocalSession> suspects = suspects();
+      longBorrows.add(suspects.size());
+      if (suspects.isEmpty()) {
+        log.debug("Session borrow report: {} in use, longest {} ms", borrowed.size(), longest);
+        return;
+      }
+      log.warn("Session borrow report: {} in use, longest {} ms, {} borrowed longer than {} ms",
+          borrowed.size(), longest, suspects.size(), longBorrowThreshold);
+      for (LocalSession session : suspects.subList(0, Math.min(MAX_REPORTED, suspects.size()))) {
+        String message = String.format(
+            "Suspected session leak: borrowed %d ms ago by thread [%s], space: %s",
+            now - session.getBorrowedAt(), session.getBorrower(), session.getCurrentSpace());
+        if (session.getBorrowStack() != null) {
+          log.warn(message, session.getBorrowStack());
+        } else {
+          log.warn(message);
+        }
+      }
+    } catch (Exception e) {
+      log.warn("Failed to report session borrows: {}", e.getMessage());
+    }
+  }
+
+  /**
+   * 当前借出未归还的会话数
+   * @return 借出数
+   */
+  public int getBorrowedCount() {
+    return borrowed.size();
+  }
+
+  /**
+   * 历次报告中发现的疑似泄漏累计数（同一会话跨多次报告会重复计数）
+   * @return 累计数
+   */
+  public long getLongBorrowCount() {
+    return longBorrows.sum();
+  }
+
+  public long getLongBorrowThreshold() {
+    return longBorrowThreshold;
+  }
+
+  public double getStackSampleRate() {
+    return stackSampleRate;
+  }
+}
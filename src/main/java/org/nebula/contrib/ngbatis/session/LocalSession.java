@@ -19,10 +19,36 @@ public class LocalSession {
   private long birth;
   private Session session;
   private String currentSpace;
+  /**
+   * 最近一次确认会话可用的时间（ping 成功或语句执行成功）
+   */
+  private volatile long lastVerified;
+  /**
+   * 会话所在的 graphd，未开启多地址路由时为 null
+   */
+  private RoutedHost host;
+  /**
+   * 借出时间，空闲时为 0
+   */
+  private volatile long borrowedAt;
+  /**
+   * 借出会话的线程名
+   */
+  private volatile String borrower;
+  /**
+   * 抽样记录的借出时调用栈，未抽中时为 null
+   */
+  private volatile Throwable borrowStack;
 
+  /**
+   * 创建本地会话
+   * @param birth 创建时间
+   * @param session nebula 会话
+   */
   public LocalSession(long birth, Session session) {
     this.birth = birth;
     this.session = session;
+    this.lastVerified = birth;
   }
 
   public long getBirth() {
@@ -48,4 +74,50 @@ public class LocalSession {
   public void setCurrentSpace(String currentSpace) {
     this.currentSpace = currentSpace;
   }
+
+  public long getLastVerified() {
+    return lastVerified;
+  }
+
+  public void setLastVerified(long lastVerified) {
+    this.lastVerified = lastVerified;
+  }
+
+  public RoutedHost getHost() {
+    return host;
+  }
+
+  public void setHost(RoutedHost host) {
+    this.host = host;
+  }
+
+  public long getBorrowedAt() {
+    return borrowedAt;
+  }
+
+  public String getBorrower() {
+    return borrower;
+  }
+
+  public Throwable getBorrowStack() {
+    return borrowStack;
+  }
+
+  /**
+   * 记录借出信息
+   * @param borrowedAt 借出时间
+   * @param borrower 借出会话的线程名
+   * @param borrowStack 借出时的调用栈，可为 null
+   */
+  void markBorrowed(long borrowedAt, String borrower, Throwable borrowStack) {
+    this.borrowedAt = borrowedAt;
+    this.borrower = borrower;
+    this.borrowStack = borrowStack;
+  }
+
+  void markReturned() {
+    this.borrowedAt = 0;
+    this.borrower = null;
+    this.borrowStack = null;
+  }
 }
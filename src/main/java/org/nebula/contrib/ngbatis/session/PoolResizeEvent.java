@@ -0,0 +1,93 @@
+package org.nebula.contrib.ngbatis.session;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+/**
+ * 会话池目标大小发生调整时发出的事件。
+ * <p>配置了 nebula.ngbatis.adaptive-sizing 时，
+ * 该事件会通过 spring 的 ApplicationContext 发布，可用 @EventListener 接收。</p>
+ */
+public class PoolResizeEvent {
+
+  /**
+   * 调整方向
+   */
+  public enum Action {
+    GROW,
+    SHRINK
+  }
+
+  private final Action action;
+  private final int previousTarget;
+  private final int target;
+  private final int liveCount;
+  private final int idleCount;
+  private final double p95WaitMillis;
+  private final double utilization;
+  private final long timestamp;
+
+  /**
+   * 会话池大小调整事件
+   * @param action 调整方向
+   * @param previousTarget 调整前的目标会话数
+   * @param target 调整后的目标会话数
+   * @param liveCount 调整时存活的会话数
+   * @param idleCount 调整时空闲的会话数
+   * @param p95WaitMillis 本统计窗口内借出等待时间的 p95（ms）
+   * @param utilization 本统计窗口内使用率的峰值：借出中的会话数 / 当时存活的会话数
+   */
+  public PoolResizeEvent(Action action, int previousTarget, int target, int liveCount,
+      int idleCount, double p95WaitMillis, double utilization) {
+    this.action = action;
+    this.previousTarget = previousTarget;
+    this.target = target;
+    this.liveCount = liveCount;
+    this.idleCount = idleCount;
+    this.p95WaitMillis = p95WaitMillis;
+    this.utilization = utilization;
+    this.timestamp = System.currentTimeMillis();
+  }
+
+  public Action getAction() {
+    return action;
+  }
+
+  public int getPreviousTarget() {
+    return previousTarget;
+  }
+
+  public int getTarget() {
+    return target;
+  }
+
+  public int getLiveCount() {
+    return liveCount;
+  }
+
+  public int getIdleCount() {
+    return idleCount;
+  }
+
+  public double getP95WaitMillis() {
+    return p95WaitMillis;
+  }
+
+  public double getUtilization() {
+    return utilization;
+  }
+
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "PoolResizeEvent{action=%s, target=%d -> %d, live=%d, idle=%d, p95Wait=%.2fms, "
+            + "utilization=%.2f}",
+        action, previousTarget, target, liveCount, idleCount, p95WaitMillis, utilization
+    );
+  }
+}
@@ -0,0 +1,296 @@
+package org.nebula.contrib.ngbatis.session;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import org.nebula.contrib.ngbatis.session.PoolResizeEvent.Action;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 根据借出等待时间与使用率动态调整会话池大小的控制器。
+ * <p>每次借出时记录等待时间与使用率（借出中的会话数 / 当时存活的会话数），
+ * 每个统计窗口结束时做一次决策：</p>
+ * <ul>
+ *   <li>等待时间 p95 超过阈值：目标会话数增加一半，最多到 maxConnSize</li>
+ *   <li>窗口内没有借出，或 p95 未超过阈值且使用率峰值低于 lowUtilization：
+ *   目标会话数减少四分之一，最少到 minConnSize。
+ *   上次调整后的 cooldown 时间内不减少，避免刚增加的会话在下一个窗口又被释放</li>
+ * </ul>
+ * <p>控制器只给出目标会话数，会话的创建与释放由调度器完成：
+ * 调度器只在目标会话数减少时释放空闲会话，且最多释放减少的数量。</p>
+ */
+public class PoolSizingController {
+
+  private static Logger log = LoggerFactory.getLogger(PoolSizingController.class);
+
+  /**
+   * 每个统计窗口最多保留的等待时间样本数，超出后按蓄水池抽样保留，窗口内每次借出被保留的概率相同
+   */
+  private static final int SAMPLE_SIZE = 1024;
+
+  private final int minSize;
+  private final int maxSize;
+  private final long interval;
+  private final long waitThresholdNanos;
+  private final double lowUtilization;
+  /**
+   * 上次调整后不减少会话的统计窗口数
+   */
+  private final int cooldownWindows;
+  private final Consumer<PoolResizeEvent> listener;
+
+  /**
+   * 当前窗口的等待时间样本，与 spare 在 {@link #decide} 中交替使用
+   */
+  private volatile SampleWindow samples = new SampleWindow();
+  /**
+   * 备用的样本窗口，只在 {@link #decide} 中读写
+   */
+  private SampleWindow spare = new SampleWindow();
+  /**
+   * 窗口内使用率的峰值，以 {@link Double#doubleToLongBits} 保存，非负数的位序与大小一致
+   */
+  private final AtomicLong peakUtilization = new AtomicLong();
+  private final AtomicInteger target;
+  /**
+   * 距上次调整经过的统计窗口数，只在 {@link #decide} 中读写
+   */
+  private int windowsSinceResize;
+  private final LongAdder growCount = new LongAdder();
+  private final LongAdder shrinkCount = new LongAdder();
+  private volatile int lastBorrowCount;
+  private volatile double lastP95WaitMillis;
+  private volatile double lastUtilization;
+
+  /**
+   * 创建会话池大小控制器
+   * @param minSize 目标会话数下限，即 minConnSize
+   * @param maxSize 目标会话数上限，即 maxConnSize
+   * @param interval 统计窗口的长度（ms）
+   * @param waitThreshold 借出等待时间 p95 的阈值（ms）
+   * @param lowUtilization 使用率低于该值时视为空闲期
+   * @param cooldown 调整后不减少会话的时间（ms），按统计窗口向上取整
+   * @param listener 目标会话数调整时的回调，可为 null
+   */
+  public PoolSizingController(int minSize, int maxSize, long interval, long waitThreshold,
+      double lowUtilization, long cooldown, Consumer<PoolResizeEvent> listener) {
+    this.minSize = Math.max(0, minSize);
+    this.maxSize = Math.max(this.minSize, maxSize);
+    this.interval = interval;
+    this.waitThresholdNanos = TimeUnit.MILLISECONDS.toNanos(waitThreshold);
+    this.lowUtilization = lowUtilization;
+    this.cooldownWindows = interval <= 0 || cooldown <= 0
+        ? 0
+        : (int) Math.min(Integer.MAX_VALUE - 1, (cooldown + interval - 1) / interval);
+    this.listener = listener;
+    this.target = new AtomicInteger(this.minSize);
+    this.windowsSinceResize = cooldownWindows;
+  }
+
+  /**
+   * 记录一次借出
+   * @param waitNanos 本次借出的等待时间（ns）
+   * @param inUse 借出后正在使用中的会话数
+   * @param liveCount 借出时存活的会话数
+   */
+  public void recordBorrow(long waitNanos, int inUse, int liveCount) {
+    while (true) {
+      SampleWindow window = samples;
+      window.writers.incrementAndGet();
+      try {
+        // 登记后窗口未被切换，decide 会等本次写入完成后才读取
+        if (window == samples) {
+          window.add(waitNanos);
+          break;
+        }
+      } finally {
+        window.writers.decrementAndGet();
+      }
+    }
+    peakUtilization.accumulateAndGet(
+        Double.doubleToLongBits(utilization(inUse, liveCount)), Math::max);
+  }
+
+  /**
+   * 结束当前统计窗口，并给出新的目标会话数
+   * @param liveCount 当前存活的会话数
+   * @param idleCount 当前空闲的会话数
+   * @return 新的目标会话数
+   */
+  public int decide(int liveCount, int idleCount) {
+    PoolResizeEvent event = closeWindow(liveCount, idleCount);
+    return event == null ? target.get() : event.getTarget();
+  }
+
+  /**
+   * 结束当前统计窗口，并决定是否调整目标会话数
+   * @param liveCount 当前存活的会话数
+   * @param idleCount 当前空闲的会话数
+   * @return 调整事件，目标会话数未变（含冷却期内）时返回 null
+   */
+  public synchronized PoolResizeEvent closeWindow(int liveCount, int idleCount) {
+    // 先切换到备用窗口，新的借出写入备用窗口，再等已登记的写入完成后读取旧窗口
+    SampleWindow window = samples;
+    samples = spare;
+    window.awaitWriters();
+    int count = window.size();
+    long p95 = window.p95();
+    window.clear();
+    spare = window;
+    // 下一个窗口从当前的使用率开始统计
+    double utilization = Double.longBitsToDouble(peakUtilization.getAndSet(
+        Double.doubleToLongBits(utilization(liveCount - idleCount, liveCount))));
+    int previous = target.get();
+    lastBorrowCount = count;
+    lastP95WaitMillis = p95 / 1_000_000.0;
+    lastUtilization = utilization;
+    if (windowsSinceResize <= cooldownWindows) {
+      windowsSinceResize++;
+    }
+
+    Action action = null;
+    int next = previous;
+    if (count > 0 && p95 > waitThresholdNanos) {
+      next = Math.min(maxSize, previous + Math.max(1, previous / 2));
+      action = Action.GROW;
+    } else if ((count == 0 || utilization < lowUtilization)
+        && windowsSinceResize > cooldownWindows) {
+      next = Math.max(minSize, previous - Math.max(1, previous / 4));
+      action = Action.SHRINK;
+    }
+    if (next == previous) {
+      return null;
+    }
+    target.set(next);
+    windowsSinceResize = 0;
+    if (action == Action.GROW) {
+      growCount.increment();
+    } else {
+      shrinkCount.increment();
+    }
+    PoolResizeEvent event = new PoolResizeEvent(
+        action, previous, next, liveCount, idleCount, lastP95WaitMillis, utilization);
+    log.info("{}", event);
+    if (listener != null) {
+      try {
+        listener.accept(event);
+      } catch (Exception e) {
+        log.warn("Failed to publish {}: {}", event, e.getMessage());
+      }
+    }
+    return event;
+  }
+
+  private static double utilization(int inUse, int liveCount) {
+    if (liveCount <= 0) {
+      return inUse > 0 ? 1 : 0;
+    }
+    return Math.max(0, (double) inUse / liveCount);
+  }
+
+  /**
+   * 一个统计窗口的等待时间样本
+   */
+  private static final class SampleWindow {
+    private final AtomicLongArray values = new AtomicLongArray(SAMPLE_SIZE);
+    private final AtomicInteger count = new AtomicInteger();
+    /**
+     * 正在写入该窗口的线程数
+     */
+    private final AtomicInteger writers = new AtomicInteger();
+
+    void add(long waitNanos) {
+      int index = count.getAndIncrement();
+      if (index < SAMPLE_SIZE) {
+        values.set(index, waitNanos);
+        return;
+      }
+      int slot = ThreadLocalRandom.current().nextInt(index + 1);
+      if (slot < SAMPLE_SIZE) {
+        values.set(slot, waitNanos);
+      }
+    }
+
+    void awaitWriters() {
+      while (writers.get() > 0) {
+        Thread.yield();
+      }
+    }
+
+    /**
+     * 窗口内的借出次数
+     * @return 借出次数，不受样本数上限限制
+     */
+    int size() {
+      return count.get();
+    }
+
+    long p95() {
+      int size = Math.min(count.get(), SAMPLE_SIZE);
+      if (size == 0) {
+        return 0;
+      }
+      long[] samples = new long[size];
+      for (int i = 0; i < size; i++) {
+        samples[i] = values.get(i);
+      }
+      Arrays.sort(samples);
+      int rank = (int) Math.ceil(size * 0.95) - 1;
+      return samples[Math.max(0, rank)];
+    }
+
+    void clear() {
+      count.set(0);
+    }
+  }
+
+  public int getTarget() {
+    return target.get();
+  }
+
+  public long getInterval() {
+    return interval;
+  }
+
+  /**
+   * 最近一个统计窗口内的借出次数
+   * @return 借出次数
+   */
+  public int getLastBorrowCount() {
+    return lastBorrowCount;
+  }
+
+  /**
+   * 最近一个统计窗口内借出等待时间的 p95
+   * @return 等待时间（ms）
+   */
+  public double getLastP95WaitMillis() {
+    return lastP95WaitMillis;
+  }
+
+  /**
+   * 最近一个统计窗口内使用率的峰值：借出中的会话数与当时存活的会话数之比
+   * @return 使用率
+   */
+  public double getLastUtilization() {
+    return lastUtilization;
+  }
+
+  public long getGrowCount() {
+    return growCount.sum();
+  }
+
+  public long getShrinkCount() {
+    return shrinkCount.sum();
+  }
+}
@@ -0,0 +1,164 @@
+package org.nebula.contrib.ngbatis.session;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import com.vesoft.nebula.client.graph.data.HostAddress;
+import com.vesoft.nebula.client.graph.net.NebulaPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 参与路由的单个 graphd 地址，以及该地址的负载统计：
+ * 延迟与错误率的指数加权移动平均（EWMA）、正在执行的语句数、剔除截止时间。
+ */
+public class RoutedHost {
+
+  private final HostAddress address;
+  /**
+   * 只连接当前地址的连接池，模拟测试中可为 null
+   */
+  private final NebulaPool pool;
+
+  private final AtomicLong latencyBits = new AtomicLong(Double.doubleToLongBits(0));
+  private final AtomicLong errorRateBits = new AtomicLong(Double.doubleToLongBits(0));
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final LongAdder requests = new LongAdder();
+  private final LongAdder errors = new LongAdder();
+  private final LongAdder ejections = new LongAdder();
+  /**
+   * 当前统计周期（上次恢复之后）的样本数
+   */
+  private final AtomicInteger samples = new AtomicInteger();
+  private volatile long ejectedUntil;
+  /**
+   * 地址所属的路由器，由 {@link HostRouter} 创建时设置
+   */
+  private volatile HostRouter router;
+
+  public RoutedHost(HostAddress address, NebulaPool pool) {
+    this.address = address;
+    this.pool = pool;
+  }
+
+  /**
+   * 记录一次语句执行的结果
+   * @param latencyNanos 执行耗时（ns）
+   * @param success 是否成功到达 graphd 并返回
+   * @param alpha EWMA 的平滑系数
+   */
+  void record(long latencyNanos, boolean success, double alpha) {
+    requests.increment();
+    if (!success) {
+      errors.increment();
+    }
+    boolean first = samples.getAndIncrement() == 0;
+    if (success) {
+      update(latencyBits, first ? 1 : alpha, latencyNanos);
+    }
+    update(errorRateBits, alpha, success ? 0 : 1);
+  }
+
+  private static void update(AtomicLong bits, double alpha, double sample) {
+    long prev;
+    long next;
+    do {
+      prev = bits.get();
+      double value = Double.longBitsToDouble(prev);
+      next = Double.doubleToLongBits(value + alpha * (sample - value));
+    } while (!bits.compareAndSet(prev, next));
+  }
+
+  void eject(long until) {
+    ejectedUntil = until;
+    ejections.increment();
+  }
+
+  /**
+   * 剔除期满后重新加入路由，统计清零，以便重新探测
+   */
+  void readmit() {
+    ejectedUntil = 0;
+    samples.set(0);
+    latencyBits.set(Double.doubleToLongBits(0));
+    errorRateBits.set(Double.doubleToLongBits(0));
+  }
+
+  boolean ejectExpired(long now) {
+    long until = ejectedUntil;
+    return until != 0 && now >= until;
+  }
+
+  /**
+   * 路由得分，越小越优先：EWMA 延迟 ×（正在执行的语句数 + 1）。
+   * 尚无样本的地址延迟视为 0，会被优先选中以获得样本。
+   * @return 得分
+   */
+  double score() {
+    return getLatencyNanos() * (inFlight.get() + 1) + inFlight.get();
+  }
+
+  void begin() {
+    inFlight.incrementAndGet();
+  }
+
+  void end() {
+    inFlight.decrementAndGet();
+  }
+
+  void setRouter(HostRouter router) {
+    this.router = router;
+  }
+
+  public HostRouter getRouter() {
+    return router;
+  }
+
+  public HostAddress getAddress() {
+    return address;
+  }
+
+  public NebulaPool getPool() {
+    return pool;
+  }
+
+  public double getLatencyNanos() {
+    return Double.longBitsToDouble(latencyBits.get());
+  }
+
+  public double getErrorRate() {
+    return Double.longBitsToDouble(errorRateBits.get());
+  }
+
+  public int getInFlight() {
+    return inFlight.get();
+  }
+
+  public int getSamples() {
+    return samples.get();
+  }
+
+  public long getRequestCount() {
+    return requests.sum();
+  }
+
+  public long getErrorCount() {
+    return errors.sum();
+  }
+
+  public long getEjectionCount() {
+    return ejections.sum();
+  }
+
+  public boolean isEjected() {
+    return ejectedUntil != 0;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s{latency=%.2fms, errorRate=%.2f, inFlight=%d, ejected=%s}",
+        address, getLatencyNanos() / 1_000_000.0, getErrorRate(), getInFlight(), isEjected());
+  }
+}
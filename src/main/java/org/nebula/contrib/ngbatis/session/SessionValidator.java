@@ -0,0 +1,195 @@
+package org.nebula.contrib.ngbatis.session;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 本地会话的健康检查器。
+ * <ul>
+ *   <li>调度器把空闲会话从队列中分批取出，在有界线程池中并行 ping，健康的再放回队列</li>
+ *   <li>补足最小连接数时，并行创建新会话</li>
+ *   <li>可选借出时检查：距上次确认可用（ping 成功或执行成功）超过 verifiedTtl 才 ping</li>
+ * </ul>
+ */
+public class SessionValidator {
+
+  private static Logger log = LoggerFactory.getLogger(SessionValidator.class);
+
+  private final int batchSize;
+  private final boolean validateOnBorrow;
+  private final long verifiedTtl;
+  private final ExecutorService executor;
+
+  public SessionValidator() {
+    this(8, 4, false, 30_000L);
+  }
+
+  /**
+   * 创建会话健康检查器
+   * @param batchSize 每批从队列中取出检查的会话数
+   * @param threads 并行 ping 与创建会话的线程数上限
+   * @param validateOnBorrow 借出前是否检查
+   * @param verifiedTtl 距上次确认可用的时间在此之内（ms）则不再 ping
+   */
+  public SessionValidator(int batchSize, int threads, boolean validateOnBorrow,
+      long verifiedTtl) {
+    this.batchSize = Math.max(1, batchSize);
+    this.validateOnBorrow = validateOnBorrow;
+    this.verifiedTtl = verifiedTtl;
+    int poolSize = Math.max(1, threads);
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(
+        poolSize, poolSize, 60L, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(), daemonThreadFactory()
+    );
+    pool.allowCoreThreadTimeOut(true);
+    this.executor = pool;
+  }
+
+  /**
+   * 会话在 verifiedTtl 内确认过可用，不需要再 ping
+   * @param session 本地会话
+   * @return 是否最近确认过可用
+   */
+  public boolean isFresh(LocalSession session) {
+    return System.currentTimeMillis() - session.getLastVerified() <= verifiedTtl;
+  }
+
+  /**
+   * 借出前是否需要检查该会话
+   * @param session 即将借出的会话
+   * @return 开启了借出检查，且会话不是最近确认过的
+   */
+  public boolean needCheckOnBorrow(LocalSession session) {
+    return validateOnBorrow && !isFresh(session);
+  }
+
+  /**
+   * 并行检查一批已经离开队列的会话，不健康的会话交由 release 释放
+   * @param batch 已从队列取出的会话
+   * @param healthCheck 健康判断
+   * @param release 释放不健康会话的方法
+   * @return 健康的会话
+   */
+  public List<LocalSession> validate(List<LocalSession> batch,
+      Predicate<LocalSession> healthCheck, Consumer<LocalSession> release) {
+    List<Future<Boolean>> results = new ArrayList<>(batch.size());
+    for (LocalSession session : batch) {
+      results.add(executor.submit(() -> healthCheck.test(session)));
+    }
+    List<LocalSession> healthy = new ArrayList<>(batch.size());
+    for (int i = 0; i < batch.size(); i++) {
+      LocalSession session = batch.get(i);
+      if (await(results.get(i))) {
+        healthy.add(session);
+      } else {
+        log.info("Release a session which created at {}", session.getBirth());
+        release.accept(session);
+      }
+    }
+    return healthy;
+  }
+
+  /**
+   * 并行创建会话。
+   * <p>等待期间被中断时，取消尚未开始的创建，已创建的会话照常返回；
+   * 中断之后才创建完成的会话交由 release 释放，并恢复线程的中断标记。</p>
+   * @param count 需要创建的数量
+   * @param creator 会话创建方法
+   * @param release 释放中断后才创建完成的会话的方法
+   * @return 创建成功的会话
+   */
+  public List<LocalSession> open(int count, Supplier<LocalSession> creator,
+      Consumer<LocalSession> release) {
+    ConcurrentLinkedQueue<LocalSession> opened = new ConcurrentLinkedQueue<>();
+    AtomicBoolean abandoned = new AtomicBoolean();
+    List<Future<?>> results = new ArrayList<>(Math.max(count, 0));
+    for (int i = 0; i < count; i++) {
+      results.add(executor.submit(() -> {
+        opened.add(creator.get());
+        if (abandoned.get()) {
+          // 调用方已不再等待，先放入再检查，与调用方的取出不会同时错过
+          releaseAll(opened, release);
+        }
+      }));
+    }
+    for (Future<?> result : results) {
+      try {
+        result.get();
+      } catch (InterruptedException e) {
+        abandoned.set(true);
+        for (Future<?> pending : results) {
+          pending.cancel(false);
+        }
+        Thread.currentThread().interrupt();
+        break;
+      } catch (ExecutionException e) {
+        log.warn("Failed to open a session: {}", e.getCause().getMessage());
+      }
+    }
+    List<LocalSession> sessions = new ArrayList<>(results.size());
+    LocalSession session;
+    while ((session = opened.poll()) != null) {
+      sessions.add(session);
+    }
+    return sessions;
+  }
+
+  private static void releaseAll(ConcurrentLinkedQueue<LocalSession> opened,
+      Consumer<LocalSession> release) {
+    LocalSession session;
+    while ((session = opened.poll()) != null) {
+      release.accept(session);
+    }
+  }
+
+  private boolean await(Future<Boolean> result) {
+    try {
+      return result.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    } catch (ExecutionException e) {
+      return false;
+    }
+  }
+
+  private static ThreadFactory daemonThreadFactory() {
+    AtomicInteger index = new AtomicInteger();
+    return r -> {
+      Thread thread = new Thread(r, "ngbatis-session-validator-" + index.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  public boolean isValidateOnBorrow() {
+    return validateOnBorrow;
+  }
+
+  public long getVerifiedTtl() {
+    return verifiedTtl;
+  }
+}
@@ -0,0 +1,278 @@
+package org.nebula.contrib.ngbatis.session;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import com.vesoft.nebula.client.graph.NebulaPoolConfig;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 按 space 分组存放空闲会话的本地会话调度器。
+ * <p>空闲会话按 {@link LocalSession#getCurrentSpace()} 放入各自的子池，
+ * {@link #poll(String)} 优先返回已处于目标 space 的会话，
+ * 仅当该子池为空时，才从其他子池窃取会话，并由调用方通过 USE 重新绑定 space。</p>
+ */
+public class SpaceAffineSessionDispatcher extends AbstractSessionDispatcher {
+
+  /**
+   * 尚未绑定 space 的会话所在子池的键
+   */
+  private static final String NO_SPACE = "";
+  private static Logger log = LoggerFactory.getLogger(SpaceAffineSessionDispatcher.class);
+
+  private final Map<String, ConcurrentLinkedDeque<LocalSession>> subPools =
+      new ConcurrentHashMap<>();
+  private final LinkedTransferQueue<LocalSession> handoff = new LinkedTransferQueue<>();
+  private final AtomicInteger idleCount = new AtomicInteger();
+  private final AtomicInteger waiters = new AtomicInteger();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  /**
+   * 按 space 分组的会话调度器
+   * @param nebulaPoolConfig 连接信息
+   */
+  public SpaceAffineSessionDispatcher(NebulaPoolConfig nebulaPoolConfig) {
+    this(nebulaPoolConfig, new SessionValidator());
+  }
+
+  /**
+   * 按 space 分组的会话调度器
+   * @param nebulaPoolConfig 连接信息
+   * @param validator 会话健康检查器
+   */
+  public SpaceAffineSessionDispatcher(NebulaPoolConfig nebulaPoolConfig,
+      SessionValidator validator) {
+    this(nebulaPoolConfig, validator, null);
+  }
+
+  /**
+   * 按 space 分组的会话调度器
+   * @param nebulaPoolConfig 连接信息
+   * @param validator 会话健康检查器
+   * @param sizing 会话池大小控制器，为 null 时不做动态调整
+   */
+  public SpaceAffineSessionDispatcher(NebulaPoolConfig nebulaPoolConfig,
+      SessionValidator validator, PoolSizingController sizing) {
+    this(nebulaPoolConfig, validator, sizing, null);
+  }
+
+  /**
+   * 按 space 分组的会话调度器
+   * @param nebulaPoolConfig 连接信息
+   * @param validator 会话健康检查器
+   * @param sizing 会话池大小控制器，为 null 时不做动态调整
+   * @param sessionFactory 会话的创建方法，为 null 时使用默认的连接池
+   */
+  public SpaceAffineSessionDispatcher(NebulaPoolConfig nebulaPoolConfig,
+      SessionValidator validator, PoolSizingController sizing,
+      Supplier<LocalSession> sessionFactory) {
+    super(nebulaPoolConfig, validator, sizing, sessionFactory);
+  }
+
+  @Override
+  public void run() {
+    log.info("Check {} idle sessions", idleCount.get());
+    validateIdle();
+    fillUp();
+  }
+
+  @Override
+  public void offer(LocalSession session) {
+    offer(session, false);
+  }
+
+  /**
+   * 定时检查放回的会话放到所在子池的栈底，本轮检查不会先于未检查的会话取到它
+   * @param session 检查过的会话
+   */
+  @Override
+  protected void offerChecked(LocalSession session) {
+    offer(session, true);
+  }
+
+  private void offer(LocalSession session, boolean bottom) {
+    beforeOffer(session);
+    if (idleCount.incrementAndGet() > nebulaPoolConfig.getMaxConnSize()) {
+      idleCount.decrementAndGet();
+      releaseInnerSession(session);
+      return;
+    }
+    if (waiters.get() > 0) {
+      handoff.offer(session);
+    } else if (bottom) {
+      subPool(session.getCurrentSpace()).offerLast(session);
+    } else {
+      subPool(session.getCurrentSpace()).offerFirst(session);
+    }
+  }
+
+  @Override
+  public LocalSession poll() {
+    return poll(null);
+  }
+
+  @Override
+  public LocalSession poll(String space) {
+    long start = System.nanoTime();
+    LocalSession localSession = pollLeastLoaded(() -> pollSpace(space));
+    while (localSession != null && !checkOnBorrow(localSession)) {
+      localSession = pollLeastLoaded(() -> pollSpace(space));
+    }
+    if (localSession == null) {
+      localSession = pollLeastLoaded(this::pollAny);
+    }
+    while (localSession != null && !checkOnBorrow(localSession)) {
+      localSession = pollLeastLoaded(this::pollAny);
+    }
+    if (localSession == null) {
+      localSession = awaitIdle();
+    }
+    if (localSession != null && !checkOnBorrow(localSession)) {
+      localSession = null;
+    }
+    localSession = localSession == null ? newLocalSession() : localSession;
+    if (space != null) {
+      if (space.equals(localSession.getCurrentSpace())) {
+        hits.increment();
+      } else {
+        misses.increment();
+      }
+    }
+    localSession.useCount++;
+    afterBorrow(localSession, start);
+    return localSession;
+  }
+
+  @Override
+  protected LocalSession pollIdleSession() {
+    return pollAny();
+  }
+
+  /**
+   * 逐个子池取出栈顶未检查的会话，栈顶已是检查过的会话时，该子池本轮检查结束
+   * @param checked 本轮已检查的会话
+   * @return 未检查的空闲会话，没有时返回 null
+   */
+  @Override
+  protected LocalSession pollUncheckedSession(Set<LocalSession> checked) {
+    for (ConcurrentLinkedDeque<LocalSession> subPool : subPools.values()) {
+      LocalSession session = pollUnchecked(subPool, checked);
+      if (session != null) {
+        idleCount.decrementAndGet();
+        return session;
+      }
+    }
+    return null;
+  }
+
+  private LocalSession pollSpace(String space) {
+    ConcurrentLinkedDeque<LocalSession> subPool = subPools.get(keyOf(space));
+    LocalSession session = subPool == null ? null : subPool.pollFirst();
+    if (session != null) {
+      idleCount.decrementAndGet();
+    }
+    return session;
+  }
+
+  /**
+   * 目标子池为空时窃取会话：先取未绑定 space 的会话，再取其他子池的会话
+   * @return 空闲会话，没有时返回 null
+   */
+  private LocalSession pollAny() {
+    LocalSession session = pollSpace(NO_SPACE);
+    if (session != null) {
+      return session;
+    }
+    for (ConcurrentLinkedDeque<LocalSession> subPool : subPools.values()) {
+      session = subPool.pollFirst();
+      if (session != null) {
+        idleCount.decrementAndGet();
+        return session;
+      }
+    }
+    session = handoff.poll();
+    if (session != null) {
+      idleCount.decrementAndGet();
+    }
+    return session;
+  }
+
+  /**
+   * 在 waitTime 内等待其他线程归还会话。
+   * 归还线程可能在登记之前已判断无人等待，随后才把会话放入子池，
+   * 因此超时后再检查一次子池。
+   * @return 归还的会话，超时后仍没有空闲会话时返回 null
+   */
+  private LocalSession awaitIdle() {
+    waiters.incrementAndGet();
+    try {
+      LocalSession session = pollAny();
+      if (session != null) {
+        return session;
+      }
+      session = handoff.poll(nebulaPoolConfig.getWaitTime(), TimeUnit.MILLISECONDS);
+      if (session != null) {
+        idleCount.decrementAndGet();
+        return session;
+      }
+      return pollAny();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    } finally {
+      waiters.decrementAndGet();
+    }
+  }
+
+  private ConcurrentLinkedDeque<LocalSession> subPool(String space) {
+    return subPools.computeIfAbsent(keyOf(space), k -> new ConcurrentLinkedDeque<>());
+  }
+
+  private static String keyOf(String space) {
+    return space == null ? NO_SPACE : space;
+  }
+
+  /**
+   * 借出的会话已经处于目标 space 的次数，不指定 space 的借出不计入
+   * @return 命中次数
+   */
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  /**
+   * 借出的会话需要重新 USE 目标 space 的次数（窃取或新建），不指定 space 的借出不计入
+   * @return 未命中次数
+   */
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  /**
+   * 命中率，只统计指定了 space 的借出
+   * @return 0 ~ 1，尚未按 space 借出过会话时为 0
+   */
+  public double getHitRate() {
+    long hit = hits.sum();
+    long total = hit + misses.sum();
+    return total == 0 ? 0 : (double) hit / total;
+  }
+
+  @Override
+  public int getIdleCount() {
+    return idleCount.get();
+  }
+
+}
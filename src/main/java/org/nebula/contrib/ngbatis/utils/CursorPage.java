@@ -0,0 +1,123 @@
+package org.nebula.contrib.ngbatis.utils;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import java.util.List;
+
+/**
+ * <p>按游标（键集）分页的数据容器。</p>
+ * <p>{@link Page} 用 SKIP 跳过前面的行，页码越大，graphd 需要生成再丢弃的行越多；
+ * 游标分页按排序键升序取数，并记下上一页最后一行的键，
+ * 下一页只取键大于它的行，每一页的开销与页码无关。</p>
+ * <p>每次查询后，游标前进到当前页最后一行的键，同一个对象再次查询即得到下一页。
+ * 不计算总数。排序键的表达式在 xml 方法标签的 orderBy 属性中声明，加载时检查。</p>
+ */
+public class CursorPage<T> {
+
+  private int pageSize = 100;
+  /**
+   * 结果中排序键所在的列名或属性名，查询后从最后一行取出作为新的游标；
+   * 为空时游标不自动前进。NebulaDaoBasic 中为实体的主键
+   */
+  private String cursorField;
+  /**
+   * 上一页最后一行的排序键，为 null 时查询第一页
+   */
+  private Object cursor;
+  private boolean hasNext = true;
+  private List<T> rows;
+  private T entity;
+
+  public CursorPage() {
+  }
+
+  /**
+   * <p>创建游标分页对象。</p>
+   * @param pageSize 每页的容量
+   */
+  public CursorPage(int pageSize) {
+    this.pageSize = pageSize;
+  }
+
+  /**
+   * <p>创建游标分页对象。</p>
+   * @param pageSize 每页的容量
+   * @param cursorField 结果中排序键所在的列名或属性名
+   */
+  public CursorPage(int pageSize, String cursorField) {
+    this.pageSize = pageSize;
+    this.cursorField = cursorField;
+  }
+
+  public int getPageSize() {
+    return pageSize;
+  }
+
+  public void setPageSize(int pageSize) {
+    this.pageSize = pageSize;
+  }
+
+  public String getCursorField() {
+    return cursorField;
+  }
+
+  public void setCursorField(String cursorField) {
+    this.cursorField = cursorField;
+  }
+
+  public Object getCursor() {
+    return cursor;
+  }
+
+  public void setCursor(Object cursor) {
+    this.cursor = cursor;
+  }
+
+  /**
+   * <p>是否可能还有下一页：当前页已取满时为 true。</p>
+   * @return 是否还有下一页
+   */
+  public boolean isHasNext() {
+    return hasNext;
+  }
+
+  public void setHasNext(boolean hasNext) {
+    this.hasNext = hasNext;
+  }
+
+  public List<T> getRows() {
+    return rows;
+  }
+
+  public void setRows(List<T> rows) {
+    this.rows = rows;
+  }
+
+  public T getEntity() {
+    return entity;
+  }
+
+  public void setEntity(T entity) {
+    this.entity = entity;
+  }
+
+  @Override
+  public String toString() {
+    return "CursorPage{"
+      + "pageSize="
+      + pageSize
+      + ", cursorField="
+      + cursorField
+      + ", cursor="
+      + cursor
+      + ", hasNext="
+      + hasNext
+      + ", rows="
+      + rows
+      + ", entity="
+      + entity
+      + '}';
+  }
+}
@@ -21,6 +21,10 @@ public class Page<T> {
   private int startRow = 0;
   private int endRow = 15;
   private long total;
+  /**
+   * 总数是否为近似值，取自统计信息而不是 count 查询
+   */
+  private boolean approximate;
   private int pages;
   private List<T> rows;
   private T entity;
@@ -129,6 +133,18 @@ public class Page<T> {
     this.setPages();
   }
 
+  /**
+   * <p>总数是否为近似值。</p>
+   * @return 为 true 时总数取自统计信息（SHOW STATS），可通过 countPage 获取精确总数
+   */
+  public boolean isApproximate() {
+    return approximate;
+  }
+
+  public void setApproximate(boolean approximate) {
+    this.approximate = approximate;
+  }
+
   public Map<String, Object> getQuery() {
     return query;
   }
@@ -159,6 +175,8 @@ public class Page<T> {
       + endRow
       + ", total="
       + total
+      + ", approximate="
+      + approximate
       + ", pages="
       + pages
       + '}';
@@ -6,8 +6,10 @@ package org.nebula.contrib.ngbatis.utils;
 
 import static org.springframework.util.ObjectUtils.nullSafeEquals;
 
+import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
@@ -153,6 +155,46 @@ public abstract class ReflectUtil {
     }
   }
 
+  /**
+   * <p>按列名反射取值，列名与 {@link #setValue(Object, String, Object)} 一致。</p>
+   * @param o 对象
+   * @param prop 列名
+   * @return 属性值
+   */
+  public static Object getValue(Object o, String prop) {
+    for (Field columnField : getAllColumnFields(o.getClass())) {
+      if (getNameByColumn(columnField).equals(prop)) {
+        return getValue(o, columnField);
+      }
+    }
+    throw new ParseException(String.format("%s 中没有属性 %s", o.getClass(), prop));
+  }
+
+  /**
+   * <p>浅复制对象：通过无参构造创建同类型的实例，复制它及其父类的全部非静态属性。</p>
+   * @param o 对象，类型需要有无参构造
+   * @param <T> 对象类型
+   * @return 新的对象，属性引用的对象与原对象共用
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> T shallowCopy(T o) {
+    try {
+      Constructor<?> constructor = o.getClass().getDeclaredConstructor();
+      constructor.setAccessible(true);
+      T copy = (T) constructor.newInstance();
+      for (Class<?> type = o.getClass(); type != null; type = type.getSuperclass()) {
+        for (Field field : type.getDeclaredFields()) {
+          if (!Modifier.isStatic(field.getModifiers())) {
+            setValue(copy, field, getValue(o, field));
+          }
+        }
+      }
+      return copy;
+    } catch (ReflectiveOperationException e) {
+      throw new ParseException(String.format("无法复制 %s：%s", o.getClass(), e.getMessage()));
+    }
+  }
+
   /**
    * <p>根据方法模型，生成字节码方法签名。</p>
    * @param methodModel 接口方法模型
@@ -0,0 +1,92 @@
+package org.nebula.contrib.ngbatis.cache;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+/**
+ * 分页总数缓存：翻页共用总数、写入后失效、过期与按数量淘汰。
+ */
+class CountCacheTest {
+
+  private static final String COUNT_GQL =
+      "MATCH (n:person) WHERE n.person.name == $name RETURN count(n)";
+
+  @Test
+  void pagesShareTheTotal() {
+    CountCache cache = new CountCache(60_000, 10);
+    CountKey first = key("Tom", 0);
+    cache.put(first, 42L, cache.versionsOf(first));
+
+    assertEquals(42L, (long) cache.get(key("Tom", 100)));
+    assertNull(cache.get(key("Jerry", 0)));
+    assertEquals(0.5, cache.getHitRate());
+  }
+
+  @Test
+  void writeOnTheTagInvalidates() {
+    CountCache cache = new CountCache(60_000, 10);
+    CountKey key = key("Tom", 0);
+    cache.put(key, 42L, cache.versionsOf(key));
+
+    cache.written("INSERT EDGE follow(degree) VALUES \"a\"->\"b\":(1)");
+    assertEquals(42L, (long) cache.get(key));
+
+    cache.written("INSERT VERTEX person(name) VALUES \"c\":(\"Tom\")");
+    assertNull(cache.get(key));
+  }
+
+  @Test
+  void writeDuringQueryIsNotCached() {
+    CountCache cache = new CountCache(60_000, 10);
+    CountKey key = key("Tom", 0);
+    long[] versions = cache.versionsOf(key);
+    cache.written("DELETE VERTEX \"c\" WITH EDGE");
+    cache.put(key, 42L, versions);
+
+    assertNull(cache.get(key));
+  }
+
+  @Test
+  void expiresAndEvicts() throws InterruptedException {
+    CountCache cache = new CountCache(60_000, 1);
+    CountKey tom = key("Tom", 0);
+    CountKey jerry = key("Jerry", 0);
+    cache.put(tom, 1L, cache.versionsOf(tom));
+    cache.put(jerry, 2L, cache.versionsOf(jerry));
+    assertNull(cache.get(tom));
+    assertEquals(1, cache.getEvictionCount());
+
+    CountCache shortLived = new CountCache(1, 10);
+    shortLived.put(tom, 1L, shortLived.versionsOf(tom));
+    Thread.sleep(5);
+    assertNull(shortLived.get(tom));
+  }
+
+  @Test
+  void queryWithoutTagIsNotCacheable() {
+    CountCache cache = new CountCache(60_000, 10);
+    CountKey key = new CountKey("Dao.count$Count", "RETURN 1", Collections.emptyMap());
+    assertFalse(cache.isCacheable(key));
+  }
+
+  private static CountKey key(String name, int startRow) {
+    Map<String, Object> page = new HashMap<>();
+    page.put("startRow", startRow);
+    page.put("pageSize", 100);
+    page.put("pageNo", startRow / 100 + 1);
+    Map<String, Object> params = new HashMap<>();
+    params.put("name", name);
+    params.put("page", page);
+    return new CountKey("PersonDao.selectByName$Count", COUNT_GQL, params);
+  }
+}
@@ -0,0 +1,82 @@
+package org.nebula.contrib.ngbatis.cache;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+/**
+ * 查询结果缓存：写入后失效、单独的过期时间、按访问频率决定淘汰哪一个。
+ */
+class QueryCacheTest {
+
+  private static final String GQL =
+      "MATCH (n:person) WHERE n.person.name == $name RETURN n";
+
+  @Test
+  void keyedOnGqlAndParams() {
+    QueryCache cache = new QueryCache(60_000, 100);
+    List<String> rows = Arrays.asList("a", "b");
+    QueryKey key = key("Tom");
+    cache.put(key, rows, 0, cache.versionsOf(key));
+
+    assertSame(rows, cache.get(key("Tom")));
+    assertNull(cache.get(key("Jerry")));
+    assertNotEquals(key("Tom"), new CountKey("PersonDao.selectByName", GQL,
+        Collections.singletonMap("name", "Tom")));
+  }
+
+  @Test
+  void writeOnTheTagInvalidates() {
+    QueryCache cache = new QueryCache(60_000, 100);
+    QueryKey key = key("Tom");
+    cache.put(key, "rows", 0, cache.versionsOf(key));
+
+    cache.written("UPDATE VERTEX ON team \"t\" SET name = \"x\"");
+    assertEquals("rows", cache.get(key));
+
+    cache.written("UPSERT VERTEX ON person \"c\" SET name = \"Tom\"");
+    assertNull(cache.get(key));
+  }
+
+  @Test
+  void perMethodTtl() throws InterruptedException {
+    QueryCache cache = new QueryCache(60_000, 100);
+    QueryKey key = key("Tom");
+    cache.put(key, "rows", 1, cache.versionsOf(key));
+    Thread.sleep(5);
+    assertNull(cache.get(key));
+  }
+
+  @Test
+  void frequentEntrySurvivesOneHitWonders() {
+    QueryCache cache = new QueryCache(60_000, 100);
+    QueryKey hot = key("hot");
+    for (int i = 0; i < 5; i++) {
+      cache.get(hot);
+    }
+    cache.put(hot, "hot", 0, cache.versionsOf(hot));
+    for (int i = 0; i < 1000; i++) {
+      QueryKey once = key("once-" + i);
+      cache.get(once);
+      cache.put(once, i, 0, cache.versionsOf(once));
+    }
+
+    assertEquals("hot", cache.get(hot));
+    assertEquals(100, cache.size());
+    assertEquals(901, cache.getEvictionCount());
+  }
+
+  private static QueryKey key(String name) {
+    return new QueryKey("PersonDao.selectByName", GQL, Collections.singletonMap("name", name));
+  }
+}
@@ -0,0 +1,133 @@
+package org.nebula.contrib.ngbatis.cache;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.vesoft.nebula.client.graph.data.ResultSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.Test;
+import org.nebula.contrib.ngbatis.exception.QueryException;
+
+/**
+ * 同时发起的相同查询只执行一次，失败时等待的调用方得到同一个异常，等待超时时放弃。
+ */
+class SingleFlightTest {
+
+  private static final int CALLERS = 16;
+  private static final String GQL = "MATCH (n:person) WHERE id(n) == $id RETURN n";
+
+  @Test
+  void concurrentCallsShareOneQuery() throws Exception {
+    SingleFlight singleFlight = new SingleFlight();
+    AtomicInteger executed = new AtomicInteger();
+    List<Object> results = run(singleFlight, () -> {
+      executed.incrementAndGet();
+      awaitFollowers(singleFlight);
+      return null;
+    });
+
+    assertEquals(CALLERS, results.size());
+    assertEquals(1, executed.get());
+    assertEquals(1, singleFlight.getExecutionCount());
+    assertEquals(CALLERS - 1, singleFlight.getCoalescedCount());
+    assertEquals(0, singleFlight.getInFlightCount());
+  }
+
+  @Test
+  void followersGetTheSameFailure() throws Exception {
+    SingleFlight singleFlight = new SingleFlight();
+    QueryException failure = new QueryException("graphd is down");
+    List<Object> results = run(singleFlight, () -> {
+      awaitFollowers(singleFlight);
+      throw failure;
+    });
+
+    for (Object result : results) {
+      assertSame(failure, result);
+    }
+    assertEquals(0, singleFlight.getInFlightCount());
+  }
+
+  @Test
+  void followerGivesUpAfterTimeout() throws Exception {
+    SingleFlight singleFlight = new SingleFlight(50);
+    CountDownLatch release = new CountDownLatch(1);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<ResultSet> leader = executor.submit(() -> singleFlight.execute("test", GQL,
+          Collections.singletonMap("id", "1"), () -> {
+            awaitQuietly(release);
+            return null;
+          }));
+      while (singleFlight.getInFlightCount() == 0) {
+        Thread.yield();
+      }
+
+      assertThrows(QueryException.class, () -> singleFlight.execute("test", GQL,
+          Collections.singletonMap("id", "1"), () -> null));
+      release.countDown();
+      leader.get(5, TimeUnit.SECONDS);
+      assertEquals(1, singleFlight.getExecutionCount());
+    } finally {
+      release.countDown();
+      executor.shutdownNow();
+    }
+  }
+
+  private static void awaitQuietly(CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static List<Object> run(SingleFlight singleFlight, Supplier<ResultSet> query)
+      throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+    CountDownLatch start = new CountDownLatch(1);
+    try {
+      List<Future<Object>> futures = new ArrayList<>(CALLERS);
+      for (int i = 0; i < CALLERS; i++) {
+        futures.add(executor.submit(() -> {
+          start.await();
+          try {
+            return singleFlight.execute("test", GQL, Collections.singletonMap("id", "1"), query);
+          } catch (QueryException e) {
+            return e;
+          }
+        }));
+      }
+      start.countDown();
+      List<Object> results = new ArrayList<>(CALLERS);
+      for (Future<Object> future : futures) {
+        results.add(future.get(10, TimeUnit.SECONDS));
+      }
+      return results;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static void awaitFollowers(SingleFlight singleFlight) {
+    long deadline = System.currentTimeMillis() + 5_000;
+    while (singleFlight.getCoalescedCount() < CALLERS - 1
+        && System.currentTimeMillis() < deadline) {
+      Thread.yield();
+    }
+  }
+}
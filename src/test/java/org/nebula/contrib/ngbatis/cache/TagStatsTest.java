@@ -0,0 +1,84 @@
+package org.nebula.contrib.ngbatis.cache;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.vesoft.nebula.client.graph.data.ResultSet;
+import com.vesoft.nebula.client.graph.data.ValueWrapper;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.nebula.contrib.ngbatis.exception.QueryException;
+
+/**
+ * 从 SHOW STATS 读取标签点数，并在每次刷新后提交新的统计任务
+ */
+class TagStatsTest {
+
+  @Test
+  void readsTagCountsAndSubmitsNextJob() throws Exception {
+    List<String> executed = new ArrayList<>();
+    ResultSet stats = stats(new String[][] {
+        {"Tag", "person", "42"},
+        {"Edge", "follow", "7"},
+        {"Space", "vertices", "42"}
+    });
+    TagStats tagStats = new TagStats(60_000, (space, gql) -> {
+      executed.add(space + ":" + gql);
+      return stats;
+    });
+
+    tagStats.refresh("test");
+    assertEquals(42L, (long) tagStats.count("test", "person"));
+    assertNull(tagStats.count("test", "follow"));
+    assertEquals("test:SHOW STATS", executed.get(0));
+    assertEquals("test:SUBMIT JOB STATS", executed.get(1));
+    tagStats.shutdown();
+  }
+
+  @Test
+  void noStatsYetMeansNoApproximation() {
+    List<String> executed = new ArrayList<>();
+    TagStats tagStats = new TagStats(60_000, (space, gql) -> {
+      executed.add(gql);
+      if (gql.startsWith("SHOW")) {
+        throw new QueryException("There is no any stats info to show");
+      }
+      return null;
+    });
+
+    tagStats.refresh("test");
+    assertNull(tagStats.count("test", "person"));
+    assertEquals("SUBMIT JOB STATS", executed.get(1));
+    tagStats.shutdown();
+  }
+
+  private static ResultSet stats(String[][] rows) throws Exception {
+    ResultSet result = mock(ResultSet.class);
+    when(result.rowsSize()).thenReturn(rows.length);
+    for (int i = 0; i < rows.length; i++) {
+      ResultSet.Record record = mock(ResultSet.Record.class);
+      ValueWrapper type = string(rows[i][0]);
+      ValueWrapper name = string(rows[i][1]);
+      ValueWrapper count = mock(ValueWrapper.class);
+      when(count.asLong()).thenReturn(Long.parseLong(rows[i][2]));
+      when(record.get("Type")).thenReturn(type);
+      when(record.get("Name")).thenReturn(name);
+      when(record.get("Count")).thenReturn(count);
+      when(result.rowValues(i)).thenReturn(record);
+    }
+    return result;
+  }
+
+  private static ValueWrapper string(String value) throws Exception {
+    ValueWrapper wrapper = mock(ValueWrapper.class);
+    when(wrapper.asString()).thenReturn(value);
+    return wrapper;
+  }
+}
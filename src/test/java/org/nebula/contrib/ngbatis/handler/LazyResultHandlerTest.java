@@ -0,0 +1,141 @@
+package org.nebula.contrib.ngbatis.handler;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.vesoft.nebula.client.graph.data.ResultSet;
+import com.vesoft.nebula.client.graph.data.ValueWrapper;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.nebula.contrib.ngbatis.ResultHandler;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * 返回 Stream 与 Iterator 的方法逐行转换结果：取到某一行时才读取并转换该行，
+ * 行可以转换为 Map、基本类型与实体。
+ */
+class LazyResultHandlerTest {
+
+  private final AtomicInteger mapped = new AtomicInteger();
+
+  public static class Person {
+    private String name;
+    private Long age;
+
+    public Person() {
+    }
+  }
+
+  @Test
+  void mapResultTypeFindsTheHandler() {
+    StreamResultHandler streamHandler = new StreamResultHandler();
+    IteratorResultHandler iteratorHandler = new IteratorResultHandler();
+
+    assertSame(streamHandler, ResultHandler.getHandler(Stream.class, Map.class));
+    assertSame(streamHandler, ResultHandler.getHandler(Stream.class, HashMap.class));
+    assertSame(iteratorHandler, ResultHandler.getHandler(Iterator.class, Map.class));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void streamMapsRowsOnlyWhenConsumed() throws Exception {
+    ResultSet result = result(Arrays.asList("name", "age"),
+        new Object[]{"Tom", 18L}, new Object[]{"Jerry", 3L});
+    Stream<Map<String, Object>> rows = streamHandler().handle(Stream.class, result, Map.class);
+
+    assertEquals(0, mapped.get());
+    List<Object> names = rows.limit(1).map(row -> row.get("name")).collect(Collectors.toList());
+    assertEquals(Arrays.asList("Tom"), names);
+    assertEquals(1, mapped.get());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void streamOfBasicType() throws Exception {
+    ResultSet result = result(Arrays.asList("age"), new Object[]{18L}, new Object[]{3L});
+    Stream<Integer> ages = streamHandler().handle(Stream.class, result, Integer.class);
+
+    assertEquals(Arrays.asList(18, 3), ages.collect(Collectors.toList()));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void iteratorMapsEntitiesOneByOne() throws Exception {
+    ResultSet result = result(Arrays.asList("name", "age"),
+        new Object[]{"Tom", 18L}, new Object[]{"Jerry", 3L});
+    Iterator<Person> people = iteratorHandler().handle(Iterator.class, result, Person.class);
+
+    assertEquals(0, mapped.get());
+    Person tom = people.next();
+    assertEquals("Tom", tom.name);
+    assertEquals(Long.valueOf(18), tom.age);
+    assertEquals(1, mapped.get());
+    assertEquals("Jerry", people.next().name);
+    assertFalse(people.hasNext());
+    assertThrows(NoSuchElementException.class, people::next);
+    assertEquals(2, mapped.get());
+  }
+
+  private static StreamResultHandler streamHandler() {
+    StreamResultHandler handler = new StreamResultHandler();
+    ReflectionTestUtils.setField(handler, "objectResultHandler", new ObjectResultHandler());
+    return handler;
+  }
+
+  private static IteratorResultHandler iteratorHandler() {
+    IteratorResultHandler handler = new IteratorResultHandler();
+    ReflectionTestUtils.setField(handler, "objectResultHandler", new ObjectResultHandler());
+    return handler;
+  }
+
+  /**
+   * 结果集为 mock，每读取一行计数一次
+   */
+  private ResultSet result(List<String> columns, Object[]... rows) throws Exception {
+    ResultSet result = mock(ResultSet.class);
+    when(result.isSucceeded()).thenReturn(true);
+    when(result.getColumnNames()).thenReturn(columns);
+    when(result.rowsSize()).thenReturn(rows.length);
+    for (int i = 0; i < rows.length; i++) {
+      ResultSet.Record record = mock(ResultSet.Record.class);
+      ValueWrapper[] values = new ValueWrapper[rows[i].length];
+      for (int j = 0; j < values.length; j++) {
+        values[j] = value(rows[i][j]);
+      }
+      when(record.values()).thenReturn(Arrays.asList(values));
+      when(result.rowValues(i)).thenAnswer(invocation -> {
+        mapped.incrementAndGet();
+        return record;
+      });
+    }
+    return result;
+  }
+
+  private static ValueWrapper value(Object value) throws Exception {
+    ValueWrapper wrapper = mock(ValueWrapper.class);
+    if (value instanceof Long) {
+      when(wrapper.isLong()).thenReturn(true);
+      when(wrapper.asLong()).thenReturn((Long) value);
+    } else {
+      when(wrapper.isString()).thenReturn(true);
+      when(wrapper.asString()).thenReturn((String) value);
+    }
+    return wrapper;
+  }
+}
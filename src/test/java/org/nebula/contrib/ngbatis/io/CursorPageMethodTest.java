@@ -0,0 +1,155 @@
+package org.nebula.contrib.ngbatis.io;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.nebula.contrib.ngbatis.models.ClassModel.PROXY_SUFFIX;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.persistence.Id;
+import org.junit.jupiter.api.Test;
+import org.nebula.contrib.ngbatis.binding.BeetlTextRender;
+import org.nebula.contrib.ngbatis.config.ParseCfgProps;
+import org.nebula.contrib.ngbatis.exception.ResourceLoadException;
+import org.nebula.contrib.ngbatis.models.ClassModel;
+import org.nebula.contrib.ngbatis.proxy.NebulaDaoBasic;
+import org.nebula.contrib.ngbatis.utils.CursorPage;
+import org.springframework.core.io.ByteArrayResource;
+
+/**
+ * 游标分页生成的 $Page 语句：最后的 RETURN 被换成按 orderBy 投影、过滤、排序并限制条数的 WITH，
+ * 没有游标时不过滤；orderBy 缺失或为空、RETURN 自带 ORDER BY 或 LIMIT 时 mapper 加载失败。
+ * 同时检查 NebulaDaoBasic.xml 中 selectCursorPage 渲染出的语句。
+ */
+class CursorPageMethodTest {
+
+  public static class Person {
+    @Id
+    private String name;
+    private Integer age;
+
+    public Person() {
+    }
+
+    Person(Integer age) {
+      this.age = age;
+    }
+  }
+
+  interface PersonDao extends NebulaDaoBasic<Person, String> {
+
+    List<Person> selectAll(CursorPage<Person> page);
+
+    List<Person> selectFriends(String name, CursorPage<Person> page);
+  }
+
+  private final ParseCfgProps props = new ParseCfgProps();
+  private final BeetlTextRender render = new BeetlTextRender();
+
+  CursorPageMethodTest() {
+    render.setProps(props);
+  }
+
+  @Test
+  void plainReturn() throws IOException {
+    ClassModel cm = load("<select id=\"selectAll\" orderBy=\"id(n)\">"
+        + "MATCH (n:person) RETURN n</select>");
+    String text = cm.getMethods().get("selectAll$Page").getText();
+
+    assertEquals("MATCH (n:person) WITH *, id(n) AS ng_cursor"
+        + " WITH * ORDER BY ng_cursor LIMIT $pageSize RETURN n",
+        render(text, new CursorPage<Person>(10, "name")));
+    CursorPage<Person> next = new CursorPage<>(10, "name");
+    next.setCursor("Tom");
+    assertEquals("MATCH (n:person) WITH *, id(n) AS ng_cursor WHERE ng_cursor > $cursor"
+        + " WITH * ORDER BY ng_cursor LIMIT $pageSize RETURN n",
+        render(text, next));
+  }
+
+  @Test
+  void returnWithOrderByOrLimitIsRejected() {
+    assertThrows(ResourceLoadException.class, () -> load(
+        "<select id=\"selectAll\" orderBy=\"id(n)\">"
+            + "MATCH (n:person) RETURN n ORDER BY n.person.age</select>"));
+    assertThrows(ResourceLoadException.class, () -> load(
+        "<select id=\"selectAll\" orderBy=\"id(n)\">"
+            + "MATCH (n:person) RETURN n LIMIT 10</select>"));
+  }
+
+  @Test
+  void onlyTheLastStatementIsPaged() throws IOException {
+    ClassModel cm = load("<select id=\"selectFriends\" orderBy=\"n.person.age\">"
+        + "MATCH (v:person) WHERE v.person.name == $p0 RETURN v LIMIT 1;"
+        + " MATCH (n:person)-[:friend]-&gt;(f:person) RETURN n, f</select>");
+    String text = cm.getMethods().get("selectFriends$Page").getText();
+    CursorPage<Person> page = new CursorPage<>(10, "age");
+    page.setCursor(20);
+
+    assertEquals("MATCH (v:person) WHERE v.person.name == $p0 RETURN v LIMIT 1;"
+        + " MATCH (n:person)-[:friend]->(f:person) WITH *, n.person.age AS ng_cursor"
+        + " WHERE ng_cursor > $p1.cursor WITH * ORDER BY ng_cursor LIMIT $p1.pageSize"
+        + " RETURN n, f",
+        render(text, "Tom", page));
+  }
+
+  @Test
+  void missingOrEmptyOrderByIsRejected() {
+    ResourceLoadException missing = assertThrows(ResourceLoadException.class,
+        () -> load("<select id=\"selectAll\">MATCH (n:person) RETURN n</select>"));
+    assertTrue(missing.getMessage().contains("selectAll"));
+    assertThrows(ResourceLoadException.class, () -> load(
+        "<select id=\"selectAll\" orderBy=\" \">MATCH (n:person) RETURN n</select>"));
+  }
+
+  @Test
+  void daoBasicSelectCursorPage() {
+    String text = new DaoResourceLoader(props).loadTpl().get("selectCursorPage");
+    ClassModel cm = new ClassModel();
+    cm.setNamespace(PersonDao.class);
+
+    assertEquals("MATCH (n:person)"
+        + " WITH n, id(n) AS ng_cursor ORDER BY ng_cursor LIMIT $pageSize RETURN n",
+        renderDaoBasic(text, cm, new CursorPage<>(10)));
+    CursorPage<Person> next = new CursorPage<>(10);
+    next.setCursor("Tom");
+    next.setEntity(new Person(20));
+    assertEquals("MATCH (n:person) WHERE id(n) > $cursor and n.`person`.age == $entity.age"
+        + " WITH n, id(n) AS ng_cursor ORDER BY ng_cursor LIMIT $pageSize RETURN n",
+        renderDaoBasic(text, cm, next));
+  }
+
+  private ClassModel load(String select) throws IOException {
+    String xml = "<mapper namespace=\"" + PersonDao.class.getName() + "\">" + select + "</mapper>";
+    Map<String, ClassModel> models = new MapperResourceLoader(props)
+        .parseClassModel(new ByteArrayResource(xml.getBytes(UTF_8)));
+    return models.get(PersonDao.class.getName() + PROXY_SUFFIX);
+  }
+
+  private String render(String text, Object... args) {
+    Map<String, Object> params = new HashMap<>();
+    params.put("ng_args", args);
+    return normalize(render.resolve(text, params));
+  }
+
+  private String renderDaoBasic(String text, ClassModel cm, CursorPage<Person> page) {
+    Map<String, Object> params = new HashMap<>();
+    params.put("ng_cm", cm);
+    params.put("ng_args", new Object[] {page});
+    return normalize(render.resolve(text, params));
+  }
+
+  /**
+   * 模板中的缩进与换行不影响语句，比较时合并为单个空格
+   */
+  private static String normalize(String gql) {
+    return gql.replaceAll("\\s+", " ").trim();
+  }
+}
@@ -0,0 +1,159 @@
+package org.nebula.contrib.ngbatis.io;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.nebula.contrib.ngbatis.models.ClassModel.PROXY_SUFFIX;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.nebula.contrib.ngbatis.config.ParseCfgProps;
+import org.nebula.contrib.ngbatis.models.ClassModel;
+import org.nebula.contrib.ngbatis.models.MapperContext;
+import org.nebula.contrib.ngbatis.models.MethodModel;
+import org.nebula.contrib.ngbatis.proxy.InvocationPlan;
+import org.nebula.contrib.ngbatis.proxy.MapperProxyClassGenerator;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+
+/**
+ * xml 文件修改后只重新解析该文件，新的类模型整体替换进上下文，代理类换上新的调用计划；
+ * 解析失败时保留原有版本。
+ * 解析过程以读取文件内容代替，不依赖 xml 格式。
+ */
+class MapperWatcherTest {
+
+  private static final String DAO = PersonDao.class.getName() + PROXY_SUFFIX;
+
+  interface PersonDao {
+  }
+
+  /**
+   * 代替生成的代理类，只持有调用计划字段
+   */
+  public static class PersonDaoProxy {
+    public static InvocationPlan select$plan;
+  }
+
+  private Path dir;
+  private Path xml;
+  private MapperContext context;
+  private MapperWatcher watcher;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    dir = Files.createTempDirectory("ngbatis-watcher");
+    xml = dir.resolve("PersonDao.xml");
+    Files.write(xml, "RETURN 1".getBytes(UTF_8));
+    context = MapperContext.newInstance();
+    ClassModel cm = classModel(new FileSystemResource(xml), "RETURN 1");
+    cm.setClazz(PersonDaoProxy.class);
+    MapperProxyClassGenerator.bindPlans(PersonDaoProxy.class, cm);
+    Map<String, ClassModel> interfaces = new HashMap<>();
+    interfaces.put(DAO, cm.freeze());
+    context.update(s -> s.withInterfaces(interfaces));
+    watcher = new MapperWatcher(new TextLoader(), context, 50);
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    watcher.close();
+    Files.deleteIfExists(xml);
+    Files.deleteIfExists(dir);
+  }
+
+  @Test
+  void reloadModifiedFile() throws Exception {
+    ClassModel before = context.getInterfaces().get(DAO);
+    watcher.start();
+    assertEquals(Collections.singleton(xml.toAbsolutePath()), watcher.getFiles());
+
+    Files.write(xml, "RETURN 2".getBytes(UTF_8));
+    Files.setLastModifiedTime(xml, FileTime.fromMillis(System.currentTimeMillis() + 5000));
+    long deadline = System.currentTimeMillis() + 10_000;
+    while (context.getInterfaces().get(DAO) == before && System.currentTimeMillis() < deadline) {
+      Thread.sleep(20);
+    }
+
+    ClassModel after = context.getInterfaces().get(DAO);
+    assertEquals("RETURN 2", after.getMethod("select").getText());
+    assertTrue(after.isFrozen());
+    assertSame(before.getDaoBasicMethods(), after.getDaoBasicMethods());
+  }
+
+  @Test
+  void rebindPlansAfterReload() throws Exception {
+    assertSame(context.getInterfaces().get(DAO), PersonDaoProxy.select$plan.getClassModel());
+    watcher.start();
+    watcher.close();
+
+    Files.write(xml, "RETURN 2".getBytes(UTF_8));
+    Files.setLastModifiedTime(xml, FileTime.fromMillis(System.currentTimeMillis() + 5000));
+    watcher.reloadIfModified(xml.toAbsolutePath());
+
+    ClassModel after = context.getInterfaces().get(DAO);
+    assertSame(PersonDaoProxy.class, after.getClazz());
+    InvocationPlan plan = PersonDaoProxy.select$plan;
+    assertSame(after, plan.getClassModel());
+    assertSame(after.getMethod("select"), plan.getMethodModel());
+    assertEquals("RETURN 2", plan.getMethodModel().getText());
+  }
+
+  @Test
+  void keepPreviousVersionOnError() throws Exception {
+    ClassModel before = context.getInterfaces().get(DAO);
+    InvocationPlan plan = PersonDaoProxy.select$plan;
+    watcher.start();
+    watcher.close();
+
+    Files.write(xml, "broken".getBytes(UTF_8));
+    Files.setLastModifiedTime(xml, FileTime.fromMillis(System.currentTimeMillis() + 5000));
+    watcher.reloadIfModified(xml.toAbsolutePath());
+
+    assertSame(before, context.getInterfaces().get(DAO));
+    assertSame(plan, PersonDaoProxy.select$plan);
+  }
+
+  private static ClassModel classModel(Resource resource, String text) {
+    MethodModel mm = new MethodModel();
+    mm.setId("select");
+    mm.setText(text);
+    Map<String, MethodModel> methods = new HashMap<>();
+    methods.put(mm.getId(), mm);
+    ClassModel cm = new ClassModel();
+    cm.setNamespace(PersonDao.class);
+    cm.setResource(resource);
+    cm.setMethods(methods);
+    cm.setDaoBasicMethods(new HashMap<>());
+    return cm;
+  }
+
+  static class TextLoader extends MapperResourceLoader {
+
+    TextLoader() {
+      super(new ParseCfgProps());
+    }
+
+    @Override
+    public Map<String, ClassModel> parseClassModel(Resource resource) throws IOException {
+      String text = new String(Files.readAllBytes(resource.getFile().toPath()), UTF_8);
+      if (!text.startsWith("RETURN")) {
+        throw new IOException("Not a statement: " + text);
+      }
+      return Collections.singletonMap(DAO, classModel(resource, text));
+    }
+  }
+}
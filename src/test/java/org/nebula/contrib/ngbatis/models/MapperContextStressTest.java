@@ -0,0 +1,175 @@
+package org.nebula.contrib.ngbatis.models;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.Test;
+import org.nebula.contrib.ngbatis.proxy.NebulaDaoBasic;
+import org.nebula.contrib.ngbatis.proxy.NebulaDaoBasicExt;
+
+/**
+ * 并发读取与重新加载 mapper 上下文的压测。
+ * <p>原先上下文的各项内容分别替换、基类方法在执行时修改共享的方法模型，
+ * 并发时会读到不同版本拼凑出的上下文，或拿到被其他线程改过结果类型的方法模型。</p>
+ * <p>另检查直接写入 getTagTypeMapping() 的旧用法会发布新的快照，不修改已发布的快照。</p>
+ */
+class MapperContextStressTest {
+
+  private static final int READERS = 8;
+  private static final int RELOADS = 20_000;
+  private static final int CALLS_PER_THREAD = 200_000;
+  private static final String DAO = "PersonDao$Proxy";
+  private static final String METHOD = "selectById";
+
+  static class Person {
+  }
+
+  static class VipPerson extends Person {
+  }
+
+  interface PersonDao extends NebulaDaoBasic<Person, String> {
+  }
+
+  @Test
+  void readersNeverSeeTornReload() throws Exception {
+    MapperContext context = MapperContext.newInstance();
+    MapperSnapshot before = context.getSnapshot();
+    ExecutorService executor = Executors.newFixedThreadPool(READERS + 1);
+    AtomicBoolean reloading = new AtomicBoolean(true);
+    try {
+      context.update(s -> s.withInterfaces(interfaces(0)).withDaoBasicTpl(tpl(0)));
+      List<Future<Integer>> readers = new ArrayList<>(READERS);
+      for (int r = 0; r < READERS; r++) {
+        readers.add(executor.submit(() -> {
+          int torn = 0;
+          long lastVersion = 0;
+          while (reloading.get()) {
+            MapperSnapshot snapshot = context.getSnapshot();
+            String methodText = snapshot.getInterfaces().get(DAO).getMethod(METHOD).getText();
+            if (!methodText.equals(snapshot.getDaoBasicTpl().get(METHOD))
+                || snapshot.getVersion() < lastVersion) {
+              torn++;
+            }
+            lastVersion = snapshot.getVersion();
+          }
+          return torn;
+        }));
+      }
+      Future<?> writer = executor.submit(() -> {
+        for (int i = 1; i <= RELOADS; i++) {
+          Map<String, ClassModel> interfaces = interfaces(i);
+          Map<String, String> tpl = tpl(i);
+          context.update(s -> s.withInterfaces(interfaces).withDaoBasicTpl(tpl));
+        }
+        reloading.set(false);
+      });
+      writer.get(1, TimeUnit.MINUTES);
+      for (Future<Integer> reader : readers) {
+        assertEquals(0, (int) reader.get(1, TimeUnit.MINUTES), "Torn snapshots");
+      }
+    } finally {
+      reloading.set(false);
+      executor.shutdownNow();
+      context.update(s -> before);
+    }
+  }
+
+  @Test
+  @SuppressWarnings("deprecation")
+  void legacyTagTypePutWritesThroughToSnapshot() {
+    MapperContext context = MapperContext.newInstance();
+    MapperSnapshot before = context.getSnapshot();
+    try {
+      Map<String, Class<?>> mapping = context.getTagTypeMapping();
+      mapping.put("person", Person.class);
+
+      MapperSnapshot after = context.getSnapshot();
+      assertEquals(before.getVersion() + 1, after.getVersion());
+      assertSame(Person.class, after.getTagTypeMapping().get("person"));
+      assertNull(before.getTagTypeMapping().get("person"));
+      assertThrows(UnsupportedOperationException.class,
+          () -> after.getTagTypeMapping().put("vip", VipPerson.class));
+
+      context.putTagTypeMapping("vip", VipPerson.class);
+      assertSame(VipPerson.class, mapping.get("vip"));
+      assertSame(Person.class, mapping.remove("person"));
+      assertNull(context.getSnapshot().getTagTypeMapping().get("person"));
+    } finally {
+      context.update(s -> before);
+    }
+  }
+
+  @Test
+  void perCallOverridesNeverLeakIntoSharedModel() throws Exception {
+    ClassModel cm = new ClassModel();
+    cm.setNamespace(PersonDao.class);
+    cm.setMethods(new HashMap<>());
+    cm.setDaoBasicMethods(NebulaDaoBasicExt.daoBasicMethods(
+        PersonDao.class, Collections.emptyMap(), Collections.emptyMap()));
+    cm.freeze();
+    MethodModel shared = cm.getDaoBasicMethod("updateById");
+    assertThrows(IllegalStateException.class, () -> shared.setResultType(VipPerson.class));
+
+    ExecutorService executor = Executors.newFixedThreadPool(READERS);
+    try {
+      List<Future<Integer>> results = new ArrayList<>(READERS);
+      for (int t = 0; t < READERS; t++) {
+        Class<?> resultType = t % 2 == 0 ? Person.class : VipPerson.class;
+        Callable<Integer> call = () -> {
+          int wrong = 0;
+          for (int i = 0; i < CALLS_PER_THREAD; i++) {
+            MethodModel mm = NebulaDaoBasicExt.daoBasicMethod(cm, "updateById", resultType);
+            if (mm.getResultType() != resultType || shared.getResultType() != Person.class) {
+              wrong++;
+            }
+          }
+          return wrong;
+        };
+        results.add(executor.submit(call));
+      }
+      for (Future<Integer> result : results) {
+        assertEquals(0, (int) result.get(1, TimeUnit.MINUTES), "Wrong result types");
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertSame(shared, NebulaDaoBasicExt.daoBasicMethod(cm, "updateById", Person.class));
+  }
+
+  private static Map<String, ClassModel> interfaces(int version) {
+    MethodModel mm = new MethodModel();
+    mm.setId(METHOD);
+    mm.setText("v" + version);
+    Map<String, MethodModel> methods = new HashMap<>();
+    methods.put(METHOD, mm);
+    ClassModel cm = new ClassModel();
+    cm.setMethods(methods);
+    cm.freeze();
+    Map<String, ClassModel> interfaces = new HashMap<>();
+    interfaces.put(DAO, cm);
+    return interfaces;
+  }
+
+  private static Map<String, String> tpl(int version) {
+    Map<String, String> tpl = new HashMap<>();
+    tpl.put(METHOD, "v" + version);
+    return tpl;
+  }
+}
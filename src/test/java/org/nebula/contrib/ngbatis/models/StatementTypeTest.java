@@ -0,0 +1,75 @@
+package org.nebula.contrib.ngbatis.models;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.nebula.contrib.ngbatis.models.StatementType.READ;
+import static org.nebula.contrib.ngbatis.models.StatementType.WRITE;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * 语句读写类型的判断：按首个关键字区分读写，多语句中任一为写即为写，
+ * 开头的空白与注释不影响判断。
+ */
+class StatementTypeTest {
+
+  private static final Object[][] STATEMENTS = {
+      {"MATCH (v:person) RETURN v", READ},
+      {"GO FROM 'a' OVER follow YIELD dst(edge)", READ},
+      {"FETCH PROP ON person 'a' YIELD properties(vertex)", READ},
+      {"LOOKUP ON person WHERE person.name == 'a' YIELD id(vertex)", READ},
+      {"SHOW SPACES", READ},
+      {"match (v) return v", READ},
+      {"INSERT VERTEX person(name) VALUES 'a':('a')", WRITE},
+      {"UPSERT VERTEX ON person 'a' SET name = 'b'", WRITE},
+      {"UPDATE VERTEX ON person 'a' SET name = 'b'", WRITE},
+      {"DELETE VERTEX 'a'", WRITE},
+      {"insert edge follow() values 'a'->'b':()", WRITE},
+      // 多语句
+      {"USE test; MATCH (v) RETURN v", READ},
+      {"MATCH (v) RETURN v; INSERT VERTEX person(name) VALUES 'a':('a')", WRITE},
+      {"LOOKUP ON person YIELD id(vertex) AS id | DELETE VERTEX $-.id", WRITE},
+      {"GO FROM 'a' OVER follow YIELD dst(edge) AS id | FETCH PROP ON person $-.id", READ},
+      // 开头的空白与注释
+      {"\n\t\t  MATCH (v) RETURN v", READ},
+      {"\n\t\tINSERT VERTEX person(name) VALUES 'a':('a')", WRITE},
+      {"# find people\nMATCH (v) RETURN v", READ},
+      {"-- add a person\nINSERT VERTEX person(name) VALUES 'a':('a')", WRITE},
+      {"// add a person\nINSERT VERTEX person(name) VALUES 'a':('a')", WRITE},
+      {"/* add a person */ INSERT VERTEX person(name) VALUES 'a':('a')", WRITE},
+      {"/* multi\n line */\n-- and more\nUPSERT VERTEX ON person 'a' SET name = 'b'", WRITE},
+      {"MATCH (v) RETURN v;\n  -- then\n  DELETE VERTEX 'a'", WRITE},
+      {"# only a comment", READ},
+      {"", READ},
+  };
+
+  @Test
+  void ofGql() {
+    for (Object[] row : STATEMENTS) {
+      assertEquals(row[1], StatementType.ofGql((String) row[0]), (String) row[0]);
+    }
+    assertEquals(READ, StatementType.ofGql(null));
+  }
+
+  @Test
+  void ofTag() {
+    assertEquals(READ, StatementType.ofTag("select"));
+    assertEquals(WRITE, StatementType.ofTag("insert"));
+    assertEquals(WRITE, StatementType.ofTag("UPDATE"));
+    assertEquals(WRITE, StatementType.ofTag("delete"));
+    assertNull(StatementType.ofTag("nGQL"));
+    assertNull(StatementType.ofTag(null));
+  }
+
+  @Test
+  void declaredWriteWins() {
+    assertEquals(WRITE, StatementType.of(WRITE, "MATCH (v) RETURN v"));
+    assertEquals(WRITE, StatementType.of(READ, "INSERT VERTEX person(name) VALUES 'a':('a')"));
+    assertEquals(READ, StatementType.of(READ, "MATCH (v) RETURN v"));
+    assertEquals(READ, StatementType.of(null, "MATCH (v) RETURN v"));
+  }
+}
@@ -0,0 +1,144 @@
+package org.nebula.contrib.ngbatis.proxy;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.nebula.contrib.ngbatis.exception.QueryException;
+
+/**
+ * 按时间窗口与批次大小合并单个查询，按键分发结果，缺失的键得到 null，失败时整批失败。
+ * 重复的键各得到自己的 future 与结果副本。
+ */
+class BatchLoaderTest {
+
+  private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private final List<List<String>> batches = new ArrayList<>();
+
+  @AfterEach
+  void tearDown() {
+    timer.shutdownNow();
+    executor.shutdownNow();
+  }
+
+  @Test
+  void keysInTheWindowShareOneQuery() throws Exception {
+    BatchLoader<String, String> loader = loader(50, 100, this::upperCase);
+    CompletableFuture<String> a = loader.load("a");
+    CompletableFuture<String> b = loader.load("b");
+    CompletableFuture<String> again = loader.load("a");
+
+    assertEquals("A", a.get(5, TimeUnit.SECONDS));
+    assertEquals("B", b.get(5, TimeUnit.SECONDS));
+    assertEquals("A", again.get(5, TimeUnit.SECONDS));
+    assertNotSame(a, again);
+    assertEquals(1, batches.size());
+    assertEquals(3, loader.getKeyCount());
+    assertEquals(1, loader.getBatchSizeHistogram()[1]);
+  }
+
+  @Test
+  void duplicateKeysGetTheirOwnCopy() throws Exception {
+    BatchLoader<String, StringBuilder> loader = new BatchLoader<>(keys -> {
+      synchronized (batches) {
+        batches.add(keys);
+      }
+      Map<String, StringBuilder> rows = new HashMap<>();
+      keys.forEach(key -> rows.put(key, new StringBuilder(key.toUpperCase())));
+      return rows;
+    }, StringBuilder::new, 50, 100, timer, executor);
+    CompletableFuture<StringBuilder> first = loader.load("a");
+    CompletableFuture<StringBuilder> second = loader.load("a");
+    CompletableFuture<StringBuilder> abandoned = loader.load("a");
+    abandoned.cancel(false);
+
+    StringBuilder mine = first.get(5, TimeUnit.SECONDS);
+    mine.append("-changed");
+    // 取消其中一个调用方不影响同一键的其他调用方
+    assertEquals("A", second.get(5, TimeUnit.SECONDS).toString());
+    assertNotSame(mine, second.get());
+    assertEquals(Arrays.asList(Arrays.asList("a")), batches);
+    assertEquals(1, loader.getBatchSizeHistogram()[0]);
+  }
+
+  @Test
+  void fullBatchRunsWithoutWaiting() throws Exception {
+    BatchLoader<String, String> loader = loader(60_000, 4, this::upperCase);
+    List<CompletableFuture<String>> futures = new ArrayList<>();
+    for (String key : new String[] {"a", "b", "c", "d", "e"}) {
+      futures.add(loader.load(key));
+    }
+
+    assertEquals("D", futures.get(3).get(5, TimeUnit.SECONDS));
+    assertEquals(1, loader.getBatchCount());
+    assertEquals(1, loader.getBatchSizeHistogram()[2]);
+    assertFalse(futures.get(4).isDone());
+  }
+
+  @Test
+  void missingKeyGetsNull() throws Exception {
+    BatchLoader<String, String> loader = loader(10, 100, keys -> {
+      Map<String, String> rows = upperCase(keys);
+      rows.remove("gone");
+      return rows;
+    });
+    CompletableFuture<String> present = loader.load("here");
+    CompletableFuture<String> missing = loader.load("gone");
+
+    assertEquals("HERE", present.get(5, TimeUnit.SECONDS));
+    assertNull(missing.get(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  void failureCompletesTheWholeBatch() throws Exception {
+    QueryException failure = new QueryException("graphd is down");
+    BatchLoader<String, String> loader = loader(10, 100, keys -> {
+      throw failure;
+    });
+    CompletableFuture<String> a = loader.load("a");
+    CompletableFuture<String> b = loader.load("b");
+
+    assertSame(failure,
+        assertThrows(ExecutionException.class, () -> a.get(5, TimeUnit.SECONDS)).getCause());
+    assertSame(failure,
+        assertThrows(ExecutionException.class, () -> b.get(5, TimeUnit.SECONDS)).getCause());
+  }
+
+  private BatchLoader<String, String> loader(long window, int maxBatchSize,
+      Function<List<String>, Map<String, String>> query) {
+    return new BatchLoader<>(keys -> {
+      synchronized (batches) {
+        batches.add(keys);
+      }
+      return query.apply(keys);
+    }, window, maxBatchSize, timer, executor);
+  }
+
+  private Map<String, String> upperCase(List<String> keys) {
+    Map<String, String> rows = new HashMap<>();
+    keys.forEach(key -> rows.put(key, key.toUpperCase()));
+    return rows;
+  }
+}
@@ -0,0 +1,176 @@
+package org.nebula.contrib.ngbatis.proxy;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.vesoft.nebula.client.graph.data.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.nebula.contrib.ngbatis.exception.QueryException;
+import org.nebula.contrib.ngbatis.proxy.BatchWriter.Kind;
+import org.nebula.contrib.ngbatis.proxy.BatchWriter.Write;
+
+/**
+ * 写缓冲按 space 合并语句、重命名参数、合并同一顶点的重复写，合并请求失败时逐条重新执行；
+ * 批次执行中持续写入时，每个 space 最多一个刷新在排队。
+ * 语句不访问数据库，只记录收到的请求。
+ */
+class BatchWriterTest {
+
+  private static final String SPACE = "test";
+
+  private final List<RenderedStatement> executed = Collections.synchronizedList(new ArrayList<>());
+  private BatchWriter writer;
+
+  @AfterEach
+  void tearDown() {
+    if (writer != null) {
+      writer.close();
+    }
+  }
+
+  @Test
+  void joinRenamesParamsOfEachStatement() {
+    Map<String, Object> params = new LinkedHashMap<>();
+    params.put("name", "Tom");
+    Write first = write("INSERT VERTEX IF NOT EXISTS `person` (name) VALUES 'a' : ($name);\n",
+        params);
+    params = new LinkedHashMap<>();
+    params.put("name", "Jerry");
+    params.put("unused", 1);
+    Write second = write("UPDATE VERTEX ON `person` 'b' SET name = $name", params);
+
+    RenderedStatement joined = BatchWriter.join(SPACE, Arrays.asList(first, second));
+
+    assertEquals("INSERT VERTEX IF NOT EXISTS `person` (name) VALUES 'a' : ($w0_name);\n"
+        + "UPDATE VERTEX ON `person` 'b' SET name = $w1_name;\n", joined.getGql());
+    assertEquals("Tom", joined.getParams().get("w0_name"));
+    assertEquals("Jerry", joined.getParams().get("w1_name"));
+    assertEquals(2, joined.getParams().size());
+  }
+
+  @Test
+  void repeatedWritesToTheSameVertexAreCoalesced() throws Exception {
+    writer = new BatchWriter(60_000, 100, this::record);
+    CompletableFuture<?> insert = writer.submit(write("INSERT 1", Kind.INSERT, "person:a"));
+    CompletableFuture<?> again = writer.submit(write("INSERT 2", Kind.INSERT, "person:a"));
+    CompletableFuture<?> name = writer.submit(write("UPDATE 1", Kind.UPDATE, "person:a", "name"));
+    CompletableFuture<?> both = writer.submit(
+        write("UPDATE 2", Kind.UPDATE, "person:a", "name", "age"));
+    writer.flush();
+
+    assertSame(insert, again);
+    assertEquals(1, executed.size());
+    assertEquals("INSERT 1;\nUPDATE 2;\n", executed.get(0).getGql());
+    assertTrue(name.isDone() && both.isDone() && insert.isDone());
+    assertEquals(4, writer.getWriteCount());
+    assertEquals(2, writer.getCoalescedCount());
+    assertEquals(1, writer.getBatchCount());
+  }
+
+  @Test
+  void narrowerUpdateAndBarrierAreNotCoalesced() {
+    writer = new BatchWriter(60_000, 100, this::record);
+    writer.submit(write("UPDATE 1", Kind.UPDATE, "person:a", "name", "age"));
+    writer.submit(write("UPDATE 2", Kind.UPDATE, "person:a", "name"));
+    writer.submit(write("DELETE 1", Kind.BARRIER, null));
+    writer.submit(write("UPDATE 3", Kind.UPDATE, "person:a", "name"));
+    writer.flush();
+
+    assertEquals("UPDATE 1;\nUPDATE 2;\nDELETE 1;\nUPDATE 3;\n", executed.get(0).getGql());
+    assertEquals(0, writer.getCoalescedCount());
+  }
+
+  @Test
+  void failedBatchIsRetriedOneByOne() throws Exception {
+    writer = new BatchWriter(60_000, 100, statement -> {
+      record(statement);
+      if (statement.getGql().contains("BAD")) {
+        throw new QueryException("数据查询失败：BAD");
+      }
+      return null;
+    });
+    CompletableFuture<?> good = writer.submit(write("INSERT 1", Kind.OTHER, null));
+    CompletableFuture<?> bad = writer.submit(write("BAD", Kind.OTHER, null));
+    Write xml = new Write(new RenderedStatement(SPACE, "INSERT 2", new LinkedHashMap<>()),
+        Kind.BARRIER, null, null, false);
+    CompletableFuture<?> notRetried = writer.submit(xml);
+    writer.flush();
+
+    good.get(5, TimeUnit.SECONDS);
+    assertThrows(ExecutionException.class, () -> bad.get(5, TimeUnit.SECONDS));
+    assertThrows(ExecutionException.class, () -> notRetried.get(5, TimeUnit.SECONDS));
+    assertEquals(3, executed.size());
+    assertEquals(1, writer.getFallbackCount());
+    assertFalse(executed.stream().anyMatch(statement -> "INSERT 2".equals(statement.getGql())));
+  }
+
+  @Test
+  void flushIsQueuedOncePerSpace() throws Exception {
+    int before = flusherThreads();
+    CountDownLatch blocked = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    writer = new BatchWriter(60_000, 1, statement -> {
+      record(statement);
+      blocked.countDown();
+      try {
+        release.await(5, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return null;
+    });
+    List<CompletableFuture<?>> futures = new ArrayList<>();
+    futures.add(writer.submit(write("INSERT 0", Kind.OTHER, null)));
+    assertTrue(blocked.await(5, TimeUnit.SECONDS));
+    for (int i = 1; i < 20; i++) {
+      futures.add(writer.submit(write("INSERT " + i, Kind.OTHER, null)));
+    }
+
+    // 一个批次执行中，另一个刷新等待执行锁，其余的满批次不再占用线程
+    assertTrue(flusherThreads() - before <= 2, "flusher threads: " + flusherThreads());
+    release.countDown();
+    for (CompletableFuture<?> future : futures) {
+      future.get(5, TimeUnit.SECONDS);
+    }
+    assertEquals(20, executed.size());
+  }
+
+  private static int flusherThreads() {
+    return (int) Thread.getAllStackTraces().keySet().stream()
+        .filter(thread -> thread.getName().matches("ngbatis-write-behind-\\d+"))
+        .count();
+  }
+
+  private ResultSet record(RenderedStatement statement) {
+    executed.add(statement);
+    return null;
+  }
+
+  private static Write write(String gql, Kind kind, String key, String... columns) {
+    return new Write(new RenderedStatement(SPACE, gql, new LinkedHashMap<>()), kind, key,
+        new HashSet<>(Arrays.asList(columns)), true);
+  }
+
+  private static Write write(String gql, Map<String, Object> params) {
+    return new Write(new RenderedStatement(SPACE, gql, params), Kind.OTHER, null, null, true);
+  }
+}
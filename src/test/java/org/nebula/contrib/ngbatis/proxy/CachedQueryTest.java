@@ -0,0 +1,118 @@
+package org.nebula.contrib.ngbatis.proxy;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.nebula.contrib.ngbatis.models.ClassModel.PROXY_SUFFIX;
+
+import com.vesoft.nebula.client.graph.data.ResultSet;
+import com.vesoft.nebula.client.graph.net.Session;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.nebula.contrib.ngbatis.Env;
+import org.nebula.contrib.ngbatis.ResultResolver;
+import org.nebula.contrib.ngbatis.SessionDispatcher;
+import org.nebula.contrib.ngbatis.cache.QueryCache;
+import org.nebula.contrib.ngbatis.models.ClassModel;
+import org.nebula.contrib.ngbatis.models.MapperContext;
+import org.nebula.contrib.ngbatis.models.MethodModel;
+import org.nebula.contrib.ngbatis.session.LocalSession;
+import org.springframework.data.repository.query.Param;
+
+/**
+ * 命中查询结果缓存时不再执行语句，但每次调用都得到新转换的对象，
+ * 调用方修改返回的 List 不影响之后的调用。
+ */
+class CachedQueryTest {
+
+  private static final String SPACE = "test";
+
+  interface PersonDao {
+    List<String> selectByName(@Param("name") String name);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void hitIsMappedAgainForEachCaller() throws Exception {
+    AtomicInteger executed = new AtomicInteger();
+    ResultSet resultSet = mock(ResultSet.class);
+    when(resultSet.isSucceeded()).thenReturn(true);
+    Session session = mock(Session.class);
+    when(session.executeWithParameter(anyString(), anyMap())).thenAnswer(invocation -> {
+      executed.incrementAndGet();
+      return resultSet;
+    });
+    LocalSession localSession = new LocalSession(System.currentTimeMillis(), session);
+    localSession.setCurrentSpace(SPACE);
+
+    Env env = new Env((text, args) -> text, resultResolver(),
+        (methodModel, args) -> Collections.singletonMap("name", args[0]),
+        null, null, null, "root", "nebula", true, SPACE, null, dispatcher(localSession));
+    env.setQueryCache(new QueryCache(60_000, 100));
+    ClassModel cm = classModel();
+    Map<String, ClassModel> interfaces = new HashMap<>();
+    interfaces.put(PersonDao.class.getName() + PROXY_SUFFIX, cm);
+    MapperContext.newInstance().setInterfaces(interfaces);
+    InvocationPlan plan = InvocationPlan.of(cm, cm.getMethod("selectByName"));
+
+    List<String> first = (List<String>) MapperProxy.invoke(plan, "Tom");
+    first.clear();
+    List<String> second = (List<String>) MapperProxy.invoke(plan, "Tom");
+
+    assertEquals(1, executed.get());
+    assertEquals(1, env.getQueryCache().getHitCount());
+    assertNotSame(first, second);
+    assertEquals(Arrays.asList("a", "b"), second);
+  }
+
+  private static ClassModel classModel() throws NoSuchMethodException {
+    MethodModel mm = new MethodModel();
+    mm.setId("selectByName");
+    mm.setMethod(PersonDao.class.getMethod("selectByName", String.class));
+    mm.setText("MATCH (n:person) WHERE n.person.name == $name RETURN n.person.name");
+    mm.setResultType(String.class);
+    mm.setCacheTtl(0L);
+    Map<String, MethodModel> methods = new HashMap<>();
+    methods.put(mm.getId(), mm);
+    ClassModel cm = new ClassModel();
+    cm.setNamespace(PersonDao.class);
+    cm.setMethods(methods);
+    return cm;
+  }
+
+  private static ResultResolver resultResolver() {
+    return new ResultResolver() {
+      @Override
+      @SuppressWarnings("unchecked")
+      public <T> T resolve(MethodModel methodModel, ResultSet result) {
+        return (T) new ArrayList<>(Arrays.asList("a", "b"));
+      }
+    };
+  }
+
+  private static SessionDispatcher dispatcher(LocalSession localSession) {
+    return new SessionDispatcher() {
+      @Override
+      public void offer(LocalSession session) {
+      }
+
+      @Override
+      public LocalSession poll() {
+        return localSession;
+      }
+    };
+  }
+}
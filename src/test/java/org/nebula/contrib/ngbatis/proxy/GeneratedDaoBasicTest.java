@@ -0,0 +1,199 @@
+package org.nebula.contrib.ngbatis.proxy;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.nebula.contrib.ngbatis.models.ClassModel.PROXY_SUFFIX;
+
+import com.vesoft.nebula.client.graph.data.ResultSet;
+import com.vesoft.nebula.client.graph.net.Session;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.persistence.Id;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.nebula.contrib.ngbatis.Env;
+import org.nebula.contrib.ngbatis.ResultResolver;
+import org.nebula.contrib.ngbatis.SessionDispatcher;
+import org.nebula.contrib.ngbatis.models.ClassModel;
+import org.nebula.contrib.ngbatis.models.MethodModel;
+import org.nebula.contrib.ngbatis.session.LocalSession;
+
+/**
+ * 生成的代理类直接覆盖基类 NebulaDaoBasic 的方法：经由启动时绑定的调用计划执行，
+ * 不查找类模型、不遍历调用栈，参数与返回值、结果类型和基类方法模型一致。
+ * 类模型不注册到上下文中，基类的默认实现在这里无法执行，能返回结果即说明走的是生成的方法。
+ */
+class GeneratedDaoBasicTest {
+
+  private static final String SPACE = "test";
+
+  private final List<String> executed = new ArrayList<>();
+  private final List<Object[]> resolvedArgs = new ArrayList<>();
+  private final List<MethodModel> resolvedResults = new ArrayList<>();
+  private ClassModel cm;
+  private Class<?> proxyClass;
+  private PersonDao dao;
+
+  public static class Person {
+    @Id
+    private String name;
+
+    public Person() {
+    }
+
+    Person(String name) {
+      this.name = name;
+    }
+
+    public String getName() {
+      return name;
+    }
+  }
+
+  public interface PersonDao extends NebulaDaoBasic<Person, String> {
+  }
+
+  @BeforeEach
+  void setUp() throws Exception {
+    ResultSet resultSet = mock(ResultSet.class);
+    when(resultSet.isSucceeded()).thenReturn(true);
+    Session session = mock(Session.class);
+    when(session.executeWithParameter(anyString(), anyMap())).thenAnswer(invocation -> {
+      executed.add(invocation.<String>getArgument(0).trim());
+      return resultSet;
+    });
+    LocalSession localSession = new LocalSession(System.currentTimeMillis(), session);
+    localSession.setCurrentSpace(SPACE);
+
+    Env.classLoader = getClass().getClassLoader();
+    new Env((text, args) -> text, resultResolver(), (methodModel, args) -> {
+      resolvedArgs.add(args);
+      return Collections.singletonMap("p", args[0]);
+    }, null, null, null, "root", "nebula", true, SPACE, null, dispatcher(localSession));
+
+    Map<String, String> daoBasicTpl = new HashMap<>();
+    daoBasicTpl.put("selectById", "SELECT_BY_ID");
+    daoBasicTpl.put("selectByIds", "SELECT_BY_IDS");
+    daoBasicTpl.put("countByMap", "COUNT_BY_MAP");
+    cm = new ClassModel();
+    cm.setNamespace(PersonDao.class);
+    cm.setMethods(new HashMap<>());
+    cm.setDaoBasicMethods(
+        NebulaDaoBasicExt.daoBasicMethods(PersonDao.class, daoBasicTpl, new HashMap<>()));
+    Map<String, ClassModel> interfaces = new HashMap<>();
+    interfaces.put(PersonDao.class.getName() + PROXY_SUFFIX, cm);
+
+    new MapperProxyClassGenerator().setClassCode(cm);
+    proxyClass = new RamClassLoader(interfaces)
+        .loadClass(PersonDao.class.getName() + PROXY_SUFFIX);
+    MapperProxyClassGenerator.bindPlans(proxyClass, cm);
+    cm.freeze();
+    dao = (PersonDao) proxyClass.newInstance();
+  }
+
+  @Test
+  void proxyOverridesDaoBasicMethods() throws Exception {
+    for (String name : Arrays.asList("selectById", "selectByIds", "countByMap")) {
+      Method method = cm.getDaoBasicMethod(name).getMethod();
+      assertSame(proxyClass,
+          proxyClass.getMethod(name, method.getParameterTypes()).getDeclaringClass(), name);
+      InvocationPlan plan = (InvocationPlan) proxyClass
+          .getField(MapperProxyClassGenerator.planField(name)).get(null);
+      assertSame(cm.getDaoBasicMethod(name), plan.getMethodModel(), name);
+      assertSame(InvocationPlan.cached(cm, cm.getDaoBasicMethod(name)), plan, name);
+    }
+  }
+
+  @Test
+  void selectById() {
+    Person person = dao.selectById("p1");
+
+    assertEquals("p1", person.getName());
+    assertEquals(Collections.singletonList("SELECT_BY_ID"), executed);
+    assertEquals(Collections.singletonList("p1"), Arrays.asList(resolvedArgs.get(0)));
+    MethodModel mm = resolvedResults.get(0);
+    assertEquals("selectById", mm.getId());
+    // 与基类方法一样按擦除后的返回值类型解析，由结果集中的标签确定实体类型
+    assertEquals(Object.class, mm.getReturnType());
+  }
+
+  @Test
+  void selectByIds() {
+    List<String> ids = Arrays.asList("p1", "p2");
+    List<Person> people = dao.selectByIds(ids);
+
+    assertEquals(2, people.size());
+    assertEquals("p2", people.get(1).getName());
+    assertEquals(Collections.singletonList("SELECT_BY_IDS"), executed);
+    assertSame(ids, resolvedArgs.get(0)[0]);
+    MethodModel mm = resolvedResults.get(0);
+    assertEquals("selectByIds", mm.getId());
+    assertEquals(List.class, mm.getReturnType());
+    assertEquals(Person.class, mm.getResultType());
+  }
+
+  @Test
+  void countByMap() {
+    Map<String, Object> param = Collections.singletonMap("name", "p1");
+    Long count = dao.countByMap(param);
+
+    assertEquals(3L, count);
+    assertEquals(Collections.singletonList("COUNT_BY_MAP"), executed);
+    assertSame(param, resolvedArgs.get(0)[0]);
+    MethodModel mm = resolvedResults.get(0);
+    assertEquals("countByMap", mm.getId());
+    assertEquals(Long.class, mm.getReturnType());
+  }
+
+  private ResultResolver resultResolver() {
+    return new ResultResolver() {
+      @Override
+      @SuppressWarnings("unchecked")
+      public <T> T resolve(MethodModel methodModel, ResultSet result) {
+        resolvedResults.add(methodModel);
+        Object arg = resolvedArgs.get(resolvedArgs.size() - 1)[0];
+        switch (methodModel.getId()) {
+          case "selectById":
+            return (T) new Person((String) arg);
+          case "selectByIds":
+            List<Person> people = new ArrayList<>();
+            for (Object id : (Collection<?>) arg) {
+              people.add(new Person((String) id));
+            }
+            return (T) people;
+          case "countByMap":
+            return (T) Long.valueOf(3);
+          default:
+            return null;
+        }
+      }
+    };
+  }
+
+  private static SessionDispatcher dispatcher(LocalSession localSession) {
+    return new SessionDispatcher() {
+      @Override
+      public void offer(LocalSession session) {
+      }
+
+      @Override
+      public LocalSession poll() {
+        return localSession;
+      }
+    };
+  }
+}
@@ -0,0 +1,110 @@
+package org.nebula.contrib.ngbatis.proxy;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.nebula.contrib.ngbatis.models.ClassModel.PROXY_SUFFIX;
+
+import com.vesoft.nebula.client.graph.data.ResultSet;
+import com.vesoft.nebula.client.graph.net.Session;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.nebula.contrib.ngbatis.Env;
+import org.nebula.contrib.ngbatis.SessionDispatcher;
+import org.nebula.contrib.ngbatis.binding.DefaultArgsResolver;
+import org.nebula.contrib.ngbatis.binding.DefaultResultResolver;
+import org.nebula.contrib.ngbatis.models.ClassModel;
+import org.nebula.contrib.ngbatis.models.MapperContext;
+import org.nebula.contrib.ngbatis.models.MethodModel;
+import org.nebula.contrib.ngbatis.session.LocalSession;
+import org.springframework.data.repository.query.Param;
+
+/**
+ * 按接口名与方法名查找（原有入口）与使用预先构建的调用计划，两种调用入口的单次开销对比。
+ * 模板不渲染、会话与结果集为 mock，不访问数据库，只衡量框架自身的开销。
+ * <p>默认构建中不执行，使用 {@code mvn test -Pbenchmark -Dtest=InvocationPlanBenchmarkTest} 执行。</p>
+ */
+@Tag("benchmark")
+class InvocationPlanBenchmarkTest {
+
+  private static final int WARM_UP = 10_000;
+  private static final int ITERATIONS = 100_000;
+  private static final String SPACE = "test";
+
+  interface PersonDao {
+    Long countByName(@Param("name") String name);
+  }
+
+  @Test
+  void perCallOverhead() throws Exception {
+    ResultSet resultSet = mock(ResultSet.class);
+    when(resultSet.isSucceeded()).thenReturn(true);
+    Session session = mock(Session.class);
+    when(session.executeWithParameter(anyString(), anyMap())).thenReturn(resultSet);
+    LocalSession localSession = new LocalSession(System.currentTimeMillis(), session);
+    localSession.setCurrentSpace(SPACE);
+
+    ClassModel cm = classModel();
+    new Env((text, args) -> text, new DefaultResultResolver(), new DefaultArgsResolver(),
+        null, null, null, "root", "nebula", true, SPACE, null, dispatcher(localSession));
+    Map<String, ClassModel> interfaces = new HashMap<>();
+    interfaces.put(PersonDao.class.getName() + PROXY_SUFFIX, cm);
+    MapperContext.newInstance().setInterfaces(interfaces);
+
+    String className = PersonDao.class.getName();
+    InvocationPlan plan = InvocationPlan.of(cm, cm.getMethod("countByName"));
+    assertSame(resultSet, MapperProxy.invoke(className, "countByName", "Tom"));
+    assertSame(resultSet, MapperProxy.invoke(plan, "Tom"));
+
+    long byName = measure(() -> MapperProxy.invoke(className, "countByName", "Tom"));
+    long byPlan = measure(() -> MapperProxy.invoke(plan, "Tom"));
+    System.out.printf("by name: %5d ns/op, by plan: %5d ns/op%n", byName, byPlan);
+  }
+
+  private static long measure(Supplier<Object> call) {
+    for (int i = 0; i < WARM_UP; i++) {
+      call.get();
+    }
+    long begin = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      call.get();
+    }
+    return (System.nanoTime() - begin) / ITERATIONS;
+  }
+
+  private static ClassModel classModel() throws NoSuchMethodException {
+    MethodModel mm = new MethodModel();
+    mm.setId("countByName");
+    mm.setMethod(PersonDao.class.getMethod("countByName", String.class));
+    mm.setText("MATCH (n:person) WHERE n.person.name == $name RETURN count(n)");
+    mm.setResultType(Long.class);
+    Map<String, MethodModel> methods = new HashMap<>();
+    methods.put(mm.getId(), mm);
+    ClassModel cm = new ClassModel();
+    cm.setNamespace(PersonDao.class);
+    cm.setMethods(methods);
+    return cm;
+  }
+
+  private static SessionDispatcher dispatcher(LocalSession localSession) {
+    return new SessionDispatcher() {
+      @Override
+      public void offer(LocalSession session) {
+      }
+
+      @Override
+      public LocalSession poll() {
+        return localSession;
+      }
+    };
+  }
+}
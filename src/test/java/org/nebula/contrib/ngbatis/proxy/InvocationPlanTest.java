@@ -0,0 +1,83 @@
+package org.nebula.contrib.ngbatis.proxy;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.HashMap;
+import java.util.Map;
+import javax.persistence.Id;
+import org.junit.jupiter.api.Test;
+import org.nebula.contrib.ngbatis.models.ClassModel;
+import org.nebula.contrib.ngbatis.models.MethodModel;
+
+/**
+ * 基类方法与 xml 方法的调用计划每个方法模型只构建一次，每次调用才生成的方法模型不缓存；
+ * 按方法名调用的计划也只构建一次。
+ */
+class InvocationPlanTest {
+
+  public static class Person {
+    @Id
+    private String name;
+  }
+
+  public interface PersonDao extends NebulaDaoBasic<Person, String> {
+  }
+
+  @Test
+  void planIsBuiltOncePerMethodModel() {
+    ClassModel cm = classModel();
+    MethodModel selectByIds = cm.getDaoBasicMethod("selectByIds");
+
+    InvocationPlan plan = InvocationPlan.cached(cm, selectByIds);
+    assertSame(plan, InvocationPlan.cached(cm, selectByIds));
+    assertSame(plan, InvocationPlan.cached(cm, cm.getDaoBasicMethod("selectByIds")));
+    assertNotSame(plan, InvocationPlan.cached(cm, cm.getDaoBasicMethod("selectById")));
+
+    MethodModel countByName = cm.getMethod("countByName");
+    assertSame(InvocationPlan.cached(cm, countByName), InvocationPlan.cached(cm, countByName));
+  }
+
+  @Test
+  void planByMethodNameIsBuiltOnce() {
+    ClassModel cm = classModel();
+    InvocationPlan plan = cm.getMethodPlan("countByName",
+        name -> InvocationPlan.of(cm, cm.getMethod(name)));
+
+    assertSame(plan, cm.getMethodPlan("countByName", name -> {
+      throw new IllegalStateException("plan should be cached");
+    }));
+    assertSame(cm.getMethod("countByName"), plan.getMethodModel());
+  }
+
+  @Test
+  void methodModelOutsideTheClassModelIsNotCached() {
+    ClassModel cm = classModel();
+    MethodModel adHoc = cm.getDaoBasicMethod("selectByIds").copy();
+
+    assertNotSame(InvocationPlan.cached(cm, adHoc), InvocationPlan.cached(cm, adHoc));
+    assertNotSame(InvocationPlan.cached(null, adHoc), InvocationPlan.cached(null, adHoc));
+  }
+
+  private static ClassModel classModel() {
+    Map<String, String> daoBasicTpl = new HashMap<>();
+    daoBasicTpl.put("selectById", "SELECT_BY_ID");
+    daoBasicTpl.put("selectByIds", "SELECT_BY_IDS");
+    MethodModel countByName = new MethodModel();
+    countByName.setId("countByName");
+    countByName.setText("COUNT_BY_NAME");
+    Map<String, MethodModel> methods = new HashMap<>();
+    methods.put(countByName.getId(), countByName);
+
+    ClassModel cm = new ClassModel();
+    cm.setNamespace(PersonDao.class);
+    cm.setMethods(methods);
+    cm.setDaoBasicMethods(
+        NebulaDaoBasicExt.daoBasicMethods(PersonDao.class, daoBasicTpl, new HashMap<>()));
+    return cm.freeze();
+  }
+}
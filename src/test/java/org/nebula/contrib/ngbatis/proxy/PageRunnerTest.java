@@ -0,0 +1,289 @@
+package org.nebula.contrib.ngbatis.proxy;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.nebula.contrib.ngbatis.Env;
+import org.nebula.contrib.ngbatis.config.NgbatisConfig.PageStrategy;
+import org.nebula.contrib.ngbatis.exception.QueryException;
+import org.nebula.contrib.ngbatis.utils.CursorPage;
+import org.nebula.contrib.ngbatis.utils.Page;
+
+/**
+ * 自动分页中统计与分页语句的几种执行方式
+ */
+class PageRunnerTest {
+
+  @Test
+  void concurrentRunsBothQueriesAtTheSameTime() {
+    CountDownLatch bothStarted = new CountDownLatch(2);
+    Page<String> page = new Page<>();
+    List<String> rows = PageRunner.run(PageStrategy.CONCURRENT, page,
+        () -> {
+          awaitSibling(bothStarted);
+          return 2L;
+        },
+        () -> {
+          awaitSibling(bothStarted);
+          return Arrays.asList("a", "b");
+        });
+    assertEquals(2L, page.getTotal());
+    assertSame(rows, page.getRows());
+  }
+
+  @Test
+  void concurrentFailureCancelsTheSibling() throws Exception {
+    QueryException failure = new QueryException("count failed");
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicBoolean pageFinished = new AtomicBoolean();
+    QueryException thrown = assertThrows(QueryException.class,
+        () -> PageRunner.run(PageStrategy.CONCURRENT, new Page<String>(),
+            () -> {
+              throw failure;
+            },
+            () -> {
+              awaitQuietly(release);
+              pageFinished.set(true);
+              return Arrays.asList("a");
+            }));
+    assertSame(failure, thrown);
+    assertFalse(pageFinished.get(), "Caller should not wait for the cancelled page query");
+    release.countDown();
+  }
+
+  @Test
+  void saturatedPoolRunsTheQueryInTheCaller() throws Exception {
+    ExecutorService executor = PageRunner.newExecutor(1, 1, 1);
+    CountDownLatch release = new CountDownLatch(1);
+    try {
+      saturate(executor, release);
+      AtomicReference<Thread> pageThread = new AtomicReference<>();
+      AtomicReference<Thread> countThread = new AtomicReference<>();
+      Page<String> page = new Page<>();
+      withPageExecutor(executor, () -> PageRunner.run(PageStrategy.CONCURRENT, page,
+          () -> {
+            countThread.set(Thread.currentThread());
+            return 1L;
+          },
+          () -> {
+            pageThread.set(Thread.currentThread());
+            return Arrays.asList("a");
+          }));
+      assertSame(Thread.currentThread(), pageThread.get());
+      assertSame(Thread.currentThread(), countThread.get());
+      assertEquals(1L, page.getTotal());
+    } finally {
+      release.countDown();
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  void countIsSkippedAfterThePageQueryFailed() throws Exception {
+    ExecutorService executor = PageRunner.newExecutor(1, 1, 1);
+    CountDownLatch release = new CountDownLatch(1);
+    try {
+      saturate(executor, release);
+      QueryException failure = new QueryException("page failed");
+      AtomicBoolean counted = new AtomicBoolean();
+      QueryException thrown = assertThrows(QueryException.class,
+          () -> withPageExecutor(executor, () -> PageRunner.run(PageStrategy.CONCURRENT,
+              new Page<String>(),
+              () -> {
+                counted.set(true);
+                return 1L;
+              },
+              () -> {
+                throw failure;
+              })));
+      assertSame(failure, thrown);
+      assertFalse(counted.get(), "Count should not start after the page query failed");
+    } finally {
+      release.countDown();
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  void skipWhenZeroDoesNotQueryRows() {
+    AtomicBoolean queried = new AtomicBoolean();
+    Page<String> page = new Page<>();
+    List<String> rows = PageRunner.run(PageStrategy.SKIP_WHEN_ZERO, page, () -> 0L, () -> {
+      queried.set(true);
+      return Arrays.asList("a");
+    });
+    assertTrue(rows.isEmpty());
+    assertFalse(queried.get());
+    assertEquals(0L, page.getTotal());
+  }
+
+  @Test
+  void sequentialAlwaysQueriesRows() {
+    Page<String> page = new Page<>();
+    List<String> rows = PageRunner.run(PageStrategy.SEQUENTIAL, page, () -> 0L,
+        () -> Arrays.asList("a"));
+    assertEquals(1, rows.size());
+    assertSame(rows, page.getRows());
+  }
+
+  @Test
+  void cursorAdvancesToTheLastKey() {
+    CursorPage<String> page = new CursorPage<>(2);
+    List<String> rows = PageRunner.cursor(page, () -> Arrays.asList("a", "b"), row -> row);
+    assertSame(rows, page.getRows());
+    assertEquals("b", page.getCursor());
+    assertTrue(page.isHasNext());
+
+    PageRunner.cursor(page, () -> Arrays.asList("c"), row -> row);
+    assertEquals("c", page.getCursor());
+    assertFalse(page.isHasNext());
+  }
+
+  @Test
+  void cursorStaysWithoutKeyExtractor() {
+    CursorPage<String> page = new CursorPage<>(2);
+    page.setCursor("a");
+    PageRunner.cursor(page, () -> Arrays.asList("b", "c"), null);
+    assertEquals("a", page.getCursor());
+  }
+
+  @Test
+  void scanWalksAllChunksAndAdvancesTheCheckpoint() {
+    List<String> keys = Arrays.asList("a", "b", "c", "d", "e");
+    CursorPage<String> page = new CursorPage<>(2);
+    List<List<String>> chunks = new ArrayList<>();
+    List<Object> checkpoints = new ArrayList<>();
+    PageRunner.scan(page, false, cursorOver(keys), chunk -> {
+      checkpoints.add(page.getCursor());
+      chunks.add(chunk);
+    });
+    assertEquals(Arrays.asList(Arrays.asList("a", "b"), Arrays.asList("c", "d"),
+        Arrays.asList("e")), chunks);
+    assertEquals(Arrays.asList(null, "b", "d"), checkpoints);
+    assertEquals("e", page.getCursor());
+    assertFalse(page.isHasNext());
+  }
+
+  @Test
+  void scanResumesFromTheLastProcessedChunk() {
+    List<String> keys = Arrays.asList("a", "b", "c", "d", "e");
+    CursorPage<String> page = new CursorPage<>(2);
+    QueryException failure = new QueryException("consumer failed");
+    assertThrows(QueryException.class, () -> PageRunner.scan(page, true, cursorOver(keys),
+        chunk -> {
+          if (chunk.contains("c")) {
+            throw failure;
+          }
+        }));
+    assertEquals("b", page.getCursor());
+
+    List<String> rest = new ArrayList<>();
+    PageRunner.scan(page, true, cursorOver(keys), rest::addAll);
+    assertEquals(Arrays.asList("c", "d", "e"), rest);
+  }
+
+  @Test
+  void prefetchQueriesTheNextChunkWhileConsuming() throws Exception {
+    List<String> keys = Arrays.asList("a", "b", "c", "d");
+    Function<CursorPage<String>, List<String>> fetch = cursorOver(keys);
+    CountDownLatch secondFetched = new CountDownLatch(2);
+    List<String> seen = new ArrayList<>();
+    PageRunner.scan(new CursorPage<String>(2), true, page -> {
+      List<String> rows = fetch.apply(page);
+      secondFetched.countDown();
+      return rows;
+    }, chunk -> {
+      if (chunk.contains("a")) {
+        awaitQuietly(secondFetched);
+        assertEquals(0, secondFetched.getCount(), "Next chunk was not prefetched");
+      }
+      seen.addAll(chunk);
+    });
+    assertEquals(keys, seen);
+  }
+
+  @Test
+  void streamFlattensChunks() {
+    List<String> keys = Arrays.asList("a", "b", "c");
+    CursorPage<String> page = new CursorPage<>(2);
+    try (Stream<String> rows = PageRunner.stream(page, true, cursorOver(keys))) {
+      assertEquals(keys, rows.collect(Collectors.toList()));
+    }
+    assertEquals("c", page.getCursor());
+  }
+
+  /**
+   * 在有序的键上模拟按游标分页的查询
+   */
+  private static Function<CursorPage<String>, List<String>> cursorOver(List<String> keys) {
+    return page -> PageRunner.cursor(page, () -> keys.stream()
+        .filter(key -> page.getCursor() == null
+            || key.compareTo((String) page.getCursor()) > 0)
+        .limit(page.getPageSize())
+        .collect(Collectors.toList()), row -> row);
+  }
+
+  /**
+   * 占满线程与等待队列，之后提交的查询都在调用线程中执行
+   */
+  private static void saturate(ExecutorService executor, CountDownLatch release)
+      throws InterruptedException {
+    CountDownLatch running = new CountDownLatch(1);
+    executor.execute(() -> {
+      running.countDown();
+      awaitQuietly(release);
+    });
+    assertTrue(running.await(10, TimeUnit.SECONDS));
+    executor.execute(() -> awaitQuietly(release));
+  }
+
+  private static void withPageExecutor(ExecutorService executor, Runnable runnable) {
+    Env env = MapperProxy.ENV != null
+        ? MapperProxy.ENV
+        : new Env(null, null, null, null, null, null, "root", "nebula", true, "test", null, null);
+    ExecutorService previous = env.getPageExecutor();
+    env.setPageExecutor(executor);
+    try {
+      runnable.run();
+    } finally {
+      env.setPageExecutor(previous);
+    }
+  }
+
+  private static void awaitSibling(CountDownLatch bothStarted) {
+    bothStarted.countDown();
+    try {
+      assertTrue(bothStarted.await(10, TimeUnit.SECONDS), "Queries did not run concurrently");
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static void awaitQuietly(CountDownLatch latch) {
+    try {
+      latch.await(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
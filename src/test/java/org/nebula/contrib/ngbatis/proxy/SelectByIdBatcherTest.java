@@ -0,0 +1,227 @@
+package org.nebula.contrib.ngbatis.proxy;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.nebula.contrib.ngbatis.models.ClassModel.PROXY_SUFFIX;
+
+import com.vesoft.nebula.client.graph.data.ResultSet;
+import com.vesoft.nebula.client.graph.net.Session;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.persistence.Id;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.nebula.contrib.ngbatis.Env;
+import org.nebula.contrib.ngbatis.ResultResolver;
+import org.nebula.contrib.ngbatis.SessionDispatcher;
+import org.nebula.contrib.ngbatis.exception.QueryException;
+import org.nebula.contrib.ngbatis.models.ClassModel;
+import org.nebula.contrib.ngbatis.models.MapperContext;
+import org.nebula.contrib.ngbatis.models.MethodModel;
+import org.nebula.contrib.ngbatis.session.LocalSession;
+
+/**
+ * 经由生成的代理类调用 selectById，开启 id-batch 时同时发起的多个调用只执行一次 selectByIds。
+ * 同一 id 的调用方各得到自己的实体，异步调用可以各自指定超时。
+ * 会话为 mock，只记录收到的语句与参数。
+ */
+class SelectByIdBatcherTest {
+
+  private static final int CALLERS = 8;
+  private static final String SPACE = "test";
+
+  private final List<String> executed = Collections.synchronizedList(new ArrayList<>());
+  private final List<Object> lastIds = Collections.synchronizedList(new ArrayList<>());
+  private SelectByIdBatcher batcher;
+
+  public static class Person {
+    @Id
+    private String name;
+
+    public Person() {
+    }
+
+    Person(String name) {
+      this.name = name;
+    }
+
+    public String getName() {
+      return name;
+    }
+  }
+
+  public interface PersonDao extends NebulaDaoBasic<Person, String> {
+  }
+
+  @AfterEach
+  void tearDown() {
+    if (batcher != null) {
+      batcher.shutdown();
+    }
+  }
+
+  @Test
+  void generatedSelectByIdJoinsOneSelectByIds() throws Exception {
+    PersonDao dao = proxy();
+    batcher = new SelectByIdBatcher(200, 100, 5_000);
+    MapperProxy.ENV.setIdBatcher(batcher);
+
+    ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+    CountDownLatch start = new CountDownLatch(1);
+    try {
+      List<Future<Person>> futures = new ArrayList<>(CALLERS);
+      for (int i = 0; i < CALLERS; i++) {
+        String id = "p" + i;
+        futures.add(executor.submit(() -> {
+          start.await();
+          return dao.selectById(id);
+        }));
+      }
+      start.countDown();
+      for (int i = 0; i < CALLERS; i++) {
+        assertEquals("p" + i, futures.get(i).get(10, TimeUnit.SECONDS).getName());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertEquals(Collections.singletonList("SELECT_BY_IDS"), executed);
+    assertEquals(CALLERS, lastIds.size());
+    assertEquals(1, batcher.getLoader(PersonDao.class).getBatchCount());
+  }
+
+  @Test
+  void sameIdGetsItsOwnEntity() throws Exception {
+    PersonDao dao = proxy();
+    batcher = new SelectByIdBatcher(200, 100, 5_000);
+    MapperProxy.ENV.setIdBatcher(batcher);
+
+    CompletableFuture<Person> first = dao.selectByIdAsync("p0");
+    CompletableFuture<Person> second = dao.selectByIdAsync("p0");
+    Person mine = first.get(10, TimeUnit.SECONDS);
+    Person theirs = second.get(10, TimeUnit.SECONDS);
+
+    assertNotSame(mine, theirs);
+    assertEquals("p0", theirs.getName());
+    assertEquals(Collections.singletonList("SELECT_BY_IDS"), executed);
+  }
+
+  @Test
+  void asyncTimeoutIsPerCall() throws Exception {
+    PersonDao dao = proxy();
+    // 窗口足够长，批次在测试期间不会提交
+    batcher = new SelectByIdBatcher(60_000, 100, 60_000);
+    MapperProxy.ENV.setIdBatcher(batcher);
+
+    CompletableFuture<Person> patient = dao.selectByIdAsync("p0");
+    CompletableFuture<Person> hurried = dao.selectByIdAsync("p0", 50);
+
+    ExecutionException e = assertThrows(ExecutionException.class,
+        () -> hurried.get(5, TimeUnit.SECONDS));
+    assertTrue(e.getCause() instanceof QueryException);
+    assertFalse(patient.isDone());
+    assertThrows(QueryException.class, () -> batcher.selectById(dao, "p1", 50));
+    assertEquals(Collections.emptyList(), executed);
+  }
+
+  @Test
+  void withoutBatcherSelectByIdRunsOnItsOwn() throws Exception {
+    PersonDao dao = proxy();
+
+    assertNull(dao.selectById("p0"));
+    assertEquals(Collections.singletonList("SELECT_BY_ID"), executed);
+  }
+
+  private PersonDao proxy() throws Exception {
+    ResultSet resultSet = mock(ResultSet.class);
+    when(resultSet.isSucceeded()).thenReturn(true);
+    Session session = mock(Session.class);
+    when(session.executeWithParameter(anyString(), anyMap())).thenAnswer(invocation -> {
+      // 执行前语句会被加上换行与缩进（或 USE 前缀），只比较渲染出的语句本身
+      executed.add(invocation.<String>getArgument(0).trim());
+      return resultSet;
+    });
+    LocalSession localSession = new LocalSession(System.currentTimeMillis(), session);
+    localSession.setCurrentSpace(SPACE);
+
+    Env.classLoader = getClass().getClassLoader();
+    new Env((text, args) -> text, resultResolver(), (methodModel, args) -> {
+      if ("selectByIds".equals(methodModel.getId())) {
+        lastIds.clear();
+        lastIds.addAll((Collection<?>) args[0]);
+      }
+      return Collections.singletonMap("id", args[0]);
+    }, null, null, null, "root", "nebula", true, SPACE, null, dispatcher(localSession));
+
+    Map<String, String> daoBasicTpl = new HashMap<>();
+    daoBasicTpl.put("selectById", "SELECT_BY_ID");
+    daoBasicTpl.put("selectByIds", "SELECT_BY_IDS");
+    ClassModel cm = new ClassModel();
+    cm.setNamespace(PersonDao.class);
+    cm.setMethods(new HashMap<>());
+    cm.setDaoBasicMethods(
+        NebulaDaoBasicExt.daoBasicMethods(PersonDao.class, daoBasicTpl, new HashMap<>()));
+    Map<String, ClassModel> interfaces = new HashMap<>();
+    interfaces.put(PersonDao.class.getName() + PROXY_SUFFIX, cm);
+    MapperContext.newInstance().setInterfaces(interfaces);
+
+    new MapperProxyClassGenerator().setClassCode(cm);
+    Class<?> proxyClass = new RamClassLoader(interfaces)
+        .loadClass(PersonDao.class.getName() + PROXY_SUFFIX);
+    MapperProxyClassGenerator.bindPlans(proxyClass, cm);
+    return (PersonDao) proxyClass.newInstance();
+  }
+
+  private ResultResolver resultResolver() {
+    return new ResultResolver() {
+      @Override
+      @SuppressWarnings("unchecked")
+      public <T> T resolve(MethodModel methodModel, ResultSet result) {
+        if (!"selectByIds".equals(methodModel.getId())) {
+          return null;
+        }
+        List<Person> people = new ArrayList<>();
+        for (Object id : lastIds) {
+          people.add(new Person((String) id));
+        }
+        return (T) people;
+      }
+    };
+  }
+
+  private static SessionDispatcher dispatcher(LocalSession localSession) {
+    return new SessionDispatcher() {
+      @Override
+      public void offer(LocalSession session) {
+      }
+
+      @Override
+      public LocalSession poll() {
+        return localSession;
+      }
+    };
+  }
+}
@@ -0,0 +1,105 @@
+package org.nebula.contrib.ngbatis.proxy;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.vesoft.nebula.client.graph.data.ResultSet;
+import com.vesoft.nebula.client.graph.net.Session;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.nebula.contrib.ngbatis.Env;
+import org.nebula.contrib.ngbatis.SessionDispatcher;
+import org.nebula.contrib.ngbatis.models.MethodModel;
+import org.nebula.contrib.ngbatis.models.StatementType;
+import org.nebula.contrib.ngbatis.session.LocalSession;
+
+/**
+ * nebula.hosts 声明了 read / write 组时，读语句从 read 组借会话，写语句从 write 组借会话；
+ * 没有对应的组时使用默认的会话调度器。会话为 mock，只记录借出它的调度器。
+ */
+class StatementRoutingTest {
+
+  private static final String SPACE = "test";
+  private static final String MATCH = "MATCH (v:person) RETURN v";
+  private static final String INSERT = "INSERT VERTEX person(name) VALUES 'a':('a')";
+
+  private final List<String> borrowed = new ArrayList<>();
+
+  @Test
+  void readGoesToReadGroupAndWriteToWriteGroup() throws Exception {
+    Map<String, SessionDispatcher> groups = new HashMap<>();
+    groups.put("read", dispatcher("read"));
+    groups.put("write", dispatcher("write"));
+    env(groups);
+
+    MapperProxy.executeInSpace(SPACE, MATCH);
+    MapperProxy.executeInSpace(SPACE, INSERT);
+    MapperProxy.executeInSpace(SPACE, "-- remove\nDELETE VERTEX 'a'");
+    MapperProxy.executeInSpace(SPACE, MATCH + "; " + INSERT);
+    // 标签声明为写的方法，语句本身像读也走 write 组
+    MethodModel declaredWrite = new MethodModel();
+    declaredWrite.setId("touch");
+    declaredWrite.setStatementType(StatementType.WRITE);
+    MapperProxy.executeWithParameter(null, declaredWrite, MATCH, Collections.emptyMap());
+
+    assertEquals(Arrays.asList("read", "write", "write", "write", "write"), borrowed);
+  }
+
+  @Test
+  void fallBackToDefaultWhenReadGroupIsMissing() throws Exception {
+    env(Collections.singletonMap("write", dispatcher("write")));
+
+    MapperProxy.executeInSpace(SPACE, MATCH);
+    MapperProxy.executeInSpace(SPACE, INSERT);
+
+    assertEquals(Arrays.asList("default", "write"), borrowed);
+  }
+
+  @Test
+  void withoutGroupsEverythingGoesToDefault() throws Exception {
+    env(Collections.emptyMap());
+
+    MapperProxy.executeInSpace(SPACE, MATCH);
+    MapperProxy.executeInSpace(SPACE, INSERT);
+
+    assertEquals(Arrays.asList("default", "default"), borrowed);
+  }
+
+  private void env(Map<String, SessionDispatcher> groups) throws Exception {
+    Env env = new Env((text, args) -> text, null, null, null, null, null, "root", "nebula",
+        true, SPACE, null, dispatcher("default"));
+    env.setGroupDispatchers(groups);
+  }
+
+  private SessionDispatcher dispatcher(String name) throws Exception {
+    ResultSet resultSet = mock(ResultSet.class);
+    when(resultSet.isSucceeded()).thenReturn(true);
+    Session session = mock(Session.class);
+    when(session.executeWithParameter(anyString(), anyMap())).thenReturn(resultSet);
+    LocalSession localSession = new LocalSession(System.currentTimeMillis(), session);
+    localSession.setCurrentSpace(SPACE);
+    return new SessionDispatcher() {
+      @Override
+      public void offer(LocalSession session) {
+      }
+
+      @Override
+      public LocalSession poll() {
+        borrowed.add(name);
+        return localSession;
+      }
+    };
+  }
+}
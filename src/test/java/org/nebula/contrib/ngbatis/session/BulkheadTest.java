@@ -0,0 +1,161 @@
+package org.nebula.contrib.ngbatis.session;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.nebula.contrib.ngbatis.Env;
+import org.nebula.contrib.ngbatis.SessionDispatcher;
+import org.nebula.contrib.ngbatis.exception.BulkheadRejectedException;
+import org.nebula.contrib.ngbatis.exception.QueryException;
+import org.nebula.contrib.ngbatis.models.ClassModel;
+import org.nebula.contrib.ngbatis.models.MethodModel;
+import org.nebula.contrib.ngbatis.proxy.MapperProxy;
+
+/**
+ * 会话配额：排队已满与等待超时时拒绝并计数，排队的请求在许可释放后执行，
+ * 方法上的配额优先于 mapper 上的配额，执行失败时许可同样被归还。
+ */
+class BulkheadTest {
+
+  private static final String DAO = PersonDao.class.getName();
+
+  interface PersonDao {
+  }
+
+  @Test
+  void rejectsWhenQueueIsFull() {
+    Bulkhead bulkhead = new Bulkhead(DAO, 1, 0, 1_000);
+    bulkhead.acquire();
+
+    BulkheadRejectedException e = assertThrows(BulkheadRejectedException.class,
+        bulkhead::acquire);
+    assertEquals(DAO, e.getTarget());
+    assertEquals(1, bulkhead.getInUse());
+    assertEquals(1, bulkhead.getAcceptedCount());
+    assertEquals(1, bulkhead.getQueueFullRejectionCount());
+    assertEquals(0, bulkhead.getTimeoutRejectionCount());
+
+    bulkhead.release();
+    assertEquals(0, bulkhead.getInUse());
+  }
+
+  @Test
+  void rejectsWhenWaitingTooLong() {
+    Bulkhead bulkhead = new Bulkhead(DAO, 1, 1, 20);
+    bulkhead.acquire();
+
+    assertThrows(BulkheadRejectedException.class, bulkhead::acquire);
+    assertEquals(1, bulkhead.getTimeoutRejectionCount());
+    assertEquals(1, bulkhead.getRejectedCount());
+    assertEquals(0, bulkhead.getQueueDepth());
+    bulkhead.release();
+  }
+
+  @Test
+  void queuedRequestRunsAfterRelease() throws Exception {
+    Bulkhead bulkhead = new Bulkhead(DAO, 1, 1, 5_000);
+    bulkhead.acquire();
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<?> queued = executor.submit(bulkhead::acquire);
+      while (bulkhead.getQueueDepth() == 0) {
+        Thread.yield();
+      }
+      bulkhead.release();
+      queued.get(5, TimeUnit.SECONDS);
+
+      assertEquals(2, bulkhead.getAcceptedCount());
+      assertEquals(0, bulkhead.getQueueDepth());
+      assertEquals(1, bulkhead.getInUse());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void methodBulkheadWinsOverMapperBulkhead() {
+    Bulkhead mapper = new Bulkhead(DAO, 4, 0, 0);
+    Bulkhead method = new Bulkhead(DAO + ".selectByName", 1, 0, 0);
+    BulkheadRegistry registry = new BulkheadRegistry(Arrays.asList(mapper, method));
+
+    assertSame(method, registry.find(classModel(), methodModel("selectByName")));
+    assertSame(mapper, registry.find(classModel(), methodModel("selectById")));
+    assertSame(mapper, registry.find(classModel(), null));
+    assertNull(registry.find(null, null));
+  }
+
+  @Test
+  void permitIsReleasedWhenExecutionFails() {
+    Bulkhead bulkhead = new Bulkhead(DAO, 1, 0, 0);
+    Env env = env(new SessionDispatcher() {
+      @Override
+      public void offer(LocalSession session) {
+      }
+
+      @Override
+      public LocalSession poll() {
+        // 会话不可用，执行语句时失败
+        return new LocalSession(System.currentTimeMillis(), null);
+      }
+    });
+    env.setBulkheads(new BulkheadRegistry(Collections.singletonList(bulkhead)));
+
+    for (int i = 0; i < 3; i++) {
+      assertThrows(QueryException.class, () -> MapperProxy.executeWithParameter(
+          classModel(), methodModel("selectByName"), "RETURN 1", Collections.emptyMap()));
+    }
+    assertEquals(0, bulkhead.getInUse());
+    assertEquals(3, bulkhead.getAcceptedCount());
+    assertEquals(0, bulkhead.getRejectedCount());
+  }
+
+  @Test
+  void permitIsReleasedWhenNoSessionCanBeBorrowed() {
+    Bulkhead bulkhead = new Bulkhead(DAO, 1, 0, 0);
+    Env env = env(new SessionDispatcher() {
+      @Override
+      public void offer(LocalSession session) {
+      }
+
+      @Override
+      public LocalSession poll() {
+        throw new IllegalStateException("no session");
+      }
+    });
+    env.setBulkheads(new BulkheadRegistry(Collections.singletonList(bulkhead)));
+
+    assertThrows(QueryException.class, () -> MapperProxy.executeWithParameter(
+        classModel(), methodModel("selectByName"), "RETURN 1", Collections.emptyMap()));
+    assertEquals(0, bulkhead.getInUse());
+  }
+
+  private static Env env(SessionDispatcher dispatcher) {
+    return new Env(null, null, null, null, null, null, "root", "nebula", true, "test", null,
+        dispatcher);
+  }
+
+  private static ClassModel classModel() {
+    ClassModel cm = new ClassModel();
+    cm.setNamespace(PersonDao.class);
+    return cm;
+  }
+
+  private static MethodModel methodModel(String id) {
+    MethodModel mm = new MethodModel();
+    mm.setId(id);
+    return mm;
+  }
+}
@@ -0,0 +1,81 @@
+package org.nebula.contrib.ngbatis.session;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import com.vesoft.nebula.client.graph.NebulaPoolConfig;
+import java.lang.reflect.Field;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+/**
+ * 无锁借还的会话调度器：归还线程判断无人等待之后、放入栈之前，借用线程开始等待时，
+ * 借用线程等待超时后仍能取到这个会话，而不是新建会话。
+ */
+class ConcurrentSessionDispatcherTest {
+
+  @Test
+  void waiterFindsSessionPushedToStripeAfterItRegistered() throws Exception {
+    AtomicInteger created = new AtomicInteger();
+    NebulaPoolConfig poolConfig = new NebulaPoolConfig()
+        .setMinConnSize(0)
+        .setMaxConnSize(8)
+        .setWaitTime(100);
+    ConcurrentSessionDispatcher dispatcher = new ConcurrentSessionDispatcher(poolConfig,
+        new SessionValidator(), null, () -> {
+          created.incrementAndGet();
+          return new LocalSession(System.currentTimeMillis(), null);
+        }) {
+      @Override
+      protected void wakeUp() {
+        // 不启动定时检查，它会把栈中的会话重新放回溢出队列，掩盖本用例要复现的时序
+      }
+
+      @Override
+      protected void releaseInnerSession(LocalSession session) {
+      }
+
+      @Override
+      protected boolean isHealthy(LocalSession session) {
+        return true;
+      }
+    };
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<LocalSession> borrowed = executor.submit(() -> dispatcher.poll());
+      LinkedTransferQueue<LocalSession> handoff = field(dispatcher, "handoff");
+      while (!handoff.hasWaitingConsumer()) {
+        Thread.yield();
+      }
+      // 模拟归还线程：判断时尚无等待者，随后才把会话放入栈中
+      LocalSession session = new LocalSession(System.currentTimeMillis(), null);
+      AtomicInteger idleCount = field(dispatcher, "idleCount");
+      idleCount.incrementAndGet();
+      ConcurrentLinkedDeque<LocalSession>[] stripes = field(dispatcher, "stripes");
+      stripes[0].offerFirst(session);
+
+      assertSame(session, borrowed.get(5, TimeUnit.SECONDS));
+      assertEquals(0, created.get());
+      assertEquals(0, dispatcher.getIdleCount());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T field(Object target, String name) throws Exception {
+    Field field = ConcurrentSessionDispatcher.class.getDeclaredField(name);
+    field.setAccessible(true);
+    return (T) field.get(target);
+  }
+}
@@ -0,0 +1,338 @@
+package org.nebula.contrib.ngbatis.session;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.vesoft.nebula.client.graph.NebulaPoolConfig;
+import com.vesoft.nebula.client.graph.data.HostAddress;
+import com.vesoft.nebula.client.graph.net.NebulaPool;
+import com.vesoft.nebula.client.graph.net.Session;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * 模拟多个 graphd，每次执行的耗时与结果直接交给路由器，不依赖真实的网络与调度：
+ * 请求集中到快的地址上，正在执行的语句会提高得分，慢的与不可达的地址被剔除。
+ * 另用本地的替身服务（快、慢、不可达）经由调度器端到端地开会话、借出、执行，
+ * 验证新会话避开不可达的地址，已有会话的池中借出也偏向快的地址，剔除期满的地址由定时检查恢复。
+ */
+class HostRouterTest {
+
+  private static final int REQUESTS = 400;
+  private static final long FAST = TimeUnit.MILLISECONDS.toNanos(2);
+  private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(30);
+  private static final int THREADS = 4;
+  private static final int REQUESTS_PER_THREAD = 100;
+
+  private final List<StandInServer> servers = new ArrayList<>();
+
+  @AfterEach
+  void stopServers() {
+    servers.forEach(StandInServer::close);
+  }
+
+  @Test
+  void preferFastHostAndEjectUnreachableOne() {
+    RoutedHost fast = host(9669);
+    RoutedHost slow = host(9670);
+    RoutedHost down = host(9671);
+    HostRouter router = new HostRouter(Arrays.asList(fast, slow, down), 0.3, 0.5, 3.0, 60_000L);
+
+    for (int i = 0; i < REQUESTS; i++) {
+      LocalSession session = new LocalSession(System.currentTimeMillis(), null);
+      session.setHost(router.select());
+      router.begin(session);
+      RoutedHost host = session.getHost();
+      if (host == down) {
+        router.end(session, 0, false);
+      } else {
+        router.end(session, host == fast ? FAST : SLOW, true);
+      }
+    }
+
+    assertEquals(REQUESTS,
+        fast.getRequestCount() + slow.getRequestCount() + down.getRequestCount());
+    assertTrue(down.isEjected(), "unreachable host should be ejected: " + down);
+    assertFalse(fast.isEjected(), "fast host should stay: " + fast);
+    assertTrue(fast.getRequestCount() > REQUESTS * 0.8,
+        "most requests should go to the fast host: " + router.getHosts());
+    assertEquals(0, fast.getInFlight() + slow.getInFlight() + down.getInFlight());
+  }
+
+  @Test
+  void ejectSlowHost() {
+    RoutedHost fast = host(9669);
+    RoutedHost slow = host(9670);
+    HostRouter router = new HostRouter(Arrays.asList(fast, slow), 0.3, 0.5, 3.0, 60_000L);
+    for (int i = 0; i < 4; i++) {
+      router.record(fast, FAST, true);
+      router.record(slow, SLOW, true);
+    }
+    // 样本数不足时不判断
+    assertFalse(slow.isEjected());
+
+    router.record(fast, FAST, true);
+    router.record(slow, SLOW, true);
+    assertTrue(slow.isEjected(), "slow host should be ejected: " + slow);
+    assertFalse(fast.isEjected(), "fast host should stay: " + fast);
+    assertSame(fast, router.select());
+  }
+
+  @Test
+  void inFlightStatementsRaiseTheScore() {
+    RoutedHost busy = host(9669);
+    RoutedHost idle = host(9670);
+    HostRouter router = new HostRouter(Arrays.asList(busy, idle), 0.3, 0.5, 3.0, 60_000L);
+    for (int i = 0; i < 5; i++) {
+      router.record(busy, FAST, true);
+      router.record(idle, 2 * FAST, true);
+    }
+    assertSame(busy, router.select());
+
+    LocalSession[] running = new LocalSession[3];
+    for (int i = 0; i < running.length; i++) {
+      running[i] = new LocalSession(System.currentTimeMillis(), null);
+      running[i].setHost(busy);
+      router.begin(running[i]);
+    }
+    assertSame(idle, router.select());
+  }
+
+  @Test
+  void neverEjectTheLastHost() {
+    RoutedHost down = host(9671);
+    HostRouter router = new HostRouter(Arrays.asList(down), 0.3, 0.5, 3.0, 60_000L);
+    for (int i = 0; i < 20; i++) {
+      LocalSession session = new LocalSession(System.currentTimeMillis(), null);
+      session.setHost(router.select());
+      router.begin(session);
+      router.end(session, 0, false);
+    }
+    assertFalse(down.isEjected());
+    assertEquals(20, down.getErrorCount());
+  }
+
+  @Test
+  void readmitAfterEjectTime() throws Exception {
+    RoutedHost fast = host(9669);
+    RoutedHost down = host(9671);
+    HostRouter router = new HostRouter(Arrays.asList(fast, down), 0.3, 0.5, 3.0, 50L);
+    for (int i = 0; i < 10; i++) {
+      router.record(down, 0, false);
+    }
+    assertTrue(down.isEjected());
+    assertEquals(fast, router.select());
+
+    Thread.sleep(100);
+    router.select();
+    assertFalse(down.isEjected());
+    assertEquals(0, down.getSamples());
+  }
+
+  @Test
+  void routeOpenAndBorrowOverRealConnections() throws Exception {
+    RoutedHost down = connected(unreachable());
+    RoutedHost slow = connected(start(30).address());
+    RoutedHost fast = connected(start(2).address());
+    // 不因延迟剔除慢的地址，只看借出是否偏向快的地址；不可达的地址排在最前，最先被选中
+    HostRouter router = new HostRouter(Arrays.asList(down, slow, fast), 0.3, 0.5, 100.0, 60_000L);
+    ConcurrentSessionDispatcher dispatcher = new ConcurrentSessionDispatcher(
+        new NebulaPoolConfig().setMinConnSize(0).setMaxConnSize(16).setWaitTime(0),
+        new SessionValidator(), null, () -> router.open("root", "nebula", true));
+    dispatcher.setHostRouter(router);
+
+    CountDownLatch done = new CountDownLatch(THREADS);
+    try {
+      for (int t = 0; t < THREADS; t++) {
+        Thread thread = new Thread(() -> {
+          try {
+            for (int i = 0; i < REQUESTS_PER_THREAD; i++) {
+              LocalSession session = dispatcher.poll();
+              long start = System.nanoTime();
+              router.begin(session);
+              boolean reached = roundTrip(session.getHost().getAddress());
+              router.end(session, System.nanoTime() - start, reached);
+              dispatcher.offer(session);
+            }
+          } finally {
+            done.countDown();
+          }
+        });
+        thread.setDaemon(true);
+        thread.start();
+      }
+      assertTrue(done.await(60, TimeUnit.SECONDS));
+    } finally {
+      dispatcher.shutdown();
+    }
+
+    long statements = fast.getRequestCount() + slow.getRequestCount();
+    assertEquals((long) THREADS * REQUESTS_PER_THREAD, statements);
+    assertTrue(down.isEjected(), "unreachable host should be ejected: " + down);
+    assertEquals(down.getRequestCount(), down.getErrorCount());
+    // 最初的会话都开在慢的地址上，之后借出与新建都偏向快的地址
+    assertTrue(fast.getRequestCount() > statements * 0.8,
+        "most statements should run on the fast host: " + router.getHosts());
+    assertTrue(dispatcher.getLiveCount() <= 16);
+    assertEquals(0, fast.getInFlight() + slow.getInFlight());
+  }
+
+  @Test
+  void periodicCheckReadmitsEjectedHost() throws Exception {
+    RoutedHost fast = connected(start(0).address());
+    RoutedHost down = connected(unreachable());
+    HostRouter router = new HostRouter(Arrays.asList(down, fast), 0.3, 0.5, 3.0, 50L);
+    ConcurrentSessionDispatcher dispatcher = new ConcurrentSessionDispatcher(
+        new NebulaPoolConfig().setMinConnSize(0).setMaxConnSize(4),
+        new SessionValidator(), null, () -> router.open("root", "nebula", true));
+    dispatcher.setHostRouter(router);
+    try {
+      // 每次开会话都先尝试不可达的地址，失败后开在快的地址上
+      for (int i = 0; i < 5; i++) {
+        assertSame(fast, router.open("root", "nebula", true).getHost());
+      }
+      assertTrue(down.isEjected());
+
+      dispatcher.start();
+      long deadline = System.currentTimeMillis() + 5_000;
+      while (down.isEjected() && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      // 没有借出与新建会话，由定时检查恢复
+      assertFalse(down.isEjected());
+      assertEquals(0, down.getSamples());
+    } finally {
+      dispatcher.shutdown();
+    }
+  }
+
+  /**
+   * 连接池替身：每次开会话都真实地连接该地址，连接被拒绝时开会话失败
+   */
+  private static RoutedHost connected(HostAddress address) throws Exception {
+    NebulaPool pool = mock(NebulaPool.class);
+    when(pool.getSession(anyString(), anyString(), anyBoolean())).thenAnswer(invocation -> {
+      try (Socket socket = new Socket()) {
+        socket.connect(new InetSocketAddress(address.getHost(), address.getPort()), 500);
+      } catch (IOException e) {
+        throw new IllegalStateException("Can not connect to " + address, e);
+      }
+      return mock(Session.class);
+    });
+    return new RoutedHost(address, pool);
+  }
+
+  private StandInServer start(long delayMillis) throws IOException {
+    StandInServer server = new StandInServer(delayMillis);
+    servers.add(server);
+    return server;
+  }
+
+  /**
+   * 取一个刚刚释放的本地端口，连接会被拒绝
+   */
+  private static HostAddress unreachable() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return new HostAddress("127.0.0.1", socket.getLocalPort());
+    }
+  }
+
+  private static boolean roundTrip(HostAddress address) {
+    try (Socket socket = new Socket()) {
+      socket.connect(new InetSocketAddress(address.getHost(), address.getPort()), 500);
+      socket.setSoTimeout(2000);
+      OutputStream out = socket.getOutputStream();
+      out.write("RETURN 1\n".getBytes(StandardCharsets.UTF_8));
+      out.flush();
+      BufferedReader in = new BufferedReader(
+          new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+      return in.readLine() != null;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private static RoutedHost host(int port) {
+    return new RoutedHost(new HostAddress("127.0.0.1", port), null);
+  }
+
+  /**
+   * graphd 的替身：每个连接读一行，等待 delayMillis 后回复一行
+   */
+  static class StandInServer {
+
+    private final ServerSocket serverSocket;
+
+    StandInServer(long delayMillis) throws IOException {
+      serverSocket = new ServerSocket(0);
+      Thread acceptor = new Thread(() -> {
+        while (!serverSocket.isClosed()) {
+          try {
+            Socket socket = serverSocket.accept();
+            Thread worker = new Thread(() -> reply(socket, delayMillis));
+            worker.setDaemon(true);
+            worker.start();
+          } catch (IOException e) {
+            return;
+          }
+        }
+      });
+      acceptor.setDaemon(true);
+      acceptor.start();
+    }
+
+    private static void reply(Socket socket, long delayMillis) {
+      try (Socket s = socket) {
+        BufferedReader in = new BufferedReader(
+            new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+        // 开会话时只连接不发送，读到连接关闭即结束
+        if (in.readLine() == null) {
+          return;
+        }
+        Thread.sleep(delayMillis);
+        OutputStream out = s.getOutputStream();
+        out.write("OK\n".getBytes(StandardCharsets.UTF_8));
+        out.flush();
+      } catch (IOException e) {
+        // the client gave up
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    HostAddress address() {
+      return new HostAddress("127.0.0.1", serverSocket.getLocalPort());
+    }
+
+    void close() {
+      try {
+        serverSocket.close();
+      } catch (IOException e) {
+        // ignore
+      }
+    }
+  }
+}
@@ -0,0 +1,82 @@
+package org.nebula.contrib.ngbatis.session;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+/**
+ * 泄漏检测：借出与归还的记录、按阈值找出疑似泄漏并按借出时间排序、调用栈抽样。
+ */
+class LeakDetectorTest {
+
+  private static final long THRESHOLD = 1_000;
+
+  @Test
+  void borrowAndReturnAreRecorded() {
+    LeakDetector detector = new LeakDetector(THRESHOLD, 0, 60_000);
+    LocalSession session = session();
+
+    detector.borrowed(session);
+    assertEquals(1, detector.getBorrowedCount());
+    assertTrue(session.getBorrowedAt() > 0);
+    assertEquals(Thread.currentThread().getName(), session.getBorrower());
+    assertNull(session.getBorrowStack());
+
+    detector.returned(session);
+    assertEquals(0, detector.getBorrowedCount());
+    assertEquals(0, session.getBorrowedAt());
+    assertNull(session.getBorrower());
+
+    // 新建或检查后放回的会话没有借出记录
+    detector.returned(session());
+    assertEquals(0, detector.getBorrowedCount());
+  }
+
+  @Test
+  void borrowStackIsSampled() {
+    LeakDetector detector = new LeakDetector(THRESHOLD, 1, 60_000);
+    LocalSession session = session();
+
+    detector.borrowed(session);
+    assertNotNull(session.getBorrowStack());
+    detector.returned(session);
+    assertNull(session.getBorrowStack());
+  }
+
+  @Test
+  void suspectsAreOverThresholdAndOldestFirst() {
+    LeakDetector detector = new LeakDetector(THRESHOLD, 0, 60_000);
+    long now = System.currentTimeMillis();
+    LocalSession recent = borrowedAt(detector, now - 10);
+    LocalSession older = borrowedAt(detector, now - 2 * THRESHOLD);
+    LocalSession oldest = borrowedAt(detector, now - 5 * THRESHOLD);
+
+    assertEquals(Arrays.asList(oldest, older), detector.suspects());
+
+    detector.report();
+    assertEquals(2, detector.getLongBorrowCount());
+
+    detector.returned(oldest);
+    detector.returned(recent);
+    assertEquals(Arrays.asList(older), detector.suspects());
+  }
+
+  private static LocalSession borrowedAt(LeakDetector detector, long borrowedAt) {
+    LocalSession session = session();
+    detector.borrowed(session);
+    session.markBorrowed(borrowedAt, Thread.currentThread().getName(), null);
+    return session;
+  }
+
+  private static LocalSession session() {
+    return new LocalSession(System.currentTimeMillis(), null);
+  }
+}
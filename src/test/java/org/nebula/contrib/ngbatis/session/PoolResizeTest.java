@@ -0,0 +1,88 @@
+package org.nebula.contrib.ngbatis.session;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.vesoft.nebula.client.graph.NebulaPoolConfig;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+/**
+ * 调度器按控制器的决策调整会话池：目标会话数未变时不释放按需创建的空闲会话，
+ * 目标减少时最多释放减少的数量。
+ */
+class PoolResizeTest {
+
+  private static final int MIN = 2;
+  private static final int MAX = 16;
+
+  private final AtomicInteger released = new AtomicInteger();
+
+  @Test
+  void busyWindowUnderThresholdReleasesNothing() {
+    PoolSizingController sizing = controller();
+    ConcurrentSessionDispatcher dispatcher = dispatcher(sizing);
+    // 目标为 MIN，突发流量按需开到 6 个会话
+    openIdle(dispatcher, 6);
+    for (int i = 0; i < 10; i++) {
+      sizing.recordBorrow(TimeUnit.MILLISECONDS.toNanos(1), 4, 6);
+    }
+
+    dispatcher.resize();
+
+    assertEquals(MIN, sizing.getTarget());
+    assertEquals(0, released.get());
+    assertEquals(6, dispatcher.getIdleCount());
+  }
+
+  @Test
+  void shrinkReleasesAtMostTheReduction() {
+    PoolSizingController sizing = controller();
+    while (sizing.getTarget() < 9) {
+      for (int i = 0; i < 10; i++) {
+        sizing.recordBorrow(TimeUnit.MILLISECONDS.toNanos(50), 1, 1);
+      }
+      sizing.decide(sizing.getTarget(), sizing.getTarget());
+    }
+    ConcurrentSessionDispatcher dispatcher = dispatcher(sizing);
+    openIdle(dispatcher, 12);
+
+    // 窗口内没有借出：目标 9 -> 7，只释放 2 个，而不是降到目标的 5 个
+    dispatcher.resize();
+
+    assertEquals(7, sizing.getTarget());
+    assertEquals(2, released.get());
+    assertEquals(10, dispatcher.getIdleCount());
+  }
+
+  private void openIdle(ConcurrentSessionDispatcher dispatcher, int count) {
+    for (int i = 0; i < count; i++) {
+      dispatcher.offer(dispatcher.newLocalSession());
+    }
+  }
+
+  private PoolSizingController controller() {
+    return new PoolSizingController(MIN, MAX, 1_000, 20, 0.5, 0, null);
+  }
+
+  private ConcurrentSessionDispatcher dispatcher(PoolSizingController sizing) {
+    NebulaPoolConfig poolConfig = new NebulaPoolConfig()
+        .setMinConnSize(MIN)
+        .setMaxConnSize(MAX);
+    return new ConcurrentSessionDispatcher(poolConfig, new SessionValidator(), sizing,
+        () -> new LocalSession(System.currentTimeMillis(), null)) {
+      @Override
+      protected void wakeUp() {
+      }
+
+      @Override
+      protected void releaseInnerSession(LocalSession session) {
+        released.incrementAndGet();
+      }
+    };
+  }
+}
@@ -0,0 +1,206 @@
+package org.nebula.contrib.ngbatis.session;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.nebula.contrib.ngbatis.session.PoolResizeEvent.Action;
+
+/**
+ * 会话池大小控制器的决策：等待时间过长时增加，空闲窗口后减少，始终在上下限之间，
+ * 使用率按当时存活的会话数计算，调整后的冷却时间内不减少；
+ * 样本覆盖整个窗口，决策时并发记录的借出不丢失、不混入上一个窗口。
+ */
+class PoolSizingControllerTest {
+
+  private static final int MIN = 2;
+  private static final int MAX = 10;
+  private static final long INTERVAL = 1_000;
+  private static final long WAIT_THRESHOLD = 20;
+
+  private final List<PoolResizeEvent> events = new ArrayList<>();
+
+  @Test
+  void growWhenBorrowWaitIsHigh() {
+    PoolSizingController sizing = controller(0);
+    List<Integer> targets = new ArrayList<>();
+    for (int i = 0; i < 6; i++) {
+      int live = sizing.getTarget();
+      borrow(sizing, 50, live, live);
+      targets.add(sizing.decide(live, 0));
+    }
+
+    assertEquals(Arrays.asList(3, 4, 6, 9, MAX, MAX), targets);
+    assertEquals(5, sizing.getGrowCount());
+    assertEquals(5, events.size());
+    PoolResizeEvent first = events.get(0);
+    assertEquals(Action.GROW, first.getAction());
+    assertEquals(MIN, first.getPreviousTarget());
+    assertEquals(3, first.getTarget());
+    assertEquals(50.0, first.getP95WaitMillis(), 1e-9);
+    assertEquals(1.0, first.getUtilization(), 1e-9);
+  }
+
+  @Test
+  void shrinkAfterIdleWindowDownToMin() {
+    PoolSizingController sizing = grownTo(MAX, 0);
+    List<Integer> targets = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      // 窗口内没有借出
+      targets.add(sizing.decide(sizing.getTarget(), sizing.getTarget()));
+    }
+
+    assertEquals(Arrays.asList(8, 6, 5, 4, 3, MIN, MIN, MIN), targets);
+    assertEquals(6, sizing.getShrinkCount());
+    assertEquals(Action.SHRINK, events.get(events.size() - 1).getAction());
+  }
+
+  @Test
+  void shrinkWhenUtilizationIsLow() {
+    PoolSizingController sizing = grownTo(MAX, 0);
+    borrow(sizing, 1, 2, MAX);
+
+    assertEquals(8, sizing.decide(MAX, MAX - 2));
+    assertEquals(0.2, sizing.getLastUtilization(), 1e-9);
+  }
+
+  @Test
+  void utilizationIsMeasuredAgainstLiveSessions() {
+    PoolSizingController sizing = grownTo(MAX, 0);
+    // 目标为 10，但会话还没开完：存活 4 个，其中 3 个在用
+    borrow(sizing, 1, 3, 4);
+
+    assertEquals(MAX, sizing.decide(4, 1));
+    assertEquals(0.75, sizing.getLastUtilization(), 1e-9);
+    assertEquals(0, sizing.getShrinkCount());
+  }
+
+  @Test
+  void neverGrowBeyondMaxOrShrinkBelowMin() {
+    PoolSizingController sizing = controller(0);
+    assertEquals(MIN, sizing.decide(MIN, MIN));
+    assertEquals(0, sizing.getShrinkCount());
+
+    for (int i = 0; i < 20; i++) {
+      borrow(sizing, 100, sizing.getTarget(), sizing.getTarget());
+      sizing.decide(sizing.getTarget(), 0);
+      assertTrue(sizing.getTarget() <= MAX);
+    }
+    assertEquals(MAX, sizing.getTarget());
+  }
+
+  @Test
+  void noShrinkDuringCooldown() {
+    // 冷却 2.5 个窗口，按 3 个窗口计
+    PoolSizingController sizing = grownTo(3, 2_500);
+    assertEquals(3, sizing.decide(3, 3));
+    assertEquals(3, sizing.decide(3, 3));
+    assertEquals(3, sizing.decide(3, 3));
+    assertEquals(0, sizing.getShrinkCount());
+
+    assertEquals(MIN, sizing.decide(3, 3));
+    assertEquals(1, sizing.getShrinkCount());
+  }
+
+  @Test
+  void growDuringCooldown() {
+    PoolSizingController sizing = grownTo(3, 10_000);
+    borrow(sizing, 50, 3, 3);
+
+    assertEquals(4, sizing.decide(3, 0));
+    assertEquals(2, sizing.getGrowCount());
+  }
+
+  @Test
+  void samplesAreKeptAcrossTheWholeWindow() {
+    PoolSizingController sizing = controller(0);
+    // 超过样本数上限：前 2000 次等待较长，后 1000 次很短，只保留最近的样本会得到很短的 p95
+    for (int i = 0; i < 2_000; i++) {
+      sizing.recordBorrow(TimeUnit.MILLISECONDS.toNanos(50), 1, MIN);
+    }
+    for (int i = 0; i < 1_000; i++) {
+      sizing.recordBorrow(TimeUnit.MILLISECONDS.toNanos(1), 1, MIN);
+    }
+    sizing.decide(MIN, 0);
+
+    assertEquals(3_000, sizing.getLastBorrowCount());
+    assertEquals(50.0, sizing.getLastP95WaitMillis(), 1e-9);
+  }
+
+  @Test
+  void recordWhileDeciding() throws InterruptedException {
+    PoolSizingController sizing = controller(0);
+    int threads = 4;
+    int borrowsPerThread = 50_000;
+    CountDownLatch start = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(threads);
+    for (int t = 0; t < threads; t++) {
+      Thread thread = new Thread(() -> {
+        try {
+          start.await();
+          for (int i = 0; i < borrowsPerThread; i++) {
+            sizing.recordBorrow(TimeUnit.MILLISECONDS.toNanos(5), 1, MIN);
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } finally {
+          done.countDown();
+        }
+      });
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    long total = 0;
+    start.countDown();
+    while (done.getCount() > 0) {
+      sizing.decide(MIN, 0);
+      total += sizing.getLastBorrowCount();
+      double p95 = sizing.getLastP95WaitMillis();
+      // 每个窗口只含本窗口写入完成的样本，不会读到未写入的槽位
+      assertTrue(p95 == 0 || p95 == 5.0, "p95: " + p95);
+    }
+    assertTrue(done.await(30, TimeUnit.SECONDS));
+    sizing.decide(MIN, 0);
+    total += sizing.getLastBorrowCount();
+
+    // 每次借出恰好计入一个窗口
+    assertEquals((long) threads * borrowsPerThread, total);
+  }
+
+  /**
+   * 创建控制器，并以较长的等待时间把目标会话数增加到 target
+   */
+  private PoolSizingController grownTo(int target, long cooldown) {
+    PoolSizingController sizing = controller(cooldown);
+    while (sizing.getTarget() < target) {
+      borrow(sizing, 50, sizing.getTarget(), sizing.getTarget());
+      // 窗口结束时会话都已归还
+      sizing.decide(sizing.getTarget(), sizing.getTarget());
+    }
+    assertEquals(target, sizing.getTarget());
+    events.clear();
+    return sizing;
+  }
+
+  private PoolSizingController controller(long cooldown) {
+    return new PoolSizingController(MIN, MAX, INTERVAL, WAIT_THRESHOLD, 0.5, cooldown,
+        events::add);
+  }
+
+  private static void borrow(PoolSizingController sizing, long waitMillis, int inUse,
+      int liveCount) {
+    for (int i = 0; i < 10; i++) {
+      sizing.recordBorrow(TimeUnit.MILLISECONDS.toNanos(waitMillis), inUse, liveCount);
+    }
+  }
+}
@@ -0,0 +1,135 @@
+package org.nebula.contrib.ngbatis.session;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.vesoft.nebula.client.graph.NebulaPoolConfig;
+import com.vesoft.nebula.client.graph.net.Session;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.nebula.contrib.ngbatis.config.EnvConfig;
+
+/**
+ * 不重连（{@link EnvConfig#reconnect} 为 false）时：借出时 ping 不通的会话被释放，
+ * 借出池中其他可用的会话；没有后台任务，释放的会话不会被重新创建，池空时才新建。
+ */
+class ReconnectOffTest {
+
+  private boolean reconnect;
+  private final AtomicInteger opened = new AtomicInteger();
+  private final List<LocalSession> released = Collections.synchronizedList(new ArrayList<>());
+
+  @BeforeEach
+  void setUp() {
+    reconnect = EnvConfig.reconnect;
+    EnvConfig.reconnect = false;
+  }
+
+  @AfterEach
+  void tearDown() {
+    EnvConfig.reconnect = reconnect;
+  }
+
+  @Test
+  void intervalCheckDispatcher() throws Exception {
+    verify(new IntervalCheckSessionDispatcher(poolConfig(), new SessionValidator(), null,
+        factory()) {
+      @Override
+      protected void releaseInnerSession(LocalSession session) {
+        released.add(session);
+        super.releaseInnerSession(session);
+      }
+    });
+  }
+
+  @Test
+  void concurrentDispatcher() throws Exception {
+    verify(new ConcurrentSessionDispatcher(poolConfig(), new SessionValidator(), null,
+        factory()) {
+      @Override
+      protected void releaseInnerSession(LocalSession session) {
+        released.add(session);
+        super.releaseInnerSession(session);
+      }
+    });
+  }
+
+  @Test
+  void spaceAffineDispatcher() throws Exception {
+    verify(new SpaceAffineSessionDispatcher(poolConfig(), new SessionValidator(), null,
+        factory()) {
+      @Override
+      protected void releaseInnerSession(LocalSession session) {
+        released.add(session);
+        super.releaseInnerSession(session);
+      }
+    });
+  }
+
+  private void verify(AbstractSessionDispatcher dispatcher) throws Exception {
+    assertNull(dispatcher.threadPool);
+    LocalSession dead = session(false);
+    LocalSession alive = session(true);
+    // 放回的顺序使死会话先被取到：FIFO 的队列先放，LIFO 的栈后放
+    if (dispatcher instanceof IntervalCheckSessionDispatcher) {
+      dispatcher.offer(dead);
+      dispatcher.offer(alive);
+    } else {
+      dispatcher.offer(alive);
+      dispatcher.offer(dead);
+    }
+
+    assertSame(alive, dispatcher.poll());
+    assertEquals(Collections.singletonList(dead), released);
+    assertEquals(0, opened.get());
+
+    // 没有后台补足，释放的会话不会被重新创建
+    Thread.sleep(100);
+    assertEquals(0, opened.get());
+    assertEquals(0, dispatcher.getIdleCount());
+
+    // 池空时借出才新建
+    LocalSession created = dispatcher.poll();
+    assertEquals(1, opened.get());
+    dispatcher.offer(created);
+    dispatcher.offer(alive);
+    assertEquals(2, dispatcher.getIdleCount());
+    assertEquals(1, released.size());
+  }
+
+  private Supplier<LocalSession> factory() {
+    return () -> {
+      opened.incrementAndGet();
+      return session(true);
+    };
+  }
+
+  private static LocalSession session(boolean alive) {
+    Session session = mock(Session.class);
+    when(session.ping()).thenReturn(alive);
+    LocalSession localSession = new LocalSession(System.currentTimeMillis(), session);
+    // 超过 verified-ttl 未确认过可用，借出前需要 ping
+    localSession.setLastVerified(0);
+    return localSession;
+  }
+
+  private static NebulaPoolConfig poolConfig() {
+    return new NebulaPoolConfig()
+        .setMinConnSize(2)
+        .setMaxConnSize(8)
+        .setWaitTime(100);
+  }
+}
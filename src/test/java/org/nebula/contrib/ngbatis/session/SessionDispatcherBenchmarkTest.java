@@ -0,0 +1,129 @@
+package org.nebula.contrib.ngbatis.session;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.vesoft.nebula.client.graph.NebulaPoolConfig;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.nebula.contrib.ngbatis.SessionDispatcher;
+
+/**
+ * 会话调度器在 8/32/128 个请求线程下的借还竞争对比。
+ * 不连接数据库，只衡量调度器自身的借还开销；借还的正确性见 {@link SessionDispatcherContentionTest}。
+ * <p>默认构建中不执行，使用 {@code mvn test -Pbenchmark -Dtest=SessionDispatcherBenchmarkTest} 执行。</p>
+ */
+@Tag("benchmark")
+class SessionDispatcherBenchmarkTest {
+
+  private static final int POOL_SIZE = 64;
+  private static final int OPS_PER_THREAD = 20_000;
+
+  @Test
+  void contention() throws InterruptedException {
+    for (int threads : new int[]{8, 32, 128}) {
+      long interval = run("interval", threads, IntervalCheckDispatcherStub::new);
+      long concurrent = run("concurrent", threads, ConcurrentDispatcherStub::new);
+      System.out.printf(
+          "threads: %3d, interval: %6d ms, concurrent: %6d ms%n", threads, interval, concurrent);
+    }
+  }
+
+  private long run(String name, int threads,
+      Function<NebulaPoolConfig, SessionDispatcher> creator) throws InterruptedException {
+    NebulaPoolConfig poolConfig = new NebulaPoolConfig()
+        .setMinConnSize(0)
+        .setMaxConnSize(POOL_SIZE)
+        .setWaitTime(1000);
+    SessionDispatcher dispatcher = creator.apply(poolConfig);
+    for (int i = 0; i < POOL_SIZE; i++) {
+      dispatcher.offer(new LocalSession(System.currentTimeMillis(), null));
+    }
+
+    AtomicLong ops = new AtomicLong();
+    CountDownLatch start = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(threads);
+    for (int t = 0; t < threads; t++) {
+      Thread thread = new Thread(() -> {
+        try {
+          start.await();
+          for (int i = 0; i < OPS_PER_THREAD; i++) {
+            LocalSession session = dispatcher.poll();
+            dispatcher.offer(session);
+            ops.incrementAndGet();
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } finally {
+          done.countDown();
+        }
+      }, name + "-" + t);
+      thread.setDaemon(true);
+      thread.start();
+    }
+    long begin = System.nanoTime();
+    start.countDown();
+    done.await();
+    long costs = (System.nanoTime() - begin) / 1_000_000;
+    assertEquals((long) threads * OPS_PER_THREAD, ops.get());
+    return costs;
+  }
+
+  static class IntervalCheckDispatcherStub extends IntervalCheckSessionDispatcher {
+
+    IntervalCheckDispatcherStub(NebulaPoolConfig nebulaPoolConfig) {
+      super(nebulaPoolConfig);
+    }
+
+    @Override
+    protected void wakeUp() {
+      // 不启动定时检查
+    }
+
+    @Override
+    protected LocalSession newLocalSession() {
+      return new LocalSession(System.currentTimeMillis(), null);
+    }
+
+    @Override
+    protected void releaseInnerSession(LocalSession session) {
+    }
+
+    @Override
+    protected boolean isHealthy(LocalSession session) {
+      return true;
+    }
+  }
+
+  static class ConcurrentDispatcherStub extends ConcurrentSessionDispatcher {
+
+    ConcurrentDispatcherStub(NebulaPoolConfig nebulaPoolConfig) {
+      super(nebulaPoolConfig);
+    }
+
+    @Override
+    protected void wakeUp() {
+      // 不启动定时检查
+    }
+
+    @Override
+    protected LocalSession newLocalSession() {
+      return new LocalSession(System.currentTimeMillis(), null);
+    }
+
+    @Override
+    protected void releaseInnerSession(LocalSession session) {
+    }
+
+    @Override
+    protected boolean isHealthy(LocalSession session) {
+      return true;
+    }
+  }
+}
@@ -0,0 +1,180 @@
+package org.nebula.contrib.ngbatis.session;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.vesoft.nebula.client.graph.NebulaPoolConfig;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+/**
+ * 多个线程同时借还时，会话调度器不丢失会话、不把同一会话同时借给两个线程，
+ * 结束后空闲会话数与池中实际的会话一致；等待中被中断的借出同样计入借出统计。
+ * 不连接数据库，会话的创建与释放只计数。
+ */
+class SessionDispatcherContentionTest {
+
+  private static final int POOL_SIZE = 16;
+  private static final int THREADS = 64;
+  private static final int OPS_PER_THREAD = 2_000;
+
+  @Test
+  void intervalCheckDispatcher() throws InterruptedException {
+    Counter counter = new Counter();
+    contention(new IntervalCheckSessionDispatcher(poolConfig(), new SessionValidator(),
+        null, counter::create) {
+      @Override
+      protected void releaseInnerSession(LocalSession session) {
+        counter.released.incrementAndGet();
+      }
+
+      @Override
+      protected boolean isHealthy(LocalSession session) {
+        return true;
+      }
+    }, counter);
+  }
+
+  @Test
+  void concurrentDispatcher() throws InterruptedException {
+    Counter counter = new Counter();
+    contention(new ConcurrentSessionDispatcher(poolConfig(), new SessionValidator(),
+        null, counter::create) {
+      @Override
+      protected void releaseInnerSession(LocalSession session) {
+        counter.released.incrementAndGet();
+      }
+
+      @Override
+      protected boolean isHealthy(LocalSession session) {
+        return true;
+      }
+    }, counter);
+  }
+
+  @Test
+  void spaceAffineDispatcher() throws InterruptedException {
+    Counter counter = new Counter();
+    contention(new SpaceAffineSessionDispatcher(poolConfig(), new SessionValidator(),
+        null, counter::create) {
+      @Override
+      protected void releaseInnerSession(LocalSession session) {
+        counter.released.incrementAndGet();
+      }
+
+      @Override
+      protected boolean isHealthy(LocalSession session) {
+        return true;
+      }
+    }, counter);
+  }
+
+  @Test
+  void interruptedBorrowIsCounted() {
+    Counter counter = new Counter();
+    AtomicInteger borrows = new AtomicInteger();
+    IntervalCheckSessionDispatcher dispatcher = new IntervalCheckSessionDispatcher(poolConfig(),
+        new SessionValidator(), null, counter::create) {
+      @Override
+      protected void afterBorrow(LocalSession session, long startNanos) {
+        borrows.incrementAndGet();
+        super.afterBorrow(session, startNanos);
+      }
+    };
+    try {
+      // 池为空，借出时会等待；已被中断的线程在等待开始时即被打断
+      Thread.currentThread().interrupt();
+      LocalSession session = dispatcher.poll();
+
+      assertTrue(Thread.interrupted());
+      assertEquals(1, counter.created.get());
+      assertEquals(1, session.useCount);
+      assertEquals(1, borrows.get());
+    } finally {
+      dispatcher.shutdown();
+    }
+  }
+
+  private static void contention(AbstractSessionDispatcher dispatcher, Counter counter)
+      throws InterruptedException {
+    try {
+      Set<LocalSession> initial = new HashSet<>();
+      for (int i = 0; i < POOL_SIZE; i++) {
+        LocalSession session = new LocalSession(System.currentTimeMillis(), null);
+        initial.add(session);
+        dispatcher.offer(session);
+      }
+
+      Set<LocalSession> inUse = ConcurrentHashMap.newKeySet();
+      AtomicInteger duplicated = new AtomicInteger();
+      CountDownLatch start = new CountDownLatch(1);
+      CountDownLatch done = new CountDownLatch(THREADS);
+      for (int t = 0; t < THREADS; t++) {
+        Thread thread = new Thread(() -> {
+          try {
+            start.await();
+            for (int i = 0; i < OPS_PER_THREAD; i++) {
+              LocalSession session = dispatcher.poll();
+              if (!inUse.add(session)) {
+                duplicated.incrementAndGet();
+              }
+              Thread.yield();
+              inUse.remove(session);
+              dispatcher.offer(session);
+            }
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          } finally {
+            done.countDown();
+          }
+        }, "contention-" + t);
+        thread.setDaemon(true);
+        thread.start();
+      }
+      start.countDown();
+      assertTrue(done.await(60, TimeUnit.SECONDS));
+
+      assertEquals(0, duplicated.get());
+      assertEquals(0, counter.released.get());
+      int live = POOL_SIZE + counter.created.get();
+      assertEquals(live, dispatcher.getIdleCount());
+      Set<LocalSession> idle = new HashSet<>();
+      LocalSession session;
+      while ((session = dispatcher.pollIdleSession()) != null) {
+        assertTrue(idle.add(session));
+      }
+      assertEquals(live, idle.size());
+      assertTrue(idle.containsAll(initial));
+      assertEquals(0, dispatcher.getIdleCount());
+    } finally {
+      dispatcher.shutdown();
+    }
+  }
+
+  private static NebulaPoolConfig poolConfig() {
+    // 上限足够大，归还时不会因为池满而释放会话
+    return new NebulaPoolConfig()
+        .setMinConnSize(0)
+        .setMaxConnSize(POOL_SIZE + THREADS)
+        .setWaitTime(5_000);
+  }
+
+  static class Counter {
+    final AtomicInteger created = new AtomicInteger();
+    final AtomicInteger released = new AtomicInteger();
+
+    LocalSession create() {
+      created.incrementAndGet();
+      return new LocalSession(System.currentTimeMillis(), null);
+    }
+  }
+}
@@ -0,0 +1,78 @@
+package org.nebula.contrib.ngbatis.session;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+/**
+ * 并行创建会话时被中断：尚未开始的创建被取消，中断之后才创建完成的会话被释放，
+ * 调用线程的中断标记得以保留。
+ */
+class SessionValidatorTest {
+
+  private static final int THREADS = 2;
+  private static final int COUNT = 6;
+
+  @Test
+  void openReleasesSessionsCompletedAfterInterrupt() throws Exception {
+    SessionValidator validator = new SessionValidator(8, THREADS, false, 30_000L);
+    CountDownLatch running = new CountDownLatch(THREADS);
+    CountDownLatch gate = new CountDownLatch(1);
+    AtomicInteger created = new AtomicInteger();
+    List<LocalSession> released = Collections.synchronizedList(new ArrayList<>());
+    List<LocalSession> returned = new ArrayList<>();
+    AtomicBoolean interrupted = new AtomicBoolean();
+
+    Thread caller = new Thread(() -> {
+      returned.addAll(validator.open(COUNT, () -> {
+        running.countDown();
+        try {
+          gate.await();
+        } catch (InterruptedException e) {
+          throw new IllegalStateException(e);
+        }
+        created.incrementAndGet();
+        return new LocalSession(System.currentTimeMillis(), null);
+      }, released::add));
+      interrupted.set(Thread.currentThread().isInterrupted());
+    });
+    caller.start();
+    assertTrue(running.await(5, TimeUnit.SECONDS));
+    caller.interrupt();
+    caller.join(5_000);
+    gate.countDown();
+
+    long deadline = System.currentTimeMillis() + 5_000;
+    while (released.size() < THREADS && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertTrue(interrupted.get());
+    assertTrue(returned.isEmpty());
+    // 排队中的创建被取消，只有已经开始的创建完成，并且全部被释放
+    assertEquals(THREADS, created.get());
+    assertEquals(THREADS, released.size());
+  }
+
+  @Test
+  void openReturnsAllSessionsWithoutInterrupt() {
+    SessionValidator validator = new SessionValidator(8, THREADS, false, 30_000L);
+    List<LocalSession> released = new ArrayList<>();
+    List<LocalSession> sessions = validator.open(COUNT,
+        () -> new LocalSession(System.currentTimeMillis(), null), released::add);
+
+    assertEquals(COUNT, sessions.size());
+    assertTrue(released.isEmpty());
+  }
+}
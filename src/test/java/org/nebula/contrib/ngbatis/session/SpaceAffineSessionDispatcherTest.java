@@ -0,0 +1,162 @@
+package org.nebula.contrib.ngbatis.session;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import com.vesoft.nebula.client.graph.NebulaPoolConfig;
+import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.Test;
+
+/**
+ * 按 space 分组的会话调度器：优先借出已处于目标 space 的会话，
+ * 目标子池为空时从其他子池窃取，命中率只统计指定了 space 的借出，
+ * 等待超时后仍能取到等待期间放入子池的会话。
+ */
+class SpaceAffineSessionDispatcherTest {
+
+  @Test
+  void sessionInTargetSpaceIsPreferred() {
+    SpaceAffineSessionDispatcher dispatcher = dispatcher();
+    LocalSession a = session("a");
+    LocalSession b = session("b");
+    dispatcher.offer(b);
+    dispatcher.offer(a);
+
+    assertSame(b, dispatcher.poll("b"));
+    assertSame(a, dispatcher.poll("a"));
+    assertEquals(2, dispatcher.getHitCount());
+    assertEquals(0, dispatcher.getMissCount());
+    assertEquals(0, dispatcher.getIdleCount());
+  }
+
+  @Test
+  void sessionIsStolenFromOtherSpace() {
+    SpaceAffineSessionDispatcher dispatcher = dispatcher();
+    LocalSession b = session("b");
+    dispatcher.offer(b);
+
+    assertSame(b, dispatcher.poll("a"));
+    assertEquals(0, dispatcher.getHitCount());
+    assertEquals(1, dispatcher.getMissCount());
+    assertEquals(0, dispatcher.getIdleCount());
+  }
+
+  @Test
+  void pollWithoutSpaceIsNotCounted() {
+    SpaceAffineSessionDispatcher dispatcher = dispatcher();
+    dispatcher.offer(session("a"));
+    dispatcher.offer(session(null));
+
+    dispatcher.poll();
+    dispatcher.poll();
+    dispatcher.poll();
+    assertEquals(0, dispatcher.getHitCount());
+    assertEquals(0, dispatcher.getMissCount());
+    assertEquals(0.0, dispatcher.getHitRate(), 1e-9);
+  }
+
+  @Test
+  void hitRate() {
+    SpaceAffineSessionDispatcher dispatcher = dispatcher();
+    for (int i = 0; i < 3; i++) {
+      dispatcher.offer(session("a"));
+    }
+    dispatcher.offer(session("b"));
+
+    dispatcher.poll("a");
+    dispatcher.poll("a");
+    dispatcher.poll("a");
+    // 子池已空，窃取 b 的会话
+    dispatcher.poll("a");
+    // 池已空，新建会话
+    dispatcher.poll("b");
+    dispatcher.poll();
+
+    assertEquals(3, dispatcher.getHitCount());
+    assertEquals(2, dispatcher.getMissCount());
+    assertEquals(0.6, dispatcher.getHitRate(), 1e-9);
+  }
+
+  @Test
+  void waiterFindsSessionPushedToSubPoolAfterItRegistered() throws Exception {
+    AtomicInteger created = new AtomicInteger();
+    SpaceAffineSessionDispatcher dispatcher = dispatcher(100, () -> {
+      created.incrementAndGet();
+      return new LocalSession(System.currentTimeMillis(), null);
+    });
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<LocalSession> borrowed = executor.submit(() -> dispatcher.poll("a"));
+      LinkedTransferQueue<LocalSession> handoff = field(dispatcher, "handoff");
+      while (!handoff.hasWaitingConsumer()) {
+        Thread.yield();
+      }
+      // 模拟归还线程：判断时尚无等待者，随后才把会话放入子池
+      LocalSession session = session("b");
+      AtomicInteger idleCount = field(dispatcher, "idleCount");
+      idleCount.incrementAndGet();
+      Map<String, ConcurrentLinkedDeque<LocalSession>> subPools = field(dispatcher, "subPools");
+      subPools.computeIfAbsent("b", k -> new ConcurrentLinkedDeque<>()).offerFirst(session);
+
+      assertSame(session, borrowed.get(5, TimeUnit.SECONDS));
+      assertEquals(0, created.get());
+      assertEquals(1, dispatcher.getMissCount());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static LocalSession session(String space) {
+    LocalSession session = new LocalSession(System.currentTimeMillis(), null);
+    session.setCurrentSpace(space);
+    return session;
+  }
+
+  private static SpaceAffineSessionDispatcher dispatcher() {
+    return dispatcher(0, () -> new LocalSession(System.currentTimeMillis(), null));
+  }
+
+  private static SpaceAffineSessionDispatcher dispatcher(int waitTime,
+      Supplier<LocalSession> sessionFactory) {
+    NebulaPoolConfig poolConfig = new NebulaPoolConfig()
+        .setMinConnSize(0)
+        .setMaxConnSize(8)
+        .setWaitTime(waitTime);
+    return new SpaceAffineSessionDispatcher(poolConfig, new SessionValidator(), null,
+        sessionFactory) {
+      @Override
+      protected void wakeUp() {
+        // 不启动定时检查，它会把子池中的会话重新放回溢出队列，干扰用例中的时序
+      }
+
+      @Override
+      protected void releaseInnerSession(LocalSession session) {
+      }
+
+      @Override
+      protected boolean isHealthy(LocalSession session) {
+        return true;
+      }
+    };
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T field(Object target, String name) throws Exception {
+    Field field = SpaceAffineSessionDispatcher.class.getDeclaredField(name);
+    field.setAccessible(true);
+    return (T) field.get(target);
+  }
+}
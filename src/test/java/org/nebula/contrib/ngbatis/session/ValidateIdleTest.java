@@ -0,0 +1,139 @@
+package org.nebula.contrib.ngbatis.session;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.vesoft.nebula.client.graph.NebulaPoolConfig;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+/**
+ * 定时检查每次只取出一小批空闲会话：检查期间其余会话仍在池中，
+ * 放回的健康会话不会在同一轮中被重复检查，LIFO 调度器栈底的过期会话也能被释放。
+ */
+class ValidateIdleTest {
+
+  private static final int SESSIONS = 8;
+  private static final int BATCH_SIZE = 3;
+
+  @Test
+  void concurrentDispatcher() {
+    Probe probe = new Probe();
+    validate(new ConcurrentSessionDispatcher(poolConfig(), validator()) {
+      @Override
+      protected void wakeUp() {
+        // 不启动定时检查，否则定时的 validateIdle 会与用例中的同时执行
+      }
+
+      @Override
+      protected void releaseInnerSession(LocalSession session) {
+        probe.released.add(session);
+      }
+
+      @Override
+      protected boolean isHealthy(LocalSession session) {
+        return probe.check(session, getIdleCount());
+      }
+    }, probe);
+  }
+
+  @Test
+  void spaceAffineDispatcher() {
+    Probe probe = new Probe();
+    validate(new SpaceAffineSessionDispatcher(poolConfig(), validator()) {
+      @Override
+      protected void wakeUp() {
+        // 不启动定时检查，否则定时的 validateIdle 会与用例中的同时执行
+      }
+
+      @Override
+      protected void releaseInnerSession(LocalSession session) {
+        probe.released.add(session);
+      }
+
+      @Override
+      protected boolean isHealthy(LocalSession session) {
+        return probe.check(session, getIdleCount());
+      }
+    }, probe);
+  }
+
+  @Test
+  void intervalCheckDispatcher() {
+    Probe probe = new Probe();
+    validate(new IntervalCheckSessionDispatcher(poolConfig(), validator()) {
+      @Override
+      protected void wakeUp() {
+        // 不启动定时检查，否则定时的 validateIdle 会与用例中的同时执行
+      }
+
+      @Override
+      protected void releaseInnerSession(LocalSession session) {
+        probe.released.add(session);
+      }
+
+      @Override
+      protected boolean isHealthy(LocalSession session) {
+        return probe.check(session, getIdleCount());
+      }
+    }, probe);
+  }
+
+  private static void validate(AbstractSessionDispatcher dispatcher, Probe probe) {
+    List<LocalSession> healthy = new ArrayList<>();
+    for (int i = 0; i < SESSIONS; i++) {
+      LocalSession session = new LocalSession(System.currentTimeMillis(), null);
+      // 先放入的过期会话位于栈底
+      if (i < SESSIONS / 2) {
+        probe.stale.add(session);
+      } else {
+        healthy.add(session);
+      }
+      dispatcher.offer(session);
+    }
+
+    dispatcher.validateIdle();
+
+    assertEquals(SESSIONS, probe.checked.size());
+    assertEquals(SESSIONS, new HashSet<>(probe.checked).size());
+    assertEquals(probe.stale, new HashSet<>(probe.released));
+    assertTrue(probe.minPooled >= SESSIONS - BATCH_SIZE,
+        "at most one batch is taken out of the pool, min pooled: " + probe.minPooled);
+    assertEquals(SESSIONS / 2, dispatcher.getIdleCount());
+    for (int i = 0; i < SESSIONS / 2; i++) {
+      assertTrue(healthy.contains(dispatcher.pollIdleSession()));
+    }
+  }
+
+  private static NebulaPoolConfig poolConfig() {
+    return new NebulaPoolConfig().setMinConnSize(0).setMaxConnSize(SESSIONS);
+  }
+
+  private static SessionValidator validator() {
+    return new SessionValidator(BATCH_SIZE, 2, false, 30_000L);
+  }
+
+  static class Probe {
+    final Set<LocalSession> stale = new HashSet<>();
+    final List<LocalSession> checked = Collections.synchronizedList(new ArrayList<>());
+    final List<LocalSession> released = Collections.synchronizedList(new ArrayList<>());
+    /**
+     * 检查期间仍在池中（空闲或已因过期被释放）的会话数的最小值
+     */
+    volatile int minPooled = Integer.MAX_VALUE;
+
+    synchronized boolean check(LocalSession session, int idle) {
+      checked.add(session);
+      minPooled = Math.min(minPooled, idle + released.size());
+      return !stale.contains(session);
+    }
+  }
+}
@@ -0,0 +1,147 @@
+package org.nebula.contrib.ngbatis.session;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import com.vesoft.nebula.client.graph.NebulaPoolConfig;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.nebula.contrib.ngbatis.Env;
+import org.nebula.contrib.ngbatis.SessionDispatcher;
+import org.nebula.contrib.ngbatis.proxy.RamClassLoader;
+
+/**
+ * 虚拟线程下的借还压测，借助 JFR 的 jdk.VirtualThreadPinned 事件确认等待会话时没有占住载体线程。
+ * 虚拟线程与 JFR 都通过反射访问，源码仍按 Java 8 编译，运行时低于 JDK 21 则跳过。
+ */
+class VirtualThreadPinningTest {
+
+  private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+  private static final int POOL_SIZE = 4;
+  private static final int TASKS = 200;
+  private static final int OPS_PER_TASK = 20;
+
+  @Test
+  void noPinningWhileWaitingForSession() throws Exception {
+    ExecutorService executor = virtualThreadExecutor();
+    assumeTrue(executor != null, "Virtual threads need JDK 21+");
+
+    NebulaPoolConfig poolConfig = new NebulaPoolConfig()
+        .setMinConnSize(0)
+        .setMaxConnSize(POOL_SIZE)
+        .setWaitTime(10_000);
+    SessionDispatcher dispatcher = new DispatcherStub(poolConfig);
+    for (int i = 0; i < POOL_SIZE; i++) {
+      dispatcher.offer(new LocalSession(System.currentTimeMillis(), null));
+    }
+    Env.classLoader = getClass().getClassLoader();
+    RamClassLoader classLoader = new RamClassLoader(Collections.emptyMap());
+
+    Object recording = startRecording();
+    List<Future<?>> results = new ArrayList<>(TASKS);
+    for (int t = 0; t < TASKS; t++) {
+      results.add(executor.submit(() -> {
+        for (int i = 0; i < OPS_PER_TASK; i++) {
+          LocalSession session = dispatcher.poll();
+          try {
+            classLoader.loadClass(LocalSession.class.getName());
+            Thread.sleep(1);
+          } finally {
+            dispatcher.offer(session);
+          }
+        }
+        return null;
+      }));
+    }
+    for (Future<?> result : results) {
+      result.get(1, TimeUnit.MINUTES);
+    }
+    executor.shutdown();
+
+    assertEquals(0L, stopAndCount(recording, PINNED_EVENT), "Pinned virtual threads");
+  }
+
+  private static ExecutorService virtualThreadExecutor() {
+    try {
+      Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) factory.invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return null;
+    }
+  }
+
+  private static Object startRecording() throws Exception {
+    Class<?> recordingType = Class.forName("jdk.jfr.Recording");
+    Object recording = recordingType.getConstructor().newInstance();
+    Object settings = recordingType.getMethod("enable", String.class)
+        .invoke(recording, PINNED_EVENT);
+    Class.forName("jdk.jfr.EventSettings").getMethod("withThreshold", Duration.class)
+        .invoke(settings, Duration.ZERO);
+    recordingType.getMethod("start").invoke(recording);
+    return recording;
+  }
+
+  private static long stopAndCount(Object recording, String eventName) throws Exception {
+    Class<?> recordingType = recording.getClass();
+    recordingType.getMethod("stop").invoke(recording);
+    Path file = Files.createTempFile("ngbatis-pinning", ".jfr");
+    try {
+      recordingType.getMethod("dump", Path.class).invoke(recording, file);
+      List<?> events = (List<?>) Class.forName("jdk.jfr.consumer.RecordingFile")
+          .getMethod("readAllEvents", Path.class).invoke(null, file);
+      Method getEventType = Class.forName("jdk.jfr.consumer.RecordedEvent")
+          .getMethod("getEventType");
+      Method getName = Class.forName("jdk.jfr.EventType").getMethod("getName");
+      long count = 0;
+      for (Object event : events) {
+        if (eventName.equals(getName.invoke(getEventType.invoke(event)))) {
+          count++;
+        }
+      }
+      return count;
+    } finally {
+      recordingType.getMethod("close").invoke(recording);
+      Files.deleteIfExists(file);
+    }
+  }
+
+  static class DispatcherStub extends IntervalCheckSessionDispatcher {
+
+    DispatcherStub(NebulaPoolConfig nebulaPoolConfig) {
+      super(nebulaPoolConfig);
+    }
+
+    @Override
+    protected void wakeUp() {
+      // 不启动定时检查
+    }
+
+    @Override
+    protected LocalSession newLocalSession() {
+      return new LocalSession(System.currentTimeMillis(), null);
+    }
+
+    @Override
+    protected void releaseInnerSession(LocalSession session) {
+    }
+
+    @Override
+    protected boolean isHealthy(LocalSession session) {
+      return true;
+    }
+  }
+}
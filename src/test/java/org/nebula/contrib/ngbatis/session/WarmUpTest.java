@@ -0,0 +1,199 @@
+package org.nebula.contrib.ngbatis.session;
+
+// Copyright (c) 2022 All project authors. All rights reserved.
+//
+// This source code is licensed under Apache 2.0 License.
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.vesoft.nebula.client.graph.NebulaPoolConfig;
+import com.vesoft.nebula.client.graph.data.ResultSet;
+import com.vesoft.nebula.client.graph.net.Session;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.Test;
+import org.nebula.contrib.ngbatis.config.EnvConfig;
+
+/**
+ * 启动预热：并行创建 minConnSize 个会话并轮流绑定到各 space，预热后池中即有这些空闲会话；
+ * 预热前已有的未绑定空闲会话同样绑定，定时检查在 start 之后才开始；
+ * 不重连时同样预热，重复预热不会多建会话，绑定失败的会话仍放入池中。
+ * 会话为 mock，USE 语句总是成功或总是失败。
+ */
+class WarmUpTest {
+
+  private static final int MIN_IDLE = 4;
+  private static final List<String> SPACES = Arrays.asList("a", "b");
+
+  private final AtomicInteger opened = new AtomicInteger();
+
+  @Test
+  void minIdleSessionsAreReadyAfterWarmUp() throws Exception {
+    AbstractSessionDispatcher dispatcher = dispatcher(factory(true));
+    dispatcher.warmUp(SPACES);
+
+    assertEquals(MIN_IDLE, opened.get());
+    assertEquals(MIN_IDLE, dispatcher.getIdleCount());
+    assertEquals(MIN_IDLE, dispatcher.getLiveCount());
+    Map<String, Integer> bySpace = new HashMap<>();
+    for (int i = 0; i < MIN_IDLE; i++) {
+      LocalSession session = dispatcher.pollIdleSession();
+      assertTrue(session.getLastVerified() > 0);
+      bySpace.merge(session.getCurrentSpace(), 1, Integer::sum);
+    }
+    assertEquals(2, bySpace.get("a"));
+    assertEquals(2, bySpace.get("b"));
+
+    // 已经补足时不再创建
+    for (int i = 0; i < MIN_IDLE; i++) {
+      LocalSession session = new LocalSession(System.currentTimeMillis(), null);
+      session.setCurrentSpace("a");
+      dispatcher.offer(session);
+    }
+    dispatcher.warmUp(SPACES);
+    assertEquals(MIN_IDLE, opened.get());
+  }
+
+  @Test
+  void idleSessionsAtWarmUpAreBoundToo() throws Exception {
+    Supplier<LocalSession> factory = factory(true);
+    AbstractSessionDispatcher dispatcher = dispatcher(factory);
+    // 预热之前已有未绑定 space 的空闲会话，例如被提前借出又归还的
+    dispatcher.offer(factory.get());
+    dispatcher.offer(factory.get());
+    dispatcher.warmUp(SPACES);
+
+    assertEquals(MIN_IDLE, opened.get());
+    assertEquals(MIN_IDLE, dispatcher.getIdleCount());
+    Map<String, Integer> bySpace = new HashMap<>();
+    for (int i = 0; i < MIN_IDLE; i++) {
+      bySpace.merge(dispatcher.pollIdleSession().getCurrentSpace(), 1, Integer::sum);
+    }
+    assertEquals(2, bySpace.get("a"));
+    assertEquals(2, bySpace.get("b"));
+  }
+
+  @Test
+  void periodicCheckStartsOnlyOnStart() throws Exception {
+    AtomicInteger wakeUps = new AtomicInteger();
+    AbstractSessionDispatcher dispatcher = new ConcurrentSessionDispatcher(poolConfig(),
+        new SessionValidator(), null, factory(true)) {
+      @Override
+      protected void wakeUp() {
+        wakeUps.incrementAndGet();
+      }
+    };
+    // 构造时不安排定时检查，预热前不会有定时补足抢先创建未绑定的会话
+    assertEquals(0, wakeUps.get());
+
+    dispatcher.warmUp(SPACES);
+    dispatcher.start();
+    dispatcher.start();
+    assertEquals(1, wakeUps.get());
+  }
+
+  @Test
+  void spaceAffineDispatcherFilesSessionsBySpace() throws Exception {
+    SpaceAffineSessionDispatcher dispatcher = new SpaceAffineSessionDispatcher(poolConfig(),
+        new SessionValidator(), null, factory(true)) {
+      @Override
+      protected void wakeUp() {
+      }
+
+      @Override
+      protected boolean isHealthy(LocalSession session) {
+        return true;
+      }
+    };
+    dispatcher.warmUp(SPACES);
+
+    assertEquals(MIN_IDLE, dispatcher.getIdleCount());
+    assertEquals("a", dispatcher.poll("a").getCurrentSpace());
+    assertEquals("b", dispatcher.poll("b").getCurrentSpace());
+    assertEquals("a", dispatcher.poll("a").getCurrentSpace());
+    assertEquals(3, dispatcher.getHitCount());
+    assertEquals(0, dispatcher.getMissCount());
+  }
+
+  @Test
+  void warmUpAlsoWhenReconnectIsOff() throws Exception {
+    boolean reconnect = EnvConfig.reconnect;
+    EnvConfig.reconnect = false;
+    try {
+      AbstractSessionDispatcher dispatcher = dispatcher(factory(true));
+      dispatcher.warmUp(Collections.emptyList());
+
+      assertEquals(MIN_IDLE, dispatcher.getIdleCount());
+      // 借出的是预热的会话，而不是新建的
+      dispatcher.poll();
+      assertEquals(MIN_IDLE, opened.get());
+      assertEquals(MIN_IDLE - 1, dispatcher.getIdleCount());
+    } finally {
+      EnvConfig.reconnect = reconnect;
+    }
+  }
+
+  @Test
+  void sessionIsPooledEvenIfUseFails() throws Exception {
+    AbstractSessionDispatcher dispatcher = dispatcher(factory(false));
+    dispatcher.warmUp(SPACES);
+
+    assertEquals(MIN_IDLE, dispatcher.getIdleCount());
+    List<LocalSession> sessions = new ArrayList<>();
+    for (int i = 0; i < MIN_IDLE; i++) {
+      sessions.add(dispatcher.pollIdleSession());
+    }
+    for (LocalSession session : sessions) {
+      assertNull(session.getCurrentSpace());
+    }
+  }
+
+  private static AbstractSessionDispatcher dispatcher(Supplier<LocalSession> sessionFactory) {
+    return new ConcurrentSessionDispatcher(poolConfig(), new SessionValidator(), null,
+        sessionFactory) {
+      @Override
+      protected void wakeUp() {
+        // 不启动定时检查，只验证预热本身
+      }
+
+      @Override
+      protected boolean isHealthy(LocalSession session) {
+        return true;
+      }
+    };
+  }
+
+  private Supplier<LocalSession> factory(boolean useSucceeds) throws Exception {
+    ResultSet result = mock(ResultSet.class);
+    when(result.isSucceeded()).thenReturn(useSucceeds);
+    when(result.getErrorMessage()).thenReturn("SpaceNotFound");
+    return () -> {
+      opened.incrementAndGet();
+      Session session = mock(Session.class);
+      try {
+        when(session.execute(anyString())).thenReturn(result);
+      } catch (Exception e) {
+        throw new IllegalStateException(e);
+      }
+      return new LocalSession(System.currentTimeMillis(), session);
+    };
+  }
+
+  private static NebulaPoolConfig poolConfig() {
+    return new NebulaPoolConfig()
+        .setMinConnSize(MIN_IDLE)
+        .setMaxConnSize(MIN_IDLE * 2)
+        .setWaitTime(0);
+  }
+}